@@ -7,11 +7,11 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.JMSException;
 import javax.xml.parsers.ParserConfigurationException;
@@ -71,7 +71,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	private int offerDelay;
 	private int timeoutCheckInterval;
 	private boolean sweepWorkDir;
-	private int maxJobs;
+	private ResourceBudget resourceBudget;
 	
 	/**
 	 * Id of the analyser server instance.
@@ -94,19 +94,31 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	private MessagingTopic managerTopic;
 	
 	private FileBrokerClient fileBroker;
+	private InputStager inputStager;
+	private OutputPublisher outputPublisher;
 	
 	/**
 	 * Java utility for multithreading.
 	 */
 	private ExecutorService executorService;
 	
+	/**
+	 * Single thread for delayed offers and timeout checks.
+	 */
+	private ScheduledExecutorService schedulingExecutor;
+	
+	/**
+	 * Single thread for sending replies, so that callers holding jobsLock
+	 * don't wait for the broker and the replies are sent in order.
+	 */
+	private ExecutorService replyExecutor;
+	
 
 	// synchronize with this object when accessing the job maps below
 	private Object jobsLock = new Object(); 
-	private LinkedHashMap<String, AnalysisJob> receivedJobs = new LinkedHashMap<String, AnalysisJob>();
+	private JobScheduler jobScheduler; // received jobs
 	private LinkedHashMap<String, AnalysisJob> scheduledJobs = new LinkedHashMap<String, AnalysisJob>();
 	private LinkedHashMap<String, AnalysisJob> runningJobs = new LinkedHashMap<String, AnalysisJob>();
-	private Timer timeoutTimer;
 	private String localFilebrokerPath;
 	private String overridingFilebrokerIp;
 	
@@ -128,9 +140,13 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 		this.offerDelay = configuration.getInt("comp", "offer-delay");
 		this.timeoutCheckInterval = configuration.getInt("comp", "timeout-check-interval");
 		this.sweepWorkDir= configuration.getBoolean("comp", "sweep-work-dir");
-		this.maxJobs = configuration.getInt("comp", "max-jobs");
+		this.resourceBudget = new ResourceBudget(configuration.getInt("comp", "max-jobs"), 
+				configuration.getInt("comp", "max-cores"), 
+				configuration.getInt("comp", "max-memory"), 
+				configuration.getBoolean("comp", "check-system-load"));
 		this.localFilebrokerPath = nullIfEmpty(configuration.getString("comp", "local-filebroker-user-data-path"));
 		this.overridingFilebrokerIp = nullIfEmpty(configuration.getString("comp", "overriding-filebroker-ip"));				
+		this.jobScheduler = (JobScheduler)Class.forName(configuration.getString("comp", "job-scheduler")).newInstance();
 		
 		logger = Logger.getLogger(AnalyserServer.class);
 		loggerJobs = Logger.getLogger("jobs");
@@ -147,9 +163,11 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 		// initialize analysis tools
 		this.toolRepository = new ToolRepository(this.workDir);
 					
-		// initialize timeout checker
-		timeoutTimer = new Timer(true);
-		timeoutTimer.schedule(new TimeoutTimerTask(), timeoutCheckInterval, timeoutCheckInterval);
+		// initialize scheduling thread and timeout checker
+		this.schedulingExecutor = Executors.newSingleThreadScheduledExecutor();
+		schedulingExecutor.scheduleWithFixedDelay(new TimeoutChecker(), timeoutCheckInterval, timeoutCheckInterval, TimeUnit.MILLISECONDS);
+		
+		this.replyExecutor = Executors.newSingleThreadExecutor();
 		
 		
 		// initialize communications
@@ -164,6 +182,9 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 		filebrokerAdminTopic.setListener(new CompAdminMessageListener());
 		
 		fileBroker = new JMSFileBrokerClient(this.endpoint.createTopic(Topics.Name.AUTHORISED_FILEBROKER_TOPIC, AccessMode.WRITE), this.localFilebrokerPath, this.overridingFilebrokerIp);
+		inputStager = new InputStager(configuration.getInt("comp", "input-transfer-threads"), 
+				configuration.getInt("comp", "input-transfer-bandwidth-limit") * 1024l * 1024l, createInputCache(configuration));
+		outputPublisher = new OutputPublisher(configuration.getInt("comp", "output-transfer-threads"));
 		
 		// create keep-alive thread and register shutdown hook
 		KeepAliveShutdownHandler.init(this);
@@ -248,15 +269,10 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 				else {
 					logger.debug("Removing scheduled job " + jobId);
 					synchronized(jobsLock) {
-						AnalysisJob jobToBeForgotten = receivedJobs.remove(jobId);
+						AnalysisJob jobToBeForgotten = jobScheduler.removeJob(jobId);
 						
-						// job was in the receivedQueue
-						if (jobToBeForgotten != null) {
-							receivedJobs.remove(jobToBeForgotten);
-						} 
-						
-						// job was scheduled
-						else {
+						// job was scheduled, if it wasn't waiting in the scheduler
+						if (jobToBeForgotten == null) {
 							scheduledJobs.remove(jobId);
 							activeJobRemoved();
 						}
@@ -313,8 +329,8 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	private void cancelJob(String jobId, boolean reportToClient) {
 		AnalysisJob job;
 		synchronized(jobsLock) {
-			if (receivedJobs.containsKey(jobId)) {
-				job = receivedJobs.remove(jobId);
+			if (jobScheduler.getJob(jobId) != null) {
+				job = jobScheduler.removeJob(jobId);
 			} else if (scheduledJobs.containsKey(jobId)) {
 				job = scheduledJobs.remove(jobId);
 			} else {
@@ -369,7 +385,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	private void checkStopGracefully() {
 		if (stopGracefully) {
 			synchronized(jobsLock) {
-				if (this.receivedJobs.size() == 0 && this.scheduledJobs.size() == 0 && this.runningJobs.size() == 0) {
+				if (this.jobScheduler.size() == 0 && this.scheduledJobs.size() == 0 && this.runningJobs.size() == 0) {
 					shutdown();
 					System.exit(0);
 				}
@@ -415,6 +431,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 				job.getResultMessage().getOutputText(),
 				job.getInputMessage().getUsername(),
 				hostname);
+		jobLogMessage.setQueueTime(job.getQueueTime());
 		
 		return jobLogMessage;
 	}
@@ -441,14 +458,46 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 		return this.fileBroker;
 	}
 	
+	/**
+	 * @return input cache or null if it's disabled 
+	 */
+	private InputCache createInputCache(Configuration configuration) {
+		long cacheSize = configuration.getInt("comp", "input-cache-size") * 1024l * 1024l;
+		if (cacheSize <= 0) {
+			return null;
+		}
+		if (localFilebrokerPath != null) {
+			// input files are linked from the local file broker already
+			logger.info("input cache not used, because local file broker is used");
+			return null;
+		}
+
+		String cachePath = nullIfEmpty(configuration.getString("comp", "input-cache-path"));
+		File cacheDir = cachePath != null ? new File(cachePath) : new File(workDir.getParentFile(), "input-cache");
+		try {
+			return new InputCache(cacheDir, cacheSize);
+		} catch (IOException e) {
+			logger.warn("input cache disabled", e);
+			return null;
+		}
+	}
+
+	public InputStager getInputStager() {
+		return this.inputStager;
+	}
+	
+	public OutputPublisher getOutputPublisher() {
+		return this.outputPublisher;
+	}
+	
 	
 	/**
-	 * Sends the message in new thread.
+	 * Sends the message in the reply thread.
 	 * @param original
 	 * @param reply
 	 */
 	private void sendReplyMessage(final ChipsterMessage original, final ChipsterMessage reply) {
-		new Thread(new Runnable() {
+		replyExecutor.execute(new Runnable() {
 			public void run() {
 				try {
 					endpoint.replyToMessage(original, reply);
@@ -458,18 +507,53 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 					//logger.error("Could not send message.", e);
 				}
 			}
-		}).start();
+		});
 	}
 
 
 	private void activeJobRemoved() {
 		synchronized (jobsLock) {
-			if (!receivedJobs.isEmpty() && ((runningJobs.size() + scheduledJobs.size() < maxJobs))) {
-				AnalysisJob job = receivedJobs.values().iterator().next();
-				receivedJobs.remove(job.getId());
+			scheduleWaitingJobs();
+			this.updateStatus();
+		}
+	}
+	
+	/**
+	 * Schedule waiting jobs as long as the scheduler finds jobs that fit in the 
+	 * free resources. 
+	 */
+	private void scheduleWaitingJobs() {
+		synchronized (jobsLock) {
+			while (true) {
+				AnalysisJob job = jobScheduler.pollNextJob(getActiveJobs(), resourceBudget);
+				if (job == null) {
+					break;
+				}
 				scheduleJob(job);
 			}
-			this.updateStatus();
+		}
+	}
+	
+	private ArrayList<AnalysisJob> getActiveJobs() {
+		synchronized (jobsLock) {
+			ArrayList<AnalysisJob> activeJobs = new ArrayList<AnalysisJob>();
+			activeJobs.addAll(scheduledJobs.values());
+			activeJobs.addAll(runningJobs.values());
+			return activeJobs;
+		}
+	}
+	
+	/**
+	 * @return human readable reason why the job is still waiting 
+	 */
+	private String getQueueReason(AnalysisJob job) {
+		synchronized (jobsLock) {
+			String reason = resourceBudget.getQueueReason(job, getActiveJobs());
+			if (reason == null) {
+				// fits, but other jobs are before it
+				reason = "waiting for " + (jobScheduler.size() - 1) + " earlier jobs";
+			}
+			return reason;
 		}
 	}
 	
@@ -522,21 +606,20 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 		synchronized(jobsLock) {
 			job.setReceiveTime(new Date());
 			
-			
-			// could run it now
-			if (runningJobs.size() + scheduledJobs.size() < maxJobs) {
-				scheduleJob(job);
-			}
+			// let the scheduler decide if it can be run now
+			jobScheduler.addJob(job);
+			scheduleWaitingJobs();
 			
 			// run later
-			else {
+			if (jobScheduler.getJob(job.getId()) != null) {
 				
-				receivedJobs.put(job.getId(), job);
 				// try to send the ack message
 				try {
-					sendAckMessage(job);
+					String queueReason = getQueueReason(job);
+					logger.debug("job " + job.getId() + " queued: " + queueReason);
+					sendAckMessage(job, queueReason);
 				} catch (Exception e) {
-					receivedJobs.remove(job.getId());
+					jobScheduler.removeJob(job.getId());
 					logger.error("Could not send ACK for job " + job.getId());
 				}
 			}
@@ -555,8 +638,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 			// prioritising comp instances 
 			int delay = offerDelay * (runningJobs.size() + scheduledJobs.size()-1);
 			if (delay > 0 ) {
-				Timer timer = new Timer("offer-delay-timer", true);
-				timer.schedule(new TimerTask() {
+				schedulingExecutor.schedule(new Runnable() {
 
 					@Override
 					public void run() {
@@ -571,7 +653,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 						updateStatus();
 					}
 
-				}, delay);
+				}, delay, TimeUnit.MILLISECONDS);
 			} else {
 				sendOfferMessage(job);
 			}
@@ -587,11 +669,12 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	
 	
 	
-	private void sendAckMessage(AnalysisJob job) throws JMSException {
+	private void sendAckMessage(AnalysisJob job, String queueReason) throws JMSException {
 		// create ack message
 		CommandMessage offerMessage = new CommandMessage(CommandMessage.COMMAND_ACK);
 		offerMessage.addNamedParameter(ParameterMessage.PARAMETER_AS_ID, this.id);
 		offerMessage.addNamedParameter(ParameterMessage.PARAMETER_JOB_ID, job.getId());
+		offerMessage.addNamedParameter(ParameterMessage.PARAMETER_QUEUE_REASON, queueReason);
 
 		// try to send the message
 		sendReplyMessage(job.getInputMessage(), offerMessage);
@@ -633,14 +716,14 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	
 	private void updateStatus() {
 		synchronized(jobsLock) {
-			loggerStatus.info("received jobs: " + receivedJobs.size() + 
+			loggerStatus.info("received jobs: " + jobScheduler.size() + 
 					", scheduled jobs: " + scheduledJobs.size() + 
 					", running jobs: " + runningJobs.size());
 		}
 	}
 	
 	/**
-	 * The order of the jobs in the receivedJobs and scheduledJobs is FIFO. Because of synchronizations 
+	 * The order of the jobs in the scheduledJobs is FIFO. Because of synchronizations 
 	 * this does not necessarily strictly correspond to the receiveTime and scheduleTime fields of the
 	 * jobs, but is close enough.
 	 * 
@@ -650,7 +733,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	 * TODO send BUSY if timeout?
 	 * 
 	 */
-	private class TimeoutTimerTask extends TimerTask {
+	private class TimeoutChecker implements Runnable {
 		
 		@Override
 		public void run() {
@@ -673,7 +756,12 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 					scheduledJobs.remove(job.getId());
 					logger.debug("Removing old scheduled job: " + job.getId());
 					activeJobRemoved();
-					logger.debug("Jobs received: " + receivedJobs.size() + ", scheduled: " + scheduledJobs.size() + ", running: " + runningJobs.size());
+					logger.debug("Jobs received: " + jobScheduler.size() + ", scheduled: " + scheduledJobs.size() + ", running: " + runningJobs.size());
+				}
+				
+				// sampled load and memory of the host change also when no job finishes
+				if (jobScheduler.size() > 0) {
+					scheduleWaitingJobs();
 				}
 			}
 		}
@@ -684,6 +772,9 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 	 */
 	public void shutdown() {
 		logger.info("shutdown requested");
+		
+		schedulingExecutor.shutdownNow();
+		replyExecutor.shutdown();
 
 		// close messaging endpoint
 		try {
@@ -711,11 +802,17 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 					if (stopGracefully) {
 						reply.setStatus("Stopping gracefully...");
 					}
-					reply.setReceivedJobs(receivedJobs.size());
-					reply.setScheduledJobs(scheduledJobs.size());
-					reply.setRunningJobs(runningJobs.size());
+					synchronized (jobsLock) {
+						reply.setReceivedJobs(jobScheduler.size());
+						reply.setScheduledJobs(scheduledJobs.size());
+						reply.setRunningJobs(runningJobs.size());
+					}
 					reply.setHost(getHost());
-					reply.setHostId(id);									
+					reply.setHostId(id);
+					if (inputStager.getInputCache() != null) {
+						reply.setInputCacheStatistics(inputStager.getInputCache().getStatistics());
+					}
+					reply.setProcessPoolStatistics(toolRepository.getProcessPoolStatistics());
 
 					endpoint.replyToMessage(requestMessage, reply);
 				}
@@ -728,7 +825,7 @@ public class AnalyserServer extends MonitoredNodeBase implements MessagingListen
 					synchronized (jobsLock) {
 						
 						ArrayList<AnalysisJob> allJobs = new ArrayList<AnalysisJob>();
-						allJobs.addAll(receivedJobs.values());
+						allJobs.addAll(jobScheduler.getJobs());
 						allJobs.addAll(scheduledJobs.values());
 						allJobs.addAll(runningJobs.values());
 																		
@@ -75,7 +75,7 @@ public abstract class AnalysisJob implements Runnable {
 
 	private JobState state;
 	private String stateDetail;
-	private boolean toBeCanceled = false;
+	private volatile boolean toBeCanceled = false;
 	protected ResultMessage outputMessage;
 	
 	public AnalysisJob() {
@@ -203,6 +203,28 @@ public abstract class AnalysisJob implements Runnable {
 		resultHandler.sendResultMessage(inputMessage, outputMessage);
 	}
 
+	/**
+	 * Send new screen output to the client, while the job is running. The client
+	 * appends it to the output received earlier.
+	 * 
+	 * @param newOutputText output since the previous update
+	 */
+	public synchronized void updateOutputToClient(String newOutputText) {
+
+		if (!this.state.equals(JobState.RUNNING) || newOutputText.isEmpty()) {
+			return;
+		}
+
+		// send notification message
+		outputMessage.setOutputText(newOutputText);
+		outputMessage.setState(this.state);
+		outputMessage.setStateDetail(this.stateDetail);
+		resultHandler.sendResultMessage(inputMessage, outputMessage);
+		
+		// don't resend the same output with the next state update
+		outputMessage.setOutputText(null);
+	}
+
 
 	public synchronized void updateStateToClient(JobState newState, String stateDetail) {
 
@@ -243,6 +265,18 @@ public abstract class AnalysisJob implements Runnable {
 	}
 	
 	
+	/**
+	 * Tells whether cancel() has been called. Unlike cancelCheck(), does not change
+	 * the state of the job, so it can be used from threads doing work on behalf of
+	 * the job.
+	 * 
+	 * @return true if the job has been requested to be canceled
+	 */
+	public boolean isCancelRequested() {
+		return toBeCanceled;
+	}
+	
+	
 	/**
 	 * Check if the job should be canceled (cancel() has been called), and if needed
 	 * updates the state and cancels the job by throwing the cancellation exception.
@@ -340,4 +374,20 @@ public abstract class AnalysisJob implements Runnable {
 	public String getStateDetail() {
 		return this.stateDetail;
 	}
+	
+	/**
+	 * Time the job waited for a free slot before it was scheduled or, if it is still 
+	 * waiting, the time it has waited so far.
+	 * 
+	 * @return milliseconds or null if the job hasn't been received yet
+	 */
+	public Long getQueueTime() {
+		if (receiveTime == null) {
+			return null;
+		}
+		if (scheduleTime == null) {
+			return System.currentTimeMillis() - receiveTime.getTime();
+		}
+		return scheduleTime.getTime() - receiveTime.getTime();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package fi.csc.microarray.analyser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import fi.csc.microarray.analyser.ToolDescription.Priority;
+
+/**
+ * Schedules jobs by priority and fair share between users. 
+ * 
+ * <p>Jobs of a higher priority class are always scheduled first. Within a priority 
+ * class, the next job is taken from the user who currently uses the least slots, 
+ * so that one user submitting a lot of jobs can't starve the others. Jobs of the 
+ * same user are scheduled in the order they were received. Ties between users are
+ * resolved by picking the one whose oldest job has waited the longest.</p> 
+ * 
+ * <p>If the chosen job doesn't fit, nothing is scheduled until enough resources are freed, 
+ * so that big jobs don't get starved by a stream of smaller ones.</p> 
+ */
+public class FairShareJobScheduler implements JobScheduler {
+
+	private LinkedHashMap<String, AnalysisJob> receivedJobs = new LinkedHashMap<String, AnalysisJob>();
+
+	@Override
+	public void addJob(AnalysisJob job) {
+		receivedJobs.put(job.getId(), job);
+	}
+
+	@Override
+	public AnalysisJob removeJob(String jobId) {
+		return receivedJobs.remove(jobId);
+	}
+
+	@Override
+	public AnalysisJob getJob(String jobId) {
+		return receivedJobs.get(jobId);
+	}
+
+	@Override
+	public Collection<AnalysisJob> getJobs() {
+		return receivedJobs.values();
+	}
+
+	@Override
+	public int size() {
+		return receivedJobs.size();
+	}
+
+	@Override
+	public AnalysisJob pollNextJob(Collection<AnalysisJob> activeJobs, ResourceBudget budget) {
+		
+		// slots in use by each user
+		HashMap<String, Integer> userSlots = new HashMap<String, Integer>();
+		for (AnalysisJob activeJob : activeJobs) {
+			String username = activeJob.getInputMessage().getUsername();
+			userSlots.put(username, getSlots(userSlots, username) + activeJob.analysis.getSlots());
+		}
+		
+		// jobs are in the order they were received, so the first job of each user 
+		// and priority class is the oldest one and only those need to be considered
+		AnalysisJob nextJob = null;
+		HashSet<String> seen = new HashSet<String>();
+		for (AnalysisJob job : receivedJobs.values()) {
+			String key = job.getInputMessage().getUsername() + "/" + job.analysis.getPriority();
+			if (!seen.add(key)) {
+				continue;
+			}
+			
+			if (nextJob == null || isBefore(job, nextJob, userSlots)) {
+				nextJob = job;
+			}
+		}
+		
+		if (nextJob == null || !budget.fits(nextJob, activeJobs)) {
+			return null;
+		}
+		
+		receivedJobs.remove(nextJob.getId());
+		return nextJob;
+	}
+
+	/**
+	 * @return true if job1 should be scheduled before job2, assuming that job1 
+	 * was received after job2
+	 */
+	private boolean isBefore(AnalysisJob job1, AnalysisJob job2, HashMap<String, Integer> userSlots) {
+		Priority priority1 = job1.analysis.getPriority();
+		Priority priority2 = job2.analysis.getPriority();
+		if (priority1 != priority2) {
+			// enum constants are in the order of priority, highest first
+			return priority1.compareTo(priority2) < 0;
+		}
+		
+		int slots1 = getSlots(userSlots, job1.getInputMessage().getUsername());
+		int slots2 = getSlots(userSlots, job2.getInputMessage().getUsername());
+		return slots1 < slots2;
+	}
+	
+	private int getSlots(HashMap<String, Integer> userSlots, String username) {
+		Integer slots = userSlots.get(username);
+		return slots != null ? slots : 0;
+	}
+}
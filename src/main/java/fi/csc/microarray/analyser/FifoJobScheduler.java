@@ -0,0 +1,55 @@
+package fi.csc.microarray.analyser;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Schedules jobs in the order they were received, regardless of the user 
+ * or the priority of the tool. 
+ */
+public class FifoJobScheduler implements JobScheduler {
+
+	private LinkedHashMap<String, AnalysisJob> receivedJobs = new LinkedHashMap<String, AnalysisJob>();
+
+	@Override
+	public void addJob(AnalysisJob job) {
+		receivedJobs.put(job.getId(), job);
+	}
+
+	@Override
+	public AnalysisJob removeJob(String jobId) {
+		return receivedJobs.remove(jobId);
+	}
+
+	@Override
+	public AnalysisJob getJob(String jobId) {
+		return receivedJobs.get(jobId);
+	}
+
+	@Override
+	public Collection<AnalysisJob> getJobs() {
+		return receivedJobs.values();
+	}
+
+	@Override
+	public int size() {
+		return receivedJobs.size();
+	}
+
+	@Override
+	public AnalysisJob pollNextJob(Collection<AnalysisJob> activeJobs, ResourceBudget budget) {
+		Iterator<AnalysisJob> iterator = receivedJobs.values().iterator();
+		if (!iterator.hasNext()) {
+			return null;
+		}
+		
+		AnalysisJob job = iterator.next();
+		if (!budget.fits(job, activeJobs)) {
+			return null;
+		}
+		
+		iterator.remove();
+		return job;
+	}
+}
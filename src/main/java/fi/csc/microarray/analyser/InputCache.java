@@ -0,0 +1,353 @@
+package fi.csc.microarray.analyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import javax.jms.JMSException;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.ChecksumException;
+import fi.csc.microarray.filebroker.FileBrokerClient;
+import fi.csc.microarray.filebroker.FileBrokerException;
+import fi.csc.microarray.filebroker.Md5FileUtils;
+import fi.csc.microarray.util.Files;
+import fi.csc.microarray.util.IOUtils;
+import fi.csc.microarray.util.IOUtils.CopyProgressListener;
+
+/**
+ * Local cache of job input files on the comp host, so that the same input isn't
+ * transferred again for every job.
+ *
+ * <p>Files are found by dataId and by content, i.e. the md5 checksum reported by the
+ * file broker. The checksum lookup finds the file also when the same content has been
+ * uploaded again with a new dataId, for example when a session is opened again.</p>
+ *
+ * <p>Cached files are read-only and they are handed out as hard links, or as copies
+ * if linking isn't possible. The least recently used files are removed when the
+ * cache grows bigger than its size limit. Removing a file from the cache doesn't
+ * affect running jobs, because they have their own links.</p>
+ *
+ * <p>Cached files are named by the dataId of the first download and their checksums are
+ * stored in .md5 files, so the cache content survives restarts. The cache directory
+ * must not be shared by several comps.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+public class InputCache {
+
+	private static final Logger logger = Logger.getLogger(InputCache.class);
+
+	private static final String PART_SUFFIX = ".part";
+
+	private static class Entry {
+		private File file;
+		private long size;
+		private String checksum;
+		private Set<String> dataIds = new HashSet<String>();
+
+		public Entry(File file, String checksum) {
+			this.file = file;
+			this.size = file.length();
+			this.checksum = checksum;
+		}
+	}
+
+	private File cacheDir;
+	private long maxSize;
+	private long size = 0;
+
+	/**
+	 * In the order of access, least recently used first.
+	 */
+	private LinkedHashMap<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+	private HashMap<String, Entry> entriesByDataId = new HashMap<String, Entry>();
+	private HashMap<String, Entry> entriesByChecksum = new HashMap<String, Entry>();
+
+	/**
+	 * DataIds being downloaded to the cache.
+	 */
+	private Set<String> downloads = new HashSet<String>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long hitBytes = 0;
+	private long missBytes = 0;
+
+	/**
+	 * @param cacheDir directory for the cached files, created if it doesn't exist
+	 * @param maxSize max total size of the cached files in bytes
+	 * @throws IOException if the directory can't be created
+	 */
+	public InputCache(File cacheDir, long maxSize) throws IOException {
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			throw new IOException("could not create input cache directory " + cacheDir);
+		}
+
+		loadEntries();
+		logger.info("input cache " + cacheDir + " has " + entries.size() + " files, " + size / 1024 / 1024 + " MB");
+	}
+
+	private synchronized void loadEntries() {
+		File[] files = cacheDir.listFiles();
+
+		// oldest first, to get the initial LRU order roughly right
+		List<File> dataFiles = new LinkedList<File>();
+		for (File file : files) {
+			if (file.getName().endsWith(PART_SUFFIX)) {
+				// unfinished download
+				file.delete();
+			} else if (file.isFile() && !file.getName().endsWith(".md5")) {
+				dataFiles.add(file);
+			}
+		}
+		Collections.sort(dataFiles, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Long.compare(file1.lastModified(), file2.lastModified());
+			}
+		});
+
+		for (File file : dataFiles) {
+			String checksum = null;
+			try {
+				checksum = Md5FileUtils.readMd5WithoutParseException(file);
+			} catch (IOException e) {
+				logger.warn("could not read checksum of " + file, e);
+			}
+			addEntry(new Entry(file, checksum), file.getName());
+		}
+		evict();
+	}
+
+	/**
+	 * Make a file available in the given location, from the cache if possible.
+	 * Otherwise download it to the cache first.
+	 *
+	 * @param destFile destination file that must not exist
+	 * @param progressListener may be null
+	 *
+	 * @see FileBrokerClient#getFile(String, File, CopyProgressListener)
+	 */
+	public void getFile(FileBrokerClient fileBroker, String dataId, File destFile, CopyProgressListener progressListener) throws IOException, JMSException, ChecksumException, FileBrokerException {
+
+		// only one download of the same file, others wait for it
+		waitForDownload(dataId);
+		try {
+			// cached with this dataId
+			if (handOut(getEntryByDataId(dataId), destFile)) {
+				return;
+			}
+
+			// cached with other dataId, but same content
+			String checksum = null;
+			try {
+				checksum = fileBroker.getChecksum(dataId);
+			} catch (IOException e) {
+				// not fatal, just download it
+				logger.warn("could not get checksum of " + dataId, e);
+			}
+			if (checksum != null) {
+				Entry entry = getEntryByChecksum(checksum, dataId);
+				if (handOut(entry, destFile)) {
+					return;
+				}
+			}
+
+			// not in cache
+			File partFile = new File(cacheDir, dataId + PART_SUFFIX);
+			partFile.delete();
+			try {
+				fileBroker.getFile(dataId, partFile, progressListener);
+
+				File cacheFile = new File(cacheDir, dataId);
+				if (!partFile.renameTo(cacheFile)) {
+					throw new IOException("could not rename " + partFile + " to " + cacheFile);
+				}
+				if (checksum != null) {
+					Md5FileUtils.writeMd5(checksum, cacheFile);
+				}
+				cacheFile.setReadOnly();
+
+				Entry entry = new Entry(cacheFile, checksum);
+				synchronized (this) {
+					misses++;
+					missBytes += entry.size;
+					addEntry(entry, dataId);
+				}
+				linkOrCopy(cacheFile, destFile);
+
+			} finally {
+				partFile.delete();
+				synchronized (this) {
+					evict();
+				}
+			}
+
+		} finally {
+			endDownload(dataId);
+		}
+	}
+
+	private synchronized void waitForDownload(String dataId) {
+		while (downloads.contains(dataId)) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("waiting for download of " + dataId + " interrupted");
+			}
+		}
+		downloads.add(dataId);
+	}
+
+	private synchronized void endDownload(String dataId) {
+		downloads.remove(dataId);
+		this.notifyAll();
+	}
+
+	private synchronized Entry getEntryByDataId(String dataId) {
+		Entry entry = entriesByDataId.get(dataId);
+		if (entry != null) {
+			// update access order
+			entries.get(entry.file);
+		}
+		return entry;
+	}
+
+	private synchronized Entry getEntryByChecksum(String checksum, String dataId) {
+		Entry entry = entriesByChecksum.get(checksum);
+		if (entry != null) {
+			entries.get(entry.file);
+			entry.dataIds.add(dataId);
+			entriesByDataId.put(dataId, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * @return true if the entry was still valid and the file was made available
+	 */
+	private boolean handOut(Entry entry, File destFile) throws IOException {
+		if (entry == null) {
+			return false;
+		}
+
+		if (!entry.file.isFile() || entry.file.length() != entry.size) {
+			logger.warn("cached file " + entry.file + " is missing or its size has changed");
+			synchronized (this) {
+				removeEntry(entry);
+			}
+			return false;
+		}
+
+		try {
+			linkOrCopy(entry.file, destFile);
+		} catch (IOException e) {
+			// removed from the cache just now
+			logger.debug("could not get " + entry.file + " from cache: " + e.getMessage());
+			destFile.delete();
+			return false;
+		}
+		synchronized (this) {
+			hits++;
+			hitBytes += entry.size;
+		}
+		logger.debug("input " + destFile.getName() + " found from cache");
+		return true;
+	}
+
+	private void linkOrCopy(File cacheFile, File destFile) throws IOException {
+		if (!Files.createHardLink(cacheFile, destFile)) {
+			IOUtils.copy(cacheFile, destFile);
+		}
+	}
+
+	private void addEntry(Entry entry, String dataId) {
+		entry.dataIds.add(dataId);
+		entries.put(entry.file, entry);
+		entriesByDataId.put(dataId, entry);
+		if (entry.checksum != null) {
+			entriesByChecksum.put(entry.checksum, entry);
+		}
+		size += entry.size;
+	}
+
+	private void removeEntry(Entry entry) {
+		if (entries.remove(entry.file) == null) {
+			return; // removed already
+		}
+		for (String dataId : entry.dataIds) {
+			if (entriesByDataId.get(dataId) == entry) {
+				entriesByDataId.remove(dataId);
+			}
+		}
+		if (entry.checksum != null && entriesByChecksum.get(entry.checksum) == entry) {
+			entriesByChecksum.remove(entry.checksum);
+		}
+		size -= entry.size;
+
+		entry.file.delete();
+		Md5FileUtils.removeMd5(entry.file);
+	}
+
+	/**
+	 * Remove least recently used files until the cache fits in its size limit.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		List<Entry> evicted = new LinkedList<Entry>();
+		long newSize = size;
+		while (newSize > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			evicted.add(entry);
+			newSize -= entry.size;
+		}
+
+		for (Entry entry : evicted) {
+			logger.debug("removing " + entry.file.getName() + " from input cache");
+			removeEntry(entry);
+		}
+	}
+
+	/**
+	 * @return human readable summary of the cache use
+	 */
+	public synchronized String getStatistics() {
+		long requests = hits + misses;
+		return "hits " + hits + "/" + requests +
+				(requests > 0 ? " (" + (hits * 100 / requests) + " %)" : "") +
+				", transfers saved " + hitBytes / 1024 / 1024 + " MB" +
+				", transferred " + missBytes / 1024 / 1024 + " MB" +
+				", cache size " + size / 1024 / 1024 + "/" + maxSize / 1024 / 1024 + " MB, " + entries.size() + " files";
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getHitBytes() {
+		return hitBytes;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+}
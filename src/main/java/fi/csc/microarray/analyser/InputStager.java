@@ -0,0 +1,183 @@
+package fi.csc.microarray.analyser;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.FileBrokerClient;
+import fi.csc.microarray.util.BandwidthLimiter;
+import fi.csc.microarray.util.IOUtils.CopyProgressListener;
+
+/**
+ * Transfers job input files from file broker to job work directories. Inputs
+ * of a job are transferred concurrently, but all the jobs of the comp share the
+ * same connection budget (number of transfer threads) and bandwidth budget.
+ *
+ * Transfers are aborted as soon as possible if the job is cancelled.
+ *
+ * Thread safe, one instance is shared by all the jobs of the comp.
+ */
+public class InputStager {
+
+	private static final Logger logger = Logger.getLogger(InputStager.class);
+
+	/**
+	 * How often the job thread checks for cancellation while waiting for the transfers.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 500; // milliseconds
+
+	private ExecutorService transferExecutor;
+	private BandwidthLimiter bandwidthLimiter;
+	private InputCache inputCache;
+
+	/**
+	 * @param maxConnections max number of concurrent transfers of the comp
+	 * @param bytesPerSecond max combined transfer rate of the comp, 0 for unlimited
+	 * @param inputCache local cache of input files, or null to transfer inputs always
+	 */
+	public InputStager(int maxConnections, long bytesPerSecond, InputCache inputCache) {
+		this.transferExecutor = Executors.newFixedThreadPool(maxConnections, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "input-transfer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.bandwidthLimiter = new BandwidthLimiter(bytesPerSecond);
+		this.inputCache = inputCache;
+	}
+
+	/**
+	 * Make all the inputs available in the given directory and wait for them to complete.
+	 *
+	 * Returns without an exception if the job was cancelled during the transfers, caller
+	 * should call cancelCheck() after this method returns.
+	 *
+	 * @param job job that needs the inputs
+	 * @param fileBroker
+	 * @param inputs dataIds of the input files by their file names in the job work dir
+	 * @param dir job work dir
+	 * @throws Exception exception of the first failed transfer
+	 */
+	public void stageInputs(final AnalysisJob job, final FileBrokerClient fileBroker, Map<String, String> inputs, File dir) throws Exception {
+
+		LinkedHashMap<String, Future<?>> transfers = new LinkedHashMap<String, Future<?>>();
+
+		for (final String fileName : inputs.keySet()) {
+			final String dataId = inputs.get(fileName);
+			final File localFile = new File(dir, fileName);
+
+			transfers.put(fileName, transferExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					// job may have been cancelled while this transfer was waiting for its turn
+					if (job.isCancelRequested()) {
+						return null;
+					}
+
+					// make local file available, by downloading, copying or linking
+					if (inputCache != null) {
+						inputCache.getFile(fileBroker, dataId, localFile, new TransferListener(job));
+					} else {
+						fileBroker.getFile(dataId, localFile, new TransferListener(job));
+					}
+					logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+					return null;
+				}
+			}));
+		}
+
+		try {
+			waitForTransfers(job, transfers.values());
+		} finally {
+			// nothing to do if all completed, otherwise abort the rest
+			for (Future<?> transfer : transfers.values()) {
+				transfer.cancel(true);
+			}
+		}
+	}
+
+	private void waitForTransfers(AnalysisJob job, Iterable<Future<?>> transfers) throws Exception {
+		List<Future<?>> pending = new LinkedList<Future<?>>();
+		for (Future<?> transfer : transfers) {
+			pending.add(transfer);
+		}
+
+		while (!pending.isEmpty()) {
+			Future<?> transfer = pending.get(0);
+			try {
+				transfer.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				pending.remove(0);
+
+			} catch (TimeoutException e) {
+				if (job.isCancelRequested()) {
+					return;
+				}
+
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof CancellationException && job.isCancelRequested()) {
+					return;
+				}
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return input cache or null if not in use
+	 */
+	public InputCache getInputCache() {
+		return inputCache;
+	}
+
+	public void shutdown() {
+		transferExecutor.shutdownNow();
+	}
+
+	/**
+	 * Applies the bandwidth limit and aborts the transfer if the job is cancelled.
+	 */
+	private class TransferListener implements CopyProgressListener {
+
+		private AnalysisJob job;
+		private long previousBytes = 0;
+
+		public TransferListener(AnalysisJob job) {
+			this.job = job;
+		}
+
+		@Override
+		public void progress(long bytes) {
+			if (job.isCancelRequested()) {
+				throw new CancellationException("job " + job.getId() + " cancelled");
+			}
+
+			try {
+				bandwidthLimiter.acquire(bytes - previousBytes);
+			} catch (InterruptedException e) {
+				throw new CancellationException("transfer interrupted");
+			}
+			previousBytes = bytes;
+		}
+	}
+}
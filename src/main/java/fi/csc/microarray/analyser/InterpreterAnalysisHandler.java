@@ -73,16 +73,24 @@ public abstract class InterpreterAnalysisHandler implements AnalysisHandler {
 		int poolTimeout = configuration.getInt("comp", "r-process-pool-timeout");
 		int processUseCountMax = configuration.getInt("comp", "r-process-pool-process-use-count-max");
 		int processLifetimeMax = configuration.getInt("comp", "r-process-pool-process-lifetime-max");
+		boolean recycle = configuration.getBoolean("comp", "r-process-pool-recycle");
 
 		try {
 			processPool = new ProcessPool(new File(parameters.get("workDir")), interpreterCommand, poolSizeMin, poolSizeMax, 
-				poolTimeout, processUseCountMax, processLifetimeMax);
+				poolTimeout, processUseCountMax, processLifetimeMax, recycle);
 		} catch (Exception e) {
 			this.isDisabled = true;
 		}
 	}
 	
 
+	/**
+	 * @return null if the pool could not be started
+	 */
+	public ProcessPool getProcessPool() {
+		return processPool;
+	}
+
 	@Override
 	public ToolDescription handle(File moduleDir, String toolFilename,
 			Map<String, String> params) throws AnalysisException {
@@ -0,0 +1,50 @@
+package fi.csc.microarray.analyser;
+
+import java.util.Collection;
+
+/**
+ * Decides the order in which the received jobs of a comp are scheduled. Holds the
+ * jobs that have been received but not yet scheduled.
+ * 
+ * <p>A job is scheduled only if it fits in the resources left by the active 
+ * (scheduled and running) jobs, see {@link ResourceBudget}.</p>
+ * 
+ * <p>Implementations are not required to be thread safe, AnalyserServer accesses
+ * the scheduler only when holding its job lock. Implementations must have a public
+ * no-argument constructor, so that they can be selected in configuration.</p>
+ */
+public interface JobScheduler {
+
+	/**
+	 * Add a received job to wait for its turn.
+	 */
+	public void addJob(AnalysisJob job);
+	
+	/**
+	 * Remove a waiting job, for example when it was cancelled or some other comp took it.
+	 * 
+	 * @return removed job or null if there was no such job waiting
+	 */
+	public AnalysisJob removeJob(String jobId);
+	
+	/**
+	 * @return waiting job or null
+	 */
+	public AnalysisJob getJob(String jobId);
+	
+	/**
+	 * @return all waiting jobs
+	 */
+	public Collection<AnalysisJob> getJobs();
+	
+	public int size();
+
+	/**
+	 * Remove and return the job that should be scheduled next.
+	 * 
+	 * @param activeJobs scheduled and running jobs 
+	 * @param budget resources of this comp
+	 * @return next job or null if there are no waiting jobs or the next job doesn't fit
+	 */
+	public AnalysisJob pollNextJob(Collection<AnalysisJob> activeJobs, ResourceBudget budget);
+}
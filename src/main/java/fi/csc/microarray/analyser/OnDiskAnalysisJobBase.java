@@ -2,16 +2,18 @@ package fi.csc.microarray.analyser;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import fi.csc.microarray.analyser.ToolDescription.OutputDescription;
-import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
+import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.filebroker.NotEnoughDiskSpaceException;
 import fi.csc.microarray.messaging.JobState;
 import fi.csc.microarray.messaging.message.JobMessage;
-import fi.csc.microarray.security.CryptoKey;
 import fi.csc.microarray.util.Exceptions;
 import fi.csc.microarray.util.Files;
 
@@ -26,6 +28,13 @@ public abstract class OnDiskAnalysisJobBase extends AnalysisJob {
 	private static final Logger logger = Logger.getLogger(OnDiskAnalysisJobBase.class);
 
 	protected File jobWorkDir;
+	
+	private long inputStagingTime = -1;
+	
+	/**
+	 * Default for comp/job-output-max-size, kilobytes.
+	 */
+	private static final int DEFAULT_OUTPUT_MAX_SIZE = 256;
 
 	@Override
 	public void construct(JobMessage inputMessage, ToolDescription analysis, ResultCallback resultHandler) {
@@ -54,24 +63,52 @@ public abstract class OnDiskAnalysisJobBase extends AnalysisJob {
 		}
 
 		// extract input files to work dir
+		long stagingStartTime = System.currentTimeMillis();
 		try {
+			LinkedHashMap<String, String> inputs = new LinkedHashMap<String, String>();
 			for (String fileName : inputMessage.payloadNames()) {
-				cancelCheck();
-
-				// get url and output file
-				String dataId = inputMessage.getPayload(fileName);
-				File localFile = new File(jobWorkDir, fileName);
-				
-				// make local file available, by downloading, copying or symlinking
-				resultHandler.getFileBrokerClient().getFile(dataId, new File(jobWorkDir, fileName));
-				logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+				inputs.put(fileName, inputMessage.getPayload(fileName));
 			}
+
+			// make local files available concurrently, by downloading, copying or linking
+			resultHandler.getInputStager().stageInputs(this, resultHandler.getFileBrokerClient(), inputs, jobWorkDir);
+			
 		} catch (Exception e) {
+			cancelCheck();
 			outputMessage.setErrorMessage("Transferring input data to computing service failed.");
 			outputMessage.setOutputText(Exceptions.getStackTrace(e));
 			updateState(JobState.ERROR, "");
 			return;
-		}			
+		}
+		cancelCheck();
+		
+		this.inputStagingTime = System.currentTimeMillis() - stagingStartTime;
+		logger.info("transferred " + inputMessage.payloadNames().size() + " input files of job " + getId() + " in " + inputStagingTime + " ms");
+	}
+
+	/**
+	 * Create a capture for the screen output of the tool. The full output is written 
+	 * to a log file next to the job work dir and swept with it.
+	 */
+	protected OutputCapture createOutputCapture() {
+		int maxSize = DEFAULT_OUTPUT_MAX_SIZE;
+		try {
+			maxSize = DirectoryLayout.getInstance().getConfiguration().getInt("comp", "job-output-max-size");
+		} catch (Exception e) {
+			logger.warn("could not read job-output-max-size from configuration", e);
+		}
+		return new OutputCapture(this, getOutputLogFile(), maxSize * 1024);
+	}
+	
+	private File getOutputLogFile() {
+		return new File(jobWorkDir.getParentFile(), getId() + "-output.log");
+	}
+
+	/**
+	 * @return time spent for making the input files available, milliseconds, or -1 if not done yet
+	 */
+	public long getInputStagingTime() {
+		return inputStagingTime;
 	}
 
 	
@@ -85,7 +122,8 @@ public abstract class OnDiskAnalysisJobBase extends AnalysisJob {
 		updateStateDetailToClient("transferring output data");
 		cancelCheck();
 
-		// pass output files to result message
+		// find output files
+		LinkedHashMap<File, OutputDescription> describedOutputs = new LinkedHashMap<File, OutputDescription>();
 		List<OutputDescription> outputFiles = analysis.getOutputFiles();
 		for (OutputDescription fileDescription : outputFiles) {
 			cancelCheck();
@@ -114,40 +152,52 @@ public abstract class OnDiskAnalysisJobBase extends AnalysisJob {
 			    describedFiles = new File[] {new File(jobWorkDir, outputName)};
 			}
 			
-			// add all described files to the result message
 			for (File outputFile : describedFiles) {
-	            // copy file to file broker
-	            String dataId = CryptoKey.generateRandom();
-	            try {
-	                resultHandler.getFileBrokerClient().addFile(dataId, FileBrokerArea.CACHE, outputFile, null);
-	                // put dataId to result message
-	                outputMessage.addPayload(outputFile.getName(), dataId);
-	                logger.debug("transferred output file: " + fileDescription.getFileName());
-
-	            } catch (FileNotFoundException e) {
-	                // required output file not found
-	                if (!fileDescription.isOptional()) {
-	                    logger.error("required output file not found", e);
-	                    outputMessage.setErrorMessage("Required output file is missing.");
-	                    outputMessage.setOutputText(Exceptions.getStackTrace(e));
-	                    updateState(JobState.ERROR, "");
-	                    return;
-	                }
-	                
-	            } catch (NotEnoughDiskSpaceException nedse) {
-	            	logger.warn("not enough disk space for result file in filebroker");
-	            	outputMessage.setErrorMessage("There was not enough disk space for the result file in the Chipster server. Please try again later.");
-	            	updateState(JobState.FAILED_USER_ERROR, "not enough disk space for results");
-	            }
-	            
-	            catch (Exception e) {
-	                // TODO continue or return? also note the super.postExecute()
-	                logger.error("could not put file to file broker", e);
-	                outputMessage.setErrorMessage("Could not send output file.");
-	                outputMessage.setOutputText(Exceptions.getStackTrace(e));
-	                updateState(JobState.ERROR, "");
-	                return;
-	            }
+				describedOutputs.put(outputFile, fileDescription);
+			}
+		}
+		
+		// copy files to file broker concurrently, payloads are added to the result message as they complete
+		Map<File, Exception> failures;
+		try {
+			failures = resultHandler.getOutputPublisher().publishOutputs(this, 
+					resultHandler.getFileBrokerClient(), new LinkedList<File>(describedOutputs.keySet()));
+		} catch (Exception e) {
+			logger.error("could not get file broker client", e);
+			outputMessage.setErrorMessage("Could not send output file.");
+			outputMessage.setOutputText(Exceptions.getStackTrace(e));
+			updateState(JobState.ERROR, "");
+			return;
+		}
+		cancelCheck();
+
+		for (File outputFile : failures.keySet()) {
+			OutputDescription fileDescription = describedOutputs.get(outputFile);
+			Exception e = failures.get(outputFile);
+			
+			if (e instanceof FileNotFoundException) {
+				// required output file not found
+				if (!fileDescription.isOptional()) {
+					logger.error("required output file not found", e);
+					outputMessage.setErrorMessage("Required output file is missing.");
+					outputMessage.setOutputText(Exceptions.getStackTrace(e));
+					updateState(JobState.ERROR, "");
+					return;
+				}
+
+			} else if (e instanceof NotEnoughDiskSpaceException) {
+				logger.warn("not enough disk space for result file in filebroker");
+				outputMessage.setErrorMessage("There was not enough disk space for the result file in the Chipster server. Please try again later.");
+				updateState(JobState.FAILED_USER_ERROR, "not enough disk space for results");
+				return;
+
+			} else {
+				// TODO continue or return? also note the super.postExecute()
+				logger.error("could not put file to file broker", e);
+				outputMessage.setErrorMessage("Could not send output file.");
+				outputMessage.setOutputText(Exceptions.getStackTrace(e));
+				updateState(JobState.ERROR, "");
+				return;
 			}
 		}
 		super.postExecute();
@@ -164,6 +214,7 @@ public abstract class OnDiskAnalysisJobBase extends AnalysisJob {
 			// sweep job working directory
 			if (resultHandler.shouldSweepWorkDir()) {
 				Files.delTree(jobWorkDir);
+				getOutputLogFile().delete();
 			}
 		} catch (Exception e) {
 			logger.error("Error when cleaning up job work dir.", e);
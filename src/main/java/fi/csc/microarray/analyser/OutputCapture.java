@@ -0,0 +1,249 @@
+package fi.csc.microarray.analyser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * Captures the screen output of a tool with bounded memory use.
+ *
+ * <p>All lines are written to a log file. In memory, only the first lines (head)
+ * and the last lines (tail) are kept, so that the beginning of the output and the
+ * error message in the end are available, however chatty the tool is. Lines between
+ * them are replaced with a note in the output text.</p>
+ *
+ * <p>If a job is given, the lines added since the previous update are sent to the
+ * client periodically while the tool is running.</p>
+ *
+ * <p>Thread safe, the output can be captured from several streams at the same time.</p>
+ */
+public class OutputCapture {
+
+	private static final Logger logger = Logger.getLogger(OutputCapture.class);
+
+	/**
+	 * Longer lines are truncated in memory, the log file gets the full line.
+	 */
+	private static final int MAX_LINE_LENGTH = 10000; // characters
+
+	/**
+	 * How often the output is sent to the client.
+	 */
+	private static final long UPDATE_INTERVAL = 5000; // milliseconds
+
+	private AnalysisJob job;
+	private File logFile;
+	private BufferedWriter logWriter;
+
+	private int headMaxChars;
+	private int tailMaxChars;
+	private ArrayList<String> head = new ArrayList<String>();
+	private ArrayDeque<String> tail = new ArrayDeque<String>();
+	private int headChars = 0;
+	private int tailChars = 0;
+	private long omittedLines = 0;
+
+	private ArrayDeque<String> unsent = new ArrayDeque<String>();
+	private int unsentChars = 0;
+	private long unsentOmittedLines = 0;
+
+	private long lastUpdate = System.currentTimeMillis();
+
+	/**
+	 * @param job job to send the output updates to, or null for no updates
+	 * @param logFile file for the full output, or null to keep only the head and tail
+	 * @param maxChars max number of characters kept in memory
+	 */
+	public OutputCapture(AnalysisJob job, File logFile, int maxChars) {
+		this.job = job;
+		this.logFile = logFile;
+		this.headMaxChars = maxChars / 8;
+		this.tailMaxChars = maxChars - headMaxChars;
+		if (logFile != null) {
+			try {
+				this.logWriter = new BufferedWriter(new FileWriter(logFile));
+			} catch (IOException e) {
+				// keep capturing to memory
+				logger.warn("could not create " + logFile, e);
+			}
+		}
+	}
+
+	public void addLine(String line) {
+		String outputText = null;
+
+		synchronized (this) {
+			if (logWriter != null) {
+				try {
+					logWriter.write(line);
+					logWriter.newLine();
+				} catch (IOException e) {
+					// keep capturing to memory
+					logger.warn("could not write to " + logFile, e);
+					IOUtils.closeIfPossible(logWriter);
+					logWriter = null;
+				}
+			}
+
+			if (line.length() > MAX_LINE_LENGTH) {
+				line = line.substring(0, MAX_LINE_LENGTH) + " [line truncated]";
+			}
+
+			if (omittedLines == 0 && tail.isEmpty() && headChars + line.length() <= headMaxChars) {
+				head.add(line);
+				headChars += line.length();
+			} else {
+				tail.addLast(line);
+				tailChars += line.length();
+				while (tailChars > tailMaxChars && tail.size() > 1) {
+					tailChars -= tail.removeFirst().length();
+					omittedLines++;
+				}
+			}
+
+			if (job != null) {
+				unsent.addLast(line);
+				unsentChars += line.length();
+				while (unsentChars > tailMaxChars && unsent.size() > 1) {
+					unsentChars -= unsent.removeFirst().length();
+					unsentOmittedLines++;
+				}
+
+				if (System.currentTimeMillis() - lastUpdate > UPDATE_INTERVAL) {
+					lastUpdate = System.currentTimeMillis();
+					outputText = getNewOutput();
+				}
+			}
+		}
+
+		// don't hold the lock when sending
+		if (outputText != null) {
+			job.updateOutputToClient(outputText);
+		}
+	}
+
+	/**
+	 * Read lines from the stream and capture them until the end of the stream.
+	 */
+	public void capture(InputStream stream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			addLine(line);
+		}
+	}
+
+	/**
+	 * Capture the stream in a new thread.
+	 *
+	 * @return the capturing thread, which ends when the stream ends
+	 */
+	public Thread startCapture(final InputStream stream) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					capture(stream);
+				} catch (IOException e) {
+					// also destroying the process leads here
+					logger.debug("capturing output stopped: " + e.getMessage());
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * @return captured output, lines between the head and tail are replaced with a note
+	 */
+	public synchronized String getOutput() {
+		StringBuilder output = new StringBuilder(headChars + tailChars + head.size() + tail.size() + 100);
+		for (String line : head) {
+			output.append(line).append("\n");
+		}
+		if (omittedLines > 0) {
+			output.append("[" + omittedLines + " lines omitted]\n");
+		}
+		for (String line : tail) {
+			output.append(line).append("\n");
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Lines added since the previous call. Kept only when a job is given.
+	 *
+	 * @return new output, or empty string if there is none
+	 */
+	public synchronized String getNewOutput() {
+		StringBuilder output = new StringBuilder(unsentChars + unsent.size() + 100);
+		if (unsentOmittedLines > 0) {
+			output.append("[" + unsentOmittedLines + " lines omitted]\n");
+		}
+		for (String line : unsent) {
+			output.append(line).append("\n");
+		}
+		unsent.clear();
+		unsentChars = 0;
+		unsentOmittedLines = 0;
+		return output.toString();
+	}
+
+	/**
+	 * Find the last line starting with the token and return it and the lines after it.
+	 *
+	 * @param token
+	 * @param skipLast number of lines to leave out from the end
+	 * @return lines without the token, trimmed, or null if the token was not found
+	 */
+	public synchronized String getLastLinesStartingWith(String token, int skipLast) {
+		List<String> lines = new ArrayList<String>(head.size() + tail.size());
+		lines.addAll(head);
+		lines.addAll(tail);
+
+		int tokenLine = -1;
+		for (int i = lines.size() - 1; i >= 0; i--) {
+			if (lines.get(i).startsWith(token)) {
+				tokenLine = i;
+				break;
+			}
+		}
+		if (tokenLine == -1) {
+			return null;
+		}
+
+		StringBuilder text = new StringBuilder(lines.get(tokenLine).substring(token.length()));
+		Iterator<String> iterator = lines.listIterator(tokenLine + 1);
+		for (int i = tokenLine + 1; i < lines.size() - skipLast; i++) {
+			if (i == head.size() && omittedLines > 0) {
+				text.append("\n[" + omittedLines + " lines omitted]");
+			}
+			text.append("\n").append(iterator.next());
+		}
+		return text.toString().trim();
+	}
+
+	/**
+	 * Close the log file. Lines added after this are kept only in memory.
+	 */
+	public synchronized void close() {
+		IOUtils.closeIfPossible(logWriter);
+		logWriter = null;
+	}
+
+	public File getLogFile() {
+		return logFile;
+	}
+}
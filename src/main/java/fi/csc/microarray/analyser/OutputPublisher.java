@@ -0,0 +1,136 @@
+package fi.csc.microarray.analyser;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.FileBrokerClient;
+import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
+import fi.csc.microarray.security.CryptoKey;
+
+/**
+ * Uploads job output files to file broker using a bounded pool of upload
+ * threads shared by all the jobs of the comp. Payloads are added to the
+ * result message of the job by the calling thread, after the uploads have
+ * completed.
+ *
+ * Thread safe, one instance is shared by all the jobs of the comp.
+ */
+public class OutputPublisher {
+
+	private static final Logger logger = Logger.getLogger(OutputPublisher.class);
+
+	/**
+	 * How often the job thread checks for cancellation while waiting for the uploads.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 500; // milliseconds
+
+	private ExecutorService uploadExecutor;
+
+	/**
+	 * @param maxConnections max number of concurrent uploads of the comp
+	 */
+	public OutputPublisher(int maxConnections) {
+		this.uploadExecutor = Executors.newFixedThreadPool(maxConnections, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "output-transfer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Upload the files and add them as payloads to the result message of the job.
+	 * Waits for all the uploads to complete.
+	 *
+	 * Returns early without an exception if the job was cancelled during the uploads,
+	 * caller should call cancelCheck() after this method returns.
+	 *
+	 * @param job
+	 * @param fileBroker
+	 * @param files output files in the job work dir
+	 * @return failed uploads and their exceptions in the order of the files, empty if all succeeded
+	 */
+	public Map<File, Exception> publishOutputs(final AnalysisJob job, final FileBrokerClient fileBroker, List<File> files) {
+
+		LinkedHashMap<File, Future<String>> uploads = new LinkedHashMap<File, Future<String>>();
+
+		for (final File outputFile : files) {
+			uploads.put(outputFile, uploadExecutor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					if (job.isCancelRequested()) {
+						return null;
+					}
+
+					// copy file to file broker
+					String dataId = CryptoKey.generateRandom();
+					fileBroker.addFile(dataId, FileBrokerArea.CACHE, outputFile, null);
+					logger.debug("transferred output file: " + outputFile.getName());
+					return dataId;
+				}
+			}));
+		}
+
+		LinkedHashMap<File, Exception> failures = new LinkedHashMap<File, Exception>();
+		try {
+			for (File outputFile : uploads.keySet()) {
+				Future<String> upload = uploads.get(outputFile);
+				while (true) {
+					try {
+						String dataId = upload.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+						if (dataId != null) {
+							// put dataId to result message
+							job.getResultMessage().addPayload(outputFile.getName(), dataId);
+						}
+						break;
+
+					} catch (TimeoutException e) {
+						if (job.isCancelRequested()) {
+							return failures;
+						}
+
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							failures.put(outputFile, (Exception) e.getCause());
+						} else {
+							failures.put(outputFile, e);
+						}
+						break;
+
+					} catch (InterruptedException e) {
+						failures.put(outputFile, e);
+						return failures;
+					}
+				}
+			}
+		} finally {
+			// nothing to do if all completed, otherwise abort the rest
+			for (Future<String> upload : uploads.values()) {
+				upload.cancel(true);
+			}
+		}
+
+		return failures;
+	}
+
+	public void shutdown() {
+		uploadExecutor.shutdownNow();
+	}
+}
@@ -6,60 +6,123 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 /**
  * A process pool for pooling for example R processes.
- * 
- *  
- * The maximum number of processes controlled by this pool may temporarily be exceeded, 
+ *
+ * <p>Processes can be warmed up by loading a set of packages when they are started.
+ * Requests are given a process that already has the packages they need (a hit), or
+ * if there isn't one, any idle process (a miss), in which case the script loads the
+ * packages itself.</p>
+ *
+ * <p>Processes are started and retired by a background maintainer, never in the
+ * thread asking for a process. The maintainer keeps the pool size between poolSizeMin
+ * and poolSizeMax, following the observed number of requests waiting for a process,
+ * and warms up new processes with the packages that have been requested recently.</p>
+ *
+ * <p>When recycling is enabled, the search path of a warmed up process is stored
+ * after the packages have been loaded and restored when the process is recycled, so
+ * that a recycled process is in the same state as a freshly warmed up one.</p>
+ *
+ * The maximum number of processes controlled by this pool may temporarily be exceeded,
  * due to the synchronization mechanisms used.
- * 
+ *
  *
  */
 public class ProcessPool {
 
 	static final Logger logger = Logger.getLogger(ProcessPool.class);
-	
-	private BlockingQueue<NamiProcess> availableProcesses;
+
+	// synchronize with this pool when accessing these
+	private LinkedList<NamiProcess> availableProcesses;
+	private HashMap<String, Integer> waitingRequests = new HashMap<String, Integer>();
+	private HashMap<String, Set<String>> profiles = new HashMap<String, Set<String>>();
+	private HashMap<String, Double> profileDemand = new HashMap<String, Double>();
+	private HashSet<String> brokenProfiles = new HashSet<String>();
+	private int spawningProcesses = 0;
+	private double queueDepthAverage = 0;
+
 	private ConcurrentMap<Integer, NamiProcess> inUseProcesses;
-	
+
 	private final int poolSizeMin;
 	private final int poolSizeMax;
 	private final int poolTimeout;
 	private final int processUseCountMax;
 	private final int processLifetimeMax;
+	private final boolean recycle;
 	private final String rCommand;
-	
+
 	private File workDir;
-	
+
+	private ScheduledExecutorService maintainer;
+	private ExecutorService spawner;
+
+	// counters
+	private AtomicLong hits = new AtomicLong(0);
+	private AtomicLong misses = new AtomicLong(0);
+	private AtomicLong noPackages = new AtomicLong(0);
+	private AtomicLong spawns = new AtomicLong(0);
+	private AtomicLong spawnFailures = new AtomicLong(0);
+	private AtomicLong spawnTimeTotal = new AtomicLong(0);
+	private AtomicLong spawnTimeMax = new AtomicLong(0);
+
 	private static final String RECYCLE_SUCCESFUL_STRING = "recycling-succesful";
-	
-	
+
+	private static final String NO_PACKAGES = "";
+
+	private static final int MAINTENANCE_INTERVAL = 1; // seconds
+	private static final int IDLE_TIMEOUT = 60; // seconds
+	private static final int WARM_UP_TIMEOUT = 300; // seconds
+	private static final int RECYCLE_TIMEOUT = 10; // seconds
+
 	/**
-	 * 
+	 * Weight of the latest sample in the moving average of the queue depth.
+	 */
+	private static final double QUEUE_DEPTH_WEIGHT = 0.2;
+
+
+	/**
+	 *
 	 * Wrapper class for storing metadata about a Process.
-	 * 
+	 *
 	 */
 	private class NamiProcess {
-		
+
 		private Process process;
 		private int useCount;
 		private Date creationTime;
-		
-		public NamiProcess(Process p) {
+		private String profile;
+		private long idleSince;
+
+		public NamiProcess(Process p, String profile) {
 			this.process = p;
+			this.profile = profile;
 			useCount = 0;
 			creationTime = new Date(System.currentTimeMillis());
+			idleSince = System.currentTimeMillis();
 		}
-		
+
 		public Process getProcess() {
 			return this.process;
 		}
@@ -67,20 +130,31 @@ public class ProcessPool {
 		public int getUseCount() {
 			return this.useCount;
 		}
-		
+
 		public Date getCreationTime() {
 			return this.creationTime;
 		}
-		
+
 		public void increaseUseCount() {
 			this.useCount++;
 		}
-		
+
+		public String getProfile() {
+			return profile;
+		}
+
+		public long getIdleSince() {
+			return idleSince;
+		}
+
+		public void setIdleSince(long idleSince) {
+			this.idleSince = idleSince;
+		}
 	}
-	
-	
-	
-	public ProcessPool(File workDir, String command, int poolSizeMin, int poolSizeMax, int poolTimeout, int processUseCountMax, int processLifetimeMax) throws IOException {
+
+
+
+	public ProcessPool(File workDir, String command, int poolSizeMin, int poolSizeMax, int poolTimeout, int processUseCountMax, int processLifetimeMax, boolean recycle) throws IOException {
 		this.workDir = workDir;
 		this.rCommand = command;
 		this.poolSizeMin = poolSizeMin;
@@ -88,82 +162,113 @@ public class ProcessPool {
 		this.poolTimeout = poolTimeout;
 		this.processUseCountMax = processUseCountMax;
 		this.processLifetimeMax = processLifetimeMax;
+		this.recycle = recycle;
 
 		// initialize pool structures
-		this.availableProcesses = new LinkedBlockingQueue<NamiProcess>(); 
+		this.availableProcesses = new LinkedList<NamiProcess>();
 		this.inUseProcesses = new ConcurrentHashMap<Integer, NamiProcess>();
-	
-		// populate pool with new processes  
+		this.profiles.put(NO_PACKAGES, Collections.<String>emptySet());
+
+		// populate pool with new processes, fails if the command doesn't work
 		for (int i = 0; i < poolSizeMin; i++) {
-			availableProcesses.add(createProcess());
+			availableProcesses.add(createProcess(NO_PACKAGES));
 		}
-		
+
+		this.spawner = Executors.newCachedThreadPool(new DaemonThreadFactory("process-pool-spawner"));
+		this.maintainer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("process-pool-maintainer"));
+		maintainer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				maintain(true);
+			}
+		}, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+
 		logger.debug("R process pool initialized, processes available: " + availableProcesses.size());
-		
+
 	}
 
 
 	public Process getProcess() throws IOException, InterruptedException {
+		return getProcess(Collections.<String>emptyList());
+	}
+
+	/**
+	 * Get a process, preferably one that has already loaded the given packages.
+	 *
+	 * @param packages packages needed by the job, may be empty
+	 */
+	public Process getProcess(Collection<String> packages) throws IOException, InterruptedException {
+		String profile = getProfile(packages);
+		long deadline = System.currentTimeMillis() + poolTimeout * 1000l;
 		NamiProcess nProcess;
-		
-		// try to get a process
-		nProcess = availableProcesses.poll();
-		
-		// no processes were available, try to create a new one
-		if (nProcess == null) {
-			
-			// still room for more processes, create one
-			if (availableProcesses.size() + inUseProcesses.size() < poolSizeMax) {
-				nProcess = createProcess();
-			}
 
-			// already max number of processes created, wait for one to be available
-			else {
-				nProcess = availableProcesses.poll(poolTimeout, TimeUnit.SECONDS);
-				
-				// finally got the process or timeout?
-				if (nProcess == null) {
-					throw new IOException("Timeout when getting an R process.");
+		synchronized (this) {
+			profileDemand.put(profile, getDemand(profile) + 1);
+
+			// try to get a process
+			nProcess = pollAvailable(profile);
+
+			// no processes were available, wait for the maintainer to create one or
+			// for some other job to release one
+			if (nProcess == null) {
+				increment(waitingRequests, profile, 1);
+				try {
+					requestMaintenance();
+					while (nProcess == null) {
+						long timeLeft = deadline - System.currentTimeMillis();
+						if (timeLeft <= 0) {
+							throw new IOException("Timeout when getting an R process.");
+						}
+						this.wait(timeLeft);
+						nProcess = pollAvailable(profile);
+					}
+				} finally {
+					increment(waitingRequests, profile, -1);
 				}
 			}
+
+			// the process is now in use
+			nProcess.increaseUseCount();
+			inUseProcesses.put(nProcess.getProcess().hashCode(), nProcess);
 		}
-		
-		// the process is now in use
-		nProcess.increaseUseCount();
-		inUseProcesses.put(nProcess.getProcess().hashCode(), nProcess);
+
+		// replace the process we took
+		requestMaintenance();
+
 		return nProcess.getProcess();
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param process
-	 * @param recycle true if the process should be recycled, false is used for
-	 * processes which are known to be dead or having problems
+	 * @param recycle true if the process could be recycled, false is used for
+	 * processes which are known to be dead or having problems. Processes are
+	 * recycled only if recycling is enabled for the pool.
 	 * @throws IOException
 	 */
 	public void releaseProcess(Process process, boolean recycle) throws IOException {
 
-		
+
 		// make sure the process originated in this pool
 		NamiProcess nProcess = inUseProcesses.get(process.hashCode());
 		if (nProcess == null) {
 			throw new IOException("Trying to release an unknown process.");
 		}
-		
-		
+
+
 		// check the process
 		boolean processOk = true;
 		boolean processAlive = false;
-		
-		// no recycling 
-		if (!recycle) {
+
+		// no recycling
+		if (!recycle || !this.recycle) {
 			logger.debug("Process " + nProcess.getProcess().hashCode() + " not recycled as requested.");
-		} 
+		}
 		// check process use count
 		else if (nProcess.getUseCount() >= processUseCountMax) {
 			processOk = false;
 			logger.debug("Process " + nProcess.getProcess().hashCode() + " has been used for " + nProcess.getUseCount() + " times and is therefore not recycled.");
-		} 
+		}
 		// check process lifetime
 		else if ((System.currentTimeMillis() - nProcess.getCreationTime().getTime()) >= processLifetimeMax * 1000) {
 			processOk = false;
@@ -182,115 +287,383 @@ public class ProcessPool {
 			}
 		}
 
-		
-		// recycle the process or replace it with a new one 
-		if (recycle && processOk && processAlive) {
+
+		// recycle the process or destroy it, the maintainer replaces destroyed processes
+		boolean recycled = false;
+		if (recycle && this.recycle && processOk && processAlive) {
 			logger.debug("Recycling process " + nProcess.getProcess().hashCode() + ".");
 
-			// make sure that STDOUT and STDERR are clean
+			// restore the state after the warm up, keeping the loaded packages
+			recycled = runAndWait(process,
+					"rm(list=objects(all.names=TRUE))\n" +
+					"if (exists(\"chipster.search.snapshot\")) for (chipster.entry in setdiff(search(), chipster.search.snapshot)) detach(chipster.entry, character.only=TRUE)\n" +
+					"rm(list=objects(all.names=TRUE))\n" +
+					"invisible(gc())\n" +
+					"setwd(\"" + workDir.getAbsolutePath() + "\")\n",
+					RECYCLE_TIMEOUT);
+		}
 
-			
-			CountDownLatch recycleLatch = new CountDownLatch(1);
-			ProcessMonitor recycleMonitor = new ProcessMonitor(process, recycleLatch);
-			new Thread(recycleMonitor).start();
-			
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
-			// TODO add garbage collecting here?
-			writer.write("rm(list=objects())");
-			writer.newLine();
-			writer.write("setwd(\"" + workDir.getAbsolutePath() + "\")");
-			writer.newLine();
-			writer.write("print(\"" + RECYCLE_SUCCESFUL_STRING + "\")");
-			writer.newLine();
-			writer.flush();
-			
-			try {
-				recycleLatch.await(10, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				processOk = false;
-			}
+		if (!recycled) {
+			process.destroy();
+		}
+
+		synchronized (this) {
+			// remove the possibly recycled process from inUse
+			inUseProcesses.remove(process.hashCode());
 
-			if (!processOk || recycleLatch.getCount() > 0 || !recycleMonitor.processOk() || process.getErrorStream().available() > 0) {
+			// make the recycled process available again, if there is room for it
+			if (recycled && availableProcesses.size() + inUseProcesses.size() < poolSizeMax) {
+				nProcess.setIdleSince(System.currentTimeMillis());
+				availableProcesses.add(nProcess);
+				this.notifyAll();
+			} else if (recycled) {
 				process.destroy();
-				nProcess = createProcess();
 			}
-			
-		
-		} else {
-			process.destroy();
-			nProcess = createProcess();
+
+			logger.debug("Available processes: " + availableProcesses.size() + ", in use: " + inUseProcesses.size() + ", " + getStatistics());
 		}
+		requestMaintenance();
+	}
 
-		
-		// make the (possibly new) process available again, if there is room for it,
-		if (availableProcesses.size() < poolSizeMin && availableProcesses.size() + inUseProcesses.size() <= poolSizeMax) {
-			availableProcesses.add(nProcess);
-		} 
-		// otherwise destroy it
-		else {
-			nProcess.getProcess().destroy();
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of processes taken for jobs that don't preload packages, 
+	 * these are neither hits nor misses
+	 */
+	public long getNoPackages() {
+		return noPackages.get();
+	}
+
+	public long getSpawns() {
+		return spawns.get();
+	}
+
+	public long getSpawnFailures() {
+		return spawnFailures.get();
+	}
+
+	/**
+	 * @return average time to start and warm up a process, milliseconds
+	 */
+	public long getSpawnTimeAverage() {
+		long count = spawns.get();
+		return count > 0 ? spawnTimeTotal.get() / count : 0;
+	}
+
+	/**
+	 * @return longest time to start and warm up a process, milliseconds
+	 */
+	public long getSpawnTimeMax() {
+		return spawnTimeMax.get();
+	}
+
+	public String getStatistics() {
+		return "hits: " + getHits() + ", misses: " + getMisses() + ", no packages: " + getNoPackages() + ", spawns: " + getSpawns() +
+				", spawn failures: " + getSpawnFailures() + ", spawn time avg: " + getSpawnTimeAverage() +
+				" ms, max: " + getSpawnTimeMax() + " ms";
+	}
+
+
+	/**
+	 * Take an available process with the packages of the profile, or any available
+	 * process if there isn't such.
+	 */
+	private NamiProcess pollAvailable(String profile) {
+		Set<String> packages = profiles.get(profile);
+		NamiProcess fallback = null;
+		for (NamiProcess nProcess : availableProcesses) {
+			if (profiles.get(nProcess.getProfile()).containsAll(packages)) {
+				availableProcesses.remove(nProcess);
+				if (packages.isEmpty()) {
+					noPackages.incrementAndGet();
+				} else {
+					hits.incrementAndGet();
+				}
+				return nProcess;
+			}
+			if (fallback == null) {
+				fallback = nProcess;
+			}
+		}
+		if (fallback != null) {
+			availableProcesses.remove(fallback);
+			misses.incrementAndGet();
+		}
+		return fallback;
+	}
+
+	private void requestMaintenance() {
+		try {
+			maintainer.execute(new Runnable() {
+				@Override
+				public void run() {
+					maintain(false);
+				}
+			});
+		} catch (Exception e) {
+			// maintenance is done again on the next round anyway
+			logger.warn("could not request maintenance", e);
+		}
+	}
+
+	/**
+	 * Start and retire processes to follow the demand. Runs only in the maintainer thread.
+	 *
+	 * @param sample true if the queue depth should be sampled on this round
+	 */
+	private synchronized void maintain(boolean sample) {
+
+		int waiting = 0;
+		for (int count : waitingRequests.values()) {
+			waiting += count;
+		}
+
+		if (sample) {
+			queueDepthAverage = (1 - QUEUE_DEPTH_WEIGHT) * queueDepthAverage + QUEUE_DEPTH_WEIGHT * waiting;
+
+			// forget old demand slowly
+			for (Map.Entry<String, Double> entry : profileDemand.entrySet()) {
+				entry.setValue(entry.getValue() * (1 - QUEUE_DEPTH_WEIGHT / 10));
+			}
 		}
-		
-		// remove the possibly recycled process from inUse
-		inUseProcesses.remove(process.hashCode());
-		
-		logger.debug("Available processes: " + availableProcesses.size() + ", in use: " + inUseProcesses.size());
 
-	
+		// keep poolSizeMin processes available, and more if requests have been waiting recently
+		int total = availableProcesses.size() + inUseProcesses.size() + spawningProcesses;
+		int target = inUseProcesses.size() + waiting + Math.max(poolSizeMin, (int) Math.ceil(queueDepthAverage - 0.1));
+		target = Math.min(poolSizeMax, target);
+
+		// warm up for the waiting requests first, then for the recent demand
+		LinkedList<String> waitingProfiles = new LinkedList<String>();
+		for (String profile : waitingRequests.keySet()) {
+			for (int i = 0; i < waitingRequests.get(profile); i++) {
+				waitingProfiles.add(profile);
+			}
+		}
+		for (int i = total; i < target; i++) {
+			spawn(!waitingProfiles.isEmpty() ? waitingProfiles.removeFirst() : getMostDemandedProfile());
+		}
+
+		// retire idle processes above the target
+		long now = System.currentTimeMillis();
+		Iterator<NamiProcess> iterator = availableProcesses.iterator();
+		while (iterator.hasNext() && total > target && waiting == 0) {
+			NamiProcess nProcess = iterator.next();
+			if (now - nProcess.getIdleSince() > IDLE_TIMEOUT * 1000l) {
+				iterator.remove();
+				nProcess.getProcess().destroy();
+				total--;
+				logger.debug("Retired an idle process, available processes: " + availableProcesses.size());
+			}
+		}
 	}
-	
 
-	private NamiProcess createProcess() throws IOException {
+	private void spawn(final String profile) {
+		spawningProcesses++;
+		spawner.execute(new Runnable() {
+			@Override
+			public void run() {
+				NamiProcess nProcess = null;
+				try {
+					nProcess = createProcess(profile);
+				} catch (IOException e) {
+					logger.warn("could not create a process", e);
+				}
 
-		logger.debug("Creating a new R process.");
+				synchronized (ProcessPool.this) {
+					spawningProcesses--;
+					if (nProcess != null) {
+						availableProcesses.add(nProcess);
+						ProcessPool.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start a new process and load the packages of the profile. Blocks until done.
+	 */
+	private NamiProcess createProcess(String profile) throws IOException {
+
+		long startTime = System.currentTimeMillis();
+		Set<String> packages;
+		synchronized (this) {
+			if (brokenProfiles.contains(profile)) {
+				profile = NO_PACKAGES;
+			}
+			packages = profiles.get(profile);
+		}
+
+		logger.debug("Creating a new R process" + (packages.isEmpty() ? "." : " with packages " + profile));
 		ProcessBuilder builder = new ProcessBuilder(rCommand.split(" "));
 		//Process p = Runtime.getRuntime().exec(rCommand, null, workDir);
 		builder.directory(workDir);
 		builder.redirectErrorStream(true);
 		Process p = builder.start();
-		return new NamiProcess(p);
+
+		if (!packages.isEmpty()) {
+			StringBuilder warmUp = new StringBuilder();
+			for (String packageName : packages) {
+				warmUp.append("library(" + packageName + ")\n");
+			}
+			// store the search path to restore it when recycling
+			warmUp.append("attach(list(chipster.search.snapshot=c(search(), \"chipster.snapshot\")), name=\"chipster.snapshot\")\n");
+
+			if (!runAndWait(p, warmUp.toString(), WARM_UP_TIMEOUT)) {
+				p.destroy();
+				spawnFailures.incrementAndGet();
+				synchronized (this) {
+					// don't try again, give plain processes to the requests
+					brokenProfiles.add(profile);
+				}
+				throw new IOException("Loading packages " + profile + " failed.");
+			}
+		}
+
+		long spawnTime = System.currentTimeMillis() - startTime;
+		spawns.incrementAndGet();
+		spawnTimeTotal.addAndGet(spawnTime);
+		if (spawnTime > spawnTimeMax.get()) {
+			spawnTimeMax.set(spawnTime);
+		}
+
+		return new NamiProcess(p, profile);
+	}
+
+	/**
+	 * Write the commands to the process and wait until they are done.
+	 *
+	 * @return true if the commands completed in time
+	 */
+	private boolean runAndWait(Process process, String commands, int timeout) {
+
+		CountDownLatch latch = new CountDownLatch(1);
+		ProcessMonitor monitor = new ProcessMonitor(process, latch);
+		new Thread(monitor).start();
+
+		try {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			writer.write(commands);
+			// built in R, so that the echoed command doesn't match
+			writer.write("print(paste(\"recycling\", \"succesful\", sep=\"-\"))");
+			writer.newLine();
+			writer.flush();
+
+			latch.await(timeout, TimeUnit.SECONDS);
+			return latch.getCount() == 0 && monitor.processOk() && process.getErrorStream().available() == 0;
+
+		} catch (InterruptedException | IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Profile is the sorted, comma separated list of packages.
+	 */
+	private synchronized String getProfile(Collection<String> packages) {
+		TreeSet<String> sorted = new TreeSet<String>(packages);
+		StringBuilder profile = new StringBuilder();
+		for (String packageName : sorted) {
+			if (profile.length() > 0) {
+				profile.append(",");
+			}
+			profile.append(packageName);
+		}
+		String key = profile.toString();
+		if (!profiles.containsKey(key)) {
+			profiles.put(key, Collections.unmodifiableSet(sorted));
+		}
+		return key;
+	}
+
+	private String getMostDemandedProfile() {
+		String mostDemanded = NO_PACKAGES;
+		double max = 0;
+		for (String profile : profileDemand.keySet()) {
+			if (profileDemand.get(profile) > max && !brokenProfiles.contains(profile)) {
+				max = profileDemand.get(profile);
+				mostDemanded = profile;
+			}
+		}
+		return mostDemanded;
 	}
-	
-	
+
+	private double getDemand(String profile) {
+		Double demand = profileDemand.get(profile);
+		return demand != null ? demand : 0;
+	}
+
+	private static void increment(Map<String, Integer> counts, String key, int delta) {
+		Integer count = counts.get(key);
+		int newCount = (count != null ? count : 0) + delta;
+		if (newCount == 0) {
+			counts.remove(key);
+		} else {
+			counts.put(key, newCount);
+		}
+	}
+
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private String name;
+		private AtomicInteger count = new AtomicInteger(0);
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+
 	private class ProcessMonitor implements Runnable {
 
 		private CountDownLatch latch;
 		private Process process;
 		private boolean processOk = false;
-		
+
 		public ProcessMonitor(Process process, CountDownLatch latch) {
 			this.process = process;
 			this.latch = latch;
 		}
-		
+
 		public boolean processOk() {
 			return processOk;
 		}
-		
-		
+
+
 		public void run() {
 			BufferedReader reader = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
-			
-			boolean readMore = true;
+
 			try {
-				for (String line = reader.readLine(); readMore ; line = reader.readLine()) {
-					
+				for (String line = reader.readLine(); ; line = reader.readLine()) {
+
 					// read end of stream --> error
 					if (line == null ) {
 						processOk = false;
-						readMore = false;
-					} 
-					
-					// read recycle successful
+						break;
+					}
+
+					// read recycle successful, don't read further as there is nothing more to read
 					else if (line.contains(RECYCLE_SUCCESFUL_STRING)) {
 						processOk = true;
-						readMore = false;
+						break;
 					}
-					
+
 					// read normal output
-					else {
-						
-					}
 				}
 			} catch (IOException e) {
 				processOk = false;
@@ -298,15 +671,15 @@ public class ProcessPool {
 
 			this.latch.countDown();
 		}
-	
+
 	}
 
-	
-	
-	
-	
-	
-	
-	
-	
+
+
+
+
+
+
+
+
 }
@@ -21,6 +21,7 @@ import org.xml.sax.SAXException;
 
 import fi.csc.microarray.analyser.ToolDescription.InputDescription;
 import fi.csc.microarray.analyser.ToolDescription.OutputDescription;
+import fi.csc.microarray.analyser.ToolDescription.Priority;
 import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.messaging.message.ModuleDescriptionMessage;
 import fi.csc.microarray.messaging.message.ModuleDescriptionMessage.Category;
@@ -186,6 +187,13 @@ public class RepositoryModule {
 		}
 
 		newDescription.setUpdatedSinceStartup();
+		
+		// scheduling attributes come from the module file, keep them
+		newDescription.setSlots(oldDescription.getSlots());
+		newDescription.setPriority(oldDescription.getPriority());
+		newDescription.setCores(oldDescription.getCores());
+		newDescription.setMemory(oldDescription.getMemory());
+		newDescription.setPreloadPackages(oldDescription.getPreloadPackages());
 
 		// name (id) of the tool has not changed
 		if (oldDescription.getID().equals(newDescription.getID())) {
@@ -257,6 +265,9 @@ public class RepositoryModule {
 			return;
 		}
 		
+		// Packages that the processes running the tools of this module should have loaded
+		List<String> modulePreloadPackages = parsePackages(moduleElement.getAttribute("preload-packages"));
+		
 		// Initialise stats
 	    int totalCount = 0;
 		int successfullyLoadedCount = 0;
@@ -367,6 +378,34 @@ public class RepositoryModule {
 		    		continue;
 		    	}
 		    	
+		    	// Scheduling attributes 
+		    	try {
+		    		String slots = toolElement.getAttribute("slots");
+		    		if (!slots.isEmpty()) {
+		    			description.setSlots(Integer.parseInt(slots));
+		    		}
+		    		String priority = toolElement.getAttribute("priority");
+		    		if (!priority.isEmpty()) {
+		    			description.setPriority(Priority.valueOf(priority.toUpperCase()));
+		    		}
+		    		String cores = toolElement.getAttribute("cores");
+		    		if (!cores.isEmpty()) {
+		    			description.setCores(Integer.parseInt(cores));
+		    		}
+		    		String memory = toolElement.getAttribute("memory");
+		    		if (!memory.isEmpty()) {
+		    			description.setMemory(Integer.parseInt(memory));
+		    		}
+		    		if (toolElement.hasAttribute("preload-packages")) {
+		    			description.setPreloadPackages(parsePackages(toolElement.getAttribute("preload-packages")));
+		    		} else {
+		    			description.setPreloadPackages(modulePreloadPackages);
+		    		}
+		    	} catch (IllegalArgumentException e) {
+		    		logger.warn("not loading " + resource + ": invalid slots, priority, cores or memory", e);
+		    		continue;
+		    	}
+		    	
 		    	// Check that filenames are unique. Overwriting input files is a bad idea when the input file is
 		    	// only a symlink to the original file 		
 		    	boolean filenamesOk = true;
@@ -457,4 +496,17 @@ public class RepositoryModule {
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * @param packages comma separated list of package names, may be empty
+	 */
+	private static List<String> parsePackages(String packages) {
+		List<String> list = new LinkedList<String>();
+		for (String packageName : packages.split(",")) {
+			if (!packageName.trim().isEmpty()) {
+				list.add(packageName.trim());
+			}
+		}
+		return list;
+	}
+}
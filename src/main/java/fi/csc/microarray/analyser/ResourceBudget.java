@@ -0,0 +1,118 @@
+package fi.csc.microarray.analyser;
+
+import java.util.Collection;
+
+import fi.csc.microarray.util.SystemMonitorUtil;
+
+/**
+ * Decides if a job fits in the resources left by the active (scheduled and running)
+ * jobs of the comp.
+ *
+ * <p>Jobs are admitted by three budgets: job slots, CPU cores and memory. Cores and
+ * memory are reserved by the values declared in the tool description
+ * ({@link ToolDescription#getCores()}, {@link ToolDescription#getMemory()}). In
+ * addition, the actual load and available memory of the host are sampled, so that
+ * jobs are not started on a host that is already busy with something else.</p>
+ *
+ * <p>A job always fits if there aren't any active jobs, so that jobs bigger than
+ * the comp can't get stuck forever.</p>
+ */
+public class ResourceBudget {
+
+	private int maxSlots;
+	private int maxCores;
+	private long maxMemory;
+	private boolean checkSystemLoad;
+
+	/**
+	 * @param maxSlots total job slots of the comp
+	 * @param maxCores total CPU cores for jobs, 0 to use all the processors of the host
+	 * @param maxMemory total memory for jobs in megabytes, 0 to use all the physical memory of the host
+	 * @param checkSystemLoad if true, check also the sampled load and available memory of the host
+	 */
+	public ResourceBudget(int maxSlots, int maxCores, long maxMemory, boolean checkSystemLoad) {
+		this.maxSlots = maxSlots;
+		this.maxCores = maxCores > 0 ? maxCores : Runtime.getRuntime().availableProcessors();
+		this.maxMemory = maxMemory > 0 ? maxMemory : SystemMonitorUtil.getTotalPhysicalMemory() / 1024 / 1024;
+		this.checkSystemLoad = checkSystemLoad;
+	}
+
+	public boolean fits(AnalysisJob job, Collection<AnalysisJob> activeJobs) {
+		return getQueueReason(job, activeJobs) == null;
+	}
+
+	/**
+	 * @return human readable reason why the job doesn't fit or null if it fits
+	 */
+	public String getQueueReason(AnalysisJob job, Collection<AnalysisJob> activeJobs) {
+		if (activeJobs.isEmpty()) {
+			return null;
+		}
+
+		int usedSlots = 0;
+		int reservedCores = 0;
+		long reservedMemory = 0;
+		for (AnalysisJob activeJob : activeJobs) {
+			usedSlots += activeJob.analysis.getSlots();
+			reservedCores += activeJob.analysis.getCores();
+			reservedMemory += activeJob.analysis.getMemory();
+		}
+
+		ToolDescription tool = job.analysis;
+
+		if (usedSlots + tool.getSlots() > maxSlots) {
+			return "all job slots in use (" + usedSlots + "/" + maxSlots + ")";
+		}
+
+		if (reservedCores + tool.getCores() > maxCores) {
+			return "waiting for " + tool.getCores() + " CPU cores, " + Math.max(0, maxCores - reservedCores) + " free";
+		}
+
+		if (reservedMemory + tool.getMemory() > maxMemory) {
+			return "waiting for " + tool.getMemory() + " MB of memory, " + Math.max(0, maxMemory - reservedMemory) + " MB free";
+		}
+
+		if (checkSystemLoad) {
+			// load of the active jobs is already reserved, so only load exceeding the
+			// reservations comes from other processes or jobs using more than they declared
+			double load = getSystemLoad();
+			if (load >= 0 && Math.max(load, reservedCores) + tool.getCores() > maxCores + 0.5) {
+				return "host is busy (load " + SystemMonitorUtil.round1((float) load) + ")";
+			}
+
+			long availableMemory = getAvailableMemory();
+			if (availableMemory >= 0 && tool.getMemory() > availableMemory) {
+				return "waiting for " + tool.getMemory() + " MB of memory, " + availableMemory + " MB available on host";
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return system load average or negative if not available
+	 */
+	protected double getSystemLoad() {
+		return SystemMonitorUtil.getLoadAverage();
+	}
+
+	/**
+	 * @return available physical memory in megabytes or negative if not available
+	 */
+	protected long getAvailableMemory() {
+		long bytes = SystemMonitorUtil.getAvailablePhysicalMemory();
+		return bytes >= 0 ? bytes / 1024 / 1024 : -1;
+	}
+
+	public int getMaxSlots() {
+		return maxSlots;
+	}
+
+	public int getMaxCores() {
+		return maxCores;
+	}
+
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+}
@@ -35,4 +35,14 @@ public interface ResultCallback {
 	public void removeRunningJob(AnalysisJob job);
 	
 	public FileBrokerClient getFileBrokerClient() throws Exception;
+	
+	/**
+	 * @return stager shared by all the jobs for transferring their inputs
+	 */
+	public InputStager getInputStager();
+
+	/**
+	 * @return publisher shared by all the jobs for transferring their outputs
+	 */
+	public OutputPublisher getOutputPublisher();
 }
\ No newline at end of file
@@ -98,6 +98,16 @@ public class ToolDescription {
 	
 	
 	
+	/**
+	 * Priority classes for scheduling jobs, in the order of priority, highest first.
+	 */
+	public static enum Priority {
+		HIGH,
+		NORMAL,
+		LOW;
+	}
+	
+	
 	private String id;
 	
 
@@ -143,6 +153,28 @@ public class ToolDescription {
 	
 	private String initialiser;
 	
+	/**
+	 * How many job slots of a comp a job of this tool takes. 
+	 */
+	private int slots = 1;
+	
+	/**
+	 * How many CPU cores a job of this tool is expected to use. 
+	 */
+	private int cores = 1;
+	
+	/**
+	 * How much memory a job of this tool is expected to use, megabytes. 0 if not declared. 
+	 */
+	private int memory = 0;
+	
+	/**
+	 * Packages that a process should have loaded before running a job of this tool.
+	 */
+	private List<String> preloadPackages = new LinkedList<String>();
+	
+	private Priority priority = Priority.NORMAL;
+	
 	private Date creationTime = new Date();
 	private boolean updatedSinceStartup = false;
 
@@ -318,5 +350,44 @@ public class ToolDescription {
 	public void setID(String id) {
 		this.id = id;
 	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public void setSlots(int slots) {
+		this.slots = slots;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	public int getCores() {
+		return cores;
+	}
+
+	public void setCores(int cores) {
+		this.cores = cores;
+	}
+
+	public int getMemory() {
+		return memory;
+	}
+
+	public void setMemory(int memory) {
+		this.memory = memory;
+	}
+
+	public List<String> getPreloadPackages() {
+		return preloadPackages;
+	}
+
+	public void setPreloadPackages(List<String> preloadPackages) {
+		this.preloadPackages = preloadPackages;
+	}
 }
- 
\ No newline at end of file
@@ -74,6 +74,23 @@ public class ToolRepository {
 		return null;
 	}
 	
+	/**
+	 * @return statistics of the process pools of the runtimes or null if no runtime has a pool
+	 */
+	public synchronized String getProcessPoolStatistics() {
+		String statistics = null;
+		for (ToolRuntime runtime : runtimes.values()) {
+			if (runtime.getHandler() instanceof InterpreterAnalysisHandler) {
+				ProcessPool pool = ((InterpreterAnalysisHandler) runtime.getHandler()).getProcessPool();
+				if (pool != null) {
+					String poolStatistics = runtime.getName() + ": " + pool.getStatistics();
+					statistics = statistics == null ? poolStatistics : statistics + "; " + poolStatistics;
+				}
+			}
+		}
+		return statistics;
+	}
+	
 	/**
 	 * @return true if this comp service can run the given tool.
 	 */
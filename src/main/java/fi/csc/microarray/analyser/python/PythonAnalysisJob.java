@@ -18,6 +18,7 @@ import org.apache.log4j.Logger;
 import fi.csc.microarray.analyser.ToolDescription;
 import fi.csc.microarray.analyser.JobCancelledException;
 import fi.csc.microarray.analyser.OnDiskAnalysisJobBase;
+import fi.csc.microarray.analyser.OutputCapture;
 import fi.csc.microarray.analyser.ProcessPool;
 import fi.csc.microarray.analyser.ToolDescription.ParameterDescription;
 import fi.csc.microarray.exception.MicroarrayException;
@@ -110,58 +111,41 @@ public class PythonAnalysisJob extends OnDiskAnalysisJobBase {
 	
 	private class PythonProcessMonitor implements Runnable {
 
-		
-		private ArrayList<String> outputLines;
+		private OutputCapture outputCapture = createOutputCapture();
 
 		public void run() {
 			
 			logger.debug("Python process monitor started.");
-			outputLines = new ArrayList<String>();
 			
 			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
 			
-			boolean readMore = true;
 			try {
-				for (String line = reader.readLine(); readMore ; line = reader.readLine()) {
+				for (String line = reader.readLine(); ; line = reader.readLine()) {
 					
 					// read end of stream --> error
 					if (line == null || line.contains(SCRIPT_FAILED_STRING)) {
 						updateState(JobState.FAILED, "Python script failed");
-						readMore = false;
+						break;
 					} 
 					
 					// read script successful
 					else if (line.contains(SCRIPT_SUCCESSFUL_STRING)) {
 						updateState(JobState.COMPLETED, "Python script finished successfully");
-						readMore = false;
+						break;
 					}
 					
 					// read normal output
 					else {
-						outputLines.add(line);
+						outputCapture.addLine(line);
 					}
 				}
 				
 				// read the error message and chipster note
 				if (getState() == JobState.FAILED) {
 
-					// find the error token
-					int errorLineNumber = -1;
-					for (int i = outputLines.size(); i > 0 && errorLineNumber == -1; i--) {
-						if (outputLines.get(i-1).startsWith(ERROR_MESSAGE_TOKEN)) {
-							errorLineNumber = i-1;
-						}
-					}
-				
-					// get lines starting from the error token
-					if (errorLineNumber != -1) {
-						String errorMessage = "";
-						errorMessage += outputLines.get(errorLineNumber).substring(ERROR_MESSAGE_TOKEN.length()) + "\n";
-						for (int i = errorLineNumber + 1; i < outputLines.size(); i++) {
-							errorMessage += outputLines.get(i) + "\n";
-						}
-						errorMessage = errorMessage.substring(0, errorMessage.lastIndexOf("\n"));
-						errorMessage = errorMessage.trim();
+					// get lines starting from the last error token
+					String errorMessage = outputCapture.getLastLinesStartingWith(ERROR_MESSAGE_TOKEN, 0);
+					if (errorMessage != null) {
 						
 						// check for chipster note
 						if (errorMessage.contains(CHIPSTER_NOTE_TOKEN)) {
@@ -178,17 +162,15 @@ public class PythonAnalysisJob extends OnDiskAnalysisJobBase {
 				// also canceling the job leads here 
 				logger.debug("error in monitoring Python process.");
 				updateState(JobState.ERROR, "reading Python output failed.");
+			} finally {
+				outputCapture.close();
 			}
 
 			waitPythonLatch.countDown();
 		}
 
 		public String getOutput() {
-			StringBuilder output = new StringBuilder();
-			for (String line: outputLines) {
-				output.append(line + "\n");
-			}
-			return output.toString();
+			return outputCapture.getOutput();
 		}
 	
 	}
@@ -18,6 +18,7 @@ import org.apache.log4j.Logger;
 import fi.csc.microarray.analyser.ToolDescription;
 import fi.csc.microarray.analyser.JobCancelledException;
 import fi.csc.microarray.analyser.OnDiskAnalysisJobBase;
+import fi.csc.microarray.analyser.OutputCapture;
 import fi.csc.microarray.analyser.ProcessPool;
 import fi.csc.microarray.analyser.ToolDescription.ParameterDescription;
 import fi.csc.microarray.exception.MicroarrayException;
@@ -110,57 +111,41 @@ public class RAnalysisJob extends OnDiskAnalysisJobBase {
 	
 	private class RProcessMonitor implements Runnable {
 
-		private ArrayList<String> outputLines;
+		private OutputCapture outputCapture = createOutputCapture();
 
 		public void run() {
 			
 			logger.debug("R process monitor started.");
-			outputLines = new ArrayList<String>();
 			
 			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
 			
-			boolean readMore = true;
 			try {
-				for (String line = reader.readLine(); readMore ; line = reader.readLine()) {
+				for (String line = reader.readLine(); ; line = reader.readLine()) {
 					
 					// read end of stream --> error
 					if (line == null || line.contains(SCRIPT_FAILED_STRING)) {
 						updateState(JobState.FAILED, "R script failed");
-						readMore = false;
+						break;
 					} 
 					
 					// read script successful
 					else if (line.contains(SCRIPT_SUCCESSFUL_STRING)) {
 						updateState(JobState.COMPLETED, "R script finished successfully");
-						readMore = false;
+						break;
 					}
 					
 					// read normal output
 					else {
-						outputLines.add(line);
+						outputCapture.addLine(line);
 					}
 				}
 				
 				// read the error message and chipster note
 				if (getState() == JobState.FAILED) {
 
-					// find the error token
-					int errorLineNumber = -1;
-					for (int i = outputLines.size(); i > 0 && errorLineNumber == -1; i--) {
-						if (outputLines.get(i-1).startsWith(ERROR_MESSAGE_TOKEN)) {
-							errorLineNumber = i-1;
-						}
-					}
-				
-					// get lines starting from the error token, except for the last "Execution halted"
-					if (errorLineNumber != -1) {
-						String errorMessage = "";
-						errorMessage += outputLines.get(errorLineNumber).substring(ERROR_MESSAGE_TOKEN.length()) + "\n";
-						for (int i = errorLineNumber + 1; i < outputLines.size() - 1; i++) {
-							errorMessage += outputLines.get(i) + "\n";
-						}
-						errorMessage = errorMessage.substring(0, errorMessage.lastIndexOf("\n"));
-						errorMessage = errorMessage.trim();
+					// get lines starting from the last error token, except for the last "Execution halted"
+					String errorMessage = outputCapture.getLastLinesStartingWith(ERROR_MESSAGE_TOKEN, 1);
+					if (errorMessage != null) {
 						
 						// check for chipster note
 						if (errorMessage.contains(CHIPSTER_NOTE_TOKEN)) {
@@ -177,17 +162,15 @@ public class RAnalysisJob extends OnDiskAnalysisJobBase {
 				// also canceling the job leads here 
 				logger.debug("error in monitoring R process.");
 				updateState(JobState.ERROR, "reading R output failed.");
+			} finally {
+				outputCapture.close();
 			}
 
 			waitRLatch.countDown();
 		}
 
 		public String getOutput() {
-			StringBuilder output = new StringBuilder();
-			for (String line: outputLines) {
-				output.append(line + "\n");
-			}
-			return output.toString();
+			return outputCapture.getOutput();
 		}
 	
 	}
@@ -252,7 +235,7 @@ public class RAnalysisJob extends OnDiskAnalysisJobBase {
 		cancelCheck();
 		logger.debug("getting a process.");;
 		try {
-			this.process = processPool.getProcess();
+			this.process = processPool.getProcess(analysis.getPreloadPackages());
 		} catch (Exception e) {
 			outputMessage.setErrorMessage("Starting R failed.");
 			outputMessage.setOutputText(Exceptions.getStackTrace(e));
@@ -387,11 +370,10 @@ public class RAnalysisJob extends OnDiskAnalysisJobBase {
 	
 	protected void cleanUp() {
 		try {
-			// only try to recycle the process if the script finished succesfully
-			// don't recycle at the moment
+			// only try to recycle the process if the script finished succesfully,
+			// pool recycles only if enabled in configuration
 			if (process != null) {
-				//this.resultHandler.getProcessPool().releaseProcess(process, getState().equals(JobState.SUCCESS));
-				processPool.releaseProcess(process, false);
+				processPool.releaseProcess(process, getState() == JobState.COMPLETED);
 			}
 		} catch (Exception e) {
 			logger.error("error when releasing process. ", e);
@@ -1,7 +1,10 @@
 package fi.csc.microarray.analyser.shell;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.io.IOUtils;
@@ -9,10 +12,10 @@ import org.apache.log4j.Logger;
 
 import fi.csc.microarray.analyser.JobCancelledException;
 import fi.csc.microarray.analyser.OnDiskAnalysisJobBase;
+import fi.csc.microarray.analyser.OutputCapture;
 import fi.csc.microarray.analyser.ToolDescription.OutputDescription;
 import fi.csc.microarray.messaging.JobState;
 import fi.csc.microarray.util.Exceptions;
-import fi.csc.microarray.util.Files;
 
 /**
  * Job that is run as a generic shell command.
@@ -71,6 +74,24 @@ public abstract class ShellAnalysisJobBase extends OnDiskAnalysisJobBase {
             process = Runtime.getRuntime().exec(command, null, jobWorkDir);
             updateStateDetailToClient("running analysis tool");
             
+            // read stdout and stderr while the process runs, so that it doesn't 
+            // block when the pipes are full
+            OutputCapture outputCapture = createOutputCapture();
+            StreamCopier stdoutCopier = null;
+            File outputFile = null;
+            Thread stdoutThread;
+            if (useStdout) {
+            	// use screen output as result data
+                OutputDescription output = analysis.getOutputFiles().get(0);
+                outputFile = new File(jobWorkDir, output.getFileName().getID());
+                stdoutCopier = new StreamCopier(process.getInputStream(), outputFile);
+                stdoutThread = new Thread(stdoutCopier);
+                stdoutThread.start();
+            } else {
+            	stdoutThread = outputCapture.startCapture(process.getInputStream());
+            }
+            Thread stderrThread = outputCapture.startCapture(process.getErrorStream());
+            
             // Start a new thread to listen to OS process status
             new Thread(new ProcessWaiter()).start();
             
@@ -78,14 +99,23 @@ public abstract class ShellAnalysisJobBase extends OnDiskAnalysisJobBase {
             latch.await();
             cancelCheck();
             
-            // now finished
+            // now finished, wait for the rest of the output
+            stdoutThread.join();
+            stderrThread.join();
+            
+            // stdout went to the result file, add it to the screen output too
+            if (stdoutCopier != null && stdoutCopier.getException() == null) {
+            	InputStream stdoutStream = new FileInputStream(outputFile);
+            	try {
+            		outputCapture.capture(stdoutStream);
+            	} finally {
+            		IOUtils.closeQuietly(stdoutStream);
+            	}
+            }
+            outputCapture.close();
             updateStateDetailToClient("analysis tool finished");
             
-            // put stdout and stderr to outputmessage
-            // stdoOutString is also possible needed later for the out file
-            String stdOutString = Files.inputStreamToString(process.getInputStream());
-            String stdErrorString = Files.inputStreamToString(process.getErrorStream());
-            outputMessage.setOutputText(stdOutString + "\n" + stdErrorString);
+            outputMessage.setOutputText(outputCapture.getOutput());
             
             // failed job
             if (process.exitValue() != 0) {
@@ -94,18 +124,8 @@ public abstract class ShellAnalysisJobBase extends OnDiskAnalysisJobBase {
                 return;
             } 
         
-            if (useStdout) {
-            	// use screen output as result data
-                OutputDescription output = analysis.getOutputFiles().get(0);
-                File outputFile = new File(jobWorkDir, output.getFileName().getID());
-                FileOutputStream fileStream = null;
-                try {
-                	fileStream = new FileOutputStream(outputFile);
-                	IOUtils.write(stdOutString, fileStream);
-                	fileStream.flush();
-                } finally {
-                	IOUtils.closeQuietly(fileStream);
-                }
+            if (stdoutCopier != null && stdoutCopier.getException() != null) {
+            	throw stdoutCopier.getException();
             }
 
             // if successful, don't need to do anything, just leave the state as running
@@ -153,6 +173,39 @@ public abstract class ShellAnalysisJobBase extends OnDiskAnalysisJobBase {
     }
 
 
+    /**
+     * Copies a stream to a file.
+     */
+    private static class StreamCopier implements Runnable {
+    	
+    	private InputStream stream;
+    	private File file;
+    	private IOException exception;
+
+    	public StreamCopier(InputStream stream, File file) {
+    		this.stream = stream;
+    		this.file = file;
+    	}
+    	
+		@Override
+		public void run() {
+			FileOutputStream fileStream = null;
+			try {
+				fileStream = new FileOutputStream(file);
+				IOUtils.copy(stream, fileStream);
+				fileStream.flush();
+			} catch (IOException e) {
+				exception = e;
+			} finally {
+				IOUtils.closeQuietly(fileStream);
+			}
+		}
+		
+		public IOException getException() {
+			return exception;
+		}
+    }
+    
     /**
      * A simple runnable that waits for an operating system
      * process to finish and reduces a given latch by one.
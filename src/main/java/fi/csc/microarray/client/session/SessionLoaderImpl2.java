@@ -9,6 +9,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -171,6 +172,39 @@ public class SessionLoaderImpl2 {
 		}
 	}
 
+	private void prefetchURLs() {
+		
+		LinkedList<String> dataIds = new LinkedList<>();
+		for (DataType dataType : sessionType.getData()) {
+			if (dataType.getDataId() != null && !isInSessionZip(dataType)) {
+				dataIds.add(dataType.getDataId());
+			}
+		}
+		
+		if (dataIds.isEmpty()) {
+			return;
+		}
+		
+		try {
+			Session.getSession().getServiceAccessor().getFileBrokerClient().prefetchURLs(dataIds);
+		} catch (Exception e) {
+			// only an optimisation, the urls are asked again when needed
+			logger.warn("could not prefetch urls of the session files", e);
+		}
+	}
+
+	private boolean isInSessionZip(DataType dataType) {
+		if (isDatalessSession) {
+			return false;
+		}
+		for (LocationType location : dataType.getLocation()) {
+			if (StorageMethod.LOCAL_SESSION_ZIP.toString().equals(location.getMethod())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private void createFolders() {
 		for (FolderType folderType : sessionType.getFolder()) {
 			String name = folderType.getName();
@@ -508,14 +542,22 @@ public class SessionLoaderImpl2 {
 
 	public void loadSession() throws Exception {
 		
+		long start = System.currentTimeMillis();
+		
 		// parse metadata to jaxb classes
 		parseMetadata();
+		long metadataTime = System.currentTimeMillis();
+		
+		// ask the locations of all files at once, instead of one by one when they are opened
+		prefetchURLs();
+		long urlTime = System.currentTimeMillis();
 
 		// create the basic objects from the jaxb classes 
 		createFolders();
 		createDataBeans();
 		createOperations();
 		linkOperationsToOutputs();
+		long createTime = System.currentTimeMillis();
 				
 		/*
 		 * Type tags are added anyway in linkDataItemChildren(), but it's much
@@ -526,12 +568,21 @@ public class SessionLoaderImpl2 {
 		 * because all this information is needed in type tagging.
 		 */
 		dataManager.addTypeTagsAndVerifyContentLength(dataBeans.values());
+		long typeTagTime = System.currentTimeMillis();
 
 		linkDataItemChildren(dataManager.getRootFolder());
 		linkDataBeans();
 		linkInputsToOperations();
+		long linkTime = System.currentTimeMillis();
 		
 		this.sessionNotes = sessionType.getNotes();
+		
+		logger.info("loaded session with " + dataBeans.size() + " datasets in " + (linkTime - start) + " ms: " + 
+				"metadata " + (metadataTime - start) + " ms, " + 
+				"urls " + (urlTime - metadataTime) + " ms, " + 
+				"creating objects " + (createTime - urlTime) + " ms, " + 
+				"type tags " + (typeTagTime - createTime) + " ms, " + 
+				"linking " + (linkTime - typeTagTime) + " ms");
 	}
 	
 	public void setXOffset(Integer xOffset) {
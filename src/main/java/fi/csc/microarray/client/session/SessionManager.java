@@ -156,6 +156,10 @@ public class SessionManager {
 	public void loadLocalSession(File sessionFile, boolean isDataless, Integer xOffset) throws Exception {
 		SessionLoader sessionLoader = new SessionLoader(sessionFile, isDataless, dataManager);
 		loadSession(sessionLoader, xOffset);
+		
+		if (!isDataless && DirectoryLayout.getInstance().getConfiguration().getBoolean("client", "extract-sessions")) {
+			dataManager.extractSessionContents(dataManager.databeans());
+		}
 	}
 
 	public void loadStorageSession(String sessionId) throws Exception {
@@ -13,6 +13,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map.Entry;
+import java.util.zip.CRC32;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -643,8 +644,9 @@ public class SessionSaver {
 
 			// write bean contents to zip
 			try {
+				ZipEntry zipEntry = isStoredUncompressed(bean) ? createStoredEntry(entryName, bean) : new ZipEntry(entryName);
 				ChecksumInputStream in = Session.getSession().getDataManager().getContentStream(entry.getKey(), DataNotAvailableHandling.EXCEPTION_ON_NA);
-				writeFile(zipOutputStream, entryName, in);
+				writeFile(zipOutputStream, zipEntry, in);
 				streamLength = in.getContentLength();
 				streamChecksum = in.getChecksum();
 				in.verifyContentLength(bean.getSize());
@@ -686,10 +688,46 @@ public class SessionSaver {
 		}
 	}
 	
+	/**
+	 * Formats that are compressed already or read with random access are stored without 
+	 * compression. Deflating them again saves little space, and a stored entry is 
+	 * extracted with a plain copy.
+	 */
+	private boolean isStoredUncompressed(DataBean bean) {
+		String name = bean.getName().toLowerCase();
+		return (bean.getContentType() != null && bean.getContentType().isBinary()) || name.endsWith(".bam") || name.endsWith(".bai");
+	}
+	
+	/**
+	 * Stored entries need the size and the CRC before the content is written, so
+	 * the content is read twice. 
+	 */
+	private ZipEntry createStoredEntry(String name, DataBean bean) throws IOException {
+		CRC32 crc = new CRC32();
+		long size = 0;
+		try (InputStream in = dataManager.getContentStream(bean, DataNotAvailableHandling.EXCEPTION_ON_NA)) {
+			byte[] b = new byte[DATA_BLOCK_SIZE];
+			int byteCount;
+			while ((byteCount = in.read(b, 0, DATA_BLOCK_SIZE)) != -1) {
+				crc.update(b, 0, byteCount);
+				size += byteCount;
+			}
+		}
+		ZipEntry zipEntry = new ZipEntry(name);
+		zipEntry.setMethod(ZipEntry.STORED);
+		zipEntry.setSize(size);
+		zipEntry.setCompressedSize(size);
+		zipEntry.setCrc(crc.getValue());
+		return zipEntry;
+	}
+	
 	private void writeFile(ZipOutputStream out, String name, InputStream in) throws IOException {
+		writeFile(out, new ZipEntry(name), in);
+	}
+	
+	private void writeFile(ZipOutputStream out, ZipEntry cpZipEntry, InputStream in) throws IOException {
 		
 		int byteCount;
-		ZipEntry cpZipEntry = new ZipEntry(name);
 		out.putNextEntry(cpZipEntry);
 
 		byte[] b = new byte[DATA_BLOCK_SIZE];
@@ -169,6 +169,12 @@ public class TaskExecutor {
 					if (CommandMessage.COMMAND_ACK.equals(commandMessage.getCommand())) {
 						logger.debug("Got ACK message.");
 						internalState = ResultListenerState.WAIT_FOR_OFFER;
+						
+						// show why the job is queued, not sent by older comps
+						String queueReason = commandMessage.getNamedParameter(ParameterMessage.PARAMETER_QUEUE_REASON);
+						if (queueReason != null) {
+							updateTaskState(pendingTask, State.WAITING, "Queued: " + queueReason, -1);
+						}
 						// TODO set timeout
 
 					}
@@ -252,6 +258,11 @@ public class TaskExecutor {
 						// this isn't really used at the moment
 						break;
 					case RUNNING:
+						// new screen output, if the job sends it while running
+						if (resultMessage.getOutputText() != null) {
+							String screenOutput = pendingTask.getScreenOutput();
+							pendingTask.setScreenOutput(screenOutput == null ? resultMessage.getOutputText() : screenOutput + resultMessage.getOutputText());
+						}
 						updateTaskState(pendingTask, State.RUNNING, resultMessage.getStateDetail(), -1);
 						break;
 					case COMPLETED:
@@ -289,7 +300,7 @@ public class TaskExecutor {
 							pendingTask.changeId();
 
 							try {
-								resendJobMessage(pendingTask, resultMessage.getReplyTo());
+								resendJobMessage(pendingTask, resultMessage.getReplyTo(), resultMessage.getCorrelationID());
 							} catch (Exception e) {
 								logger.error("Could not resend job " + pendingTask.getId(), e);
 								pendingTask.setErrorMessage(e.toString());
@@ -700,7 +711,7 @@ public class TaskExecutor {
 		logger.debug("Message cancel thread started.");
 	}
 
-	private void resendJobMessage(Task task, Destination replyTo) throws Exception {
+	private void resendJobMessage(Task task, Destination replyTo, String correlationID) throws Exception {
 
 		JobMessage jobMessage = new JobMessage(task.getId(), task.getOperationID(), task.getParameters());
 		for (String name : task.getInputNames()) {
@@ -709,6 +720,8 @@ public class TaskExecutor {
 			jobMessage.addPayload(name, bean.getId());
 		}
 		jobMessage.setReplyTo(replyTo);
+		// replies go to the listener of the original job message
+		jobMessage.setCorrelationID(correlationID);
 
 		logger.debug("Retry replyTo is: " + jobMessage.getReplyTo());
 		requestTopic.sendMessage(jobMessage);
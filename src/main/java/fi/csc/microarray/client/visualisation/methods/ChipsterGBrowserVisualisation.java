@@ -99,6 +99,11 @@ public class ChipsterGBrowserVisualisation extends Visualisation {
 			}
 			return contentLocation.getUrl();
 		}
+		
+		@Override
+		public byte[] readRange(long position, long length) throws IOException {
+			return Session.getSession().getDataManager().getContentRange(bean, position, length);
+		}
 
 		public DataBean getDataBean() {
 			return bean;
@@ -13,7 +13,6 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -39,6 +38,7 @@ import fi.csc.microarray.client.visualisation.VisualisationFrame;
 import fi.csc.microarray.client.visualisation.VisualisationMethodChangedEvent;
 import fi.csc.microarray.client.visualisation.methods.SelectableChartPanel.SelectionChangeListener;
 import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.FloatStream;
 import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.module.chipster.MicroarrayModule;
 
@@ -204,31 +204,29 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 
 	protected void updateXYSerieses() throws MicroarrayException {
 
-		Iterable<Float> xValues = data.queryFeatures(xVar.getExpression()).asFloats();
-		Iterable<Float> yValues = data.queryFeatures(yVar.getExpression()).asFloats();
+		FloatStream xStream = data.queryFeatures(xVar.getExpression()).asFloatStream();
+		float[] xValues = xStream != null ? xStream.toArray() : null;
+		float[] yValues = data.queryFeatures(yVar.getExpression()).asFloatStream().toArray();
 		
 		XYSeries series = new XYSeries(""); 
 		XYSeries selectionSeries = new XYSeries("");
 		
-		Iterator<Float> xIterator = xValues != null ? xValues.iterator() : null;
-		int i = 0;
-
-		for (Float y : yValues) {
+		for (int i = 0; i < yValues.length; i++) {
+			float y = yValues[i];
 			if(selectedIndexes.contains(i)){
-				if (xIterator != null) {
-					selectionSeries.add(xIterator.next(), y);
+				if (xValues != null) {
+					selectionSeries.add(xValues[i], y);
 				} else {
 					selectionSeries.add(i, y);
 				}
 			} else {
 
-				if (xIterator != null) {
-					series.add(xIterator.next(), y);
+				if (xValues != null) {
+					series.add(xValues[i], y);
 				} else {
 					series.add(i, y);
 				}
 			}
-			i++;
 		}
 		
 			
@@ -270,18 +268,15 @@ implements ActionListener, PropertyChangeListener, SelectionChangeListener {
 			selectedIndexes.clear();
 		} else {
 		
-			Iterator<Float> xValues;
-			Iterator<Float> yValues;
-			
 			try {								
 				
-				xValues = data.queryFeatures(xVar.getExpression()).asFloats().iterator();
-				yValues = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
+				float[] xValues = data.queryFeatures(xVar.getExpression()).asFloatStream().toArray();
+				float[] yValues = data.queryFeatures(yVar.getExpression()).asFloatStream().toArray();
 
-				for (int i = 0;	xValues.hasNext() && yValues.hasNext();	i++){			
+				for (int i = 0;	i < xValues.length && i < yValues.length; i++){			
 
-					double x = xValues.next();
-					double y = yValues.next();				
+					double x = xValues[i];
+					double y = yValues[i];				
 					
 					if(newSelection.contains(new Point.Double(x, y))){
 
@@ -10,7 +10,6 @@ import java.awt.event.ActionListener;
 import java.awt.geom.Ellipse2D;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -45,6 +44,8 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 	private static final String Y_AXIS_COLUMN_HEADER = "p.";
 	private static final String X_AXIS_COLUMN_HEADER = "FC";
 
+	private static final float DEFAULT_ROUNDING_LIMIT = 0.001f;
+
 	private float ROUNDING_LIMIT;
 
 	public void initialise(VisualisationFrame frame) throws Exception {
@@ -149,90 +150,61 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 		return selectableChartPanel;
 	}
 
-	private Iterator<Float> getXValueIterator() throws MicroarrayException {
+	private float[] getXValues() throws MicroarrayException {
 
-		return data.queryFeatures(xVar.getExpression()).asFloats().iterator();
-	}
-
-	private Iterator<Float> getYValueIterator() throws MicroarrayException {
-
-		return new YValueIterator();
+		return data.queryFeatures(xVar.getExpression()).asFloatStream().toArray();
 	}
 
 	/**
-	 * Class tries to find out the rounding limit of y-values and changes zero values into this limit. Iterated values are also translated
+	 * Finds out the rounding limit of y-values and changes zero values into this limit. Returned values are also translated
 	 * with -log().
-	 * 
-	 * @author klemela
-	 * 
 	 */
-	private class YValueIterator implements Iterator<Float> {
+	private float[] getYValues() throws MicroarrayException {
 
-		private static final float DEFAULT_ROUNDING_LIMIT = 0.001f;
 		// "/column/" part of the query comes from the getExpression function
-		Iterator<Float> original;
-
-		public YValueIterator() throws MicroarrayException {
-
-			original = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
-
-			// Find smallest non-zero value to find out rounding limit
-			float min = Float.MAX_VALUE;
-
-			while (original.hasNext()) {
-
-				float y = original.next();
-				if (y < min && y > 0) {
-					min = y;
-				}
-			}
+		float[] values = data.queryFeatures(yVar.getExpression()).asFloatStream().toArray();
 
-			// Rounding to the nearest 1*10^-n
-			// plus one to hide points going into lines because of rounding
-			ROUNDING_LIMIT = (float) Math.pow(10, Math.ceil(Math.log10(min)) + 1);
-			
-			// Sanity check
-			if (ROUNDING_LIMIT <= 0 || ROUNDING_LIMIT > DEFAULT_ROUNDING_LIMIT) {
-				ROUNDING_LIMIT = DEFAULT_ROUNDING_LIMIT;
+		// Find smallest non-zero value to find out rounding limit
+		float min = Float.MAX_VALUE;
+		for (float y : values) {
+			if (y < min && y > 0) {
+				min = y;
 			}
-
-			original = data.queryFeatures(yVar.getExpression()).asFloats().iterator();
-
 		}
 
-		public boolean hasNext() {
-			return original.hasNext();
-		}
+		// Rounding to the nearest 1*10^-n
+		// plus one to hide points going into lines because of rounding
+		ROUNDING_LIMIT = (float) Math.pow(10, Math.ceil(Math.log10(min)) + 1);
 
-		public Float next() {
-			float y = original.next();
+		// Sanity check
+		if (ROUNDING_LIMIT <= 0 || ROUNDING_LIMIT > DEFAULT_ROUNDING_LIMIT) {
+			ROUNDING_LIMIT = DEFAULT_ROUNDING_LIMIT;
+		}
 
+		for (int i = 0; i < values.length; i++) {
+			float y = values[i];
 			if (y < ROUNDING_LIMIT) {
 				y = ROUNDING_LIMIT;
 			}
-			return (float) -Math.log10(y);
-		}
-
-		public void remove() {
-			original.remove();
+			values[i] = (float) -Math.log10(y);
 		}
-	};
+		return values;
+	}
 
 	protected void updateXYSerieses() throws MicroarrayException {
 
-		Iterator<Float> xValues = getXValueIterator();
-		Iterator<Float> yValues = getYValueIterator();
+		float[] xValues = getXValues();
+		float[] yValues = getYValues();
 
 		XYSeries greenSeries = new XYSeries("");
 		XYSeries blackSeries = new XYSeries("");
 		XYSeries redSeries = new XYSeries("");
 		XYSeries selectedSeries = new XYSeries("");
 
-		int row = 0;
-		while (xValues.hasNext() && yValues.hasNext()) {
+		for (int row = 0; row < xValues.length && row < yValues.length; row++) {
 
-			float x = xValues.next();
-			float y = yValues.next();
+			float x = xValues[row];
+			float y = yValues[row];
 
 			boolean overYThreshold = y >= -Math.log10(0.05);
 			boolean overXThreshold = Math.abs(x) >= 1f;
@@ -254,7 +226,6 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 
 				}
 			}
-			row++;
 		}
 
 		XYSeriesCollection dataset = new XYSeriesCollection();
@@ -290,17 +261,14 @@ public class Volcanoplot extends Scatterplot implements ActionListener, Property
 			selectedIndexes.clear();
 		} else {
 
-			Iterator<Float> xValues;
-			Iterator<Float> yValues;
-
 			try {
 
-				xValues = getXValueIterator();
-				yValues = getYValueIterator();
+				float[] xValues = getXValues();
+				float[] yValues = getYValues();
 
-				for (int i = 0; xValues.hasNext() && yValues.hasNext(); i++) {
+				for (int i = 0; i < xValues.length && i < yValues.length; i++) {
 
-					if (newSelection.contains(new Point.Double(xValues.next(), yValues.next()))) {
+					if (newSelection.contains(new Point.Double(xValues[i], yValues[i]))) {
 
 						if (selectedIndexes.contains(i)) {
 							// Remove from selection if selected twice
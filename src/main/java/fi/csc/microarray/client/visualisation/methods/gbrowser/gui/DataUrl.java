@@ -48,6 +48,16 @@ public class DataUrl {
 		return url;
 	}
 
+	/**
+	 * Reads a range of remote content. Subclasses can override this to keep a 
+	 * local copy of the ranges.
+	 * 
+	 * @return null if the range should be requested from the url
+	 */
+	public byte[] readRange(long position, long length) throws IOException {
+		return null;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
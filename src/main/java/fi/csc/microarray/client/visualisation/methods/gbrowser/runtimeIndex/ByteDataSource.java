@@ -59,6 +59,11 @@ public class ByteDataSource extends DataSource {
 			}
 
 		} else {
+			
+			byte[] cached = dataUrl.readRange(filePosition, length);
+			if (cached != null) {
+				return cached;
+			}
 
 			long endFilePosition = filePosition + length - 1;
 
@@ -0,0 +1,486 @@
+package fi.csc.microarray.databeans;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.ChecksumException;
+import fi.csc.microarray.filebroker.ChecksumInputStream;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * <p>Local copies of remote DataBean contents, so that a dataset is downloaded
+ * only once even if it is read many times. Copies are files in a directory
+ * of their own, one for each data id. A copy is used only if its checksum
+ * agrees with the bean. When the files take more space than allowed, the least
+ * recently used ones are deleted.</p>
+ *
+ * <p>Files can be also filled partially with range reads, which is how the
+ * genome browser reads remote data. Filled parts are tracked in blocks of
+ * {@link #BLOCK_SIZE} bytes. A copy is complete when it has been read through
+ * from the beginning to the end.</p>
+ *
+ * <p>Cached files are opened while holding the read lock of the bean, but the
+ * lock is released before the caller reads the stream. A file is deleted only
+ * when its bean can be write locked without waiting, so it is never deleted
+ * while being opened. A stream that is already open keeps reading the deleted
+ * file where the file system allows it, and where it doesn't, the delete fails
+ * and the file is kept in the cache.</p>
+ */
+public class ContentCache {
+
+	private static final Logger logger = Logger.getLogger(ContentCache.class);
+
+	public static final int BLOCK_SIZE = 64*1024;
+
+	/**
+	 * Source of the content ranges that are not in the cache yet.
+	 */
+	public static interface RangeSource {
+		/**
+		 * @return stream starting at the position, may continue past the length
+		 */
+		public InputStream open(long position, long length) throws IOException;
+	}
+
+	private static class Entry {
+		DataBean bean;
+		String checksum;
+		File file;
+		long length = -1;
+		BitSet blocks = new BitSet();
+		boolean complete = false;
+		boolean writing = false;
+		long size = 0;
+	}
+
+	private File directory;
+	private long maxSize;
+	private long size = 0;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	public ContentCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Opens the local copy. The read lock of the bean is held only while opening.
+	 *
+	 * @return stream of the local copy or null if the content is not completely cached
+	 */
+	public InputStream getInputStream(DataBean bean) throws IOException {
+		Lock lock = bean.getLock().readLock();
+		lock.lock();
+		try {
+			Entry entry = getEntry(bean, false);
+			if (entry == null || !isComplete(entry)) {
+				return null;
+			}
+			return new FileInputStream(entry.file);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the content to the cache while it is read from the given remote stream.
+	 * The copy is complete when the stream has been read to the end and closed.
+	 * If the content is already being copied by some other reader, the remote
+	 * stream is returned as it is.
+	 */
+	public ChecksumInputStream readThrough(DataBean bean, ChecksumInputStream remote) {
+		Entry entry = getEntry(bean, true);
+		if (entry == null) {
+			return remote;
+		}
+		synchronized (this) {
+			if (entry.writing || entry.complete) {
+				return remote;
+			}
+			entry.writing = true;
+		}
+		try {
+			return new CachingInputStream(remote, entry);
+
+		} catch (IOException e) {
+			logger.warn("could not cache " + bean.getName(), e);
+			finishWriting(entry);
+			return remote;
+		}
+	}
+
+	/**
+	 * Reads a range of the content. Blocks that are not cached yet are
+	 * requested from the source and stored for the next time.
+	 *
+	 * @param contentLength length of the whole content or -1 if not known
+	 * @return the bytes of the range, fewer than asked if the content ends before
+	 */
+	public byte[] read(DataBean bean, long position, long length, long contentLength, RangeSource source) throws IOException {
+		if (contentLength >= 0) {
+			length = Math.min(length, contentLength - position);
+		}
+		if (length <= 0) {
+			return new byte[0];
+		}
+		Entry entry = getEntry(bean, true);
+		if (entry == null) {
+			try (InputStream in = source.open(position, length)) {
+				return readBytes(in, length);
+			}
+		}
+
+		Lock lock = bean.getLock().readLock();
+		lock.lock();
+		try {
+			long first = position / BLOCK_SIZE;
+			long last = (position + length - 1) / BLOCK_SIZE;
+			long missingFirst = -1;
+			long missingLast = -1;
+			synchronized (this) {
+				if (contentLength >= 0) {
+					entry.length = contentLength;
+				}
+				if (!entry.complete) {
+					// fetch all missing blocks with one request
+					missingFirst = entry.blocks.nextClearBit((int) first);
+					if (missingFirst <= last) {
+						missingLast = entry.blocks.previousClearBit((int) last);
+					}
+				}
+			}
+
+			if (missingLast >= 0) {
+				fetch(entry, missingFirst * BLOCK_SIZE, (missingLast + 1) * BLOCK_SIZE, source);
+			}
+
+			try (RandomAccessFile file = new RandomAccessFile(entry.file, "r")) {
+				long available = Math.min(position + length, file.length()) - position;
+				byte[] bytes = new byte[(int) Math.max(available, 0)];
+				file.seek(position);
+				file.readFully(bytes);
+				return bytes;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void fetch(Entry entry, long start, long end, RangeSource source) throws IOException {
+		long length = entry.length;
+		if (length >= 0) {
+			end = Math.min(end, length);
+		}
+
+		long requested = end - start;
+		byte[] bytes;
+		try (InputStream in = source.open(start, requested)) {
+			bytes = readBytes(in, requested);
+		}
+		if (length >= 0 && bytes.length < requested) {
+			throw new IOException("content ended at " + (start + bytes.length) + ", expected " + length + " bytes");
+		}
+		try (RandomAccessFile file = new RandomAccessFile(entry.file, "rw")) {
+			file.seek(start);
+			file.write(bytes);
+		}
+
+		end = start + bytes.length;
+		boolean contentEnd = end == length || (length < 0 && bytes.length < requested);
+		filled(entry, start, end, contentEnd);
+	}
+
+	private static byte[] readBytes(InputStream in, long length) throws IOException {
+		byte[] bytes = new byte[(int) length];
+		int total = 0;
+		int count;
+		while (total < bytes.length && (count = in.read(bytes, total, bytes.length - total)) != -1) {
+			total += count;
+		}
+		return total == bytes.length ? bytes : Arrays.copyOf(bytes, total);
+	}
+
+	/**
+	 * Marks the blocks between start and end filled.
+	 *
+	 * @param contentEnd true if the content ends at the end, so that the last block is filled even if it is short
+	 */
+	private synchronized void filled(Entry entry, long start, long end, boolean contentEnd) {
+		if (contentEnd) {
+			entry.length = end;
+		}
+		int fromBlock = (int) ((start + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		int toBlock = (int) (contentEnd ? (end + BLOCK_SIZE - 1) / BLOCK_SIZE : end / BLOCK_SIZE);
+		if (fromBlock < toBlock) {
+			entry.blocks.set(fromBlock, toBlock);
+		}
+		updateSize(entry);
+	}
+
+	private synchronized void completed(Entry entry, long length) {
+		entry.length = length;
+		entry.complete = true;
+		updateSize(entry);
+		logger.debug("cached " + entry.bean.getName() + " (" + length / 1024 + " kB)");
+	}
+
+	/**
+	 * Forget the content of a copy that turned out to be corrupted.
+	 */
+	private synchronized void discard(Entry entry) {
+		entry.blocks.clear();
+		entry.complete = false;
+		updateSize(entry);
+	}
+
+	private synchronized void finishWriting(Entry entry) {
+		entry.writing = false;
+		evict(entry);
+	}
+
+	private synchronized void updateSize(Entry entry) {
+		size -= entry.size;
+		if (entry.complete) {
+			entry.size = entry.length;
+		} else {
+			entry.size = (long) entry.blocks.cardinality() * BLOCK_SIZE;
+		}
+		size += entry.size;
+		evict(entry);
+	}
+
+	private synchronized boolean isComplete(Entry entry) {
+		if (!entry.complete && entry.length >= 0 && entry.blocks.cardinality() == (entry.length + BLOCK_SIZE - 1) / BLOCK_SIZE) {
+			// all blocks filled by range reads
+			entry.complete = true;
+		}
+		return entry.complete;
+	}
+
+	/**
+	 * @param create create a new entry, if there isn't one
+	 * @return null if there is no entry or the bean can't be cached
+	 */
+	private synchronized Entry getEntry(DataBean bean, boolean create) {
+		String id = bean.getId();
+		if (id == null) {
+			return null;
+		}
+
+		Entry entry = entries.get(id);
+		if (entry != null && entry.checksum != null && bean.getChecksum() != null && !entry.checksum.equals(bean.getChecksum())) {
+			// different content with the same id
+			if (!remove(entry)) {
+				return null;
+			}
+			entry = null;
+		}
+
+		if (entry == null && create) {
+			entry = new Entry();
+			entry.bean = bean;
+			entry.file = new File(directory, id.replaceAll("[^\\w\\-]", "_"));
+			if (!directory.exists()) {
+				directory.mkdirs();
+				directory.deleteOnExit();
+			}
+			entry.file.deleteOnExit();
+			entries.put(id, entry);
+		}
+
+		if (entry != null) {
+			if (entry.checksum == null) {
+				entry.checksum = bean.getChecksum();
+			}
+			entry.bean = bean;
+		}
+		return entry;
+	}
+
+	/**
+	 * Delete the least recently used files until the cache fits in its size.
+	 */
+	private synchronized void evict(Entry keep) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry == keep || entry.writing) {
+				continue;
+			}
+			Lock lock = entry.bean.getLock().writeLock();
+			if (!lock.tryLock()) {
+				// being read
+				continue;
+			}
+			try {
+				if (!entry.file.delete() && entry.file.exists()) {
+					continue;
+				}
+			} finally {
+				lock.unlock();
+			}
+			size -= entry.size;
+			iterator.remove();
+		}
+	}
+
+	private synchronized boolean remove(Entry entry) {
+		if (entry.writing) {
+			return false;
+		}
+		Lock lock = entry.bean.getLock().writeLock();
+		if (!lock.tryLock()) {
+			return false;
+		}
+		try {
+			if (!entry.file.delete() && entry.file.exists()) {
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+		size -= entry.size;
+		entries.values().remove(entry);
+		return true;
+	}
+
+	/**
+	 * Total size of the cached files in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Writes everything that is read from the remote stream to the cache file.
+	 * Checksums are verified by the remote stream, and a copy that fails the
+	 * verification is not used.
+	 */
+	private class CachingInputStream extends ChecksumInputStream {
+
+		private ChecksumInputStream remote;
+		private Entry entry;
+		private RandomAccessFile file;
+		private long position = 0;
+		private boolean end = false;
+		private boolean failed = false;
+		private boolean closed = false;
+
+		public CachingInputStream(ChecksumInputStream remote, Entry entry) throws IOException {
+			super(remote, false);
+			this.remote = remote;
+			this.entry = entry;
+			this.file = new RandomAccessFile(entry.file, "rw");
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				end = true;
+			} else if (!failed) {
+				try {
+					file.write(b);
+					position++;
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count == -1) {
+				end = true;
+			} else if (!failed) {
+				try {
+					file.write(b, off, count);
+					long start = position;
+					position += count;
+					if (start / BLOCK_SIZE != position / BLOCK_SIZE) {
+						filled(entry, 0, position, false);
+					}
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// read instead of skipping to keep the file continuous
+			byte[] buffer = new byte[(int) Math.min(n, 8*1024)];
+			long skipped = 0;
+			int count;
+			while (skipped < n && (count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+				skipped += count;
+			}
+			return skipped;
+		}
+
+		private void fail(IOException e) {
+			logger.warn("could not write to content cache", e);
+			failed = true;
+		}
+
+		@Override
+		public String getChecksum() throws IOException {
+			return remote.getChecksum();
+		}
+
+		@Override
+		public String verifyChecksums() throws ChecksumException, IOException {
+			try {
+				return remote.verifyChecksums();
+			} catch (ChecksumException e) {
+				synchronized (ContentCache.this) {
+					failed = true;
+					if (closed) {
+						discard(entry);
+					}
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				IOUtils.closeIfPossible(file);
+				synchronized (ContentCache.this) {
+					closed = true;
+					if (failed) {
+						discard(entry);
+					} else if (end) {
+						filled(entry, 0, position, true);
+						completed(entry, position);
+					}
+					finishWriting(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the content of the bean is completely cached
+	 */
+	public synchronized boolean isCached(DataBean bean) {
+		Entry entry = getEntry(bean, false);
+		return entry != null && isComplete(entry);
+	}
+}
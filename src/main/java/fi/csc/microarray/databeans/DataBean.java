@@ -1,11 +1,14 @@
 package fi.csc.microarray.databeans;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import fi.csc.microarray.client.operation.OperationRecord;
@@ -139,7 +142,7 @@ public class DataBean extends DataItemBase {
 	}
 
 	private DataManager dataManager;
-	private HashMap<String, Object> contentBoundCache = new HashMap<String, Object>();
+	private Map<String, Object> contentBoundCache = Collections.synchronizedMap(new HashMap<String, Object>());
 	
 	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
 
@@ -160,7 +163,7 @@ public class DataBean extends DataItemBase {
 	private String notes;
 
 	private ContentType contentType;
-	private LinkedList<ContentLocation> contentLocations = new LinkedList<ContentLocation>();
+	private List<ContentLocation> contentLocations = new CopyOnWriteArrayList<ContentLocation>();
 	
 	private Long size;
 	private String checksum;
@@ -318,6 +321,17 @@ public class DataBean extends DataItemBase {
 	}
 
 
+	/**
+	 * Removes named object from content cache, if it still has the given value. 
+	 */
+	public void removeFromContentBoundCache(String name, Object value) {
+		synchronized (contentBoundCache) {
+			if (contentBoundCache.get(name) == value) {
+				contentBoundCache.remove(name);
+			}
+		}
+	}
+
 	protected void resetContentBoundCache() {
 		this.contentBoundCache.clear();
 	}
@@ -8,6 +8,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -17,10 +18,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import javax.jms.JMSException;
 
@@ -43,6 +51,7 @@ import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.filebroker.ChecksumException;
 import fi.csc.microarray.filebroker.ChecksumInputStream;
 import fi.csc.microarray.filebroker.ContentLengthException;
+import fi.csc.microarray.filebroker.FileBrokerClient;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.filebroker.FileBrokerException;
 import fi.csc.microarray.filebroker.NotEnoughDiskSpaceException;
@@ -140,6 +149,19 @@ public class DataManager {
 	}
 	
 	private static final String AT_LEAST_ROWS_CACHENAME = "at-least-rows";
+	private static final String CONTENT_HEAD_CACHENAME = "content-head";
+	
+	/**
+	 * Bytes read from the beginning of every dataset when a session is opened. Type tagging 
+	 * and table parsing read the header rows from this buffer.
+	 */
+	public static final int CONTENT_HEAD_BYTES = 8*1024;
+	private static final int IO_THREADS = 16;
+	private static final int CONNECTIONS_PER_HOST = 6;
+	private static final String FILEBROKER_HOST = "filebroker";
+	private static final int EXTRACT_THREADS = 4;
+	private static final String CONTENT_CACHE_DIR = "content-cache";
+	private static final long CONTENT_CACHE_BYTES = 2L*1024*1024*1024;
 	public static final int MAX_ROWS_TO_COUNT = 1000; 
 	public static final int MAX_BYTES_TO_COUNT = 100*1024;
 
@@ -154,6 +176,8 @@ public class DataManager {
 	public final static String ROOT_NAME = "Datasets";
 	
 	private Map<String, FeatureProvider> factories = new HashMap<String, FeatureProvider>();
+	private ExecutorService ioExecutor;
+	private ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
 	private Map<String, Modifier> modifiers = new HashMap<String, Modifier>();
 	
 	/** MIME types for the DataBeans */
@@ -173,12 +197,14 @@ public class DataManager {
 	private ZipContentHandler zipContentHandler = new ZipContentHandler();
 	private LocalFileContentHandler localFileContentHandler = new LocalFileContentHandler();
 	private RemoteContentHandler remoteContentHandler = new RemoteContentHandler();
+	private ContentCache contentCache;
 	
 	public DataManager() throws Exception {
 		rootFolder = createFolder(DataManager.ROOT_NAME);
 
 		// initialize repository 		
 		repositoryRoot = createRepository();
+		contentCache = new ContentCache(new File(repositoryRoot, CONTENT_CACHE_DIR), CONTENT_CACHE_BYTES);
 	}
 
 	public void setRootFolder(DataFolder folder) {
@@ -778,21 +804,36 @@ public class DataManager {
 		
 	private InputStream getBaseContentStream(DataBean bean, DataNotAvailableHandling naHandling) throws IOException {
 
-		// try local content locations first
-		ContentLocation location = getClosestContentLocation(bean);
+		// try local files first
+		for (ContentLocation location : bean.getContentLocations(StorageMethod.LOCAL_FILE_METHODS)) {
+			if (isAccessible(location)) {
+				return location.getHandler().getInputStream(location);
+			}
+		}
+		
+		// then a cached copy of remote content
+		InputStream cached = contentCache.getInputStream(bean);
+		if (cached != null) {
+			return cached;
+		}
 		
+		ContentLocation location = getClosestContentLocation(bean);
 		
 		if (location != null) {
 			
 			// local available TODO maybe check if it really is available
-			return location.getHandler().getInputStream(location);
+			InputStream in = location.getHandler().getInputStream(location);
+			if (!location.getMethod().isLocal()) {
+				return contentCache.readThrough(bean, new ChecksumInputStream(in, false));
+			}
+			return in;
 		 
 		} 
 		
 		// try from filebroker
 		Exception remoteException;
 		try {
-			return Session.getSession().getServiceAccessor().getFileBrokerClient().getInputStream(bean.getId());
+			return contentCache.readThrough(bean, Session.getSession().getServiceAccessor().getFileBrokerClient().getInputStream(bean.getId()));
 		} catch (Exception e) {
 			remoteException = e;
 		}
@@ -858,6 +899,27 @@ public class DataManager {
 	}
 
 	
+	/**
+	 * Reads a range of a dataset that has a remote random access location. Ranges 
+	 * are kept in the content cache, so each of them is downloaded only once.
+	 * 
+	 * @return bytes of the range or null if the bean doesn't have a remote location
+	 */
+	public byte[] getContentRange(DataBean bean, long position, long length) throws IOException {
+		
+		final ContentLocation location = bean.getContentLocation(StorageMethod.REMOTE_ORIGINAL);
+		if (location == null) {
+			return null;
+		}
+		
+		return contentCache.read(bean, position, length, getContentLength(bean), new ContentCache.RangeSource() {
+			@Override
+			public InputStream open(long position, long length) throws IOException {
+				return remoteContentHandler.getInputStream(location, position, length);
+			}
+		});
+	}
+
 	public OutputStream getContentOutputStreamAndLockDataBean(DataBean bean) throws IOException {
 
 		// only local temp beans support output, so convert to local temp bean if needed
@@ -868,20 +930,27 @@ public class DataManager {
 		}
 
 		// remove all other locations, as they will become obsolete when OutputStream is written to
-		while (bean.getContentLocations().size() > 1) {
-			for (ContentLocation location : bean.getContentLocations()) {
-				if (location != tempLocalLocation) {
-					bean.removeContentLocation(location);
-					break; // remove outside of the iterator, cannot continue 
+		Lock lock = bean.getLock().writeLock();
+		lock.lock();
+		try {
+			while (bean.getContentLocations().size() > 1) {
+				for (ContentLocation location : bean.getContentLocations()) {
+					if (location != tempLocalLocation) {
+						bean.removeContentLocation(location);
+						break; // remove outside of the iterator, cannot continue 
+					}
 				}
 			}
+
+			// change data id
+			bean.setId(CryptoKey.generateRandom());
+			bean.setChecksum(null);
+			bean.setSize(null);
+			bean.resetContentBoundCache();
+		} finally {
+			lock.unlock();
 		}
 		
-		// change data id
-		bean.setId(CryptoKey.generateRandom());
-		bean.setChecksum(null);
-		bean.setSize(null);
-		
 		return tempLocalLocation.getHandler().getOutputStream(tempLocalLocation); 
 	}
 
@@ -892,6 +961,7 @@ public class DataManager {
 		} finally {
 //			this.lock.writeLock().unlock();
 		}
+		bean.resetContentBoundCache();
 		ContentChangedEvent cce = new ContentChangedEvent(bean);
 		this.dispatchEventIfVisible(cce);
 	}
@@ -988,9 +1058,19 @@ public class DataManager {
 				IOUtils.closeIfPossible(out);
 			}
 
-			// update url, type and handler in the bean
+			// update url, type and handler in the bean, unless session extraction was faster
 			URL newURL = newFile.toURI().toURL();
-			addContentLocationForDataBean(bean, StorageMethod.LOCAL_TEMP, newURL);
+			Lock lock = bean.getLock().writeLock();
+			lock.lock();
+			try {
+				if (bean.getContentLocation(StorageMethod.LOCAL_TEMP) != null) {
+					newFile.delete();
+				} else {
+					addContentLocationForDataBean(bean, StorageMethod.LOCAL_TEMP, newURL);
+				}
+			} finally {
+				lock.unlock();
+			}
 		} catch (ChecksumException | ContentLengthException e) {
 			// corrupted data  
 			throw new IOException();
@@ -1227,12 +1307,26 @@ public class DataManager {
 		
 		// try to upload
 		try {
-			String checksum = Session.getSession().getServiceAccessor().getFileBrokerClient().addFile(
-					dataBean.getId(), 
-					area, 
-					getContentStream(dataBean, DataNotAvailableHandling.EXCEPTION_ON_NA), 
-					getContentLength(dataBean), 
-					progressListener);
+			FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+			String checksum;
+			
+			// upload local files directly, so that large files can be sent in resumable chunks
+			ContentLocation localLocation = dataBean.getContentLocation(StorageMethod.LOCAL_FILE_METHODS);
+			File localFile = null;
+			if (localLocation != null) {
+				localFile = ((LocalFileContentHandler) localLocation.getHandler()).getFile(localLocation);
+			}
+			
+			if (localFile != null && localFile.isFile()) {
+				checksum = fileBrokerClient.addFile(dataBean.getId(), area, localFile, progressListener);
+			} else {
+				checksum = fileBrokerClient.addFile(
+						dataBean.getId(), 
+						area, 
+						getContentStream(dataBean, DataNotAvailableHandling.EXCEPTION_ON_NA), 
+						getContentLength(dataBean), 
+						progressListener);
+			}
 			
 			setOrVerifyChecksum(dataBean, checksum);
 
@@ -1363,15 +1457,16 @@ public class DataManager {
 	 */
 	public void addTypeTagsAndVerifyContentLength(Collection<DataBean> dataBeans) {
 
+		long start = System.currentTimeMillis();
+		InitTimes times = new InitTimes();
 		ArrayList<InitDataBeanCallable> callables = new ArrayList<>();
 		for (DataBean dataBean : dataBeans) {
-			callables.add(new InitDataBeanCallable(dataBean));
+			callables.add(new InitDataBeanCallable(dataBean, times));
 		}
 				
-		ExecutorService executor = Executors.newCachedThreadPool();
 		try {
 			// run callables and wait until all have finished
-			List<Future<Object>> futures = executor.invokeAll(callables);
+			List<Future<Object>> futures = getIOExecutor().invokeAll(callables);
 			
 			for (Future<Object> future : futures) {
 				// check callable for exception, and throw if found
@@ -1381,27 +1476,267 @@ public class DataManager {
 		} catch (InterruptedException | ExecutionException e) {
 			Session.getSession().getApplication().reportExceptionThreadSafely(e);
 		}
+		
+		logger.info("initialised " + dataBeans.size() + " datasets in " + (System.currentTimeMillis() - start) + " ms, " +
+				"summed over " + IO_THREADS + " threads: " + times);
+	}
+	
+	/**
+	 * Time spent in each phase of {@link InitDataBeanCallable}, summed over all datasets.
+	 */
+	private static class InitTimes {
+		AtomicLong waitForHost = new AtomicLong();
+		AtomicLong contentLength = new AtomicLong();
+		AtomicLong head = new AtomicLong();
+		AtomicLong typeTags = new AtomicLong();
+		
+		@Override
+		public String toString() {
+			return "waiting for connection " + waitForHost + " ms, content length " + contentLength + " ms, " + 
+					"reading head " + head + " ms, type tags " + typeTags + " ms";
+		}
 	}
 	
-	public class InitDataBeanCallable implements Callable<Object> {
+	private class InitDataBeanCallable implements Callable<Object> {
 
 		private DataBean dataBean;
+		private InitTimes times;
 
-		public InitDataBeanCallable(DataBean dataBean) {
+		public InitDataBeanCallable(DataBean dataBean, InitTimes times) {
 			this.dataBean = dataBean;
+			this.times = times;
 		}
 
 		@Override
 		public Object call() throws Exception {
+			long time = System.currentTimeMillis();
+			Semaphore permits = getHostPermits(dataBean);
+			if (permits != null) {
+				permits.acquire();
+			}
 			try {
+				time = addTime(times.waitForHost, time);
+				
 				Long size = getContentLength(dataBean);
 				setOrVerifyContentLength(dataBean, size);
+				time = addTime(times.contentLength, time);
+				
+				readContentHead(dataBean);
+				time = addTime(times.head, time);
+				
 				addTypeTags(dataBean);
+				addTime(times.typeTags, time);
+				
 			} catch (IOException | ContentLengthException e) {
 				Session.getSession().getApplication().reportExceptionThreadSafely(e);
+				
+			} finally {
+				if (permits != null) {
+					permits.release();
+				}
 			}
 			return null;
 		}
+		
+		private long addTime(AtomicLong total, long start) {
+			long now = System.currentTimeMillis();
+			total.addAndGet(now - start);
+			return now;
+		}
+	}
+	
+	/**
+	 * Copies the datasets stored in session files to the repository in the background, 
+	 * so that they can be read with random access and without inflating. Each dataset 
+	 * is switched to the LOCAL_TEMP copy as soon as it has been extracted. Datasets that 
+	 * already have a local file are skipped.
+	 */
+	public void extractSessionContents(Collection<DataBean> beans) {
+		
+		final ConcurrentLinkedQueue<DataBean> queue = new ConcurrentLinkedQueue<>();
+		for (DataBean bean : beans) {
+			if (bean.getContentLocation(StorageMethod.LOCAL_SESSION_ZIP) != null && bean.getContentLocation(StorageMethod.LOCAL_FILE_METHODS) == null) {
+				queue.add(bean);
+			}
+		}
+		
+		final int count = queue.size();
+		final int workers = Math.min(EXTRACT_THREADS, count);
+		final AtomicInteger running = new AtomicInteger(workers);
+		final long start = System.currentTimeMillis();
+		
+		for (int i = 0; i < workers; i++) {
+			getIOExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try (ZipContentHandler.Extractor extractor = zipContentHandler.createExtractor()) {
+						DataBean bean;
+						while ((bean = queue.poll()) != null) {
+							try {
+								extractToLocalTemp(bean, extractor);
+							} catch (Exception e) {
+								// the content is still available from the session file
+								logger.warn("could not extract " + bean.getName(), e);
+							}
+						}
+					}
+					if (running.decrementAndGet() == 0) {
+						logger.info("extracted " + count + " datasets in " + (System.currentTimeMillis() - start) + " ms");
+					}
+				}
+			});
+		}
+	}
+	
+	private void extractToLocalTemp(DataBean bean, ZipContentHandler.Extractor extractor) throws IOException, ContentLengthException {
+		
+		String id = bean.getId();
+		ContentLocation zipLocation = bean.getContentLocation(StorageMethod.LOCAL_SESSION_ZIP);
+		if (zipLocation == null || bean.getContentLocation(StorageMethod.LOCAL_FILE_METHODS) != null) {
+			return;
+		}
+		
+		File file = createNewRepositoryFile(bean.getName());
+		extractor.extract(zipLocation, file);
+		
+		Lock lock = bean.getLock().writeLock();
+		lock.lock();
+		try {
+			// content may have been converted or changed while extracting
+			if (!id.equals(bean.getId()) || bean.getContentLocation(StorageMethod.LOCAL_FILE_METHODS) != null) {
+				file.delete();
+				return;
+			}
+			addContentLocationForDataBean(bean, StorageMethod.LOCAL_TEMP, file.toURI().toURL());
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Shared by all session loads, so that the number of threads stays the same however many 
+	 * datasets there are.
+	 */
+	private synchronized ExecutorService getIOExecutor() {
+		if (ioExecutor == null) {
+			ioExecutor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "data-manager-io-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return ioExecutor;
+	}
+	
+	/**
+	 * Limits the number of concurrent connections to each remote host. 
+	 * 
+	 * @return null if the content is local
+	 */
+	private Semaphore getHostPermits(DataBean bean) {
+		String host = FILEBROKER_HOST;
+		for (ContentLocation location : bean.getContentLocations()) {
+			if (location.getMethod().isLocal()) {
+				return null;
+			}
+			if (location.getUrl() != null && location.getUrl().getHost() != null) {
+				host = location.getUrl().getHost();
+			}
+		}
+		Semaphore permits = new Semaphore(CONNECTIONS_PER_HOST);
+		Semaphore existing = hostPermits.putIfAbsent(host, permits);
+		return existing != null ? existing : permits;
+	}
+	
+	/**
+	 * Reads the first {@link #CONTENT_HEAD_BYTES} of the content to memory, to be used by 
+	 * {@link #getContentStreamFromHead(DataBean, DataNotAvailableHandling)}.
+	 */
+	public void readContentHead(DataBean bean) throws IOException {
+		if (bean.getFromContentBoundCache(CONTENT_HEAD_CACHENAME) == null) {
+			byte[] head = getContentBytes(bean, CONTENT_HEAD_BYTES, DataNotAvailableHandling.NULL_ON_NA);
+			if (head != null) {
+				bean.putToContentBoundCache(CONTENT_HEAD_CACHENAME, head);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Same content as {@link #getContentStream(DataBean, DataNotAvailableHandling)}, but the 
+	 * beginning is read from the head buffer, if it was read already. The content is opened 
+	 * only if the reader gets past the head, so this is fast for reading header rows.</p>
+	 * 
+	 * <p>Checksums are not verified.</p>
+	 */
+	public InputStream getContentStreamFromHead(DataBean bean, DataNotAvailableHandling naHandling) throws IOException {
+		byte[] head = (byte[]) bean.getFromContentBoundCache(CONTENT_HEAD_CACHENAME);
+		if (head == null) {
+			return getContentStream(bean, naHandling);
+		} else if (head.length < CONTENT_HEAD_BYTES) {
+			// all of it
+			return new ByteArrayInputStream(head);
+		} else {
+			return new SequenceInputStream(new ByteArrayInputStream(head), new ContentTailStream(bean, head.length, naHandling));
+		}
+	}
+	
+	/**
+	 * Content after the head, opened when read for the first time.
+	 */
+	private class ContentTailStream extends InputStream {
+
+		private DataBean bean;
+		private long offset;
+		private DataNotAvailableHandling naHandling;
+		private InputStream in;
+
+		public ContentTailStream(DataBean bean, long offset, DataNotAvailableHandling naHandling) {
+			this.bean = bean;
+			this.offset = offset;
+			this.naHandling = naHandling;
+		}
+
+		private InputStream open() throws IOException {
+			if (in == null) {
+				in = getContentStream(bean, naHandling);
+				if (in == null) {
+					in = new ByteArrayInputStream(new byte[] {});
+				}
+				long remaining = offset;
+				while (remaining > 0) {
+					long skipped = in.skip(remaining);
+					if (skipped <= 0) {
+						// skip() may give up before the end
+						if (in.read() == -1) {
+							break;
+						}
+						skipped = 1;
+					}
+					remaining -= skipped;
+				}
+			}
+			return in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return open().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return open().read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
 	}
 
 	/**
@@ -76,6 +76,82 @@ public class CalculatingIterable implements Iterable<Float> {
 		}
 	}
 	
+	/**
+	 * Calculates a block of values at a time.
+	 */
+	public static class CalculatingStream extends FloatStream {
+
+		private CalcOperation operation;
+		private FloatStream f1;
+		private FloatStream f2;
+		private float[] buffer2;
+
+		/**
+		 * @param f2 null for the operations with one operand
+		 */
+		public CalculatingStream(FloatStream f1, FloatStream f2, CalcOperation operation) {
+			this.f1 = f1;
+			this.f2 = f2;
+			this.operation = operation;
+		}
+
+		@Override
+		public int read(float[] buffer, int offset, int length) {
+			int count = f1.read(buffer, offset, length);
+			if (count == -1) {
+				return -1;
+			}
+			
+			if (f2 != null) {
+				if (buffer2 == null || buffer2.length < count) {
+					buffer2 = new float[Math.max(count, BLOCK_SIZE)];
+				}
+				// shorter stream decides the length
+				count = f2.readFully(buffer2, 0, count);
+				if (count == 0) {
+					return -1;
+				}
+			}
+			
+			int end = offset + count;
+			switch (operation) {
+			case ADD:
+				for (int i = offset; i < end; i++) {
+					buffer[i] += buffer2[i - offset];
+				}
+				break;
+			case SUBTRACT:
+				for (int i = offset; i < end; i++) {
+					buffer[i] -= buffer2[i - offset];
+				}
+				break;
+			case MULTIPLY:
+				for (int i = offset; i < end; i++) {
+					buffer[i] *= buffer2[i - offset];
+				}
+				break;
+			case DIVIDE:
+				for (int i = offset; i < end; i++) {
+					buffer[i] /= buffer2[i - offset];
+				}
+				break;
+			case LOG_2:
+				for (int i = offset; i < end; i++) {
+					buffer[i] = (float)(Math.log(buffer[i]) / Math.log(2f));
+				}
+				break;
+			case NEGATE:
+				for (int i = offset; i < end; i++) {
+					buffer[i] = -buffer[i];
+				}
+				break;
+			default:
+				throw new UnsupportedOperationException("unknown operation " + operation);
+			}
+			return count;
+		}
+	}
+	
 	public Iterator<Float> iterator() {
 		Iterator<Float> iterator1 = f1.iterator();
 		Iterator<Float> iterator2 = f2 != null ? f2.iterator() : null;
@@ -7,6 +7,12 @@ public interface Feature {
 	public String getName();
 	public boolean exists();
 	public Iterable<Float> asFloats() throws MicroarrayException;
+	
+	/**
+	 * Returns the same values as {@link #asFloats()} without boxing them, or null, if not supported.
+	 * @return new stream or null
+	 */
+	public FloatStream asFloatStream() throws MicroarrayException;
 	public Float asFloat() throws MicroarrayException;
 	
 	/**
@@ -15,6 +15,14 @@ public abstract class FeatureBase implements Feature {
 		return string;
 	}
 	
+	/**
+	 * Boxed values of {@link #asFloats()}, override if the feature has the floats at hand.
+	 */
+	public FloatStream asFloatStream() throws MicroarrayException {
+		Iterable<Float> floats = asFloats();
+		return floats != null ? FloatStream.of(floats) : null;
+	}
+	
 	public Float asFloat() throws MicroarrayException {
 		Iterator<Float> floats = asFloats().iterator();
 		Float floatValue = floats.next();
@@ -0,0 +1,103 @@
+package fi.csc.microarray.databeans.features;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Floats of a feature read in blocks to primitive arrays, so that the values
+ * are not boxed one by one as with {@link Feature#asFloats()}. A stream
+ * can be read only once, like an iterator.
+ *
+ * @see Feature#asFloatStream()
+ */
+public abstract class FloatStream {
+
+	public static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Reads at most length values to the buffer.
+	 *
+	 * @return number of values read, -1 at the end of the stream
+	 */
+	public abstract int read(float[] buffer, int offset, int length);
+
+	public int read(float[] buffer) {
+		return read(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Reads until length values were read or the stream ended.
+	 *
+	 * @return number of values read, less than length only at the end of the stream
+	 */
+	public int readFully(float[] buffer, int offset, int length) {
+		int total = 0;
+		while (total < length) {
+			int count = read(buffer, offset + total, length - total);
+			if (count == -1) {
+				break;
+			}
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads all remaining values.
+	 */
+	public float[] toArray() {
+		float[] values = new float[BLOCK_SIZE];
+		int size = 0;
+		int count;
+		while ((count = read(values, size, values.length - size)) != -1) {
+			size += count;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Stream of the first length values of the array. The array is not copied.
+	 */
+	public static FloatStream of(final float[] values, final int length) {
+		return new FloatStream() {
+
+			private int position = 0;
+
+			@Override
+			public int read(float[] buffer, int offset, int count) {
+				if (position >= length) {
+					return -1;
+				}
+				count = Math.min(count, length - position);
+				System.arraycopy(values, position, buffer, offset, count);
+				position += count;
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Stream for the features that only support boxed floats.
+	 */
+	public static FloatStream of(Iterable<Float> floats) {
+		final Iterator<Float> iterator = floats.iterator();
+		return new FloatStream() {
+
+			@Override
+			public int read(float[] buffer, int offset, int length) {
+				if (!iterator.hasNext()) {
+					return -1;
+				}
+				int count = 0;
+				while (count < length && iterator.hasNext()) {
+					buffer[offset + count] = iterator.next();
+					count++;
+				}
+				return count;
+			}
+		};
+	}
+}
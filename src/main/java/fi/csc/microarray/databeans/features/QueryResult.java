@@ -22,6 +22,10 @@ public class QueryResult {
 		return feature.asFloats();
 	}
 	
+	public FloatStream asFloatStream() throws MicroarrayException {
+		return feature.asFloatStream();
+	}
+	
 	public Table asTable() throws MicroarrayException {
 		return feature.asTable();
 	}
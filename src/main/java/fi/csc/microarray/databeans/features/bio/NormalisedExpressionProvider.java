@@ -6,8 +6,10 @@ import fi.csc.microarray.databeans.features.Feature;
 import fi.csc.microarray.databeans.features.BasicFeature;
 import fi.csc.microarray.databeans.features.FeatureProvider;
 import fi.csc.microarray.databeans.features.FeatureProviderBase;
+import fi.csc.microarray.databeans.features.FloatStream;
 import fi.csc.microarray.databeans.features.QueryResult;
 import fi.csc.microarray.databeans.features.CalculatingIterable.CalcOperation;
+import fi.csc.microarray.databeans.features.CalculatingIterable.CalculatingStream;
 import fi.csc.microarray.exception.MicroarrayException;
 
 public class NormalisedExpressionProvider extends FeatureProviderBase {
@@ -65,5 +67,39 @@ public class NormalisedExpressionProvider extends FeatureProviderBase {
 			}
 		}
 
+		@Override
+		public FloatStream asFloatStream() throws MicroarrayException {
+
+			// same choice as in asFloats()
+			if (getDataBean().queryFeatures(EXPRESSION_COLUMN).exists()) {
+				return getDataBean().queryFeatures(EXPRESSION_COLUMN).asFloatStream();
+
+			} else {
+				QueryResult rciColumn = getDataBean().queryFeatures(RED_CHANNEL_INTENSITY);
+				QueryResult rcbColumn = getDataBean().queryFeatures(RED_CHANNEL_BACKGROUND) ;
+				QueryResult gciColumn = getDataBean().queryFeatures(GREEN_CHANNEL_INTENSITY);
+				QueryResult gcbColumn = getDataBean().queryFeatures(GREEN_CHANNEL_BACKGROUND) ;
+				
+				if (rciColumn.exists() && rcbColumn.exists() &&	gciColumn.exists() && gcbColumn.exists()) {
+					
+					CalculatingStream redIntensity = new CalculatingStream( 
+							rciColumn.asFloatStream(), 
+							rcbColumn.asFloatStream(),
+							CalcOperation.SUBTRACT); 
+					CalculatingStream greenIntensity = new CalculatingStream(
+							gciColumn.asFloatStream(), 
+							gcbColumn.asFloatStream(),
+							CalcOperation.SUBTRACT); 
+					return new CalculatingStream(redIntensity, greenIntensity, CalcOperation.SUBTRACT); 
+
+				} else if (getDataBean().queryFeatures(AFFY_INTENSITY).exists()) {
+					return getDataBean().queryFeatures(AFFY_INTENSITY).asFloatStream();
+					
+				} else {
+					return null;
+				}
+			}
+		}
+
 	}
 }
@@ -4,8 +4,10 @@ import java.util.List;
 
 import fi.csc.microarray.databeans.features.CalculatingIterable;
 import fi.csc.microarray.databeans.features.Feature;
+import fi.csc.microarray.databeans.features.FloatStream;
 import fi.csc.microarray.databeans.features.ModifiedFeature;
 import fi.csc.microarray.databeans.features.CalculatingIterable.CalcOperation;
+import fi.csc.microarray.databeans.features.CalculatingIterable.CalculatingStream;
 import fi.csc.microarray.exception.MicroarrayException;
 
 public class CalcModifier {
@@ -27,6 +29,11 @@ public class CalcModifier {
 			public Iterable<Float> asFloats() throws MicroarrayException {			
 				return new CalculatingIterable(original.asFloats(), null, operation);
 			}
+	
+			public FloatStream asFloatStream() throws MicroarrayException {
+				FloatStream floats = original.asFloatStream();
+				return floats != null ? new CalculatingStream(floats, null, operation) : null;
+			}
 		}
 
 	private CalcModifierFeature output;
@@ -0,0 +1,363 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.FloatStream;
+import fi.csc.microarray.databeans.features.Table;
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+
+/**
+ * <p>Fully parsed table kept in memory column by column. Every column is a
+ * float array. Strings are dictionary encoded: each row has an index to the
+ * distinct values of the column. Text columns always keep their strings,
+ * numeric columns only when they have few distinct values, because the
+ * floats are enough for them.</p>
+ *
+ * <p>Values are exactly the ones {@link DynamicallyParsedTable} gives.
+ * Instances are immutable after parsing and can be shared between threads.</p>
+ *
+ * @see ColumnarTableCache
+ */
+public class ColumnarTable {
+
+	/**
+	 * Numeric columns with more distinct values than this drop their strings.
+	 */
+	private static final int MAX_NUMERIC_DICTIONARY = 256;
+	private static final int INITIAL_ROWS = 1024;
+
+	private String[] columnNames;
+	private HashMap<String, Integer> columnIndexes = new HashMap<>();
+	private int rowCount;
+	private float[][] floats;
+	private int[][] codes;
+	private String[][] dictionaries;
+	private boolean[] numeric;
+	private long memorySize;
+
+	private ColumnarTable(String[] columnNames) {
+		this.columnNames = columnNames;
+		for (int i = 0; i < columnNames.length; i++) {
+			columnIndexes.put(columnNames[i], i);
+		}
+	}
+
+	/**
+	 * Reads all rows of the source and closes it.
+	 *
+	 * @param source table with all columns selected
+	 * @param maxMemorySize parsing is stopped when the table would get larger than this
+	 * @return null if the table is too large
+	 */
+	static ColumnarTable parse(DynamicallyParsedTable source, String[] columnNames, long maxMemorySize) {
+		try {
+			int columnCount = columnNames.length;
+			ColumnBuilder[] builders = new ColumnBuilder[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				builders[i] = new ColumnBuilder();
+			}
+
+			int rows = 0;
+			ArrayList<String> cells;
+			while ((cells = source.nextCells()) != null) {
+				long size = 0;
+				for (int i = 0; i < columnCount; i++) {
+					builders[i].add(cells.get(i), rows);
+					size += builders[i].memorySize;
+				}
+				rows++;
+				if (size > maxMemorySize) {
+					return null;
+				}
+			}
+
+			ColumnarTable table = new ColumnarTable(columnNames);
+			table.rowCount = rows;
+			table.floats = new float[columnCount][];
+			table.codes = new int[columnCount][];
+			table.dictionaries = new String[columnCount][];
+			table.numeric = new boolean[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				ColumnBuilder builder = builders[i];
+				table.floats[i] = Arrays.copyOf(builder.floats, rows);
+				table.numeric[i] = builder.numeric;
+				if (builder.codes != null) {
+					table.codes[i] = Arrays.copyOf(builder.codes, rows);
+					table.dictionaries[i] = builder.dictionary.toArray(new String[0]);
+				}
+				table.memorySize += builder.memorySize;
+			}
+			return table;
+
+		} finally {
+			source.close();
+		}
+	}
+
+	private static class ColumnBuilder {
+
+		float[] floats = new float[INITIAL_ROWS];
+		int[] codes = new int[INITIAL_ROWS];
+		ArrayList<String> dictionary = new ArrayList<>();
+		float[] dictionaryFloats = new float[16];
+		HashMap<String, Integer> dictionaryIndexes = new HashMap<>();
+		boolean numeric = true;
+		long memorySize = 0;
+
+		void add(String cell, int row) {
+			if (row == floats.length) {
+				floats = Arrays.copyOf(floats, row * 2);
+				if (codes != null) {
+					codes = Arrays.copyOf(codes, row * 2);
+				}
+			}
+
+			if (codes == null) {
+				floats[row] = parseFloat(cell);
+				memorySize += 4;
+				return;
+			}
+
+			Integer code = dictionaryIndexes.get(cell);
+			if (code == null) {
+				// parse each distinct value only once
+				float value = parseFloat(cell);
+				if (numeric && dictionary.size() == MAX_NUMERIC_DICTIONARY) {
+					// floats are enough
+					codes = null;
+					dictionary = null;
+					dictionaryFloats = null;
+					dictionaryIndexes = null;
+					floats[row] = value;
+					memorySize = 4L * (row + 1);
+					return;
+				}
+				code = dictionary.size();
+				if (code == dictionaryFloats.length) {
+					dictionaryFloats = Arrays.copyOf(dictionaryFloats, code * 2);
+				}
+				dictionary.add(cell);
+				dictionaryFloats[code] = value;
+				dictionaryIndexes.put(cell, code);
+				memorySize += 48 + 2 * cell.length();
+			}
+			codes[row] = code;
+			floats[row] = dictionaryFloats[code];
+			memorySize += 8;
+		}
+
+		private float parseFloat(String cell) {
+			try {
+				return Float.parseFloat(cell);
+			} catch (NumberFormatException e) {
+				numeric = false;
+				return Float.NaN;
+			}
+		}
+	}
+
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	/**
+	 * @return index of the column or -1 if there is no such column
+	 */
+	public int getColumnIndex(String columnName) {
+		Integer index = columnIndexes.get(columnName);
+		return index != null ? index : -1;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public float getFloat(int column, int row) {
+		return floats[column][row];
+	}
+
+	/**
+	 * @return false if the column has only numbers, then all its values are floats
+	 */
+	public boolean hasText(int column) {
+		return !numeric[column];
+	}
+
+	/**
+	 * @return true if {@link #getString(int, int)} can be used for the column
+	 */
+	public boolean hasStrings(int column) {
+		return codes[column] != null;
+	}
+
+	public String getString(int column, int row) {
+		return dictionaries[column][codes[column][row]];
+	}
+
+	/**
+	 * Approximate heap usage in bytes.
+	 */
+	public long getMemorySize() {
+		return memorySize;
+	}
+
+	public Iterable<Float> floatIterable(final int column) {
+		return new Iterable<Float>() {
+			public Iterator<Float> iterator() {
+				return new RowIterator<Float>() {
+					protected Float get(int row) {
+						return floats[column][row];
+					}
+				};
+			}
+		};
+	}
+
+	public FloatStream floatStream(int column) {
+		return FloatStream.of(floats[column], rowCount);
+	}
+
+	public Iterable<String> stringIterable(final int column) {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new RowIterator<String>() {
+					protected String get(int row) {
+						return getString(column, row);
+					}
+				};
+			}
+		};
+	}
+
+	private abstract class RowIterator<T> implements Iterator<T> {
+
+		private int row = 0;
+
+		protected abstract T get(int row);
+
+		public boolean hasNext() {
+			return row < rowCount;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return get(row++);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Creates a {@link Table} view of the selected columns. Strings that
+	 * were not kept are read lazily from a {@link DynamicallyParsedTable}
+	 * running along, so it is only opened if somebody asks for them.
+	 */
+	public Table createTable(DataBean bean, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
+		return new Cursor(bean, settings, columnNumbers);
+	}
+
+	private class Cursor implements Table {
+
+		private DataBean bean;
+		private MatrixParseSettings settings;
+		private LinkedList<Integer> columnNumbers;
+		private HashMap<String, Integer> selected = new HashMap<>();
+		private DynamicallyParsedTable textSource;
+		private int row = -1;
+
+		public Cursor(DataBean bean, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
+			this.bean = bean;
+			this.settings = settings;
+			this.columnNumbers = columnNumbers;
+			for (Integer number : columnNumbers) {
+				selected.put(columnNames[number], number);
+			}
+		}
+
+		public boolean nextRow() {
+			row++;
+			if (textSource != null) {
+				textSource.nextRow();
+			}
+			return row < rowCount;
+		}
+
+		private DynamicallyParsedTable getTextSource() {
+			if (textSource == null) {
+				textSource = new DynamicallyParsedTable(bean, settings, columnNumbers);
+				for (int i = 0; i <= row; i++) {
+					textSource.nextRow();
+				}
+			}
+			return textSource;
+		}
+
+		public float getFloatValue(String columnName) {
+			Integer column = selected.get(columnName);
+			if (column == null) {
+				throw new IllegalArgumentException("column name " + columnName + " was not found");
+			}
+			return floats[column][row];
+		}
+
+		public int getIntValue(String columnName) {
+			return (int)getFloatValue(columnName);
+		}
+
+		public String getStringValue(String columnName) {
+			Integer column = selected.get(columnName);
+			if (column == null) {
+				return null;
+			} else if (hasStrings(column)) {
+				return getString(column, row);
+			} else {
+				return getTextSource().getStringValue(columnName);
+			}
+		}
+
+		public Object getValue(String columnName) {
+			Integer column = selected.get(columnName);
+			if (column != null && !hasText(column)) {
+				return floats[column][row];
+			}
+			String value = getStringValue(columnName);
+			try {
+				return new Float(value);
+			} catch (NumberFormatException e) {
+				return value;
+			}
+		}
+
+		public String[] getColumnNames() {
+			String[] columnNameSlice = new String[columnNumbers.size()];
+			for (int i = 0; i < columnNumbers.size(); i++) {
+				columnNameSlice[i] = columnNames[columnNumbers.get(i)];
+			}
+			return columnNameSlice;
+		}
+
+		public boolean hasColumn(String columnName) {
+			return columnIndexes.containsKey(columnName);
+		}
+
+		public int getColumnCount() {
+			return columnNames.length;
+		}
+
+		public void close() {
+			if (textSource != null) {
+				textSource.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+import fi.csc.microarray.exception.MicroarrayException;
+
+/**
+ * <p>Keeps the {@link ColumnarTable}s of the most recently used DataBeans.
+ * Tables are stored in the content bound cache of the bean, so they are
+ * dropped when the content changes. This class only limits their total size
+ * by dropping the least recently used ones.</p>
+ *
+ * <p>A table is parsed only once even if several threads ask for it at the
+ * same time. Tables that would not fit in the cache are not parsed again,
+ * the callers have to stream them instead.</p>
+ */
+public class ColumnarTableCache {
+
+	private static final Logger logger = Logger.getLogger(ColumnarTableCache.class);
+
+	private static final String CACHE_NAME = "columnar-table";
+	private static final Object TOO_LARGE = new Object();
+
+	private static ColumnarTableCache instance = new ColumnarTableCache(Runtime.getRuntime().maxMemory() / 8);
+
+	private long maxMemorySize;
+	private long memorySize = 0;
+	private LinkedHashMap<DataBean, ColumnarTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+	private ConcurrentHashMap<DataBean, FutureTask<ColumnarTable>> parsing = new ConcurrentHashMap<>();
+
+	public ColumnarTableCache(long maxMemorySize) {
+		this.maxMemorySize = maxMemorySize;
+	}
+
+	public static ColumnarTableCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the table or null if it is too large to be cached
+	 * @throws MicroarrayException if the content could not be parsed
+	 */
+	public ColumnarTable get(final DataBean bean, final MatrixParseSettings settings) throws MicroarrayException {
+
+		Object cached = bean.getFromContentBoundCache(CACHE_NAME);
+		if (cached == TOO_LARGE) {
+			return null;
+		} else if (cached != null) {
+			touch(bean);
+			return (ColumnarTable) cached;
+		}
+
+		FutureTask<ColumnarTable> task = new FutureTask<>(new Callable<ColumnarTable>() {
+			public ColumnarTable call() throws Exception {
+				return parse(bean, settings);
+			}
+		});
+		FutureTask<ColumnarTable> running = parsing.putIfAbsent(bean, task);
+		if (running == null) {
+			running = task;
+			task.run();
+		}
+
+		try {
+			return running.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MicroarrayException(e);
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new MicroarrayException((Exception) e.getCause());
+
+		} finally {
+			parsing.remove(bean, running);
+		}
+	}
+
+	private ColumnarTable parse(DataBean bean, MatrixParseSettings settings) {
+		String id = bean.getId();
+		long start = System.currentTimeMillis();
+		String[] columnNames = settings.columns.keySet().toArray(new String[0]);
+		ColumnarTable table = ColumnarTable.parse(new DynamicallyParsedTable(bean, settings, new LinkedList<Integer>()), columnNames, maxMemorySize);
+
+		if (!Objects.equals(id, bean.getId())) {
+			// content was changed while parsing
+			return table;
+		}
+
+		if (table == null) {
+			logger.debug(bean.getName() + " is too large for the table cache");
+			bean.putToContentBoundCache(CACHE_NAME, TOO_LARGE);
+		} else {
+			logger.debug("parsed " + bean.getName() + " (" + table.getRowCount() + " rows, " + table.getMemorySize() / 1024 + " kB) in " + (System.currentTimeMillis() - start) + " ms");
+			put(bean, table);
+		}
+		return table;
+	}
+
+	private synchronized void touch(DataBean bean) {
+		tables.get(bean);
+	}
+
+	private synchronized void put(DataBean bean, ColumnarTable table) {
+
+		// forget the tables that were dropped from their beans
+		Iterator<Entry<DataBean, ColumnarTable>> iterator = tables.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<DataBean, ColumnarTable> entry = iterator.next();
+			if (entry.getKey().getFromContentBoundCache(CACHE_NAME) != entry.getValue()) {
+				memorySize -= entry.getValue().getMemorySize();
+				iterator.remove();
+			}
+		}
+
+		ColumnarTable old = tables.put(bean, table);
+		if (old != null) {
+			memorySize -= old.getMemorySize();
+		}
+		memorySize += table.getMemorySize();
+		bean.putToContentBoundCache(CACHE_NAME, table);
+
+		// drop the least recently used
+		iterator = tables.entrySet().iterator();
+		while (memorySize > maxMemorySize && iterator.hasNext()) {
+			Entry<DataBean, ColumnarTable> entry = iterator.next();
+			if (entry.getKey() == bean) {
+				continue;
+			}
+			entry.getKey().removeFromContentBoundCache(CACHE_NAME, entry.getValue());
+			memorySize -= entry.getValue().getMemorySize();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Approximate heap usage of the cached tables in bytes.
+	 */
+	public synchronized long getMemorySize() {
+		return memorySize;
+	}
+}
@@ -38,7 +38,7 @@ public class DynamicallyParsedTable implements Table {
 		this.columnNames = settings.columns.keySet().toArray(new String[0]);
 
 		try {
-			this.reader = new BufferedReader(new InputStreamReader(Session.getSession().getApplication().getDataManager().getContentStream(bean, DataNotAvailableHandling.EXCEPTION_ON_NA)));
+			this.reader = new BufferedReader(new InputStreamReader(Session.getSession().getApplication().getDataManager().getContentStreamFromHead(bean, DataNotAvailableHandling.EXCEPTION_ON_NA)));
 			this.source = new LookaheadLineReader(this.reader);
 			this.headerParsed = false;
 
@@ -48,6 +48,36 @@ public class DynamicallyParsedTable implements Table {
 	}
 
 	public boolean nextRow() {
+		ArrayList<String> row = nextCells();
+		if (row == null) {
+			values = null; // trying to read values will result now in error
+			return false; // signal that we are at end
+		}
+		
+		values = new HashMap<String, String>();
+		
+		if (columnNumbers.size() == 0) {
+			// return all
+			int i = 0; 
+			for (String string : row) {
+				values.put(columnNames[i++], string);
+			}
+			
+		} else {
+			for (Integer number : columnNumbers) {
+				values.put(columnNames[number], row.get(number));
+			}
+		}
+
+		return true; // not at end yet
+	}
+	
+	/**
+	 * Read the cells of the next row, one for each column of the settings. 
+	 * 
+	 * @return null at the end of the table
+	 */
+	ArrayList<String> nextCells() {
 		try {
 
 			// we stop at 1) EOS (null), 2) footer starter and 3) empty row (if header is parsed, because header can contains empty rows)
@@ -55,8 +85,7 @@ public class DynamicallyParsedTable implements Table {
 					(settings.footerStarter != null && source.peekLine().contains(settings.footerStarter)) ||
 					(headerParsed && "".equals(source.peekLine().trim()))) {
 				
-				values = null; // trying to read values will result now in error
-				return false; // signal that we are at end
+				return null;
 			}
 
 			// do we have to first process header?
@@ -75,26 +104,10 @@ public class DynamicallyParsedTable implements Table {
 			}
 			
 			if (source.peekLine() == null) {
-				return false; // header parsing has eaten all content
+				return null; // header parsing has eaten all content
 			}
 			
-			ArrayList<String> row = parseRow(source.readLine());
-			values = new HashMap<String, String>();
-			
-			if (columnNumbers.size() == 0) {
-				// return all
-				int i = 0; 
-				for (String string : row) {
-					values.put(columnNames[i++], string);
-				}
-				
-			} else {
-				for (Integer number : columnNumbers) {
-					values.put(columnNames[number], row.get(number));
-				}
-			}
-
-			return true; // not at end yet
+			return parseRow(source.readLine());
 			
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -26,7 +26,7 @@ public class HeaderProvider extends FeatureProviderBase {
 
 	public Feature createFeature(String namePostfix, DataBean bean) {
 			
-		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(Session.getSession().getDataManager().getContentStream(bean, DataNotAvailableHandling.EMPTY_ON_NA)))) {
+		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(Session.getSession().getDataManager().getContentStreamFromHead(bean, DataNotAvailableHandling.EMPTY_ON_NA)))) {
 			
 			MatrixParseSettings settings = TableColumnProvider.inferSettings(bean);
 			LookaheadLineReader source = new LookaheadLineReader(bufferedReader);
@@ -9,7 +9,6 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -20,6 +19,7 @@ import fi.csc.microarray.databeans.features.BasicFeature;
 import fi.csc.microarray.databeans.features.Feature;
 import fi.csc.microarray.databeans.features.FeatureProvider;
 import fi.csc.microarray.databeans.features.FeatureProviderBase;
+import fi.csc.microarray.databeans.features.FloatStream;
 import fi.csc.microarray.databeans.features.Table;
 import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.module.basic.BasicModule;
@@ -41,7 +41,7 @@ public class TableColumnProvider extends FeatureProviderBase {
 	 */
 	private static final Logger logger = Logger.getLogger(TableColumnProvider.class);
 
-	private static final Pattern ROW_TOKENISER_REGEX = Pattern.compile("\t");
+	private static final String SETTINGS_CACHE_NAME = "matrix-parse-settings";
 
 
 	public Feature createFeature(String namePostfix, DataBean bean) {
@@ -60,10 +60,22 @@ public class TableColumnProvider extends FeatureProviderBase {
 		String name;
 	}	
 	
+	/**
+	 * Same as {@link #inferSettings(DataBean)}, but settings are inferred only once for the content.
+	 */
+	static MatrixParseSettings getSettings(DataBean bean) throws IOException, MicroarrayException {
+		MatrixParseSettings settings = (MatrixParseSettings) bean.getFromContentBoundCache(SETTINGS_CACHE_NAME);
+		if (settings == null) {
+			settings = inferSettings(bean);
+			bean.putToContentBoundCache(SETTINGS_CACHE_NAME, settings);
+		}
+		return settings;
+	}
+
 	public static MatrixParseSettings inferSettings(DataBean bean) throws IOException, MicroarrayException {
 		BufferedReader bufferedReader = null;
 		try {
-			bufferedReader = new BufferedReader(new InputStreamReader(Session.getSession().getApplication().getDataManager().getContentStream(bean, DataNotAvailableHandling.EMPTY_ON_NA)));
+			bufferedReader = new BufferedReader(new InputStreamReader(Session.getSession().getApplication().getDataManager().getContentStreamFromHead(bean, DataNotAvailableHandling.EMPTY_ON_NA)));
 			LookaheadLineReader source = new LookaheadLineReader(bufferedReader);
 			MatrixParseSettings settings = new MatrixParseSettings();
 
@@ -239,29 +251,21 @@ public class TableColumnProvider extends FeatureProviderBase {
 	public static String[] tokeniseRow(String row) {
 		if (row == null) {
 			return new String[] {};
-		} else {				
-			String[] result = ROW_TOKENISER_REGEX.split(row);
+		} else {
+			// split without regex and keep the trailing empty strings
+			int count = 1;
+			for (int i = row.indexOf('\t'); i != -1; i = row.indexOf('\t', i + 1)) {
+				count++;
+			}
 			
-			if (row.endsWith("\t")) {
-				
-				// split eats away trailing empty strings, which is bad
-				
-				//count missing columns
-				int eatenColumns = 0; 
-				for (int i = row.length() - 1; i >= 0; i--) {
-					if ('\t' == row.charAt(i)) {
-						eatenColumns++;
-					} else {
-						break;
-					}
-				}
-				
-				//put them back
-				String[] fullResult = new String[result.length + eatenColumns];
-				System.arraycopy(result, 0, fullResult, 0, result.length);
-				Arrays.fill(fullResult, result.length, fullResult.length, "");
-				result = fullResult;
+			String[] result = new String[count];
+			int start = 0;
+			for (int i = 0; i < count - 1; i++) {
+				int end = row.indexOf('\t', start);
+				result[i] = row.substring(start, end);
+				start = end + 1;
 			}
+			result[count - 1] = row.substring(start);
 			
 			return result;
 		}
@@ -286,7 +290,18 @@ public class TableColumnProvider extends FeatureProviderBase {
 			this.convertToFloats = convertToFloats;
 		}
 
+		@SuppressWarnings(value="unchecked")
 		public Iterator<T> iterator() {
+			
+			// table is looked up only now, because features are often created just to check that they exist
+			ColumnarTable cached = getCachedTable(dataBean, settings);
+			int column = columnIndex.getFirst();
+			if (cached != null && convertToFloats) {
+				return (Iterator<T>) cached.floatIterable(column).iterator();
+			} else if (cached != null && cached.hasStrings(column)) {
+				return (Iterator<T>) cached.stringIterable(column).iterator();
+			}
+			
 			DynamicallyParsedTable table = new DynamicallyParsedTable(dataBean, settings, columnIndex);
 			return new TableColumnIterator<T>(table, columnName, convertToFloats);
 		}
@@ -342,6 +357,83 @@ public class TableColumnProvider extends FeatureProviderBase {
 		}
 	}
 
+	private static ColumnarTable getCachedTable(DataBean bean, MatrixParseSettings settings) {
+		try {
+			return ColumnarTableCache.getInstance().get(bean, settings);
+		} catch (MicroarrayException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Decides between the cached and the dynamically parsed table only when the first row is
+	 * read. Column names can be asked without parsing anything. 
+	 */
+	private static class CachedTable implements Table {
+
+		private DataBean bean;
+		private MatrixParseSettings settings;
+		private LinkedList<Integer> columnNumbers;
+		private Table table;
+
+		public CachedTable(DataBean bean, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
+			this.bean = bean;
+			this.settings = settings;
+			this.columnNumbers = columnNumbers;
+		}
+
+		public boolean nextRow() {
+			if (table == null) {
+				ColumnarTable cached = getCachedTable(bean, settings);
+				if (cached != null) {
+					table = cached.createTable(bean, settings, columnNumbers);
+				} else {
+					table = new DynamicallyParsedTable(bean, settings, columnNumbers);
+				}
+			}
+			return table.nextRow();
+		}
+
+		public float getFloatValue(String columnName) {
+			return table.getFloatValue(columnName);
+		}
+
+		public int getIntValue(String columnName) {
+			return table.getIntValue(columnName);
+		}
+
+		public String getStringValue(String columnName) {
+			return table.getStringValue(columnName);
+		}
+
+		public Object getValue(String columnName) {
+			return table.getValue(columnName);
+		}
+
+		public String[] getColumnNames() {
+			String[] columnNames = settings.columns.keySet().toArray(new String[0]);
+			String[] columnNameSlice = new String[columnNumbers.size()];
+			for (int i = 0; i < columnNumbers.size(); i++) {
+				columnNameSlice[i] = columnNames[columnNumbers.get(i)];
+			}
+			return columnNameSlice;
+		}
+
+		public boolean hasColumn(String columnName) {
+			return settings.columns.containsKey(columnName);
+		}
+
+		public int getColumnCount() {
+			return settings.columns.size();
+		}
+
+		public void close() {
+			if (table != null) {
+				table.close();
+			}
+		}
+	}
+
 	public static class MatrixParseSettings {
 		/**
 		 * Must include newline if it is part of the header!
@@ -361,7 +453,7 @@ public class TableColumnProvider extends FeatureProviderBase {
 		public TableColumn(String namePostfix, DataBean bean, FeatureProvider factory) throws IOException, MicroarrayException {
 			super(bean, factory);
 
-			this.settings = inferSettings(bean);
+			this.settings = getSettings(bean);
 			
 			// iterate over all columns and collect matching ones
 			int c = 0;
@@ -394,6 +486,21 @@ public class TableColumnProvider extends FeatureProviderBase {
 			}
 		}
 
+		@Override
+		public FloatStream asFloatStream() throws MicroarrayException {
+			if (indexCollector.size() != 1) {
+				// column name must match exactly one column
+				return null;
+				
+			} else {
+				ColumnarTable table = ColumnarTableCache.getInstance().get(getDataBean(), settings);
+				if (table != null) {
+					return table.floatStream(indexCollector.getFirst());
+				}
+				return super.asFloatStream();
+			}
+		}
+
 		@Override
 		public Iterable<String> asStrings() throws MicroarrayException {
 			if (indexCollector.size() != 1) {
@@ -411,7 +518,7 @@ public class TableColumnProvider extends FeatureProviderBase {
 				return null; // we have to return null, cannot return empty table (because it is not true). it is also specified by Feature interface.
 				
 			} else {
-				return new DynamicallyParsedTable(getDataBean(), settings, indexCollector);
+				return new CachedTable(getDataBean(), settings, indexCollector);
 			}
 		}
 	}
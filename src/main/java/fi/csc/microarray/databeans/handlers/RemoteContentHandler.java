@@ -52,6 +52,32 @@ public class RemoteContentHandler implements ContentHandler {
 		return connection.getInputStream();
 	}
 
+	/**
+	 * Opens a stream to a range of the content with an HTTP range request. If the 
+	 * server sends the whole content instead, the beginning is skipped. 
+	 */
+	public InputStream getInputStream(ContentLocation location, long position, long length) throws IOException {
+		checkCompatibility(location);
+		HttpURLConnection connection = (HttpURLConnection)location.getUrl().openConnection();
+		KeyAndTrustManager.configureSSL(connection);
+		connection.setRequestProperty("Range", "bytes=" + position + "-" + (position + length - 1));
+		InputStream in = connection.getInputStream();
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+			long skipped = 0;
+			while (skipped < position) {
+				long count = in.skip(position - skipped);
+				if (count <= 0) {
+					if (in.read() == -1) {
+						break;
+					}
+					count = 1;
+				}
+				skipped += count;
+			}
+		}
+		return in;
+	}
+
 	@Override
 	public OutputStream getOutputStream(ContentLocation location) throws IOException {
 		throw new UnsupportedOperationException("remote content handler does not support output");
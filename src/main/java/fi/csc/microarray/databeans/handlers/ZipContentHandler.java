@@ -1,5 +1,6 @@
 package fi.csc.microarray.databeans.handlers;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -9,6 +10,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -16,6 +18,7 @@ import de.schlichtherle.truezip.zip.ZipEntry;
 import de.schlichtherle.truezip.zip.ZipFile;
 import fi.csc.microarray.client.session.UserSession;
 import fi.csc.microarray.databeans.DataManager.ContentLocation;
+import fi.csc.microarray.util.IOUtils;
 
 public class ZipContentHandler implements ContentHandler {
 	/**
@@ -23,7 +26,44 @@ public class ZipContentHandler implements ContentHandler {
 	 */
 	private static final Logger logger = Logger.getLogger(ZipContentHandler.class);
 
-	private Map<File, ZipFile> zipFileInstances = new HashMap<File, ZipFile>();
+	private ConcurrentHashMap<File, ZipFile> zipFileInstances = new ConcurrentHashMap<File, ZipFile>();
+	
+	/**
+	 * Copies zip entries to files. Streams of the pooled ZipFile instances are synchronized
+	 * on the ZipFile, so each Extractor opens the zip files again for itself, and
+	 * several Extractors can inflate entries of the same session in parallel. 
+	 */
+	public class Extractor implements Closeable {
+		
+		private Map<File, ZipFile> zipFiles = new HashMap<File, ZipFile>();
+
+		/**
+		 * Copies the entry to the target file and verifies its CRC.
+		 */
+		public void extract(ContentLocation location, File target) throws IOException {
+			checkCompatibility(location);
+			File file = getZipFile(location);
+			ZipFile zipFile = zipFiles.get(file);
+			if (zipFile == null) {
+				zipFile = new ZipFile(file);
+				zipFiles.put(file, zipFile);
+			}
+			try (InputStream in = zipFile.getCheckedInputStream(location.getUrl().getRef())) {
+				if (in == null) {
+					throw new IOException("entry " + location.getUrl().getRef() + " not found from " + file);
+				}
+				IOUtils.copy(in, target);
+			}
+		}
+
+		@Override
+		public void close() {
+			for (ZipFile zipFile : zipFiles.values()) {
+				IOUtils.closeIfPossible(zipFile);
+			}
+			zipFiles.clear();
+		}
+	}
 	
 	@Override
 	public Long getContentLength(ContentLocation location) throws IOException {
@@ -47,10 +87,21 @@ public class ZipContentHandler implements ContentHandler {
 	 */
 	private ZipFile createZipFile(ContentLocation location) throws IOException {
 		File file = getZipFile(location);
-		if (!zipFileInstances.containsKey(file)) {
-			zipFileInstances.put(file, new ZipFile(file));
+		ZipFile zipFile = zipFileInstances.get(file);
+		if (zipFile == null) {
+			zipFile = new ZipFile(file);
+			ZipFile other = zipFileInstances.putIfAbsent(file, zipFile);
+			if (other != null) {
+				// opened by another thread at the same time
+				zipFile.close();
+				zipFile = other;
+			}
 		}
-		return zipFileInstances.get(file);
+		return zipFile;
+	}
+	
+	public Extractor createExtractor() {
+		return new Extractor();
 	}
 
 	
@@ -24,6 +24,42 @@ import fi.csc.microarray.security.CryptoKey;
  */
 public class AuthorisedUrlRepository {
 	
+	/**
+	 * Transfer compression, told by the suffix of the URL.
+	 */
+	public static enum Compression {
+		NONE(""),
+		/**
+		 * Single deflate stream, stored as such.
+		 */
+		DEFLATE(".compressed"),
+		/**
+		 * {@link fi.csc.microarray.util.BlockCompression} format, decompressed by the file broker, so the 
+		 * file is stored without the suffix. 
+		 */
+		BLOCK(".block-compressed");
+		
+		private String suffix;
+		
+		private Compression(String suffix) {
+			this.suffix = suffix;
+		}
+		
+		public String getSuffix() {
+			return suffix;
+		}
+		
+		public static Compression fromFilename(String filename) {
+			if (filename.endsWith(BLOCK.suffix)) {
+				return BLOCK;
+			}
+			if (filename.endsWith(DEFLATE.suffix)) {
+				return DEFLATE;
+			}
+			return NONE;
+		}
+	}
+	
 	public static class Authorisation {
 		private Date created;
 		private long fileSize;
@@ -64,7 +100,6 @@ public class AuthorisedUrlRepository {
 	 * i.e., PUT requests are to be rejected to that URL.
 	 */
 	private static final int URL_LIFETIME_MINUTES = 10;
-	private static final String COMPRESSION_SUFFIX = ".compressed";
 
 	private HashMap<URL, Authorisation> repository = new HashMap<>();  
 	private Lock repositoryLock = new ReentrantLock();
@@ -90,13 +125,14 @@ public class AuthorisedUrlRepository {
 	 *  @see #URL_LIFETIME_MINUTES
 	 */
 	public URL createAuthorisedUrl(String fileId, boolean useCompression, FileBrokerArea area, long bytes) throws Exception {
+		return createAuthorisedUrl(fileId, useCompression ? Compression.DEFLATE : Compression.NONE, area, bytes);
+	}
+	
+	public URL createAuthorisedUrl(String fileId, Compression compression, FileBrokerArea area, long bytes) throws Exception {
 
 		URL newUrl;
 
-		String compressionSuffix = "";
-		if (useCompression) {
-			compressionSuffix = COMPRESSION_SUFFIX;
-		}
+		String compressionSuffix = compression.getSuffix();
 
 		repositoryLock.lock();
 		try {
@@ -168,11 +204,8 @@ public class AuthorisedUrlRepository {
 	
 	
 	public static String stripCompressionSuffix(String filename) {
-		if (filename.endsWith(COMPRESSION_SUFFIX)) {
-			return filename.substring(0, filename.length() - COMPRESSION_SUFFIX.length());
-		} else {
-			return filename;
-		}
+		String suffix = Compression.fromFilename(filename).getSuffix();
+		return filename.substring(0, filename.length() - suffix.length());
 
 	}
 	public static boolean checkFilenameSyntax(String filename) {
@@ -0,0 +1,258 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.util.Files;
+
+/**
+ * In-memory index of the files in the cache directory, in the order in which
+ * they should be removed. The file server reports file accesses and uploads to
+ * the index, so that the clean up doesn't have to list and sort the whole
+ * directory tree every time.
+ *
+ * <p>Policy LRU removes the least recently used files first. Policy GDSF
+ * (Greedy-Dual-Size-Frequency) prefers to remove big files that are seldom
+ * used, because they free most space for the smallest number of cache misses.</p>
+ *
+ * <p>Checksum files are not indexed, they are removed together with their data
+ * files.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+public class CacheIndex {
+
+	private static final Logger logger = Logger.getLogger(CacheIndex.class);
+
+	public enum Policy {
+		LRU,
+		GDSF
+	}
+
+	/**
+	 * Size of a file that gets priority 1 per access with GDSF.
+	 */
+	private static final double GDSF_SIZE_UNIT = 1024 * 1024;
+
+	public static class Entry {
+		private File file;
+		private long size;
+		private long lastAccess;
+		private long accessCount;
+		private double priority;
+		private long sequence;
+
+		private Entry(File file, long size, long lastAccess) {
+			this.file = file;
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastAccess() {
+			return lastAccess;
+		}
+	}
+
+	private File root;
+	private Policy policy;
+
+	private HashMap<File, Entry> entries = new HashMap<File, Entry>();
+
+	/**
+	 * Entries in eviction order, lowest priority first.
+	 */
+	private TreeSet<Entry> evictionOrder = new TreeSet<Entry>(new Comparator<Entry>() {
+		@Override
+		public int compare(Entry entry1, Entry entry2) {
+			int result = Double.compare(entry1.priority, entry2.priority);
+			if (result == 0) {
+				result = Long.compare(entry1.sequence, entry2.sequence);
+			}
+			return result;
+		}
+	});
+
+	private long sequence = 0;
+	private long size = 0;
+
+	/**
+	 * Priority of the last evicted entry. Ages the priorities of GDSF entries,
+	 * so that files that were popular long ago will be removed eventually.
+	 */
+	private double inflation = 0;
+
+	public CacheIndex(File root, Policy policy) {
+		this.root = root.getAbsoluteFile();
+		this.policy = policy;
+	}
+
+	/**
+	 * Scan the cache directory and add the files that aren't in the index yet.
+	 * Files that have been removed by others are dropped from the index.
+	 * The scan is done without holding the lock, so the index can be used
+	 * while it's running.
+	 */
+	public void rebuild() {
+		long scanStart = System.currentTimeMillis();
+
+		List<File> files = new LinkedList<File>();
+		for (File file : Files.listFilesRecursively(root)) {
+			if (file.isFile() && !isChecksumFile(file)) {
+				files.add(file);
+			}
+		}
+		final HashMap<File, Long> lastModified = new HashMap<File, Long>();
+		for (File file : files) {
+			lastModified.put(file, file.lastModified());
+		}
+		// oldest first, to get the initial order right
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Long.compare(lastModified.get(file1), lastModified.get(file2));
+			}
+		});
+
+		synchronized (this) {
+			for (File file : files) {
+				if (!entries.containsKey(file)) {
+					add(new Entry(file, file.length(), lastModified.get(file)));
+				}
+			}
+
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (entry.lastAccess < scanStart && !lastModified.containsKey(entry.file)) {
+					iterator.remove();
+					evictionOrder.remove(entry);
+					size -= entry.size;
+				}
+			}
+
+			logger.info("cache index of " + root + " rebuilt in " + (System.currentTimeMillis() - scanStart) + " ms, " +
+					entries.size() + " files, " + size / 1024 / 1024 + " MB, policy " + policy);
+		}
+	}
+
+	private boolean isChecksumFile(File file) {
+		return file.getName().endsWith(".md5");
+	}
+
+	/**
+	 * Record a read or write of a file in the cache. Unknown files are added
+	 * to the index.
+	 */
+	public synchronized void touch(File file) {
+		file = file.getAbsoluteFile();
+		Entry entry = entries.get(file);
+		if (entry == null) {
+			add(new Entry(file, file.length(), System.currentTimeMillis()));
+		} else {
+			evictionOrder.remove(entry);
+			size -= entry.size;
+			entry.size = file.length();
+			entry.lastAccess = System.currentTimeMillis();
+			entry.accessCount++;
+			updatePriority(entry);
+			evictionOrder.add(entry);
+			size += entry.size;
+		}
+	}
+
+	private void add(Entry entry) {
+		entry.accessCount = 1;
+		updatePriority(entry);
+		entries.put(entry.file, entry);
+		evictionOrder.add(entry);
+		size += entry.size;
+	}
+
+	private void updatePriority(Entry entry) {
+		entry.sequence = sequence++;
+		switch (policy) {
+		case GDSF:
+			entry.priority = inflation + entry.accessCount * GDSF_SIZE_UNIT / Math.max(entry.size, 1);
+			break;
+		default:
+			entry.priority = entry.lastAccess;
+		}
+	}
+
+	/**
+	 * Find the next files to remove, in eviction order. Files accessed after
+	 * minimumAccessTime are skipped. The files stay in the index until
+	 * {@link #remove(Entry, long)} is called.
+	 *
+	 * @param bytes stop when the total size of the candidates reaches this
+	 */
+	public synchronized List<Entry> getEvictionCandidates(long bytes, long minimumAccessTime) {
+		List<Entry> candidates = new LinkedList<Entry>();
+		long candidateBytes = 0;
+		for (Entry entry : evictionOrder) {
+			if (candidateBytes >= bytes) {
+				break;
+			}
+			if (entry.lastAccess > minimumAccessTime) {
+				if (policy == Policy.LRU) {
+					// all the rest are newer
+					break;
+				}
+				continue;
+			}
+			candidates.add(entry);
+			candidateBytes += entry.size;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Remove the entry from the index, unless the file has been accessed again
+	 * after it was returned from {@link #getEvictionCandidates(long, long)}.
+	 *
+	 * @return true if the entry was removed and the file can be deleted
+	 */
+	public synchronized boolean remove(Entry candidate, long minimumAccessTime) {
+		Entry entry = entries.get(candidate.file);
+		if (entry != candidate || entry.lastAccess > minimumAccessTime || !evictionOrder.remove(entry)) {
+			return false;
+		}
+		entries.remove(entry.file);
+		size -= entry.size;
+		if (policy == Policy.GDSF) {
+			inflation = Math.max(inflation, entry.priority);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the total size of the indexed files in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getFileCount() {
+		return entries.size();
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+}
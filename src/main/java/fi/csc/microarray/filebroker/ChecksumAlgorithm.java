@@ -0,0 +1,92 @@
+package fi.csc.microarray.filebroker;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.DatatypeConverter;
+
+import fi.csc.microarray.util.XxHash64;
+
+/**
+ * Algorithms for verifying file transfers. Md5 is stored in the .md5 files and
+ * sent in the Etag header, so it's always needed for the metadata. The other
+ * algorithms can be requested for the verification of uploads with the
+ * {@link ChecksumInputStream#HTTP_CHECKSUM_ALGORITHM_KEY} header. File brokers
+ * that don't know it simply don't send the checksum back.
+ */
+public enum ChecksumAlgorithm {
+
+	MD5("md5") {
+		@Override
+		public Hasher newHasher() {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+			return new Hasher() {
+				@Override
+				public void update(ByteBuffer buffer) {
+					digest.update(buffer);
+				}
+
+				@Override
+				public String getChecksum() {
+					return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+				}
+			};
+		}
+	},
+
+	/**
+	 * Several times faster than md5, but not a cryptographic hash.
+	 */
+	XXH64("xxh64") {
+		@Override
+		public Hasher newHasher() {
+			final XxHash64 hash = new XxHash64();
+			return new Hasher() {
+				@Override
+				public void update(ByteBuffer buffer) {
+					hash.update(buffer);
+				}
+
+				@Override
+				public String getChecksum() {
+					return hash.getHexValue();
+				}
+			};
+		}
+	};
+
+	public static interface Hasher {
+		public void update(ByteBuffer buffer);
+		public String getChecksum();
+	}
+
+	private String name;
+
+	private ChecksumAlgorithm(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public abstract Hasher newHasher();
+
+	/**
+	 * @return the algorithm or null if the name is null or unknown
+	 */
+	public static ChecksumAlgorithm fromName(String name) {
+		for (ChecksumAlgorithm algorithm : values()) {
+			if (algorithm.name.equalsIgnoreCase(name)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+}
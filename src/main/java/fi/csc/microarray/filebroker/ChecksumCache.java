@@ -0,0 +1,83 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the checksums of recently requested files in memory, so that GET and HEAD
+ * requests don't have to open and parse the .md5 file every time. A cached
+ * checksum is used only if the .md5 file hasn't been modified since it was read.
+ */
+public class ChecksumCache {
+
+	private static class Entry {
+		long md5Modified;
+		String checksum;
+	}
+
+	private Map<String, Entry> entries;
+
+	/**
+	 * @param maxSize the least recently used checksums are forgotten after this many files
+	 */
+	public ChecksumCache(final int maxSize) {
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @see Md5FileUtils#readMd5(File)
+	 */
+	public String getChecksum(File dataFile) throws ChecksumParseException, IOException {
+		String key = dataFile.getAbsolutePath();
+		long md5Modified = Md5FileUtils.getMd5File(dataFile).lastModified();
+
+		if (md5Modified == 0) {
+			// no md5 file
+			remove(dataFile);
+			return null;
+		}
+
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.md5Modified == md5Modified) {
+				return entry.checksum;
+			}
+		}
+
+		String checksum = Md5FileUtils.readMd5(dataFile);
+		if (checksum != null) {
+			Entry entry = new Entry();
+			entry.md5Modified = md5Modified;
+			entry.checksum = checksum;
+			synchronized (entries) {
+				entries.put(key, entry);
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Forget the checksum, e.g. when the .md5 file is written again within the
+	 * resolution of the file modification time.
+	 */
+	public void remove(File dataFile) {
+		synchronized (entries) {
+			entries.remove(dataFile.getAbsolutePath());
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+}
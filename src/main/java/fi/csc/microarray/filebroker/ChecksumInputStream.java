@@ -1,13 +1,9 @@
 package fi.csc.microarray.filebroker;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-import javax.xml.bind.DatatypeConverter;
 
 /**
  * <p>Calculate md5 checksum of the stream to verify its contents. This class provides a transparent
@@ -16,7 +12,11 @@ import javax.xml.bind.DatatypeConverter;
  * <p>It's not practical to read through a big file just to calculate checksum, but it's quite cheap to calculate 
  * md5 on the fly when the file is read anyway for some other purpose. Still the calculation consumes some resources and 
  * therefore the constructors have a parameter useChecksums that can be used to bypass checksum calculation 
- * to attain higher throughput (checksum calculation will top out around 200 MB/s utilizing fully one CPU core).</p>
+ * to attain higher throughput (md5 calculation will top out around 200-500 MB/s utilizing fully one CPU core).
+ * The hashing is done in another thread by a {@link ChecksumPipeline}, so the thread reading this stream doesn't 
+ * have to wait for it, as long as the hashing keeps up with the transfer.</p>
+ * 
+ * <p>Md5 is used by default. Uploads can be verified with a faster algorithm, see {@link ChecksumAlgorithm}.</p>
  * 
  * This class can be used in three different use cases:
  * <ul>
@@ -47,38 +47,42 @@ import javax.xml.bind.DatatypeConverter;
  * @author klemela
  *
  */
-public class ChecksumInputStream extends DigestInputStream {
+public class ChecksumInputStream extends FilterInputStream {
 	
 	public static final String HTTP_CHECKSUM_KEY = "Etag";
 	
+	/**
+	 * Request header for asking the file broker to send also a checksum of the 
+	 * uploaded data calculated with this algorithm, see {@link ChecksumAlgorithm#getName()}.
+	 */
+	public static final String HTTP_CHECKSUM_ALGORITHM_KEY = "X-Chipster-Checksum-Algorithm";
+	
+	/**
+	 * Response header for the checksum calculated with the requested algorithm. 
+	 */
+	public static final String HTTP_ALGORITHM_CHECKSUM_KEY = "X-Chipster-Checksum";
+	
 	private boolean useChecksums;
 	private URLConnection connection;
+	private ChecksumAlgorithm algorithm;
+	private ChecksumPipeline pipeline;
 	private String checksum = null;
 	private long bytes = 0;
 	
-	public ChecksumInputStream(InputStream baseStream, boolean useChecksums, URLConnection connection) {
-		super(baseStream, getDigestWithRuntimeException());
+	public ChecksumInputStream(InputStream baseStream, boolean useChecksums, URLConnection connection, ChecksumAlgorithm algorithm) {
+		super(baseStream);
 		
 		this.useChecksums = useChecksums;
-		super.on(useChecksums);
-		
-		this.connection = connection;		
-	}
-
-	/**
-	 * There is not much clients can do in case of NoSuchAlgorithmException, so there is no point to have it
-	 * in method signatures. Convert it to RuntimeException here because its not possible to make try-catch block
-	 * around the super constructor call.
-	 * 
-	 * @return
-	 */
-	private static MessageDigest getDigestWithRuntimeException() {
-		try {
-			return MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
+		this.connection = connection;
+		this.algorithm = algorithm;
+		if (useChecksums) {
+			this.pipeline = new ChecksumPipeline(algorithm);
 		}
 	}
+	
+	public ChecksumInputStream(InputStream baseStream, boolean useChecksums, URLConnection connection) {
+		this(baseStream, useChecksums, connection, ChecksumAlgorithm.MD5);
+	}
 
 	public ChecksumInputStream(InputStream baseStream, boolean useChecksums) {
 		this(baseStream, useChecksums, null);
@@ -90,6 +94,9 @@ public class ChecksumInputStream extends DigestInputStream {
 		int b = super.read();
 		if (b != -1) { //if not end of stream
 			bytes += 1; //one byte read
+			if (useChecksums) {
+				pipeline.update(b);
+			}
 		}
 		return b;		
 	}
@@ -100,9 +107,18 @@ public class ChecksumInputStream extends DigestInputStream {
 		int bytesRead = super.read(b, off, len);
 		if (bytesRead != -1) {
 			bytes += bytesRead;
+			if (useChecksums) {
+				pipeline.update(b, off, bytesRead);
+			}
 		}
 		return bytesRead;
 	}
+	
+	@Override
+	public boolean markSupported() {
+		// the hashed bytes can't be taken back
+		return false;
+	}
 		
 	@Override
 	public int available() throws IOException {
@@ -117,40 +133,55 @@ public class ChecksumInputStream extends DigestInputStream {
 	}
 
 	/**
-	 * This can be called only once because this resets the digest. Subsequent calls will throw IllegalStateException.
+	 * This can be called only once because this finishes the calculation. Subsequent calls will throw IllegalStateException.
 	 * 
-	 * @return
+	 * @return checksum calculated with the algorithm of this stream
+	 * @throws IOException if the stream was interrupted while waiting for the hashing to finish
 	 */
-	public String getChecksum() {
+	public String getChecksum() throws IOException {
 		checkState();
 		
 		if (useChecksums) {
-			checksum =  DatatypeConverter.printHexBinary(super.getMessageDigest().digest()).toLowerCase();
+			checksum = pipeline.finish();
 			return checksum;
 		} else {
 			return null;
 		}
 	}
+	
+	public ChecksumAlgorithm getAlgorithm() {
+		return algorithm;
+	}
 		
-	private String getRemoteChecksum() {
+	private String getRemoteChecksum(String header) {
 		if (connection == null) {
 			throw new IllegalStateException("URLConnection wasn't given when this object was constructed: server checksum is unavailable");
 		}
-		return connection.getHeaderField(HTTP_CHECKSUM_KEY);		
+		return connection.getHeaderField(header);		
 	}
 	
 	/**
-	 * Verify that checksums in both ends of network transmission are equal.
+	 * Verify that checksums in both ends of network transmission are equal. 
+	 * 
+	 * When some other algorithm than md5 is used, the file broker is expected to send 
+	 * its checksum in the {@link #HTTP_ALGORITHM_CHECKSUM_KEY} header. Older file 
+	 * brokers don't do that, and then there is nothing to compare.  
 	 * 
-	 * @return locally calculated checksum or null id calculation is disabled
+	 * @return md5 of the data or null if calculation is disabled. If some other 
+	 * algorithm was used, the md5 sent by the server, if any. 
 	 * @throws ChecksumException
+	 * @throws IOException if the stream was interrupted while waiting for the hashing to finish
 	 */
-	public String verifyChecksums() throws ChecksumException {
+	public String verifyChecksums() throws ChecksumException, IOException {
 		
 		if (useChecksums) {
 			String localChecksum = getChecksum();
-			Md5FileUtils.verify(getRemoteChecksum(), localChecksum);
-			return localChecksum;
+			if (algorithm == ChecksumAlgorithm.MD5) {
+				Md5FileUtils.verify(getRemoteChecksum(HTTP_CHECKSUM_KEY), localChecksum);
+				return localChecksum;
+			} 
+			Md5FileUtils.verify(getRemoteChecksum(HTTP_ALGORITHM_CHECKSUM_KEY), localChecksum);
+			return getRemoteChecksum(HTTP_CHECKSUM_KEY);
 		}
 		return null;
 	}
@@ -0,0 +1,227 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.csc.microarray.filebroker.ChecksumAlgorithm.Hasher;
+
+/**
+ * <p>Calculates a checksum in another thread, so that a transfer doesn't have to
+ * wait for the hashing. The data is copied to a few direct buffers that are
+ * hashed in the background while the caller reads the next ones. When the hashing
+ * is slower than the transfer, the caller waits for a free buffer.</p>
+ *
+ * <p>No thread is reserved for a pipeline, a pooled thread hashes the filled buffers
+ * and returns to the pool when it has nothing to do. Data that fits in one buffer
+ * is hashed in the calling thread in {@link #finish()}, so small streams don't
+ * pay for the thread switch. With only one processor there is nothing to gain,
+ * and everything is hashed in the calling thread.</p>
+ */
+public class ChecksumPipeline {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int BUFFERS_PER_PIPELINE = 4;
+
+	/**
+	 * Direct buffers are expensive to allocate, keep some for the next pipelines
+	 */
+	private static final int MAX_POOLED_BUFFERS = 64;
+	
+	private static final boolean OFFLOAD = Runtime.getRuntime().availableProcessors() > 1;
+
+	private static ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+	private static AtomicInteger pooledBuffers = new AtomicInteger(0);
+
+	private static ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "checksum");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private Hasher hasher;
+	private boolean offload;
+
+	private ByteBuffer current;
+	private BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS_PER_PIPELINE);
+	private int buffers = 0;
+
+	private Object lock = new Object();
+	private ArrayDeque<ByteBuffer> filled = new ArrayDeque<>();
+	private boolean hashing = false;
+	private volatile Throwable error;
+
+	private Runnable hashTask = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				ByteBuffer buffer;
+				synchronized (lock) {
+					buffer = filled.poll();
+					if (buffer == null) {
+						hashing = false;
+						lock.notifyAll();
+						return;
+					}
+				}
+				try {
+					if (error == null) {
+						hasher.update(buffer);
+					}
+				} catch (Throwable e) {
+					error = e;
+				}
+				buffer.clear();
+				free.add(buffer);
+			}
+		}
+	};
+
+	public ChecksumPipeline(ChecksumAlgorithm algorithm) {
+		this(algorithm, OFFLOAD);
+	}
+
+	/**
+	 * @param offload false to hash everything in the calling thread
+	 */
+	ChecksumPipeline(ChecksumAlgorithm algorithm, boolean offload) {
+		this.hasher = algorithm.newHasher();
+		this.offload = offload;
+	}
+
+	public void update(int b) throws IOException {
+		if (!offload) {
+			hasher.update(ByteBuffer.wrap(new byte[] { (byte) b }));
+			return;
+		}
+		if (current == null) {
+			current = nextBuffer();
+		}
+		current.put((byte) b);
+		if (!current.hasRemaining()) {
+			submit(current);
+			current = null;
+		}
+	}
+
+	public void update(byte[] b, int off, int len) throws IOException {
+		if (!offload) {
+			hasher.update(ByteBuffer.wrap(b, off, len));
+			return;
+		}
+		while (len > 0) {
+			if (current == null) {
+				current = nextBuffer();
+			}
+			int count = Math.min(len, current.remaining());
+			current.put(b, off, count);
+			off += count;
+			len -= count;
+			if (!current.hasRemaining()) {
+				submit(current);
+				current = null;
+			}
+		}
+	}
+
+	/**
+	 * Wait until everything is hashed. The pipeline can't be used after this.
+	 *
+	 * @return the checksum in lower case hex
+	 * @throws IOException
+	 */
+	public String finish() throws IOException {
+		if (current != null) {
+			boolean idle;
+			synchronized (lock) {
+				idle = !hashing;
+			}
+			if (idle) {
+				// nothing to wait for, hash the last buffer right here
+				current.flip();
+				hasher.update(current);
+				current.clear();
+				free.add(current);
+			} else {
+				submit(current);
+			}
+			current = null;
+		}
+
+		try {
+			synchronized (lock) {
+				while (hashing) {
+					lock.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while waiting for the checksum");
+		}
+
+		ByteBuffer buffer;
+		while ((buffer = free.poll()) != null) {
+			releaseBuffer(buffer);
+		}
+
+		if (error != null) {
+			throw new IOException("checksum calculation failed", error);
+		}
+		return hasher.getChecksum();
+	}
+
+	private ByteBuffer nextBuffer() throws InterruptedIOException {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null && buffers < BUFFERS_PER_PIPELINE) {
+			buffers++;
+			return borrowBuffer();
+		}
+		if (buffer == null) {
+			try {
+				buffer = free.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted while waiting for the checksum calculation");
+			}
+		}
+		return buffer;
+	}
+
+	private void submit(ByteBuffer buffer) {
+		buffer.flip();
+		synchronized (lock) {
+			filled.add(buffer);
+			if (!hashing) {
+				hashing = true;
+				executor.execute(hashTask);
+			}
+		}
+	}
+
+	private static ByteBuffer borrowBuffer() {
+		ByteBuffer buffer = bufferPool.poll();
+		if (buffer != null) {
+			pooledBuffers.decrementAndGet();
+			return buffer;
+		}
+		return ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	private static void releaseBuffer(ByteBuffer buffer) {
+		if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			buffer.clear();
+			bufferPool.add(buffer);
+		} else {
+			pooledBuffers.decrementAndGet();
+		}
+	}
+}
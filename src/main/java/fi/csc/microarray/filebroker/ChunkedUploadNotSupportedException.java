@@ -0,0 +1,13 @@
+package fi.csc.microarray.filebroker;
+
+/**
+ * The file broker is too old for chunked uploads.
+ */
+public class ChunkedUploadNotSupportedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public ChunkedUploadNotSupportedException() {
+		super("file broker doesn't support chunked uploads");
+	}
+}
@@ -0,0 +1,271 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.util.BlockCompressedOutputStream;
+import fi.csc.microarray.util.IOUtils;
+import fi.csc.microarray.util.IOUtils.CopyProgressListener;
+import fi.csc.microarray.util.KeyAndTrustManager;
+import fi.csc.microarray.util.UrlTransferUtil;
+
+/**
+ * Uploads a file to the file broker in chunks that are sent in parallel. A chunk
+ * that fails is sent again, and an upload that fails completely can be continued
+ * later by calling {@link #upload(URL, File, boolean, CopyProgressListener)} again
+ * with an URL to the same file, because the file broker keeps the received chunks.
+ *
+ * @see ChunkedUploads for the protocol
+ */
+public class ChunkedUploader {
+
+	private static final Logger logger = Logger.getLogger(ChunkedUploader.class);
+
+	private static final long RETRY_DELAY = 1000; // milliseconds
+
+	private ExecutorService executor;
+	private long chunkSize;
+	private int retries;
+	private boolean useChecksums;
+	private ChecksumAlgorithm checksumAlgorithm;
+
+	public ChunkedUploader(long chunkSize, int parallelChunks, int retries, boolean useChecksums) {
+		this(chunkSize, parallelChunks, retries, useChecksums, ChecksumAlgorithm.MD5);
+	}
+
+	/**
+	 * @param chunkSize bytes
+	 * @param parallelChunks number of chunks sent at the same time, shared by all uploads
+	 * @param retries number of times a chunk is sent again before giving up
+	 * @param checksumAlgorithm for verifying the chunks
+	 */
+	public ChunkedUploader(long chunkSize, int parallelChunks, int retries, boolean useChecksums, ChecksumAlgorithm checksumAlgorithm) {
+		this.chunkSize = chunkSize;
+		this.retries = retries;
+		this.useChecksums = useChecksums;
+		this.checksumAlgorithm = checksumAlgorithm;
+		this.executor = Executors.newFixedThreadPool(parallelChunks, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "chunked-upload");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Upload the file, or the chunks that are still missing from the file broker.
+	 *
+	 * @param url authorised URL from the file broker
+	 * @param compress use block compression for the chunks, if the URL has the suffix for it
+	 * @param progressListener may be null
+	 * @return checksum of the uploaded file, null if checksums are disabled
+	 * @throws ChunkedUploadNotSupportedException if the file broker is too old, use a normal upload then
+	 * @throws IOException
+	 * @throws ChecksumException if a chunk was corrupted every time it was sent
+	 */
+	public String upload(final URL url, final File file, boolean compress, final CopyProgressListener progressListener) throws ChunkedUploadNotSupportedException, IOException, ChecksumException {
+
+		List<long[]> uploaded = getUploadedRanges(url, file.length());
+
+		final boolean blockCompressed = compress && Compression.fromFilename(url.getPath()) == Compression.BLOCK;
+		final AtomicLong progress = new AtomicLong(0);
+		LinkedList<Future<Void>> chunks = new LinkedList<>();
+
+		for (long offset = 0; offset < file.length(); offset += chunkSize) {
+			final long start = offset;
+			final long length = Math.min(chunkSize, file.length() - offset);
+
+			if (contains(uploaded, start, start + length)) {
+				progress.addAndGet(length);
+				continue;
+			}
+
+			chunks.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					uploadChunkWithRetries(url, file, start, length, blockCompressed);
+					long bytes = progress.addAndGet(length);
+					if (progressListener != null) {
+						synchronized (progressListener) {
+							progressListener.progress(bytes);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+
+		if (uploaded.size() > 0) {
+			logger.info("resuming upload of " + file.getName() + ", " + progress.get() + " bytes uploaded already");
+		}
+
+		try {
+			while (!chunks.isEmpty()) {
+				chunks.removeFirst().get();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while uploading " + file.getName());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof ChecksumException) {
+				throw (ChecksumException) e.getCause();
+			}
+			throw new IOException("chunked upload failed", e.getCause());
+		} finally {
+			// received chunks are kept by the file broker, no point in sending more
+			for (Future<Void> chunk : chunks) {
+				chunk.cancel(true);
+			}
+		}
+
+		String checksum = complete(url);
+		UrlTransferUtil.waitForAvailability(url);
+		return checksum;
+	}
+
+	/**
+	 * @return received ranges, start inclusive and end exclusive
+	 * @throws ChunkedUploadNotSupportedException
+	 */
+	private List<long[]> getUploadedRanges(URL url, long size) throws IOException, ChunkedUploadNotSupportedException {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) getUrl(url, ChunkedUploads.PARAMETER_STATUS).openConnection();
+			KeyAndTrustManager.configureSSL(connection);
+			connection.setRequestMethod("HEAD");
+			connection.setUseCaches(false);
+			connection.setConnectTimeout(UrlTransferUtil.HTTP_TIMEOUT_MILLISECONDS);
+
+			String sizeString = connection.getHeaderField(ChunkedUploads.HTTP_UPLOAD_SIZE_KEY);
+			if (!UrlTransferUtil.isSuccessfulCode(connection.getResponseCode()) || sizeString == null) {
+				throw new ChunkedUploadNotSupportedException();
+			}
+			if (Long.parseLong(sizeString) != size) {
+				throw new IOException("file size " + size + " doesn't match the authorised size " + sizeString);
+			}
+
+			List<long[]> ranges = new ArrayList<>();
+			String rangesString = connection.getHeaderField(ChunkedUploads.HTTP_UPLOADED_RANGES_KEY);
+			if (rangesString != null && !rangesString.isEmpty()) {
+				for (String range : rangesString.split(",")) {
+					String[] startAndEnd = range.split("-");
+					ranges.add(new long[] { Long.parseLong(startAndEnd[0]), Long.parseLong(startAndEnd[1]) + 1 });
+				}
+			}
+			return ranges;
+
+		} catch (NumberFormatException e) {
+			throw new IOException("unable to parse the chunked upload status", e);
+		} finally {
+			IOUtils.disconnectIfPossible(connection);
+		}
+	}
+
+	private static boolean contains(List<long[]> ranges, long start, long end) {
+		for (long[] range : ranges) {
+			if (range[0] <= start && end <= range[1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void uploadChunkWithRetries(URL url, File file, long offset, long length, boolean blockCompressed) throws IOException, ChecksumException, InterruptedException {
+		for (int retry = 0; ; retry++) {
+			try {
+				uploadChunk(url, file, offset, length, blockCompressed);
+				return;
+
+			} catch (IOException | ChecksumException e) {
+				if (retry >= retries || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				logger.warn("sending chunk " + offset + " of " + file.getName() + " failed, retrying", e);
+				Thread.sleep(RETRY_DELAY * (retry + 1));
+			}
+		}
+	}
+
+	private void uploadChunk(URL url, File file, long offset, long length, boolean blockCompressed) throws IOException, ChecksumException {
+		HttpURLConnection connection = null;
+		try (FileInputStream fileStream = new FileInputStream(file)) {
+			fileStream.getChannel().position(offset);
+
+			connection = UrlTransferUtil.prepareForUpload(getUrl(url, ChunkedUploads.PARAMETER_OFFSET + "=" + offset));
+			UrlTransferUtil.requestChecksumAlgorithm(connection, useChecksums, checksumAlgorithm);
+			if (blockCompressed) {
+				connection.setChunkedStreamingMode(0);
+			} else {
+				connection.setFixedLengthStreamingMode(length);
+			}
+
+			ChecksumInputStream in = new ChecksumInputStream(new BoundedInputStream(fileStream, length), useChecksums, connection, checksumAlgorithm);
+			OutputStream out = connection.getOutputStream();
+			if (blockCompressed) {
+				out = new BlockCompressedOutputStream(out);
+			}
+			try {
+				IOUtils.copy(in, out);
+			} finally {
+				IOUtils.closeIfPossible(out);
+			}
+
+			if (!UrlTransferUtil.isSuccessfulCode(connection.getResponseCode())) {
+				throw new IOException("PUT of chunk " + offset + " was not successful: " + connection.getResponseCode() + " " + connection.getResponseMessage());
+			}
+			in.verifyChecksums();
+
+		} finally {
+			IOUtils.disconnectIfPossible(connection);
+		}
+	}
+
+	private String complete(URL url) throws IOException {
+		HttpURLConnection connection = null;
+		try {
+			connection = UrlTransferUtil.prepareForUpload(getUrl(url, ChunkedUploads.PARAMETER_COMPLETE));
+			connection.setFixedLengthStreamingMode(0);
+			connection.getOutputStream().close();
+
+			if (!UrlTransferUtil.isSuccessfulCode(connection.getResponseCode())) {
+				throw new IOException("completing the chunked upload was not successful: " + connection.getResponseCode() + " " + connection.getResponseMessage());
+			}
+			return connection.getHeaderField(ChecksumInputStream.HTTP_CHECKSUM_KEY);
+
+		} finally {
+			IOUtils.disconnectIfPossible(connection);
+		}
+	}
+
+	private static URL getUrl(URL url, String query) throws MalformedURLException {
+		return new URL(url.toString() + "?" + query);
+	}
+}
@@ -0,0 +1,192 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>Book keeping of the chunked uploads in the file broker. A large file can be
+ * uploaded in chunks that are sent in parallel with separate PUT requests to
+ * the same authorised URL:</p>
+ *
+ * <ul>
+ * <li><code>HEAD url?status</code> lists the byte ranges that have been received
+ * already in the {@link #HTTP_UPLOADED_RANGES_KEY} header, so that an interrupted
+ * upload can be resumed</li>
+ * <li><code>PUT url?offset=N</code> writes the request body to the upload file
+ * starting from the byte N and replies with the checksum of the chunk</li>
+ * <li><code>PUT url?complete</code> makes the file visible when all bytes have
+ * been received, like a normal PUT would do</li>
+ * </ul>
+ *
+ * <p>The chunks are written to their place in a single temporary file, so there is
+ * nothing to copy when the upload completes. Uploads that haven't received anything
+ * for a while are forgotten and their temporary files are removed. The state is
+ * kept in memory only, after a restart the uploads start from the beginning.</p>
+ */
+public class ChunkedUploads {
+
+	private static final Logger logger = Logger.getLogger(ChunkedUploads.class);
+
+	public static final String PARAMETER_STATUS = "status";
+	public static final String PARAMETER_OFFSET = "offset";
+	public static final String PARAMETER_COMPLETE = "complete";
+
+	/**
+	 * Authorised size of the file, tells the client that chunked uploads are supported.
+	 */
+	public static final String HTTP_UPLOAD_SIZE_KEY = "X-Chipster-Upload-Size";
+
+	/**
+	 * Received ranges, e.g. "0-1048575,2097152-3145727". Both ends are inclusive
+	 * like in the Content-Range header.
+	 */
+	public static final String HTTP_UPLOADED_RANGES_KEY = "X-Chipster-Uploaded-Ranges";
+
+	public static final String UPLOAD_FILE_EXTENSION = ".chunked.upload";
+
+	public static class Upload {
+
+		private File targetFile;
+		private File uploadFile;
+		private long size;
+		private long lastAccess;
+
+		/**
+		 * Received ranges, start -> end (exclusive), not overlapping
+		 */
+		private TreeMap<Long, Long> ranges = new TreeMap<>();
+
+		private Upload(File targetFile, long size) {
+			this.targetFile = targetFile;
+			this.uploadFile = new File(targetFile.getAbsolutePath() + UPLOAD_FILE_EXTENSION);
+			this.size = size;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		public File getTargetFile() {
+			return targetFile;
+		}
+
+		public File getUploadFile() {
+			return uploadFile;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Mark bytes from start (inclusive) to end (exclusive) as received.
+		 */
+		public synchronized void addRange(long start, long end) {
+			lastAccess = System.currentTimeMillis();
+			if (end <= start) {
+				return;
+			}
+
+			// merge with the overlapping or adjacent ranges
+			Map.Entry<Long, Long> before = ranges.floorEntry(start);
+			if (before != null && before.getValue() >= start) {
+				start = before.getKey();
+				end = Math.max(end, before.getValue());
+			}
+			Map.Entry<Long, Long> after = ranges.ceilingEntry(start);
+			while (after != null && after.getKey() <= end) {
+				end = Math.max(end, after.getValue());
+				ranges.remove(after.getKey());
+				after = ranges.ceilingEntry(start);
+			}
+			ranges.put(start, end);
+		}
+
+		public synchronized boolean isComplete() {
+			return size == 0 || (ranges.size() == 1 && ranges.firstKey() == 0 && ranges.firstEntry().getValue() >= size);
+		}
+
+		public synchronized String getRangesString() {
+			StringBuilder builder = new StringBuilder();
+			for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+				if (builder.length() > 0) {
+					builder.append(",");
+				}
+				builder.append(range.getKey()).append("-").append(range.getValue() - 1);
+			}
+			return builder.toString();
+		}
+
+		private synchronized void touch() {
+			lastAccess = System.currentTimeMillis();
+		}
+
+		private synchronized long getLastAccess() {
+			return lastAccess;
+		}
+	}
+
+	private HashMap<File, Upload> uploads = new HashMap<>();
+	private long timeout;
+
+	/**
+	 * @param timeout milliseconds after which idle uploads are removed
+	 */
+	public ChunkedUploads(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the upload of the file or null if there isn't one in progress
+	 */
+	public synchronized Upload get(File targetFile) {
+		removeExpired();
+		Upload upload = uploads.get(targetFile.getAbsoluteFile());
+		if (upload != null) {
+			upload.touch();
+		}
+		return upload;
+	}
+
+	/**
+	 * Get the upload of the file, or start a new one.
+	 */
+	public synchronized Upload getOrCreate(File targetFile, long size) {
+		Upload upload = get(targetFile);
+		if (upload == null || upload.getSize() != size) {
+			if (upload != null) {
+				remove(upload);
+				upload.getUploadFile().delete();
+			}
+			upload = new Upload(targetFile.getAbsoluteFile(), size);
+			// left over from an earlier upload that was forgotten
+			upload.getUploadFile().delete();
+			uploads.put(upload.getTargetFile(), upload);
+		}
+		return upload;
+	}
+
+	/**
+	 * Forget the upload. The caller should take care of the upload file.
+	 */
+	public synchronized void remove(Upload upload) {
+		if (uploads.get(upload.getTargetFile()) == upload) {
+			uploads.remove(upload.getTargetFile());
+		}
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Upload> iterator = uploads.values().iterator();
+		while (iterator.hasNext()) {
+			Upload upload = iterator.next();
+			if (now - upload.getLastAccess() > timeout) {
+				logger.info("removing expired chunked upload " + upload.getUploadFile());
+				upload.getUploadFile().delete();
+				iterator.remove();
+			}
+		}
+	}
+}
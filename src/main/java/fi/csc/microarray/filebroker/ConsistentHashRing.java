@@ -0,0 +1,93 @@
+package fi.csc.microarray.filebroker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import fi.csc.microarray.util.XxHash64;
+
+/**
+ * <p>Consistent hashing of keys to nodes. Each node is placed on the ring at
+ * many points (virtual nodes) to spread the keys evenly. The owners of a key
+ * are the distinct nodes found by walking clockwise from the position of the key.</p>
+ *
+ * <p>When a node is added or removed, only the keys between it and its
+ * neighbours change owners, about 1/n of all keys.</p>
+ *
+ * <p>Instances are immutable and safe to share between threads.</p>
+ */
+public class ConsistentHashRing {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private List<String> nodes;
+	private TreeMap<Long, String> ring = new TreeMap<>();
+
+	public ConsistentHashRing(Collection<String> nodes) {
+		this(nodes, DEFAULT_VIRTUAL_NODES);
+	}
+
+	public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+		this.nodes = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(nodes)));
+		for (String node : this.nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				long position = hash(node + "#" + i);
+				// on a collision the first node keeps the point, it only makes the ring slightly uneven
+				if (!ring.containsKey(position)) {
+					ring.put(position, node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return nodes in the order they were given
+	 */
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @param count number of owners wanted, at most the number of nodes is returned
+	 * @return distinct nodes for the key, the primary owner first
+	 */
+	public List<String> getOwners(String key, int count) {
+		count = Math.min(count, nodes.size());
+		List<String> owners = new ArrayList<>(count);
+		if (count == 0) {
+			return owners;
+		}
+		long position = hash(key);
+		addOwners(owners, ring.tailMap(position, true).entrySet(), count);
+		addOwners(owners, ring.headMap(position, false).entrySet(), count);
+		return owners;
+	}
+
+	public String getPrimary(String key) {
+		List<String> owners = getOwners(key, 1);
+		return owners.isEmpty() ? null : owners.get(0);
+	}
+
+	private static void addOwners(List<String> owners, Collection<Entry<Long, String>> points, int count) {
+		for (Entry<Long, String> point : points) {
+			if (owners.size() >= count) {
+				return;
+			}
+			if (!owners.contains(point.getValue())) {
+				owners.add(point.getValue());
+			}
+		}
+	}
+
+	static long hash(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		XxHash64 hash = new XxHash64();
+		hash.update(bytes, 0, bytes.length);
+		return hash.getValue();
+	}
+}
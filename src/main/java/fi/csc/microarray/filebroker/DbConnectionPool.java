@@ -0,0 +1,113 @@
+package fi.csc.microarray.filebroker;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fixed size pool of database connections. Each connection keeps its prepared
+ * statements, so that the same SQL isn't compiled again for every request.
+ *
+ * Connections must be released in a finally block after use. Result sets must be
+ * closed before releasing the connection, because the statements are reused.
+ */
+public class DbConnectionPool {
+
+	private static final Logger logger = Logger.getLogger(DbConnectionPool.class);
+
+	/**
+	 * Connection with a cache of prepared statements.
+	 */
+	public static class PooledConnection {
+
+		private Connection connection;
+		private HashMap<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return prepared statement of the given SQL, cached by this connection
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			PreparedStatement ps = statements.get(sql);
+			if (ps == null) {
+				ps = connection.prepareStatement(sql);
+				statements.put(sql, ps);
+			}
+			return ps;
+		}
+
+		public Connection getConnection() {
+			return connection;
+		}
+	}
+
+	private String url;
+	private BlockingQueue<PooledConnection> availableConnections;
+
+	/**
+	 * @param url JDBC url of the database
+	 * @param size number of connections
+	 * @throws SQLException if the connections can't be created
+	 */
+	public DbConnectionPool(String url, int size) throws SQLException {
+		this.url = url;
+		this.availableConnections = new ArrayBlockingQueue<PooledConnection>(size);
+		for (int i = 0; i < size; i++) {
+			availableConnections.add(new PooledConnection(DriverManager.getConnection(url)));
+		}
+	}
+
+	/**
+	 * Wait until a connection is available.
+	 */
+	public PooledConnection borrow() throws SQLException {
+		try {
+			return availableConnections.take();
+		} catch (InterruptedException e) {
+			throw new SQLException("interrupted while waiting for a database connection", e);
+		}
+	}
+
+	/**
+	 * Return the connection to the pool. Broken connections are replaced with new ones
+	 * and the connection is set back to auto-commit mode, if the user had changed it.
+	 */
+	public void release(PooledConnection pooledConnection) {
+		if (pooledConnection == null) {
+			return;
+		}
+
+		try {
+			if (pooledConnection.connection.isClosed()) {
+				pooledConnection = new PooledConnection(DriverManager.getConnection(url));
+			} else if (!pooledConnection.connection.getAutoCommit()) {
+				pooledConnection.connection.rollback();
+				pooledConnection.connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.error("could not reset a database connection, creating a new one", e);
+			try {
+				pooledConnection.connection.close();
+			} catch (SQLException e1) {
+				// closing a broken connection, ignore
+			}
+			try {
+				pooledConnection = new PooledConnection(DriverManager.getConnection(url));
+			} catch (SQLException e2) {
+				// pool gets smaller, but later requests can still use the other connections
+				logger.error("could not create a new database connection", e2);
+				return;
+			}
+		}
+		availableConnections.add(pooledConnection);
+	}
+}
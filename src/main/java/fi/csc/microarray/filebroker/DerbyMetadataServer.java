@@ -6,7 +6,6 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,10 +16,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -31,6 +36,7 @@ import org.joda.time.format.ISODateTimeFormat;
 import fi.csc.microarray.config.Configuration;
 import fi.csc.microarray.config.ConfigurationLoader.IllegalConfigurationException;
 import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.filebroker.DbConnectionPool.PooledConnection;
 
 /**
  * Metadata server keeps track of files and sessions that are saved to long term storage space of the file broker.
@@ -79,8 +85,20 @@ public class DerbyMetadataServer {
 			"CREATE TABLE chipster.special_users (" + 
 					"username VARCHAR(200) PRIMARY KEY," + 
 					"show_as_folder VARCHAR(200))"
+		},
+		{
+			"storage_usage",
+			"CREATE TABLE chipster.storage_usage (" + 
+					"username VARCHAR(200) PRIMARY KEY," + 
+					"size BIGINT)"
 		}
 	};
+	
+	private static String[][] SQL_CREATE_INDEXES = new String[][] {
+		{ "belongs_to_session_uuid", "CREATE INDEX chipster.belongs_to_session_uuid ON chipster.belongs_to (session_uuid)" },
+		{ "belongs_to_file_uuid", "CREATE INDEX chipster.belongs_to_file_uuid ON chipster.belongs_to (file_uuid)" },
+		{ "sessions_username", "CREATE INDEX chipster.sessions_username ON chipster.sessions (username)" }
+	};
 
 	
 	private static String SQL_INSERT_SESSION  = "INSERT INTO chipster.sessions (name, username, uuid) VALUES (?, ?, ?)";
@@ -101,8 +119,16 @@ public class DerbyMetadataServer {
 	
 	private static String SQL_INSERT_SPECIAL_USER  = "INSERT INTO chipster.special_users (username, show_as_folder) VALUES (?, ?)";
 	
-	private static String SQL_LIST_STORAGE_USAGE_OF_USER = "SELECT SUM(chipster.files.size) as size FROM chipster.sessions JOIN chipster.belongs_to ON chipster.sessions.uuid = chipster.belongs_to.session_uuid JOIN chipster.files ON chipster.files.uuid = chipster.belongs_to.file_uuid WHERE chipster.sessions.username = ?";
+	// storage usage of users is maintained in storage_usage table, the join is used only for reconciling it
+	private static String SQL_SELECT_STORAGE_USAGE_OF_USER = "SELECT size FROM chipster.storage_usage WHERE username = ?";
+	private static String SQL_SELECT_STORAGE_USAGE_OF_USERS = "SELECT username, size FROM chipster.storage_usage WHERE size > 0";
+	private static String SQL_INSERT_STORAGE_USAGE = "INSERT INTO chipster.storage_usage (username, size) VALUES (?, 0)";
+	private static String SQL_UPDATE_STORAGE_USAGE = "UPDATE chipster.storage_usage SET size = size + ? WHERE username = ?";
+	private static String SQL_SET_STORAGE_USAGE = "UPDATE chipster.storage_usage SET size = ? WHERE username = ?";
+	private static String SQL_SELECT_SESSION_OWNER = "SELECT username FROM chipster.sessions WHERE uuid = ?";
+	private static String SQL_SELECT_SIZE_OF_SESSION = "SELECT SUM(chipster.files.size) AS size FROM chipster.belongs_to JOIN chipster.files ON chipster.files.uuid = chipster.belongs_to.file_uuid WHERE chipster.belongs_to.session_uuid = ?";
 	private static String SQL_LIST_STORAGE_USAGE_OF_USERS = "SELECT chipster.sessions.username, SUM(chipster.files.size) as size FROM chipster.sessions JOIN chipster.belongs_to ON chipster.sessions.uuid = chipster.belongs_to.session_uuid JOIN chipster.files ON chipster.files.uuid = chipster.belongs_to.file_uuid GROUP BY chipster.sessions.username";
+	private static String SQL_SELECT_ALL_STORAGE_USAGE = "SELECT username, size FROM chipster.storage_usage";
 	private static String SQL_LIST_STORAGE_USAGE_OF_SESSIONS = "SELECT chipster.sessions.username, chipster.sessions.name, chipster.sessions.uuid, SUM(chipster.files.size) AS size , MAX(chipster.files.last_accessed) AS date FROM chipster.sessions JOIN chipster.belongs_to ON chipster.sessions.uuid = chipster.belongs_to.session_uuid  JOIN chipster.files ON chipster.files.uuid = chipster.belongs_to.file_uuid WHERE chipster.sessions.username = ? GROUP BY chipster.sessions.uuid, chipster.sessions.name, chipster.sessions.username";
 	private static String SQL_GET_TOTAL_DISK_USAGE = "SELECT SUM(chipster.files.size) AS size FROM chipster.files";
 		
@@ -121,7 +147,19 @@ public class DerbyMetadataServer {
 
 	private static String SQL_BACKUP = "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)";
 	
-	private Connection connection = null;
+	private static final String SQL_STATE_ALREADY_EXISTS = "X0Y32";
+	private static final String SQL_STATE_DUPLICATE_KEY = "23505";
+	
+	private static final String DB_URL = "jdbc:derby:ChipsterFilebrokerMetadataDatabase;create=true";
+	
+	private DbConnectionPool connectionPool;
+	
+	/**
+	 * Access times waiting to be written to the database, by file uuid. Repeated 
+	 * accesses of the same file before the next flush are coalesced.
+	 */
+	private ConcurrentHashMap<String, Timestamp> pendingAccesses = new ConcurrentHashMap<>();
+	private ScheduledExecutorService accessFlushExecutor;
 
 	/**
 	 * Initialises the server. If underlying embedded Derby SQL database is not initialised, it is 
@@ -136,22 +174,13 @@ public class DerbyMetadataServer {
 	 */
 	public DerbyMetadataServer() throws InstantiationException, IllegalAccessException, ClassNotFoundException, SQLException, IOException, IllegalConfigurationException {
 		
-		// initialise connection
-		System.setProperty("derby.system.home", "db-root");
-		Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance(); // allows multiple connections in one JVM, but not from multiple JVM's
-		String strUrl = "jdbc:derby:ChipsterFilebrokerMetadataDatabase;create=true";
-		
 		// One way to restore a backup
 		// See http://db.apache.org/derby/docs/10.1/adminguide/tadminhubbkup44.html
 		//String strUrl = "jdbc:derby:ChipsterFilebrokerMetadataDatabase;restoreFrom=path";
 		
-		connection = DriverManager.getConnection(strUrl);
-		
-		// initialise database, if needed
-		initialise();
-
-		logger.info("metadata database started");
-		
+		this("db-root", DB_URL, 
+				DirectoryLayout.getInstance().getConfiguration().getInt("filebroker", "metadata-db-connections"),
+				DirectoryLayout.getInstance().getConfiguration().getInt("filebroker", "metadata-access-flush-interval"));
 		
 		// initialise metadata database backup
 		Configuration configuration = DirectoryLayout.getInstance().getConfiguration();
@@ -171,35 +200,123 @@ public class DerbyMetadataServer {
 		} else {
 			logger.info("metadata backups disabled");
 		}	
+		
+		// schedule reconciling of storage usage
+		String reconcileTime = configuration.getString("filebroker", "storage-usage-reconcile-time").trim();
+		Scheduler reconcileScheduler = new Scheduler();
+		reconcileScheduler.schedule(reconcileTime, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reconcileStorageUsage();
+				} catch (SQLException e) {
+					logger.error("reconciling storage usage failed", e);
+				}
+			}
+		});
+		reconcileScheduler.start();
+	}
+	
+	/**
+	 * Initialises the server without backups.
+	 * 
+	 * @param derbyHome Derby system directory
+	 * @param dbUrl JDBC url of the database
+	 * @param connectionCount number of database connections
+	 * @param accessFlushInterval how often file access times are written to the database, seconds, 0 to write them immediately
+	 */
+	DerbyMetadataServer(String derbyHome, String dbUrl, int connectionCount, int accessFlushInterval) throws InstantiationException, IllegalAccessException, ClassNotFoundException, SQLException {
+		
+		// initialise connections
+		System.setProperty("derby.system.home", derbyHome);
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance(); // allows multiple connections in one JVM, but not from multiple JVM's
+		
+		connectionPool = new DbConnectionPool(dbUrl, connectionCount);
+		
+		// initialise database, if needed
+		initialise();
+
+		if (accessFlushInterval > 0) {
+			accessFlushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "metadata-access-flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			accessFlushExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flushAccesses();
+					} catch (Exception e) {
+						// only the order of the clean up suffers
+						logger.error("writing file access times failed", e);
+					}
+				}
+			}, accessFlushInterval, accessFlushInterval, TimeUnit.SECONDS);
+		}
+
+		logger.info("metadata database started with " + connectionCount + " connections");
 	}
 	
 	private void initialise() throws SQLException {
 
-		// create all missing tables
-		int tableCount = 0;
-		for (int i = 0; i < SQL_CREATE_TABLES.length; i++) {
-			
-			String table = SQL_CREATE_TABLES[i][0];
+		boolean storageUsageCreated = false;
 		
-			ResultSet tables = connection.getMetaData().getTables(null, "CHIPSTER", table.toUpperCase(), new String[] { "TABLE" });
-			if (!tables.next()) {
-				
-				// table does not exist, create it
-				String createTable = SQL_CREATE_TABLES[i][1];
-				PreparedStatement ps = connection.prepareStatement(createTable);
-				ps.execute();
-				tableCount++;
-				
-				// populate table, if needed
-				if (table.equals("special_users")) {
-					addSpecialUser(DEFAULT_EXAMPLE_SESSION_OWNER, DEFAULT_EXAMPLE_SESSION_FOLDER);
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			// create all missing tables
+			int tableCount = 0;
+			for (int i = 0; i < SQL_CREATE_TABLES.length; i++) {
+
+				String table = SQL_CREATE_TABLES[i][0];
+
+				ResultSet tables = connection.getConnection().getMetaData().getTables(null, "CHIPSTER", table.toUpperCase(), new String[] { "TABLE" });
+				if (!tables.next()) {
+
+					// table does not exist, create it
+					String createTable = SQL_CREATE_TABLES[i][1];
+					PreparedStatement ps = connection.getConnection().prepareStatement(createTable);
+					ps.execute();
+					ps.close();
+					tableCount++;
+
+					// populate table, if needed
+					if (table.equals("special_users")) {
+						addSpecialUser(connection, DEFAULT_EXAMPLE_SESSION_OWNER, DEFAULT_EXAMPLE_SESSION_FOLDER);
+					}
+					if (table.equals("storage_usage")) {
+						storageUsageCreated = true;
+					}
+				}
+				tables.close();
+			}
+
+			// report what was done
+			if (tableCount > 0) {
+				logger.info("Created " + tableCount + " missing tables to database");
+			}
+			
+			// create all missing indexes
+			for (int i = 0; i < SQL_CREATE_INDEXES.length; i++) {
+				try (PreparedStatement ps = connection.getConnection().prepareStatement(SQL_CREATE_INDEXES[i][1])) {
+					ps.execute();
+					logger.info("Created index " + SQL_CREATE_INDEXES[i][0]);
+				} catch (SQLException e) {
+					if (!SQL_STATE_ALREADY_EXISTS.equals(e.getSQLState())) {
+						throw e;
+					}
 				}
-			}			
+			}
+		} finally {
+			connectionPool.release(connection);
 		}
 		
-		// report what was done
-		if (tableCount > 0) {
-			logger.info("Created " + tableCount + " missing tables to database");
+		// calculate usage of existing sessions
+		if (storageUsageCreated) {
+			reconcileStorageUsage();
 		}
 	}
 	
@@ -221,63 +338,138 @@ public class DerbyMetadataServer {
 	 * @throws SQLException
 	 */
 	public List<DbSession> listSessions(String username) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME);
-		ps.setString(1, username);
-		ResultSet rs = ps.executeQuery();
-		
-		LinkedList<DbSession> sessions = new LinkedList<>();
-		
-		// go through files and add them, creating folders when needed
-		HashSet<String> folders = new HashSet<>();
-		while (rs.next()) {
-			String name = rs.getString("name");
-			if (rs.getString("folder") != null) {
-				
-				// need to make this file show inside a folder
-				String folder = rs.getString("folder");
-				
-				// folder not yet seen, make entry for it first
-				if (!folders.contains(folder)) {
-					folders.add(folder);
-					DbSession session = new DbSession("", folder + "/", username);
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME);
+			ps.setString(1, username);
+
+			LinkedList<DbSession> sessions = new LinkedList<>();
+
+			try (ResultSet rs = ps.executeQuery()) {
+				// go through files and add them, creating folders when needed
+				HashSet<String> folders = new HashSet<>();
+				while (rs.next()) {
+					String name = rs.getString("name");
+					if (rs.getString("folder") != null) {
+
+						// need to make this file show inside a folder
+						String folder = rs.getString("folder");
+
+						// folder not yet seen, make entry for it first
+						if (!folders.contains(folder)) {
+							folders.add(folder);
+							DbSession session = new DbSession("", folder + "/", username);
+							sessions.add(session);
+						}
+
+						// prefix file name with folder
+						name =  folder + "/" + name;
+					}
+					DbSession session = new DbSession(rs.getString("uuid"), name, username);
 					sessions.add(session);
 				}
-				
-				// prefix file name with folder
-				name =  folder + "/" + name;
 			}
-			DbSession session = new DbSession(rs.getString("uuid"), name, username);
-			sessions.add(session);
-		}
 
-		return sessions;
+			return sessions;
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	public DbFile fetchFile(String uuid) throws SQLException {
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			return fetchFile(connection, uuid);
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	private DbFile fetchFile(PooledConnection connection, String uuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_FILE_BY_UUID);
 		ps.setString(1, uuid);
-		ResultSet rs = ps.executeQuery();
-		
-		if (rs.next()) {
-			DbFile file = new DbFile(rs.getString(1), Long.parseLong(rs.getString(2)), rs.getString(3), rs.getString(4));
-			return file;
-		} else {
-			return null;
+
+		try (ResultSet rs = ps.executeQuery()) {
+			if (rs.next()) {
+				DbFile file = new DbFile(rs.getString(1), Long.parseLong(rs.getString(2)), rs.getString(3), rs.getString(4));
+				return file;
+			} else {
+				return null;
+			}
 		}
 	}
 
 
 	/**
-	 * 'Touches' file.
+	 * 'Touches' file. The access time is written to the database in the next flush,
+	 * unless the flushing is disabled.
 	 * 
 	 * @param uuid
 	 * @throws SQLException
 	 */
 	public void markFileAccessed(String uuid) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_FILE_ACCESSED);
-		ps.setTimestamp(1, new Timestamp(new Date().getTime()));
-		ps.setString(2, uuid);
-		ps.execute();
+		Timestamp now = new Timestamp(new Date().getTime());
+		
+		if (accessFlushExecutor != null) {
+			pendingAccesses.put(uuid, now);
+			return;
+		}
+		
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_FILE_ACCESSED);
+			ps.setTimestamp(1, now);
+			ps.setString(2, uuid);
+			ps.execute();
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	/**
+	 * Write pending access times to the database in one transaction.
+	 * 
+	 * @throws SQLException
+	 */
+	void flushAccesses() throws SQLException {
+		if (pendingAccesses.isEmpty()) {
+			return;
+		}
+		
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			connection.getConnection().setAutoCommit(false);
+			PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_FILE_ACCESSED);
+			int count = 0;
+			for (String uuid : pendingAccesses.keySet()) {
+				Timestamp accessed = pendingAccesses.remove(uuid);
+				if (accessed != null) {
+					ps.setTimestamp(1, accessed);
+					ps.setString(2, uuid);
+					ps.addBatch();
+					count++;
+				}
+			}
+			ps.executeBatch();
+			connection.getConnection().commit();
+			logger.debug("wrote access times of " + count + " files");
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	/**
+	 * Write pending access times and stop flushing.
+	 */
+	public void shutdown() {
+		if (accessFlushExecutor != null) {
+			accessFlushExecutor.shutdownNow();
+			try {
+				flushAccesses();
+			} catch (SQLException e) {
+				logger.error("writing file access times failed", e);
+			}
+		}
 	}
 	
 	/**
@@ -315,13 +507,18 @@ public class DerbyMetadataServer {
 	}
 
 	private void addFileImpl(String uuid, long size) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_FILE);
-		ps.setString(1, uuid);
-		ps.setLong(2, size);
-		Timestamp now = new Timestamp(new Date().getTime());
-		ps.setTimestamp(3, now);
-		ps.setTimestamp(4, now);
-		ps.execute();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_INSERT_FILE);
+			ps.setString(1, uuid);
+			ps.setLong(2, size);
+			Timestamp now = new Timestamp(new Date().getTime());
+			ps.setTimestamp(3, now);
+			ps.setTimestamp(4, now);
+			ps.execute();
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 
 	/**
@@ -333,6 +530,15 @@ public class DerbyMetadataServer {
 	 * @throws SQLException
 	 */
 	public void addSpecialUser(String username, String showAsFolder) throws SQLException {
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			addSpecialUser(connection, username, showAsFolder);
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	private void addSpecialUser(PooledConnection connection, String username, String showAsFolder) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_SPECIAL_USER);
 		ps.setString(1, username);
 		ps.setString(2, showAsFolder);
@@ -348,11 +554,29 @@ public class DerbyMetadataServer {
 	 * @throws SQLException
 	 */
 	public void linkFileToSession(String fileUuid, String sessionUuid) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_BELONGS_TO);
-		ps.setString(1, sessionUuid);
-		ps.setString(2, fileUuid);
-		ps.execute();
-		
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			String username = fetchSessionOwner(connection, sessionUuid);
+			if (username != null) {
+				ensureStorageUsage(connection, username);
+			}
+			
+			connection.getConnection().setAutoCommit(false);
+			
+			PreparedStatement ps = connection.prepareStatement(SQL_INSERT_BELONGS_TO);
+			ps.setString(1, sessionUuid);
+			ps.setString(2, fileUuid);
+			ps.execute();
+			
+			DbFile file = fetchFile(connection, fileUuid);
+			if (username != null && file != null) {
+				updateStorageUsage(connection, username, file.getSize());
+			}
+			
+			connection.getConnection().commit();
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	/**
@@ -365,29 +589,122 @@ public class DerbyMetadataServer {
 	 * @throws SQLException
 	 */
 	public void addSession(String username, String name, String uuid) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_SESSION);
-		ps.setString(1, name);
+		addSession(username, name, uuid, new LinkedList<String>());
+	}
+	
+	/**
+	 * Adds session to the database, links data files to it and updates the storage usage
+	 * of the user in one transaction.
+	 * 
+	 * @param username owner of the session
+	 * @param name human readable name of the session
+	 * @param uuid identifier of the session
+	 * @param fileUuids identifiers of the data files
+	 * 
+	 * @throws SQLException
+	 */
+	public void addSession(String username, String name, String uuid, List<String> fileUuids) throws SQLException {
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			ensureStorageUsage(connection, username);
+			
+			connection.getConnection().setAutoCommit(false);
+			
+			PreparedStatement ps = connection.prepareStatement(SQL_INSERT_SESSION);
+			ps.setString(1, name);
+			ps.setString(2, username);
+			ps.setString(3, uuid);
+			ps.execute();
+			
+			if (!fileUuids.isEmpty()) {
+				PreparedStatement linkPs = connection.prepareStatement(SQL_INSERT_BELONGS_TO);
+				for (String fileUuid : fileUuids) {
+					linkPs.setString(1, uuid);
+					linkPs.setString(2, fileUuid);
+					linkPs.addBatch();
+				}
+				linkPs.executeBatch();
+				
+				updateStorageUsage(connection, username, fetchSizeOfSession(connection, uuid));
+			}
+			
+			connection.getConnection().commit();
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	private String fetchSessionOwner(PooledConnection connection, String sessionUuid) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSION_OWNER);
+		ps.setString(1, sessionUuid);
+		try (ResultSet rs = ps.executeQuery()) {
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+	
+	/**
+	 * @return total size of the files linked to the session
+	 */
+	private long fetchSizeOfSession(PooledConnection connection, String sessionUuid) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SIZE_OF_SESSION);
+		ps.setString(1, sessionUuid);
+		try (ResultSet rs = ps.executeQuery()) {
+			rs.next();
+			return rs.getLong(1); // 0 if null
+		}
+	}
+	
+	/**
+	 * Create the storage usage row of the user, if it doesn't exist. Done outside of
+	 * the transactions that update it, so that concurrent transactions of the same user 
+	 * don't try to create it both.
+	 */
+	private void ensureStorageUsage(PooledConnection connection, String username) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_STORAGE_USAGE);
+		ps.setString(1, username);
+		try {
+			ps.execute();
+		} catch (SQLException e) {
+			if (!SQL_STATE_DUPLICATE_KEY.equals(e.getSQLState())) {
+				throw e;
+			}
+		}
+	}
+	
+	private void updateStorageUsage(PooledConnection connection, String username, long change) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_STORAGE_USAGE);
+		ps.setLong(1, change);
 		ps.setString(2, username);
-		ps.setString(3, uuid);
 		ps.execute();
 	}
 	
 	public void renameSession(String newName, String uuid) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_SESSION_NAME);
-		ps.setString(1, newName);
-		ps.setString(2, uuid);
-		ps.execute();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_SESSION_NAME);
+			ps.setString(1, newName);
+			ps.setString(2, uuid);
+			ps.execute();
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	public String fetchSession(String username, String name)  throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_NAME_AND_USERNAME);
-		ps.setString(1, name);
-		ps.setString(2, username);
-		ResultSet sessions = ps.executeQuery();
-		if (sessions.next()) {
-			return sessions.getString(1);
-		} else {
-			return null;
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_NAME_AND_USERNAME);
+			ps.setString(1, name);
+			ps.setString(2, username);
+			try (ResultSet sessions = ps.executeQuery()) {
+				if (sessions.next()) {
+					return sessions.getString(1);
+				} else {
+					return null;
+				}
+			}
+		} finally {
+			connectionPool.release(connection);
 		}
 	}
 
@@ -399,12 +716,17 @@ public class DerbyMetadataServer {
 	 * @throws SQLException 
 	 */
 	public boolean isUsernameAllowedToRemoveSession(String username, String sessionUuid) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME_AND_UUID);
-		ps.setString(1, username);		
-		ps.setString(2, sessionUuid);
-		ResultSet rs = ps.executeQuery();
-
-		return rs.next(); // return true if result set is not empty
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME_AND_UUID);
+			ps.setString(1, username);		
+			ps.setString(2, sessionUuid);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next(); // return true if result set is not empty
+			}
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	
@@ -413,6 +735,8 @@ public class DerbyMetadataServer {
 	 * include file-session of the removed session and all linked files that are not
 	 * linked to any other sessions.
 	 * 
+	 * The entries are removed and the storage usage of the owner is updated in one transaction.
+	 * 
 	 * @param uuid
 	 * @throws SQLException
 	 */
@@ -421,40 +745,58 @@ public class DerbyMetadataServer {
 		// collect removed files so that they can be removed also physically
 		LinkedList<String> removed = new LinkedList<String>();
 		
-		// find data files that will orphaned (must be done before removing belongs_to)
-		PreparedStatement selectPs = connection.prepareStatement(SQL_SELECT_FILES_TO_BE_ORPHANED);
-		selectPs.setString(1, uuid);
-		selectPs.setString(2, uuid);
-		ResultSet uuidRs = selectPs.executeQuery();
-		LinkedList<String> orphanUuids = new LinkedList<String>();
-		while (uuidRs.next()) {
-			orphanUuids.add(uuidRs.getString(1));
-		}
-
-		// remove session entry from db 
-		// ("entry point" is removed first, so if something fails, broken session entry is not left behind)
-		PreparedStatement sessionPs = connection.prepareStatement(SQL_DELETE_SESSION);
-		sessionPs.setString(1, uuid);
-		sessionPs.execute();
-
-		// remove belongs_to entry from db
-		PreparedStatement belongsToPs = connection.prepareStatement(SQL_DELETE_BELONGS_TO);
-		belongsToPs.setString(1, uuid);
-		belongsToPs.execute();
-
-		// remove session file entry from db and add to list of removed files
-		PreparedStatement sessionFilePs = connection.prepareStatement(SQL_DELETE_FILE);
-		sessionFilePs.setString(1, uuid);
-		sessionFilePs.execute();
-		removed.add(uuid);
-		
-		
-		// remove orphaned data file entries from db and add to list of removed files
-		for (String orphanUuid : orphanUuids) {
-			PreparedStatement dataFilePs = connection.prepareStatement(SQL_DELETE_FILE);
-			dataFilePs.setString(1, orphanUuid);
-			dataFilePs.execute();
-			removed.add(orphanUuid);
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			connection.getConnection().setAutoCommit(false);
+			
+			// update storage usage of the owner (must be done before removing belongs_to)
+			String username = fetchSessionOwner(connection, uuid);
+			if (username != null) {
+				updateStorageUsage(connection, username, -fetchSizeOfSession(connection, uuid));
+			}
+			
+			// find data files that will orphaned (must be done before removing belongs_to)
+			PreparedStatement selectPs = connection.prepareStatement(SQL_SELECT_FILES_TO_BE_ORPHANED);
+			selectPs.setString(1, uuid);
+			selectPs.setString(2, uuid);
+			LinkedList<String> orphanUuids = new LinkedList<String>();
+			try (ResultSet uuidRs = selectPs.executeQuery()) {
+				while (uuidRs.next()) {
+					orphanUuids.add(uuidRs.getString(1));
+				}
+			}
+
+			// remove session entry from db 
+			// ("entry point" is removed first, so if something fails, broken session entry is not left behind)
+			PreparedStatement sessionPs = connection.prepareStatement(SQL_DELETE_SESSION);
+			sessionPs.setString(1, uuid);
+			sessionPs.execute();
+
+			// remove belongs_to entry from db
+			PreparedStatement belongsToPs = connection.prepareStatement(SQL_DELETE_BELONGS_TO);
+			belongsToPs.setString(1, uuid);
+			belongsToPs.execute();
+
+			// remove session file entry from db and add to list of removed files
+			PreparedStatement deleteFilePs = connection.prepareStatement(SQL_DELETE_FILE);
+			deleteFilePs.setString(1, uuid);
+			deleteFilePs.execute();
+			removed.add(uuid);
+
+
+			// remove orphaned data file entries from db and add to list of removed files
+			for (String orphanUuid : orphanUuids) {
+				deleteFilePs.setString(1, orphanUuid);
+				deleteFilePs.addBatch();
+				removed.add(orphanUuid);
+			}
+			deleteFilePs.executeBatch();
+			
+			connection.getConnection().commit();
+			
+		} finally {
+			// rolls back if not committed
+			connectionPool.release(connection);
 		}
 
 		return removed;
@@ -469,9 +811,14 @@ public class DerbyMetadataServer {
 	 * @throws SQLException
 	 */
 	public void backup(String backupDir) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_BACKUP);
-		ps.setString(1, backupDir.replace(File.separator, "/"));
-		ps.execute();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_BACKUP);
+			ps.setString(1, backupDir.replace(File.separator, "/"));
+			ps.execute();
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	
@@ -555,102 +902,200 @@ public class DerbyMetadataServer {
 		}
 	}
 
+
 	public Long getStorageusageOfUser(String username) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_USER);
-		ps.setString(1, username);
-		ResultSet rs = ps.executeQuery();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_SELECT_STORAGE_USAGE_OF_USER);
+			ps.setString(1, username);
 
-		Long size = null;
-		if (rs.next()) {
-			String sizeString = rs.getString("size");
-			if (sizeString != null) {
-				size = Long.parseLong(sizeString);
-			} else {
-				size = 0l; //user doesn't have any sessions
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					return rs.getLong("size");
+				} else {
+					return 0l; //user doesn't have any sessions
+				}
 			}
+		} finally {
+			connectionPool.release(connection);
 		}
-	
-		return size;
 	}
 
 	@SuppressWarnings("unchecked")
 	public List<String>[] getStorageusageOfUsers() throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_USERS);
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_SELECT_STORAGE_USAGE_OF_USERS);
 
-		ResultSet rs = ps.executeQuery();
-		LinkedList<String> usernames = new LinkedList<String>();
-		LinkedList<String> sizes = new LinkedList<String>();
+			LinkedList<String> usernames = new LinkedList<String>();
+			LinkedList<String> sizes = new LinkedList<String>();
 
-		while (rs.next()) {
-			String username = rs.getString("username");
-			String size = rs.getString("size");
-			usernames.add(username);
-			sizes.add(size);
-		}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					String username = rs.getString("username");
+					String size = rs.getString("size");
+					usernames.add(username);
+					sizes.add(size);
+				}
+			}
 
-		return new List[] { usernames, sizes };
+			return new List[] { usernames, sizes };
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+	
+	/**
+	 * Calculate the storage usage of all users from sessions and files and fix the 
+	 * maintained usage, if it differs. Runs in one serializable transaction, so other 
+	 * updates wait until it's done.
+	 * 
+	 * @return number of users whose usage was fixed
+	 * @throws SQLException
+	 */
+	public int reconcileStorageUsage() throws SQLException {
+		long startTime = System.currentTimeMillis();
+		int fixed = 0;
+		
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			connection.getConnection().setAutoCommit(false);
+			connection.getConnection().setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			
+			HashMap<String, Long> usage = new HashMap<>();
+			try (ResultSet rs = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_USERS).executeQuery()) {
+				while (rs.next()) {
+					usage.put(rs.getString("username"), rs.getLong("size"));
+				}
+			}
+			
+			HashMap<String, Long> maintainedUsage = new HashMap<>();
+			try (ResultSet rs = connection.prepareStatement(SQL_SELECT_ALL_STORAGE_USAGE).executeQuery()) {
+				while (rs.next()) {
+					maintainedUsage.put(rs.getString("username"), rs.getLong("size"));
+				}
+			}
+			
+			// users without sessions have usage 0
+			for (String username : maintainedUsage.keySet()) {
+				if (!usage.containsKey(username)) {
+					usage.put(username, 0l);
+				}
+			}
+			
+			PreparedStatement insertPs = connection.prepareStatement(SQL_INSERT_STORAGE_USAGE);
+			PreparedStatement setPs = connection.prepareStatement(SQL_SET_STORAGE_USAGE);
+			for (String username : usage.keySet()) {
+				Long maintained = maintainedUsage.get(username);
+				if (maintained == null) {
+					insertPs.setString(1, username);
+					insertPs.execute();
+				}
+				if (maintained == null || maintained.longValue() != usage.get(username)) {
+					setPs.setLong(1, usage.get(username));
+					setPs.setString(2, username);
+					setPs.execute();
+					fixed++;
+					if (maintained != null) {
+						logger.warn("storage usage of " + username + " was " + maintained + ", fixed to " + usage.get(username));
+					}
+				}
+			}
+			
+			connection.getConnection().commit();
+			
+		} finally {
+			try {
+				connection.getConnection().setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+			} catch (SQLException e) {
+				// connection pool replaces the connection if it's broken
+			}
+			connectionPool.release(connection);
+		}
+		
+		logger.info("storage usage reconciled in " + (System.currentTimeMillis() - startTime) + " ms, " + fixed + " users updated");
+		return fixed;
 	}
 
 	@SuppressWarnings("unchecked")
 	public List<String>[] getStorageUsageOfSessions(String username) throws SQLException {
 		
-		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_SESSIONS);
-		ps.setString(1, username);
-		ResultSet rs = ps.executeQuery();
-		
-		LinkedList<String> usernames = new LinkedList<String>();
-		LinkedList<String> sessions = new LinkedList<String>();
-		LinkedList<String> sizes = new LinkedList<String>();
-		LinkedList<String> dates = new LinkedList<String>();
-		LinkedList<String> ids = new LinkedList<String>();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_SESSIONS);
+			ps.setString(1, username);
 
-		
-		DateTimeFormatter dateTimeFormatter = ISODateTimeFormat.dateTime();
-		
-		while (rs.next()) {
-			String user = rs.getString("username");
-			String session = rs.getString("name");
-			String size = rs.getString("size");
-			String id = rs.getString("uuid");
-			DateTime date = new DateTime(rs.getTimestamp("date"));
-			usernames.add(user);
-			sessions.add(session);
-			sizes.add(size);
-			ids.add(id);
-			dates.add(dateTimeFormatter.print(date));
-		}
+			LinkedList<String> usernames = new LinkedList<String>();
+			LinkedList<String> sessions = new LinkedList<String>();
+			LinkedList<String> sizes = new LinkedList<String>();
+			LinkedList<String> dates = new LinkedList<String>();
+			LinkedList<String> ids = new LinkedList<String>();
+
+
+			DateTimeFormatter dateTimeFormatter = ISODateTimeFormat.dateTime();
+
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					String user = rs.getString("username");
+					String session = rs.getString("name");
+					String size = rs.getString("size");
+					String id = rs.getString("uuid");
+					DateTime date = new DateTime(rs.getTimestamp("date"));
+					usernames.add(user);
+					sessions.add(session);
+					sizes.add(size);
+					ids.add(id);
+					dates.add(dateTimeFormatter.print(date));
+				}
+			}
 
-		return new List[] { usernames, sessions, sizes, dates, ids };
+			return new List[] { usernames, sessions, sizes, dates, ids };
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 	
 	public String getStorageUsageTotal() throws SQLException {
 		
-		PreparedStatement ps = connection.prepareStatement(SQL_GET_TOTAL_DISK_USAGE);
-		ResultSet rs = ps.executeQuery();
-		
-		rs.next();
-		String size = rs.getString("size");
-		
-		if (size == null) {
-			// when db is empty
-			size = "0";
-		}
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_GET_TOTAL_DISK_USAGE);
+
+			String size;
+			try (ResultSet rs = ps.executeQuery()) {
+				rs.next();
+				size = rs.getString("size");
+			}
+
+			if (size == null) {
+				// when db is empty
+				size = "0";
+			}
 
-		return size;
+			return size;
+		} finally {
+			connectionPool.release(connection);
+		}
 	}
 
 	public List<DbFile> listAllFiles() throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(SQL_LIST_ALL_FILES);
-		ResultSet rs = ps.executeQuery();
-		
-		List<DbFile> files = new ArrayList<DbFile>();
-		
-		while (rs.next()) {
-			DbFile file = new DbFile(rs.getString(1), Long.parseLong(rs.getString(2)), rs.getString(3), rs.getString(4));
-			files.add(file);
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			PreparedStatement ps = connection.prepareStatement(SQL_LIST_ALL_FILES);
+
+			List<DbFile> files = new ArrayList<DbFile>();
+
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					DbFile file = new DbFile(rs.getString(1), Long.parseLong(rs.getString(2)), rs.getString(3), rs.getString(4));
+					files.add(file);
+				}
+			}
+
+			return files;
+		} finally {
+			connectionPool.release(connection);
 		}
-		
-		return files;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -680,15 +1125,20 @@ public class DerbyMetadataServer {
 		List<String> resultNames = new ArrayList<String>();
 		List<String> resultvalues = new ArrayList<String>();
 		
-		for (int i = 0; i < queries.length && i < names.length; i++) {
-		
-			PreparedStatement ps = connection.prepareStatement(queries[i]);
-			ResultSet rs = ps.executeQuery();
+		PooledConnection connection = connectionPool.borrow();
+		try {
+			for (int i = 0; i < queries.length && i < names.length; i++) {
 
-			rs.next();
-			
-			resultNames.add(names[i]);
-			resultvalues.add(rs.getString(1));
+				PreparedStatement ps = connection.prepareStatement(queries[i]);
+				try (ResultSet rs = ps.executeQuery()) {
+					rs.next();
+
+					resultNames.add(names[i]);
+					resultvalues.add(rs.getString(1));
+				}
+			}
+		} finally {
+			connectionPool.release(connection);
 		}
 		
 		return new List[] { resultNames, resultvalues };
@@ -1,6 +1,7 @@
 package fi.csc.microarray.filebroker;
 
 import java.io.File;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -10,8 +11,13 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
-import fi.csc.microarray.util.Files;
-
+/**
+ * Keeps enough usable space in the cache partition by removing cached files.
+ * 
+ * The files are removed in the order given by a {@link CacheIndex}, which is
+ * built at startup and then kept up to date by reporting file accesses with
+ * {@link #fileAccessed(File)}, so the clean up doesn't need to scan the directory.
+ */
 public class DiskCleanUp {
 	
 	private static Logger logger = Logger.getLogger(DiskCleanUp.class);
@@ -21,18 +27,20 @@ public class DiskCleanUp {
 	private int cleanUpTargetPercentage;
 	private int cleanUpMinimumFileAge;
 	private long minimumSpaceForAcceptUpload;
+	private CacheIndex index;
 
 	private final ExecutorService executor = Executors.newSingleThreadExecutor();
 	private Future<?> lastCleanUp;
 	private Object lastCleanUpLock = new Object(); // lock mustn't be null
 
 
-	public DiskCleanUp(File root, int cleanUpTriggerLimitPercentage, int cleanUpTargetPercentage, int cleanUpMinimumFileAge, long minimumSpaceForAcceptUpload) {
+	public DiskCleanUp(File root, int cleanUpTriggerLimitPercentage, int cleanUpTargetPercentage, int cleanUpMinimumFileAge, long minimumSpaceForAcceptUpload, CacheIndex.Policy policy) {
 		this.root = root;
 		this.cleanUpTriggerLimitPercentage = cleanUpTriggerLimitPercentage;
 		this.cleanUpTargetPercentage = cleanUpTargetPercentage;
 		this.cleanUpMinimumFileAge = cleanUpMinimumFileAge;
 		this.minimumSpaceForAcceptUpload = minimumSpaceForAcceptUpload;		
+		this.index = new CacheIndex(root, policy);
 		
 		logger.info("total space: " + FileUtils.byteCountToDisplaySize(root.getTotalSpace()));
 		logger.info("usable space: " + FileUtils.byteCountToDisplaySize(root.getUsableSpace()));
@@ -40,6 +48,24 @@ public class DiskCleanUp {
 		logger.info("cache clean up will start when usable space is less than: " + FileUtils.byteCountToDisplaySize(getCleanUpSoftLimit()));
 		logger.info("cache clean target usable space is:  " + FileUtils.byteCountToDisplaySize(getCleanUpTargetUsableSpace()));		
 		logger.info("will not clean up files newer than: " + (cleanUpMinimumFileAge/3600) + "h");
+		logger.info("cache clean up policy: " + policy);
+		
+		// clean ups are run in the same executor, so they will wait for the index
+		synchronized (lastCleanUpLock) {
+			lastCleanUp = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					index.rebuild();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Report a read or write of a cached file, to keep the clean up order up to date.
+	 */
+	public void fileAccessed(File file) {
+		index.touch(file);
 	}
 	
 	public long getCleanUpSoftLimit() {
@@ -96,10 +122,40 @@ public class DiskCleanUp {
 
 			long cleanUpBeginTime = System.currentTimeMillis();
 			long cleanUpTargetLimit = getCleanUpTargetUsableSpace();
-			logger.info("cache cleanup, target usable space: " + FileUtils.byteCountToDisplaySize(requestedSize + cleanUpTargetLimit) + 
+			long targetUsableSpace = requestedSize + cleanUpTargetLimit;
+			logger.info("cache cleanup, target usable space: " + FileUtils.byteCountToDisplaySize(targetUsableSpace) + 
 					" (" + FileUtils.byteCountToDisplaySize(requestedSize) + " + " + FileUtils.byteCountToDisplaySize(cleanUpTargetLimit));
-			Files.makeSpaceInDirectory(root, requestedSize + cleanUpTargetLimit, cleanUpMinimumFileAge, TimeUnit.SECONDS);
-			logger.info("cache cleanup took " + (System.currentTimeMillis() - cleanUpBeginTime) + " ms, usable space now " + FileUtils.byteCountToDisplaySize(root.getUsableSpace())); 
+
+			long minimumAccessTime = cleanUpBeginTime - TimeUnit.SECONDS.toMillis(cleanUpMinimumFileAge);
+			int deletedFiles = 0;
+			long freedBytes = 0;
+			
+			long missingSpace;
+			while ((missingSpace = targetUsableSpace - root.getUsableSpace()) > 0) {
+				List<CacheIndex.Entry> candidates = index.getEvictionCandidates(missingSpace, minimumAccessTime);
+				if (candidates.isEmpty()) {
+					logger.info("no more files old enough to be cleaned up");
+					break;
+				}
+				for (CacheIndex.Entry candidate : candidates) {
+					if (index.remove(candidate, minimumAccessTime)) {
+						File file = candidate.getFile();
+						if (file.delete()) {
+							deletedFiles++;
+							freedBytes += candidate.getSize();
+						}
+						Md5FileUtils.removeMd5(file);
+					}
+				}
+			}
+
+			long duration = System.currentTimeMillis() - cleanUpBeginTime;
+			logger.info("cache cleanup took " + duration + " ms, deleted " + deletedFiles + " files" + 
+					" (" + (deletedFiles * 1000 / Math.max(duration, 1)) + " files/s)" +
+					", freed " + FileUtils.byteCountToDisplaySize(freedBytes) + 
+					" (" + FileUtils.byteCountToDisplaySize(freedBytes * 1000 / Math.max(duration, 1)) + "/s)" + 
+					", usable space now " + FileUtils.byteCountToDisplaySize(root.getUsableSpace()) + 
+					", " + index.getFileCount() + " files in cache index"); 
 		}
 	}
 
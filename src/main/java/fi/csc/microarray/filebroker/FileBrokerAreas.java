@@ -2,6 +2,8 @@ package fi.csc.microarray.filebroker;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 
@@ -29,7 +31,7 @@ public class FileBrokerAreas {
 		return getFile(fileId, area).exists();
 	}
 	
-	private File getFile(String fileId, FileBrokerArea area) {
+	File getFile(String fileId, FileBrokerArea area) {
 
 		// check id
 		if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
@@ -49,6 +51,35 @@ public class FileBrokerAreas {
 		}
 	}
 	
+	/**
+	 * @return ids of the data files in the area, without .md5 and unfinished upload files
+	 */
+	public List<String> listFiles(FileBrokerArea area) {
+		File root = area == FileBrokerArea.STORAGE ? storageRoot : cacheRoot;
+		List<String> fileIds = new LinkedList<>();
+		String[] names = root.list();
+		if (names != null) {
+			for (String name : names) {
+				if (AuthorisedUrlRepository.checkFilenameSyntax(name)) {
+					fileIds.add(name);
+				}
+			}
+		}
+		return fileIds;
+	}
+	
+	/**
+	 * Delete the data file and its md5 file.
+	 * 
+	 * @return false if the file didn't exist or couldn't be deleted
+	 */
+	public boolean removeFile(String fileId, FileBrokerArea area) {
+		File file = getFile(fileId, area);
+		boolean removed = file.delete();
+		Md5FileUtils.removeMd5(file);
+		return removed;
+	}
+	
 	public boolean moveFromCacheToStorage(String fileId) throws IOException {
 		// check id
 		if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
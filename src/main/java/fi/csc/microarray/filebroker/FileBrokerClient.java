@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -45,20 +46,21 @@ public interface FileBrokerClient {
 	public abstract String addFile(String dataId, FileBrokerArea area, InputStream file, long contentLength, CopyProgressListener progressListener) throws NotEnoughDiskSpaceException, FileBrokerException, JMSException, IOException;
 
 	/**
-	 * Add file to file broker. Might use local transfer instead of uploading.
+	 * Add file to file broker. Might use local transfer instead of uploading. Large
+	 * files can be uploaded in chunks, which allows the upload to be resumed if 
+	 * it fails.
 	 * 
 	 * @see #addFile(InputStream, CopyProgressListener)
 	 * 
 	 * @param file
-	 * @param contentLength -1 if unknown
 	 * @param progressListener may be null
-	 * @return url to the added file
+	 * @return md5 of the uploaded file, null if checksums are disabled or the file was moved locally
 	 * @throws FileBrokerException if url from file broker is null or getting url timeouts
 	 * @throws JMSException
 	 * @throws IOException
 	 * @throws NotEnoughDiskSpaceException
 	 */
-	public abstract void addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws NotEnoughDiskSpaceException, FileBrokerException, JMSException, IOException;
+	public abstract String addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws NotEnoughDiskSpaceException, FileBrokerException, JMSException, IOException;
 
 	/**
 	 *  Get the InputStream for a file from the FileBroker.
@@ -90,7 +92,23 @@ public interface FileBrokerClient {
 	 * @throws JMSException 
 	 * @throws ChecksumException 
 	 */
-	public abstract void getFile(String dataId, File destFile) throws IOException, JMSException, ChecksumException;	
+	public abstract void getFile(String dataId, File destFile) throws IOException, JMSException, ChecksumException;
+
+	/**
+	 * Get File pointed by url to destFile and report progress of the transfer.
+	 * Might use local file transfer instead of downloading, in which case
+	 * progress is not reported.
+	 *
+	 * Progress listener may abort the transfer by throwing an unchecked exception.
+	 *
+	 * @param destFile destination file that must not exist
+	 * @param progressListener may be null
+	 *
+	 * @throws IOException
+	 * @throws JMSException
+	 * @throws ChecksumException
+	 */
+	public abstract void getFile(String dataId, File destFile, CopyProgressListener progressListener) throws IOException, JMSException, ChecksumException;
 
 	/**
 	 * Retrieves the list of public files or folders from the file broker. Method blocks until result is
@@ -154,4 +172,18 @@ public interface FileBrokerClient {
 
 
 	public Long getContentLength(String dataId) throws IOException, JMSException, FileBrokerException;
+
+	/**
+	 * Resolve the locations of many files at once, so that opening them later is
+	 * faster. Only an optimisation, the files may not exist and implementations
+	 * may ignore this.
+	 */
+	public void prefetchURLs(Collection<String> dataIds) throws JMSException, MalformedURLException;
+
+	/**
+	 * Get the md5 checksum of a file without transferring it.
+	 * 
+	 * @return checksum or null if the file broker doesn't know it
+	 */
+	public String getChecksum(String dataId) throws IOException, JMSException, FileBrokerException;
 }
\ No newline at end of file
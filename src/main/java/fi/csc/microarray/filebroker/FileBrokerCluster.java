@@ -0,0 +1,604 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
+import fi.csc.microarray.messaging.MessagingEndpoint;
+import fi.csc.microarray.messaging.MessagingListener;
+import fi.csc.microarray.messaging.MessagingTopic;
+import fi.csc.microarray.messaging.MessagingTopic.AccessMode;
+import fi.csc.microarray.messaging.Topics;
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+import fi.csc.microarray.messaging.message.ParameterMessage;
+import fi.csc.microarray.util.IOUtils;
+import fi.csc.microarray.util.KeyAndTrustManager;
+import fi.csc.microarray.util.Strings;
+
+/**
+ * <p>Spreads files over several file brokers. The owners of a file are chosen
+ * with a {@link ConsistentHashRing} over the root URLs of the file brokers. The
+ * first owner, the primary, answers the messages about the file, so the URLs
+ * that clients get point to it. The other owners keep copies of the stored files.
+ * They pull the copies over HTTP when a {@link CommandMessage#COMMAND_REPLICATE_FILES}
+ * message tells that there are new files.</p>
+ *
+ * <p>Sessions and quotas stay in the metadata database of the first node in the
+ * list, the coordinator, which answers all messages that aren't about a single file.</p>
+ *
+ * <p>When the list of nodes is changed with a {@link CommandMessage#COMMAND_SET_FILEBROKER_NODES}
+ * message, each node offers its stored files to their new owners and removes its
+ * own copies when all the owners have them. Cache files are not replicated or moved.
+ * They are found with HEAD requests until the cache clean-up removes them.</p>
+ *
+ * <p>If no other nodes are configured, this node owns every file and answers every
+ * message, like a file broker without a cluster.</p>
+ */
+public class FileBrokerCluster implements MessagingListener {
+
+	private static final Logger logger = Logger.getLogger(FileBrokerCluster.class);
+
+	private static final int HTTP_TIMEOUT = 30 * 1000;
+	private static final int LOCATE_THREADS = 8;
+	private static final int MESSAGE_BATCH_SIZE = 500;
+
+	/**
+	 * Messages about a single file, answered by its primary owner. The rest are
+	 * answered by the coordinator.
+	 */
+	private static final List<String> FILE_COMMANDS = Arrays.asList(new String[] {
+			CommandMessage.COMMAND_NEW_URL_REQUEST,
+			CommandMessage.COMMAND_GET_URL,
+			CommandMessage.COMMAND_IS_AVAILABLE,
+			CommandMessage.COMMAND_MOVE_FROM_CACHE_TO_STORAGE,
+			CommandMessage.COMMAND_DISK_SPACE_REQUEST
+	});
+
+	/**
+	 * A copy of a file on some node.
+	 */
+	public static class Location {
+		private URL url;
+		private long size;
+		private FileBrokerArea area;
+
+		public Location(URL url, long size, FileBrokerArea area) {
+			this.url = url;
+			this.size = size;
+			this.area = area;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public FileBrokerArea getArea() {
+			return area;
+		}
+	}
+
+	private String self;
+	private int replicationFactor;
+	private volatile ConsistentHashRing ring;
+	private FileBrokerAreas filebrokerAreas;
+	private DerbyMetadataServer metadataServer;
+	private MessagingTopic adminTopic;
+
+	private long rebalancePollInterval = 5 * 1000;
+	private long rebalanceTimeout = 60 * 60 * 1000;
+	/**
+	 * Incremented when the nodes change, so that an old rebalancing knows to stop
+	 */
+	private AtomicLong membershipVersion = new AtomicLong();
+
+	private ExecutorService replicationExecutor = Executors.newSingleThreadExecutor(daemonThreads("filebroker-replication"));
+	private ExecutorService rebalanceExecutor = Executors.newSingleThreadExecutor(daemonThreads("filebroker-rebalance"));
+	private ExecutorService locateExecutor = Executors.newFixedThreadPool(LOCATE_THREADS, daemonThreads("filebroker-locate"));
+
+	/**
+	 * @param self root URL of this node, see {@link AuthorisedUrlRepository#getRootUrl()}
+	 * @param nodes root URLs of all nodes, the coordinator first, or an empty list to run alone
+	 * @param replicationFactor number of copies of the stored files
+	 * @param metadataServer for registering the pulled copies, may be null
+	 */
+	public FileBrokerCluster(String self, List<String> nodes, int replicationFactor, FileBrokerAreas filebrokerAreas, DerbyMetadataServer metadataServer) {
+		this.self = normalise(self);
+		this.replicationFactor = Math.max(1, replicationFactor);
+		this.filebrokerAreas = filebrokerAreas;
+		this.metadataServer = metadataServer;
+
+		if (nodes.isEmpty()) {
+			nodes = Arrays.asList(new String[] { self });
+		}
+		this.ring = createRing(nodes);
+
+		if (isClustered()) {
+			logger.info("file broker cluster: " + ring.getNodes() + ", replication factor " + this.replicationFactor);
+			if (!ring.getNodes().contains(this.self)) {
+				logger.warn("this file broker " + this.self + " is not one of the cluster nodes, it won't answer any messages");
+			}
+		}
+	}
+
+	/**
+	 * Listen to the cluster messages on the file broker admin topic. Without this the
+	 * nodes can't replicate or rebalance the files.
+	 */
+	public void connect(MessagingEndpoint endpoint) throws JMSException {
+		adminTopic = endpoint.createTopic(Topics.Name.FILEBROKER_ADMIN_TOPIC, AccessMode.READ_WRITE);
+		adminTopic.setListener(this);
+	}
+
+	/**
+	 * @param nodes root URLs separated by white space or commas
+	 */
+	public static List<String> parseNodes(String nodes) {
+		List<String> list = new LinkedList<>();
+		if (nodes != null) {
+			for (String node : nodes.split("[\\s,]+")) {
+				if (!node.isEmpty()) {
+					list.add(normalise(node));
+				}
+			}
+		}
+		return list;
+	}
+
+	private static String normalise(String node) {
+		node = node.trim();
+		while (node.endsWith("/")) {
+			node = node.substring(0, node.length() - 1);
+		}
+		return node;
+	}
+
+	private static ConsistentHashRing createRing(List<String> nodes) {
+		List<String> normalised = new ArrayList<>();
+		for (String node : nodes) {
+			normalised.add(normalise(node));
+		}
+		return new ConsistentHashRing(normalised);
+	}
+
+	/**
+	 * The position on the ring doesn't depend on the compression suffix.
+	 */
+	private static String key(String fileId) {
+		return AuthorisedUrlRepository.stripCompressionSuffix(fileId);
+	}
+
+	public String getSelf() {
+		return self;
+	}
+
+	public List<String> getNodes() {
+		return ring.getNodes();
+	}
+
+	/**
+	 * @return false if this node is the only one
+	 */
+	public boolean isClustered() {
+		List<String> nodes = ring.getNodes();
+		return !(nodes.size() == 1 && nodes.get(0).equals(self));
+	}
+
+	public boolean isCoordinator() {
+		return ring.getNodes().get(0).equals(self);
+	}
+
+	/**
+	 * @return nodes that should have a copy of the stored file, the primary first
+	 */
+	public List<String> getOwners(String fileId) {
+		return ring.getOwners(key(fileId), replicationFactor);
+	}
+
+	public boolean isOwner(String fileId) {
+		return getOwners(fileId).contains(self);
+	}
+
+	public boolean isPrimary(String fileId) {
+		return self.equals(ring.getPrimary(key(fileId)));
+	}
+
+	/**
+	 * Tells if this node should answer the message. Exactly one node answers
+	 * each message, because the clients use the first reply and the direct
+	 * messaging allows only one.
+	 */
+	public boolean isResponsible(CommandMessage message) {
+		if (!isClustered()) {
+			return true;
+		}
+		if (FILE_COMMANDS.contains(message.getCommand())) {
+			String fileId = message.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID);
+			if (fileId != null && AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
+				return isPrimary(fileId);
+			}
+		}
+		// denied requests are answered by the coordinator too
+		return isCoordinator();
+	}
+
+	/**
+	 * Find a copy of the file from the other nodes, owners first. The caller has
+	 * checked this node already.
+	 *
+	 * @return location of the first copy found or null
+	 */
+	public Location locate(String fileId, Compression compression) throws MalformedURLException {
+		List<String> nodes = ring.getOwners(key(fileId), ring.getNodes().size());
+		for (String node : nodes) {
+			if (node.equals(self)) {
+				continue;
+			}
+			for (FileBrokerArea area : new FileBrokerArea[] { FileBrokerArea.CACHE, FileBrokerArea.STORAGE }) {
+				// block compressed URLs don't tell the length
+				Long size = head(getUrl(node, area, fileId, Compression.NONE));
+				if (size != null) {
+					return new Location(getUrl(node, area, fileId, compression), size, area);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find many files in parallel.
+	 *
+	 * @return locations of the files that were found
+	 */
+	public Map<String, Location> locate(Collection<String> fileIds, final Compression compression) throws IOException {
+		LinkedHashMap<String, Future<Location>> futures = new LinkedHashMap<>();
+		for (final String fileId : fileIds) {
+			futures.put(fileId, locateExecutor.submit(new Callable<Location>() {
+				@Override
+				public Location call() throws Exception {
+					return locate(fileId, compression);
+				}
+			}));
+		}
+
+		LinkedHashMap<String, Location> locations = new LinkedHashMap<>();
+		for (Entry<String, Future<Location>> entry : futures.entrySet()) {
+			try {
+				Location location = entry.getValue().get();
+				if (location != null) {
+					locations.put(entry.getKey(), location);
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted while locating files");
+			} catch (ExecutionException e) {
+				throw new IOException("locating " + entry.getKey() + " failed", e.getCause());
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 * Ask the owners to pull the stored files they don't have yet.
+	 */
+	public void replicate(Collection<String> fileIds) throws JMSException {
+		sendInBatches(CommandMessage.COMMAND_REPLICATE_FILES, fileIds, ring);
+	}
+
+	/**
+	 * Tell the other nodes to remove their copies of the stored files.
+	 */
+	public void removeFiles(Collection<String> fileIds) throws JMSException {
+		sendInBatches(CommandMessage.COMMAND_REMOVE_FILES, fileIds, ring);
+	}
+
+	/**
+	 * The receivers decide the owners by the nodes in the message, because they may 
+	 * not have heard about the changes of the nodes yet.
+	 */
+	private void sendInBatches(String command, Collection<String> fileIds, ConsistentHashRing ring) throws JMSException {
+		if (!isClustered() || adminTopic == null || fileIds.isEmpty()) {
+			return;
+		}
+		List<String> batch = new ArrayList<>(MESSAGE_BATCH_SIZE);
+		Iterator<String> iterator = fileIds.iterator();
+		while (iterator.hasNext()) {
+			batch.add(iterator.next());
+			if (batch.size() == MESSAGE_BATCH_SIZE || !iterator.hasNext()) {
+				CommandMessage message = new CommandMessage(command);
+				message.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(batch, "\t"));
+				// this node may not be a member anymore, tell where the files are
+				message.addNamedParameter(ParameterMessage.PARAMETER_URL, self);
+				message.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(ring.getNodes(), "\t"));
+				adminTopic.sendMessage(message);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Change the nodes of this node only, see {@link #sendNodes(List)} for changing the whole cluster.
+	 * The files that this node has are offered to their new owners in the background.
+	 */
+	public void setNodes(List<String> nodes) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("no file broker nodes");
+		}
+		ring = createRing(nodes);
+		logger.info("file broker nodes changed: " + ring.getNodes());
+
+		final long version = membershipVersion.incrementAndGet();
+		rebalanceExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebalance(version);
+				} catch (Exception e) {
+					logger.error("rebalancing failed", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Change the nodes of the whole cluster.
+	 */
+	public void sendNodes(List<String> nodes) throws JMSException {
+		CommandMessage message = new CommandMessage(CommandMessage.COMMAND_SET_FILEBROKER_NODES);
+		message.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(nodes, "\t"));
+		adminTopic.sendMessage(message);
+	}
+
+	@Override
+	public void onChipsterMessage(ChipsterMessage msg) {
+		if (!(msg instanceof CommandMessage)) {
+			return;
+		}
+		CommandMessage message = (CommandMessage) msg;
+		try {
+			if (CommandMessage.COMMAND_SET_FILEBROKER_NODES.equals(message.getCommand())) {
+				setNodes(parseNodes(message.getNamedParameter(ParameterMessage.PARAMETER_URL_LIST)));
+
+			} else if (CommandMessage.COMMAND_REPLICATE_FILES.equals(message.getCommand())) {
+				final List<String> fileIds = getFileIds(message);
+				final String source = message.getNamedParameter(ParameterMessage.PARAMETER_URL);
+				List<String> nodes = parseNodes(message.getNamedParameter(ParameterMessage.PARAMETER_URL_LIST));
+				final ConsistentHashRing view = nodes.isEmpty() ? ring : createRing(nodes);
+				replicationExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						pullMissing(fileIds, source, view);
+					}
+				});
+
+			} else if (CommandMessage.COMMAND_REMOVE_FILES.equals(message.getCommand())) {
+				for (String fileId : getFileIds(message)) {
+					filebrokerAreas.removeFile(fileId, FileBrokerArea.STORAGE);
+				}
+			}
+		} catch (Exception e) {
+			logger.error("could not handle cluster message " + message.getCommand(), e);
+		}
+	}
+
+	private static List<String> getFileIds(CommandMessage message) {
+		List<String> fileIds = new LinkedList<>();
+		String fileIdsString = message.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		if (fileIdsString != null && !fileIdsString.isEmpty()) {
+			for (String fileId : fileIdsString.split("\t")) {
+				if (AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
+					fileIds.add(fileId);
+				}
+			}
+		}
+		return fileIds;
+	}
+
+	private void pullMissing(List<String> fileIds, String source, ConsistentHashRing view) {
+		for (String fileId : fileIds) {
+			if (view.getOwners(key(fileId), replicationFactor).contains(self) && !filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
+				try {
+					pull(fileId, source, view);
+				} catch (Exception e) {
+					logger.warn("could not replicate " + fileId, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy a stored file from some other node to the storage of this node.
+	 * 
+	 * @param sourceNode the node that asked for the replication, tried first, may be null
+	 */
+	private void pull(String fileId, String sourceNode, ConsistentHashRing view) throws IOException, ChecksumException, ContentLengthException, SQLException {
+
+		List<String> nodes = new LinkedList<>(view.getOwners(key(fileId), view.getNodes().size()));
+		if (sourceNode != null) {
+			nodes.remove(sourceNode);
+			nodes.add(0, sourceNode);
+		}
+		
+		Long size = null;
+		URL source = null;
+		for (String node : nodes) {
+			if (!node.equals(self)) {
+				source = getUrl(node, FileBrokerArea.STORAGE, fileId, Compression.NONE);
+				size = head(source);
+				if (size != null) {
+					break;
+				}
+			}
+		}
+		if (size == null) {
+			logger.warn("no copy of " + fileId + " found for replication");
+			return;
+		}
+
+		File target = filebrokerAreas.getFile(fileId, FileBrokerArea.STORAGE);
+		File tmpFile = new File(target.getPath() + ".replica");
+		HttpURLConnection connection = (HttpURLConnection) source.openConnection();
+		try {
+			KeyAndTrustManager.configureSSL(connection);
+			connection.setConnectTimeout(HTTP_TIMEOUT);
+			connection.setReadTimeout(HTTP_TIMEOUT);
+
+			String checksum;
+			try (ChecksumInputStream in = new ChecksumInputStream(connection.getInputStream(), true, connection);
+					OutputStream out = new FileOutputStream(tmpFile)) {
+				IOUtils.copy(in, out);
+				in.verifyContentLength(size);
+				checksum = in.verifyChecksums();
+			}
+			Md5FileUtils.writeMd5(checksum, target);
+
+			if (!tmpFile.renameTo(target) && !target.exists()) {
+				throw new IOException("could not rename " + tmpFile);
+			}
+		} finally {
+			// left over if the transfer failed or someone else was faster
+			tmpFile.delete();
+			IOUtils.closeIfPossible(connection.getErrorStream());
+		}
+
+		if (metadataServer != null) {
+			metadataServer.addFile(fileId, size);
+		}
+		logger.debug("replicated " + fileId + " from " + source);
+	}
+
+	/**
+	 * Offer the stored files to their owners and remove the copies that this
+	 * node doesn't own anymore, when all the owners have them.
+	 */
+	private void rebalance(long version) throws JMSException, InterruptedException, MalformedURLException {
+		if (!isClustered()) {
+			return;
+		}
+		ConsistentHashRing view = ring;
+		List<String> fileIds = filebrokerAreas.listFiles(FileBrokerArea.STORAGE);
+		sendInBatches(CommandMessage.COMMAND_REPLICATE_FILES, fileIds, view);
+
+		List<String> pending = new LinkedList<>();
+		for (String fileId : fileIds) {
+			if (!view.getOwners(key(fileId), replicationFactor).contains(self)) {
+				pending.add(fileId);
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + rebalanceTimeout;
+		int removed = 0;
+		while (membershipVersion.get() == version) {
+			Iterator<String> iterator = pending.iterator();
+			while (iterator.hasNext()) {
+				String fileId = iterator.next();
+				if (isReplicated(fileId, view)) {
+					filebrokerAreas.removeFile(fileId, FileBrokerArea.STORAGE);
+					iterator.remove();
+					removed++;
+				}
+			}
+			if (pending.isEmpty() || System.currentTimeMillis() > deadline) {
+				break;
+			}
+			Thread.sleep(rebalancePollInterval);
+		}
+		logger.info("rebalancing done, offered " + fileIds.size() + " files, removed " + removed + " copies, kept " + pending.size() + " copies that the owners didn't have");
+	}
+
+	private boolean isReplicated(String fileId, ConsistentHashRing view) throws MalformedURLException {
+		for (String owner : view.getOwners(key(fileId), replicationFactor)) {
+			if (head(getUrl(owner, FileBrokerArea.STORAGE, fileId, Compression.NONE)) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * For tests
+	 */
+	void setRebalanceTiming(long pollInterval, long timeout) {
+		this.rebalancePollInterval = pollInterval;
+		this.rebalanceTimeout = timeout;
+	}
+
+	public void shutdown() {
+		replicationExecutor.shutdownNow();
+		rebalanceExecutor.shutdownNow();
+		locateExecutor.shutdownNow();
+	}
+
+	private static URL getUrl(String node, FileBrokerArea area, String fileId, Compression compression) throws MalformedURLException {
+		String path = area == FileBrokerArea.STORAGE ? FileServer.STORAGE_PATH : FileServer.CACHE_PATH;
+		return new URL(node + "/" + path + "/" + fileId + compression.getSuffix());
+	}
+
+	/**
+	 * @return size of the file or null if it doesn't exist or the node isn't reachable
+	 */
+	private static Long head(URL url) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			KeyAndTrustManager.configureSSL(connection);
+			connection.setRequestMethod("HEAD");
+			connection.setUseCaches(false);
+			connection.setConnectTimeout(HTTP_TIMEOUT);
+			connection.setReadTimeout(HTTP_TIMEOUT);
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				IOUtils.closeIfPossible(connection.getErrorStream());
+				return null;
+			}
+			// close instead of disconnecting, so that the connection is kept alive for the next request
+			IOUtils.closeIfPossible(connection.getInputStream());
+			long length = connection.getContentLengthLong();
+			return length >= 0 ? length : null;
+		} catch (IOException e) {
+			logger.debug("HEAD " + url + " failed: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,167 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+
+/**
+ * <p>Sends stored files for GET requests of the {@link RestServlet}. The requested
+ * part of the file is memory mapped and handed to Jetty as a single buffer, so
+ * it's written to the socket straight from the page cache without copying it
+ * through the heap. Parts that are too large to map in one piece are streamed.</p>
+ *
+ * <p>Supports a single byte range (<code>Range: bytes=start-end</code>), so that
+ * clients can resume interrupted downloads and read parts of large BAM files.
+ * Requests for multiple ranges get the whole file, which HTTP allows.</p>
+ */
+public class FileSender {
+
+	private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * One buffer can't be larger than this.
+	 */
+	public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+	private long maxMappedSize;
+
+	public FileSender() {
+		this(MAX_MAPPED_SIZE);
+	}
+
+	/**
+	 * @param maxMappedSize larger ranges are streamed
+	 */
+	public FileSender(long maxMappedSize) {
+		this.maxMappedSize = Math.min(maxMappedSize, MAX_MAPPED_SIZE);
+	}
+
+	/**
+	 * Send the file or the requested range of it.
+	 *
+	 * @return number of bytes sent
+	 * @throws IOException
+	 */
+	public long send(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long fileLength = channel.size();
+
+			long start = 0;
+			long length = fileLength;
+
+			response.setHeader("Accept-Ranges", "bytes");
+			response.setContentType("application/octet-stream");
+
+			// the client can't know if the file has changed, so don't risk sending a part of a different file
+			if (request.getHeader("If-Range") == null) {
+				long[] range = parseRange(request.getHeader("Range"), fileLength);
+				if (range == UNSATISFIABLE) {
+					response.setHeader("Content-Range", "bytes */" + fileLength);
+					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					return 0;
+				}
+				if (range != null) {
+					start = range[0];
+					length = range[1] - range[0] + 1;
+					response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + fileLength);
+				}
+			}
+
+			response.setHeader("Content-Length", Long.toString(length));
+			if (length == 0) {
+				return 0;
+			}
+
+			ServletOutputStream out = response.getOutputStream();
+			if (length <= maxMappedSize && out instanceof AbstractHttpConnection.Output) {
+				// the mapping stays valid after the channel is closed, until Jetty has written it
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, length);
+				((AbstractHttpConnection.Output)out).sendContent(new DirectNIOBuffer(buffer, true));
+			} else {
+				stream(channel, start, length, out);
+			}
+			return length;
+		}
+	}
+
+	private void stream(FileChannel channel, long position, long length, ServletOutputStream out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(STREAM_BUFFER_SIZE, length));
+		long end = position + length;
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int count = channel.read(buffer, position);
+			if (count == -1) {
+				throw new IOException("file ended " + (end - position) + " bytes before the end of the range");
+			}
+			out.write(buffer.array(), 0, count);
+			position += count;
+		}
+	}
+
+	static final long[] UNSATISFIABLE = new long[0];
+
+	/**
+	 * Parse a single byte range.
+	 *
+	 * @param header value of the Range header, may be null
+	 * @param fileLength
+	 * @return first and last byte of the range, null if the whole file should be sent
+	 * or {@link #UNSATISFIABLE} if the range is outside the file
+	 */
+	static long[] parseRange(String header, long fileLength) {
+		if (header == null || fileLength == 0) {
+			return null;
+		}
+		header = header.trim();
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (spec.contains(",") || dash == -1) {
+			return null;
+		}
+
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+
+			if (first.isEmpty()) {
+				// suffix range, the last n bytes
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength <= 0) {
+					return suffixLength == 0 ? UNSATISFIABLE : null;
+				}
+				return new long[] { Math.max(0, fileLength - suffixLength), fileLength - 1 };
+			}
+
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (start < 0 || end < start) {
+				// syntactically invalid, ignore
+				return null;
+			}
+			if (start >= fileLength) {
+				return UNSATISFIABLE;
+			}
+			return new long[] { start, Math.min(end, fileLength - 1) };
+
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.zip.ZipException;
@@ -22,6 +23,8 @@ import org.h2.tools.Server;
 import fi.csc.microarray.config.Configuration;
 import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.constants.ApplicationConstants;
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.filebroker.FileBrokerCluster.Location;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.manager.ManagerClient;
 import fi.csc.microarray.messaging.DirectMessagingListener;
@@ -61,6 +64,7 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	private AuthorisedUrlRepository urlRepository;
 	private FileBrokerAreas filebrokerAreas;
 	private DerbyMetadataServer metadataServer;
+	private FileBrokerCluster cluster;
 	
 	private File cacheRoot;
 	private File storageRoot;
@@ -127,6 +131,11 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
     			logger.info("not starting metadata server web interface");        			
     		}
     		
+    		// initialise cluster, this node answers everything if no other nodes are configured
+    		this.cluster = new FileBrokerCluster(urlRepository.getRootUrl(), 
+    				FileBrokerCluster.parseNodes(configuration.getString("filebroker", "cluster-nodes")), 
+    				configuration.getInt("filebroker", "replication-factor"), filebrokerAreas, metadataServer);
+    		
     		cacheRoot = new File(fileRepository, CACHE_PATH);
     		storageRoot = new File(fileRepository, STORAGE_PATH);
     		publicRoot = new File(fileRepository, publicPath);    		    		
@@ -136,8 +145,9 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
     		int cleanUpTargetPercentage = configuration.getInt("filebroker", "clean-up-target-percentage");
     		int cleanUpMinimumFileAge = configuration.getInt("filebroker", "clean-up-minimum-file-age");
     		long minimumSpaceForAcceptUpload = 1024l*1024l*configuration.getInt("filebroker", "minimum-space-for-accept-upload");    		    		    
+    		CacheIndex.Policy cleanUpPolicy = CacheIndex.Policy.valueOf(configuration.getString("filebroker", "clean-up-policy").toUpperCase());
     		
-    		cacheCleanUp = new DiskCleanUp(cacheRoot, cleanUpTriggerLimitPercentage, cleanUpTargetPercentage, cleanUpMinimumFileAge, minimumSpaceForAcceptUpload);
+    		cacheCleanUp = new DiskCleanUp(cacheRoot, cleanUpTriggerLimitPercentage, cleanUpTargetPercentage, cleanUpMinimumFileAge, minimumSpaceForAcceptUpload, cleanUpPolicy);
     		
     		// boot up file server    		
     		URL hostURL = new URL(this.host);
@@ -167,6 +177,7 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
     		this.managerClient = new ManagerClient(jmsEndpoint);
     		
     		addEndpoint(jmsEndpoint);
+    		cluster.connect(jmsEndpoint);
 
     		MessagingTopic filebrokerAdminTopic = jmsEndpoint.createTopic(Topics.Name.FILEBROKER_ADMIN_TOPIC, AccessMode.READ);
     		filebrokerAdminTopic.setListener(new FilebrokerAdminMessageListener());
@@ -177,7 +188,10 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
     		this.exampleSessionUpdater = new ExampleSessionUpdater(this, metadataServer, exampleSessionDir);
     		
     		try {
-    			this.exampleSessionUpdater.importExampleSessions();
+    			// the sessions are kept by the coordinator
+    			if (cluster.isCoordinator()) {
+    				this.exampleSessionUpdater.importExampleSessions();
+    			}
     		} catch(ZipException e) {
     			//import failed because of the broken zip file. Probably something interrupted the session export
     			//and the situation needs to be resolved manually
@@ -217,12 +231,19 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	public void onChipsterMessage(ChipsterMessage msg, MessagingEndpoint endpoint) {
 				
 		try {
+			
+			// in a cluster only one node answers, messages from the direct endpoint are for this node only 
+			if (endpoint == jmsEndpoint && msg instanceof CommandMessage && !cluster.isResponsible((CommandMessage)msg)) {
+				return;
+			}
 
 			if (msg instanceof CommandMessage && CommandMessage.COMMAND_NEW_URL_REQUEST.equals(((CommandMessage)msg).getCommand())) {				
 				handleNewURLRequest(endpoint, msg);
 				
 			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_GET_URL.equals(((CommandMessage)msg).getCommand())) {				
 				handleGetURL(endpoint, msg);
+			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_GET_URLS.equals(((CommandMessage)msg).getCommand())) {				
+				handleGetURLs(endpoint, (CommandMessage)msg);
 			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_IS_AVAILABLE.equals(((CommandMessage)msg).getCommand())) {				
 				handleIsAvailable(endpoint, msg);
 			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_PUBLIC_URL_REQUEST.equals(((CommandMessage)msg).getCommand())) {
@@ -285,14 +306,18 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		// parse request
 		CommandMessage requestMessage = (CommandMessage) msg;
 		String fileId = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID);
-		boolean useCompression = requestMessage.getParameters().contains(ParameterMessage.PARAMETER_USE_COMPRESSION);
+		Compression compression = Compression.NONE;
+		if (requestMessage.getParameters().contains(ParameterMessage.PARAMETER_USE_COMPRESSION)) {
+			// older clients don't know about block compression
+			compression = getRequestedCompression(requestMessage, Compression.DEFLATE);
+		}
 		FileBrokerArea area = FileBrokerArea.valueOf(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_AREA));
 		String username = msg.getUsername();
 		long space = Long.parseLong(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_DISK_SPACE));
 		
 		logger.debug("New url request, dataId: " + fileId);
 		// check quota, if needed
-		ChipsterMessage reply = createNewURLReply(fileId, username, space, useCompression, area);
+		ChipsterMessage reply = createNewURLReply(fileId, username, space, compression, area);
 		
 		// send reply
 		endpoint.replyToMessage(msg, reply);
@@ -300,14 +325,25 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	
 	
 	
-	private ChipsterMessage createNewURLReply(String fileId, String username, long space, boolean useCompression, FileBrokerArea area) throws Exception {
+	/**
+	 * Clients that can handle the block compression tell it in a named parameter. The
+	 * chosen compression is returned to the client in the suffix of the URL.
+	 */
+	private Compression getRequestedCompression(CommandMessage requestMessage, Compression defaultCompression) {
+		if (Compression.BLOCK.name().equals(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_COMPRESSION))) {
+			return Compression.BLOCK;
+		}
+		return defaultCompression;
+	}
+	
+	private ChipsterMessage createNewURLReply(String fileId, String username, long space, Compression compression, FileBrokerArea area) throws Exception {
 		ChipsterMessage reply;
 		if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
 			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
 		} else if (area == FileBrokerArea.STORAGE && !checkQuota(username, space)) {
 			reply = new SuccessMessage(false, ERROR_QUOTA_EXCEEDED);
 		} else {
-			URL url = urlRepository.createAuthorisedUrl(fileId, useCompression, area, space);
+			URL url = urlRepository.createAuthorisedUrl(fileId, compression, area, space);
 			reply = new UrlMessage(url);
 			managerClient.urlRequest(username, url);
 		}
@@ -327,10 +363,20 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
 			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
 		// find url
-		} else if (filebrokerAreas.fileExists(fileId, FileBrokerArea.CACHE)) {
-			url = urlRepository.constructCacheURL(fileId, "");
-		} else if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
-			url = urlRepository.constructStorageURL(fileId, "");
+		} else {
+			// RestServlet compresses the file on the fly if the suffix asks for it
+			Compression compression = getRequestedCompression(requestMessage, Compression.NONE);
+			if (filebrokerAreas.fileExists(fileId, FileBrokerArea.CACHE)) {
+				url = urlRepository.constructCacheURL(fileId, compression.getSuffix());
+			} else if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
+				url = urlRepository.constructStorageURL(fileId, compression.getSuffix());
+			} else if (cluster.isClustered()) {
+				// not replicated yet or uploaded before the nodes changed
+				Location location = cluster.locate(fileId, compression);
+				if (location != null) {
+					url = location.getUrl();
+				}
+			}
 		}
 
 		// url may be null
@@ -340,6 +386,63 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		endpoint.replyToMessage(msg, reply);
 	}
 
+	/**
+	 * Find the URLs and sizes of many files with one message. Files that don't exist 
+	 * are left out of the reply. In a cluster the files of the other nodes are 
+	 * looked up with parallel HEAD requests.
+	 */
+	private void handleGetURLs(MessagingEndpoint endpoint, CommandMessage requestMessage) throws IOException, JMSException {
+		
+		String fileIdsString = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST);
+		Compression compression = getRequestedCompression(requestMessage, Compression.NONE);
+		String compressionSuffix = compression.getSuffix();
+		
+		LinkedList<String> fileIds = new LinkedList<>();
+		LinkedList<String> urls = new LinkedList<>();
+		LinkedList<String> sizes = new LinkedList<>();
+		LinkedList<String> notFound = new LinkedList<>();
+
+		if (fileIdsString != null && !fileIdsString.isEmpty()) {
+			for (String fileId : fileIdsString.split("\t")) {
+				if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
+					continue;
+				}
+				URL url = null;
+				Long size = filebrokerAreas.getSize(fileId, FileBrokerArea.CACHE);
+				if (size != null) {
+					url = urlRepository.constructCacheURL(fileId, compressionSuffix);
+				} else {
+					size = filebrokerAreas.getSize(fileId, FileBrokerArea.STORAGE);
+					if (size != null) {
+						url = urlRepository.constructStorageURL(fileId, compressionSuffix);
+					}
+				}
+				if (url != null) {
+					fileIds.add(fileId);
+					urls.add(url.toString());
+					sizes.add(size.toString());
+				} else {
+					notFound.add(fileId);
+				}
+			}
+		}
+		
+		if (cluster.isClustered() && !notFound.isEmpty()) {
+			for (Map.Entry<String, Location> entry : cluster.locate(notFound, compression).entrySet()) {
+				fileIds.add(entry.getKey());
+				urls.add(entry.getValue().getUrl().toString());
+				sizes.add(Long.toString(entry.getValue().getSize()));
+			}
+		}
+
+		CommandMessage reply = new CommandMessage();
+		reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(fileIds, "\t"));
+		reply.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(urls, "\t"));
+		reply.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(sizes, "\t"));
+		
+		endpoint.replyToMessage(requestMessage, reply);
+	}
+
 	private void handleIsAvailable(MessagingEndpoint endpoint, ChipsterMessage msg) throws JMSException, SQLException, IOException {
 		
 		// parse request
@@ -481,7 +584,7 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		dispatch(new FileServerListener.AfterStoreSessionReply(username, name, sessionId, fileIds, endpoint));
 	}
 
-	private void storeSession(String username, String name, String sessionId, List<String> fileIds) throws SQLException {
+	private void storeSession(String username, String name, String sessionId, List<String> fileIds) throws SQLException, IOException, JMSException {
 				
 		// check if we are overwriting previous session
 		String previousSessionUuid = metadataServer.fetchSession(username, name);
@@ -490,17 +593,36 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 			metadataServer.renameSession("_" + name, previousSessionUuid);
 		}
 		
-		// store session
-		metadataServer.addSession(username, name, sessionId);
-		
 		// link files (they have been added when uploaded)
+		List<String> storedFileIds = new LinkedList<String>();
+		List<String> otherFileIds = new LinkedList<String>();
 		for (String fileId : fileIds) {
 			// check if the file is stored in this file broker
 			if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
-				metadataServer.linkFileToSession(fileId, sessionId);
+				storedFileIds.add(fileId);
+			} else {
+				otherFileIds.add(fileId);
+			}
+		}
+		
+		// in a cluster the files were uploaded to their owners, add them to the database of the coordinator
+		if (cluster.isClustered() && !otherFileIds.isEmpty()) {
+			for (Map.Entry<String, Location> entry : cluster.locate(otherFileIds, Compression.NONE).entrySet()) {
+				if (entry.getValue().getArea() == FileBrokerArea.STORAGE) {
+					if (metadataServer.fetchFile(entry.getKey()) == null) {
+						metadataServer.addFile(entry.getKey(), entry.getValue().getSize());
+					}
+					storedFileIds.add(entry.getKey());
+				}
 			}
 		}
 
+		// store session
+		metadataServer.addSession(username, name, sessionId, storedFileIds);
+		
+		// make sure that all owners have a copy
+		cluster.replicate(storedFileIds);
+
 		// remove previous
 		if (previousSessionUuid != null) {
 			removeSession(previousSessionUuid);
@@ -540,7 +662,7 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		endpoint.replyToMessage(requestMessage, reply);		
 	}
 
-	protected void removeSession(String sessionId) throws SQLException {
+	protected void removeSession(String sessionId) throws SQLException, JMSException {
 		
 		// remove from database (including related data)
 		List<String> removedFiles = metadataServer.removeSession(sessionId);
@@ -550,7 +672,10 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 			File dataFile = new File(storageRoot, removedFile);
 			dataFile.delete();
 			Md5FileUtils.removeMd5(dataFile);
-		}		
+		}
+		
+		// and from the other nodes
+		cluster.removeFiles(removedFiles);
 	}
 
 	private void handleMoveFromCacheToStorageRequest(final MessagingEndpoint endpoint, final CommandMessage requestMessage) throws JMSException, MalformedURLException {
@@ -624,6 +749,14 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	public void shutdown() {
 		logger.info("shutdown requested");
 
+		if (cluster != null) {
+			cluster.shutdown();
+		}
+
+		if (metadataServer != null) {
+			metadataServer.shutdown();
+		}
+
 		// close messaging endpoint
 		try {
 			this.jmsEndpoint.close();
@@ -674,6 +807,11 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		 */
 		@Override
 		public void onChipsterMessage(ChipsterMessage msg) {
+			
+			// the metadata is in the coordinator
+			if (!cluster.isCoordinator()) {
+				return;
+			}
 
 			try {
 
@@ -16,6 +16,8 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -26,6 +28,7 @@ import javax.jms.JMSException;
 import org.apache.log4j.Logger;
 
 import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
 import fi.csc.microarray.messaging.BooleanMessageListener;
 import fi.csc.microarray.messaging.MessagingTopic;
 import fi.csc.microarray.messaging.ReplyMessageListener;
@@ -35,6 +38,7 @@ import fi.csc.microarray.messaging.UrlMessageListener;
 import fi.csc.microarray.messaging.message.CommandMessage;
 import fi.csc.microarray.messaging.message.ParameterMessage;
 import fi.csc.microarray.messaging.message.SuccessMessage;
+import fi.csc.microarray.util.BlockCompressedInputStream;
 import fi.csc.microarray.util.Files;
 import fi.csc.microarray.util.IOUtils;
 import fi.csc.microarray.util.IOUtils.CopyProgressListener;
@@ -56,6 +60,9 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	private static final int SPACE_REQUEST_TIMEOUT = 300; // seconds
 	private static final int QUICK_POLL_OPERATION_TIMEOUT = 30; // seconds
 	private static final int MOVE_FROM_CACHE_TO_STORAGE_TIMEOUT = 24; // hours 
+	private static final int GET_URLS_TIMEOUT = 10; // seconds
+	private static final int GET_URLS_BATCH_SIZE = 500;
+	private static final int URL_CACHE_SIZE = 10000;
 	
 	private static final Logger logger = Logger.getLogger(JMSFileBrokerClient.class);
 	
@@ -65,7 +72,11 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	private File localFilebrokerCache;
 	private File localFilebrokerStorage;
 	private boolean useChecksums;
+	private ChecksumAlgorithm checksumAlgorithm;
 	private String overridingFilebrokerIp;
+	private ChunkedUploader chunkedUploader;
+	private UrlCache urlCache;
+	private volatile boolean getUrlsSupported = true;
 	
 	public JMSFileBrokerClient(MessagingTopic urlTopic, String localFilebrokerPath, String overridingFilebrokerIp) throws JMSException, NoSuchAlgorithmException, CertificateException, FileNotFoundException, KeyStoreException, IOException, KeyManagementException {
 
@@ -83,6 +94,23 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		this.useChunked = DirectoryLayout.getInstance().getConfiguration().getBoolean("messaging", "use-chunked-http"); 
 		this.useCompression = DirectoryLayout.getInstance().getConfiguration().getBoolean("messaging", "use-compression");
 		this.useChecksums = DirectoryLayout.getInstance().getConfiguration().getBoolean("messaging", "use-checksums");
+		String algorithmName = DirectoryLayout.getInstance().getConfiguration().getString("messaging", "checksum-algorithm");
+		this.checksumAlgorithm = ChecksumAlgorithm.fromName(algorithmName);
+		if (checksumAlgorithm == null) {
+			logger.warn("unknown checksum algorithm " + algorithmName + ", using md5");
+			this.checksumAlgorithm = ChecksumAlgorithm.MD5;
+		}
+		int chunkSize = DirectoryLayout.getInstance().getConfiguration().getInt("messaging", "upload-chunk-size");
+		if (chunkSize > 0) {
+			this.chunkedUploader = new ChunkedUploader(chunkSize * 1024l * 1024, 
+					DirectoryLayout.getInstance().getConfiguration().getInt("messaging", "upload-parallel-chunks"),
+					DirectoryLayout.getInstance().getConfiguration().getInt("messaging", "upload-chunk-retries"),
+					useChecksums, checksumAlgorithm);
+		}
+		int urlCacheTtl = DirectoryLayout.getInstance().getConfiguration().getInt("messaging", "url-cache-ttl");
+		if (urlCacheTtl > 0) {
+			this.urlCache = new UrlCache(urlCacheTtl * 1000l, URL_CACHE_SIZE);
+		}
 
 		// Initialise keystore in case HTTPS connections are needed
 		KeyAndTrustManager.initialiseTrustStore();	
@@ -93,47 +121,58 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	}
 
 	/**
-	 * Add file to file broker. Must be a cached file, for other types, use other versions of this method.
+	 * Add file to file broker. Files larger than the chunk size are uploaded in
+	 * parallel chunks, and a failed upload continues from the chunks that were 
+	 * received already when it's tried again. 
 	 * 
+	 * @return md5 String of the uploaded data, if enabled in configuration and the file was uploaded
 	 * @see fi.csc.microarray.filebroker.FileBrokerClient#addFile(File, CopyProgressListener)
 	 */
 	@Override
-	public void addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws FileBrokerException, JMSException, IOException {
-		
-		if (area != FileBrokerArea.CACHE) {
-			throw new UnsupportedOperationException();
-		}
+	public String addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws FileBrokerException, JMSException, IOException {
 		
-		if (file.length() > 0 && !this.requestDiskSpace(file.length())) {
+		if (area == FileBrokerArea.CACHE && file.length() > 0 && !this.requestDiskSpace(dataId, file.length())) {
 			throw new NotEnoughDiskSpaceException();
 		}
 		
 		// get new url
-		URL url = getNewURL(dataId, useCompression, FileBrokerArea.CACHE, file.length());
+		URL url = getNewURL(dataId, useCompression, area, file.length());
 		if (url == null) {
 			throw new FileBrokerException("filebroker is not responding");
 		}
 
 		// try to move/copy it locally, or otherwise upload the file
-		if (localFilebrokerCache != null && !useCompression) {
+		if (area == FileBrokerArea.CACHE && localFilebrokerCache != null && !useCompression) {
 			String filename = dataId;
 			File dest = new File(localFilebrokerCache, filename);
 			boolean success = file.renameTo(dest);
 			if (!success) {
 				IOUtils.copy(file, dest); // could not move (different partition etc.), do a local copy
 			}
-
-		} else {
-			InputStream stream = new FileInputStream(file);
-			try {
-				String md5 = UrlTransferUtil.uploadStream(url, stream, useChunked, useCompression, useChecksums, progressListener);
-				logger.debug("successfully uploaded: " + url + "\tlength: " + file.length() + "\tmd5: " + md5);
-			} catch (ChecksumException e) {
-				// corrupted data or data id collision
-				throw new IOException(e);
-			} finally {
-				IOUtils.closeIfPossible(stream);
+			return null;
+		}
+		
+		String md5;
+		try {
+			if (chunkedUploader != null && file.length() > chunkedUploader.getChunkSize()) {
+				try {
+					md5 = chunkedUploader.upload(url, file, useCompression, progressListener);
+					logger.debug("successfully uploaded in chunks: " + url + "\tlength: " + file.length() + "\tmd5: " + md5);
+					return md5;
+				} catch (ChunkedUploadNotSupportedException e) {
+					logger.debug("filebroker doesn't support chunked uploads, uploading in one piece");
+				}
+			}
+			
+			try (InputStream stream = new FileInputStream(file)) {
+				md5 = UrlTransferUtil.uploadStream(url, stream, useChunked, useCompression, useChecksums, checksumAlgorithm, progressListener);
 			}
+			logger.debug("successfully uploaded: " + url + "\tlength: " + file.length() + "\tmd5: " + md5);
+			return md5;
+			
+		} catch (ChecksumException e) {
+			// corrupted data or data id collision
+			throw new IOException(e);
 		}
 	}
 	
@@ -146,7 +185,7 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		
 		URL url;
 		if (area == FileBrokerArea.CACHE) {
-			if (contentLength > 0  && !this.requestDiskSpace(contentLength)) {
+			if (contentLength > 0  && !this.requestDiskSpace(dataId, contentLength)) {
 				throw new NotEnoughDiskSpaceException();
 			}
 
@@ -169,7 +208,7 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		logger.debug("uploading new file: " + url);
 		String md5;
 		try {
-			md5 = UrlTransferUtil.uploadStream(url, file, useChunked, useCompression, useChecksums, progressListener);
+			md5 = UrlTransferUtil.uploadStream(url, file, useChunked, useCompression, useChecksums, checksumAlgorithm, progressListener);
 		} catch (ChecksumException e) {
 			// corrupted data or data id collision
 			throw new IOException(e);
@@ -182,7 +221,7 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	public ChecksumInputStream getInputStream(String dataId) throws IOException, JMSException {
 		URL url = null;
 		try {
-			url = getURL(dataId);
+			url = getURL(dataId, useCompression);
 		} catch (FileBrokerException e) {
 			logger.error(e);
 		}
@@ -195,77 +234,104 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 
 		URLConnection connection = null;
 		try {
-			// make sure http cache is disabled
-			connection = url.openConnection();
-			connection.setUseCaches(false);
-			KeyAndTrustManager.configureSSL(connection);			
-			connection.connect();
-
-			// open stream
+			connection = openConnection(url);
 			payload = connection.getInputStream();
 
-		} catch (Exception e) {
-			IOUtils.closeIfPossible(payload);
-			throw e;
+		} catch (FileNotFoundException e) {
+			url = getURLAgain(dataId, useCompression, e);
+			connection = openConnection(url);
+			payload = connection.getInputStream();
 		}
 
 		// detect compression
-		
 		InputStream stream = payload;
-		if (url.toString().endsWith(".compressed")) {
+		switch (Compression.fromFilename(url.getPath())) {
+		case BLOCK:
+			stream = new BlockCompressedInputStream(payload);
+			break;
+		case DEFLATE:
 			stream = new InflaterInputStream(payload);
+			break;
+		default:
 		}
 		
 		return new ChecksumInputStream(stream, useChecksums, connection);			
 	}
 
+	private URLConnection openConnection(URL url) throws IOException {
+		// make sure http cache is disabled
+		URLConnection connection = url.openConnection();
+		connection.setUseCaches(false);
+		KeyAndTrustManager.configureSSL(connection);			
+		connection.connect();
+		return connection;
+	}
+
 	
 	/**
-	 * Get a local copy of a file. If the dataId  matches any of the files found from 
-	 * local filebroker paths (given in constructor of this class), then it is symlinked or copied locally.
-	 * Otherwise the file pointed by the dataId is downloaded.
-	 * @throws JMSException 
-	 * @throws ChecksumException 
-	 * 
-	 * @see fi.csc.microarray.filebroker.FileBrokerClient#getFile(File, URL)
+	 * @see #getFile(String, File, CopyProgressListener)
 	 */
 	@Override
 	public void getFile(String dataId, File destFile) throws IOException, JMSException, ChecksumException {
-		
-		// Try to find the file locally and symlink/copy it
+		getFile(dataId, destFile, null);
+	}
+
+	/**
+	 * Get a local copy of a file. If the dataId  matches any of the files found from
+	 * local filebroker paths (given in constructor of this class), then it is hardlinked, symlinked
+	 * or copied locally. Otherwise the file pointed by the dataId is downloaded.
+	 *
+	 * Hard links are preferred, because the filebroker clean up can't pull the file away from
+	 * a running job.
+	 *
+	 * @throws JMSException
+	 * @throws ChecksumException
+	 *
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#getFile(String, File, CopyProgressListener)
+	 */
+	@Override
+	public void getFile(String dataId, File destFile, CopyProgressListener progressListener) throws IOException, JMSException, ChecksumException {
+
+		// Try to find the file locally and link/copy it
+		File fileInFilebroker = null;
 		if (localFilebrokerCache != null && localFilebrokerStorage != null) {
-			
+
 			// If file in filebroker cache is compressed, it will have specific suffix and we will not match it
 			File fileInFilebrokerCache = new File(localFilebrokerCache, dataId);
 			File fileInFilebrokerStorage = new File(localFilebrokerStorage, dataId);
-			
-			File fileInFilebroker = null;
-			
+
 			if (fileInFilebrokerCache.exists()) {
 				fileInFilebroker = fileInFilebrokerCache;
 			} else if (fileInFilebrokerStorage.exists()) {
 				fileInFilebroker = fileInFilebrokerStorage;
 			}
-							
-			boolean linkCreated = Files.createSymbolicLink(fileInFilebroker, destFile);
+		}
+
+		if (fileInFilebroker != null) {
+
+			if (Files.createHardLink(fileInFilebroker, destFile)) {
+				logger.debug("hardlinked " + dataId);
+
+			} else if (Files.createSymbolicLink(fileInFilebroker, destFile)) {
+				logger.debug("symlinked " + dataId);
 
-			if (!linkCreated) {
+			} else {
 				IOUtils.copy(fileInFilebroker, destFile); // cannot create a link, must copy
 			}
-			
+
 		} else {
 			// Not available locally, need to download
 			ChecksumInputStream inputStream = null;
 			OutputStream fileStream = null;
 			try {
 				// Download to file
-				inputStream = getInputStream(dataId);				
+				inputStream = getInputStream(dataId);
 				fileStream = new FileOutputStream(destFile);
-				
-				IOUtils.copy(new BufferedInputStream(inputStream), new BufferedOutputStream(fileStream));
-				
+
+				IOUtils.copy(new BufferedInputStream(inputStream), new BufferedOutputStream(fileStream), progressListener);
+
 				inputStream.verifyChecksums();
-				
+
 			} finally {
 				IOUtils.closeIfPossible(inputStream);
 				IOUtils.closeIfPossible(fileStream);
@@ -317,6 +383,7 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			
 			// wait
 			SuccessMessage successMessage = replyListener.waitForReply(MOVE_FROM_CACHE_TO_STORAGE_TIMEOUT, TimeUnit.HOURS); 
+			forgetURL(dataId);
 			
 			// check how it went
 			
@@ -360,12 +427,23 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 
 	@Override
 	public boolean requestDiskSpace(long size) throws JMSException {
+		return requestDiskSpace(null, size);
+	}
+	
+	/**
+	 * @param dataId the file that needs the space, so that the file broker that 
+	 * will get the upload answers in a cluster, may be null
+	 */
+	private boolean requestDiskSpace(String dataId, long size) throws JMSException {
 
 		BooleanMessageListener replyListener = new BooleanMessageListener();  
 		Boolean spaceAvailable;
 		try {
 			CommandMessage spaceRequestMessage = new CommandMessage(CommandMessage.COMMAND_DISK_SPACE_REQUEST);
 			spaceRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_DISK_SPACE, String.valueOf(size));
+			if (dataId != null) {
+				spaceRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID, dataId);
+			}
 			filebrokerTopic.sendReplyableMessage(spaceRequestMessage, replyListener);
 			spaceAvailable = replyListener.waitForReply(SPACE_REQUEST_TIMEOUT, TimeUnit.SECONDS);
 		} finally {
@@ -478,8 +556,9 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	 * 
 	 * Talks to the file broker using JMS.
 	 * 
-	 * If useCompression is true, request an url ending with .compressed.
-	 * NOTE! Compression does not work with files larger than 4 gigabytes
+	 * If useCompression is true, request an url for block compressed upload. Older 
+	 * file brokers reply with an url ending with .compressed instead. 
+	 * NOTE! Deflate compression does not work with files larger than 4 gigabytes
 	 * in JDK 1.6 and earlier.
 	 *  
 	 * @return the new URL, may be null if file broker sends null or
@@ -502,6 +581,8 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	
 			if (useCompression) {
 				urlRequestMessage.addParameter(ParameterMessage.PARAMETER_USE_COMPRESSION);
+				// older file brokers ignore this and reply with a deflate url
+				urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_COMPRESSION, Compression.BLOCK.name());
 			}
 			filebrokerTopic.sendReplyableMessage(urlRequestMessage, replyListener);
 			url = replyListener.waitForReply(SPACE_REQUEST_TIMEOUT, TimeUnit.SECONDS);
@@ -517,6 +598,21 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	}
 
 	private URL getURL(String dataId) throws JMSException, FileBrokerException, MalformedURLException {
+		return getURL(dataId, false);
+	}
+	
+	/**
+	 * @param useCompression ask for an url that gives the file in the block compressed format,
+	 * if the file broker supports it
+	 */
+	private URL getURL(String dataId, boolean useCompression) throws JMSException, FileBrokerException, MalformedURLException {
+		
+		if (urlCache != null) {
+			URL url = urlCache.getUrl(dataId, useCompression);
+			if (url != null) {
+				return url;
+			}
+		}
 		
 		logger.debug("getting url for dataId " + dataId);
 		
@@ -525,6 +621,9 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		try {
 			CommandMessage getURLMessage = new CommandMessage(CommandMessage.COMMAND_GET_URL);
 			getURLMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID, dataId);
+			if (useCompression) {
+				getURLMessage.addNamedParameter(ParameterMessage.PARAMETER_COMPRESSION, Compression.BLOCK.name());
+			}
 	
 			filebrokerTopic.sendReplyableMessage(getURLMessage, replyListener);
 			url = replyListener.waitForReply(QUICK_POLL_OPERATION_TIMEOUT, TimeUnit.SECONDS);
@@ -535,10 +634,128 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		url = applyOverridingFilebrokerIp(url);
 		
 		logger.debug("url is: " + url);
+		
+		if (urlCache != null) {
+			urlCache.put(dataId, useCompression, url, null);
+		}
 	
 		return url;
 	}
 
+	/**
+	 * Remove the cached urls of the file.
+	 * 
+	 * @return true if there was a cached url, so it's worth asking again
+	 */
+	private boolean forgetURL(String dataId) {
+		return urlCache != null && urlCache.remove(dataId);
+	}
+
+	/**
+	 * Ask the url from the file broker again, when the cached url wasn't found. The file 
+	 * may have been moved after its url was cached.
+	 * 
+	 * @param notFound thrown if the url wasn't cached or the file broker doesn't know a new one
+	 */
+	private URL getURLAgain(String dataId, boolean useCompression, FileNotFoundException notFound) throws FileNotFoundException, JMSException, MalformedURLException {
+		if (!forgetURL(dataId)) {
+			throw notFound;
+		}
+		URL url;
+		try {
+			url = getURL(dataId, useCompression);
+		} catch (FileBrokerException e) {
+			logger.error(e);
+			url = null;
+		}
+		if (url == null) {
+			throw notFound;
+		}
+		return url;
+	}
+	
+	/**
+	 * Ask the urls and sizes of many files at once and keep them in the url cache, so 
+	 * that the following requests of these files don't have to wait for the file broker.
+	 * Older file brokers don't reply to this, and after the first timeout the 
+	 * files are asked one by one again.
+	 * 
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#prefetchURLs(Collection)
+	 */
+	@Override
+	public void prefetchURLs(Collection<String> dataIds) throws JMSException, MalformedURLException {
+		
+		if (urlCache == null || !getUrlsSupported) {
+			return;
+		}
+		
+		LinkedList<String> batch = new LinkedList<>();
+		for (String dataId : new LinkedHashSet<>(dataIds)) {
+			if (dataId == null || urlCache.getUrl(dataId, useCompression) != null) {
+				continue;
+			}
+			batch.add(dataId);
+			if (batch.size() >= GET_URLS_BATCH_SIZE) {
+				if (!fetchURLs(batch)) {
+					return;
+				}
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			fetchURLs(batch);
+		}
+	}
+
+	/**
+	 * @return false if the file broker didn't reply
+	 */
+	private boolean fetchURLs(List<String> dataIds) throws JMSException, MalformedURLException {
+		
+		logger.debug("getting urls for " + dataIds.size() + " dataIds");
+		
+		ReplyMessageListener replyListener = new ReplyMessageListener();  
+		try {
+			CommandMessage getURLsMessage = new CommandMessage(CommandMessage.COMMAND_GET_URLS);
+			getURLsMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+			if (useCompression) {
+				getURLsMessage.addNamedParameter(ParameterMessage.PARAMETER_COMPRESSION, Compression.BLOCK.name());
+			}
+			
+			filebrokerTopic.sendReplyableMessage(getURLsMessage, replyListener);
+			ParameterMessage reply = replyListener.waitForReply(GET_URLS_TIMEOUT, TimeUnit.SECONDS);
+			
+			if (reply == null) {
+				logger.info("no reply to the url batch request, the file broker may be too old for it");
+				getUrlsSupported = false;
+				return false;
+			}
+			
+			String fileIdsString = reply.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST);
+			String urlsString = reply.getNamedParameter(ParameterMessage.PARAMETER_URL_LIST);
+			String sizesString = reply.getNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST);
+			
+			if (fileIdsString != null && !fileIdsString.isEmpty() && urlsString != null && sizesString != null) {
+				String[] fileIds = fileIdsString.split("\t");
+				String[] urls = urlsString.split("\t");
+				String[] sizes = sizesString.split("\t");
+
+				if (fileIds.length != urls.length || fileIds.length != sizes.length) {
+					logger.warn("lengths of the url batch reply lists don't match");
+					return true;
+				}
+				for (int i = 0; i < fileIds.length; i++) {
+					URL url = applyOverridingFilebrokerIp(new URL(urls[i]));
+					urlCache.put(fileIds[i], useCompression, url, Long.parseLong(sizes[i]));
+				}
+			}
+			return true;
+			
+		} finally {
+			replyListener.cleanUp();
+		}
+	}
+
 	private URL applyOverridingFilebrokerIp(URL url)
 			throws MalformedURLException {
 		if (url != null && overridingFilebrokerIp != null) {
@@ -550,15 +767,46 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 
 	@Override
 	public String getExternalURL(String dataId) throws JMSException, FileBrokerException, MalformedURLException {
+		// the url is used outside of this client, so don't give a cached one that may be stale 
+		forgetURL(dataId);
 		return getURL(dataId).toExternalForm();
 	}
 
 	@Override
 	public Long getContentLength(String dataId) throws IOException, JMSException, FileBrokerException {
+		if (urlCache != null) {
+			Long length = urlCache.getLength(dataId);
+			if (length != null) {
+				return length;
+			}
+		}
 		URL url = getURL(dataId);
 		if (url == null) {
 			return null;
 		}
-		return UrlTransferUtil.getContentLength(url);
+		Long length;
+		try {
+			length = UrlTransferUtil.getContentLength(url);
+		} catch (FileNotFoundException e) {
+			url = getURLAgain(dataId, false, e);
+			length = UrlTransferUtil.getContentLength(url);
+		}
+		if (urlCache != null && length != null) {
+			urlCache.put(dataId, false, url, length);
+		}
+		return length;
+	}
+
+	@Override
+	public String getChecksum(String dataId) throws IOException, JMSException, FileBrokerException {
+		URL url = getURL(dataId);
+		if (url == null) {
+			return null;
+		}
+		try {
+			return UrlTransferUtil.getChecksum(url);
+		} catch (FileNotFoundException e) {
+			return UrlTransferUtil.getChecksum(getURLAgain(dataId, false, e));
+		}
 	}
 }
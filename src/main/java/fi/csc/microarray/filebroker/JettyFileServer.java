@@ -65,4 +65,8 @@ public class JettyFileServer {
 	public boolean isRunning() {
 		return jettyInstance.isRunning();
 	}
+	
+	public void stop() throws Exception {
+		jettyInstance.stop();
+	}
 }
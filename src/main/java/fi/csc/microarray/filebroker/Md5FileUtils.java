@@ -1,6 +1,5 @@
 package fi.csc.microarray.filebroker;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -15,6 +14,7 @@ public class Md5FileUtils {
 	private static final String DELIMITER = "  ";
 	private static final String NEW_LINE = "\n";
 	private static final int MD5_LENGTH = 32;
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
 
 	/**
 	 * <p>Write md5 file atomically</p>
@@ -105,10 +105,10 @@ public class Md5FileUtils {
 
 	public static String calculateMd5(File file) throws IOException {
 		
-		BufferedInputStream fileStream = new BufferedInputStream(new FileInputStream(file));
-			
-		try (ChecksumInputStream md5Stream = new ChecksumInputStream(fileStream, true)) {
-			while (md5Stream.read(new byte[1024*1024]) != -1) {				
+		// the file is read while the previous buffers are hashed in another thread
+		try (ChecksumInputStream md5Stream = new ChecksumInputStream(new FileInputStream(file), true)) {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			while (md5Stream.read(buffer) != -1) {				
 			}
 			return md5Stream.getChecksum();
 		}
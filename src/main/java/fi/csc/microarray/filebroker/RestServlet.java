@@ -1,10 +1,16 @@
 package fi.csc.microarray.filebroker;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.text.DecimalFormat;
 
@@ -26,6 +32,9 @@ import sun.net.www.protocol.http.HttpURLConnection;
 import fi.csc.microarray.config.Configuration;
 import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Authorisation;
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.util.BlockCompressedInputStream;
+import fi.csc.microarray.util.BlockCompressedOutputStream;
 import fi.csc.microarray.util.IOUtils;
 
 /**
@@ -52,6 +61,10 @@ public class RestServlet extends DefaultServlet {
 
 	private boolean useChecksums;
 	
+	private ChecksumCache checksumCache;
+	private ChunkedUploads chunkedUploads;
+	private FileSender fileSender;
+	
 
 	// set from configs
 	// specify whether get and put requests are logged
@@ -74,6 +87,12 @@ public class RestServlet extends DefaultServlet {
 			logRest = true;
 		}
 		logger.info("logging rest requests: " + logRest);				
+		
+		checksumCache = new ChecksumCache(configuration.getInt("filebroker", "checksum-cache-size"));
+		chunkedUploads = new ChunkedUploads(configuration.getInt("filebroker", "chunked-upload-timeout") * 60 * 60 * 1000l);
+		if (configuration.getBoolean("filebroker", "zero-copy-get")) {
+			fileSender = new FileSender();
+		}
 	}
 	
 	@Override
@@ -157,15 +176,25 @@ public class RestServlet extends DefaultServlet {
 			
 		} else {			
 			
+			File file = locateStoredFile(request);
+			boolean blockCompressed = isBlockCompressed(request);
+			if (blockCompressed && !file.isFile()) {
+				response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+				return;
+			}
+			
 			// touch the file
-			File file = locateFile(request);
 			file.setLastModified(System.currentTimeMillis());
+			if (cacheCleanUp != null && isCacheRequest(request)) {
+				cacheCleanUp.fileAccessed(file);
+			}
 			
 			String checksum;
 			try {
-				checksum = Md5FileUtils.readMd5(file);
+				checksum = checksumCache.getChecksum(file);
 				
-				if (checksum != null) {
+				// the checksum is for the whole file, not for a range of it
+				if (checksum != null && request.getHeader("Range") == null) {
 					response.setHeader(ChecksumInputStream.HTTP_CHECKSUM_KEY, checksum);
 				}
 			} catch (ChecksumParseException e) {
@@ -174,8 +203,8 @@ public class RestServlet extends DefaultServlet {
 			}
 			
 			
-			// touch metadata database and get checksum
-			if (isStorageRequest(request)) {
+			// touch metadata database (written behind, unless configured otherwise)
+			if (metadataServer != null && isStorageRequest(request)) {
 				String uuid = AuthorisedUrlRepository.stripCompressionSuffix(IOUtils.getFilenameWithoutPath(request));
 				try {
 					metadataServer.markFileAccessed(uuid);
@@ -185,22 +214,21 @@ public class RestServlet extends DefaultServlet {
 				}
 			}
 						
-			// delegate to super class
+			// send mapped file, unless the client wants it compressed
 			DateTime before = new DateTime();
-			super.doGet(request, response);
+			long bytes = file.length();
+			if (blockCompressed) {
+				sendBlockCompressed(file, response);
+			} else if (fileSender != null && file.isFile()) {
+				bytes = fileSender.send(file, request, response);
+			} else {
+				// missing files and the zero-copy path disabled
+				super.doGet(request, response);
+			}
 			DateTime after = new DateTime();
 
 			// log performance
-			Duration duration = new Duration(before, after);
-			double rate = getTransferRate(file.length(), duration);
-			if (logRest) {
-				logger.info("GET " + file.getName()  + " " + 
-						"from " + request.getRemoteHost() + " | " +
-						FileUtils.byteCountToDisplaySize(file.length()) + " | " + 
-						DurationFormatUtils.formatDurationHMS(duration.getMillis()) + " | " +
-						new DecimalFormat("###.##").format(rate*8) + " Mbit/s" + " | " +
-						new DecimalFormat("###.##").format(rate) + " MB/s");
-			}
+			logTransfer("GET " + file.getName(), request, bytes, new Duration(before, after));
 		}		
 	}
 
@@ -213,6 +241,15 @@ public class RestServlet extends DefaultServlet {
 			logger.debug("RESTful file access: PUT request for " + request.getRequestURI());
 		}
 		
+		if (getQueryParameter(request, ChunkedUploads.PARAMETER_OFFSET) != null) {
+			doPutChunk(request, response);
+			return;
+		}
+		if (getQueryParameter(request, ChunkedUploads.PARAMETER_COMPLETE) != null) {
+			doPutComplete(request, response);
+			return;
+		}
+		
 		// check that URL is authorised (authorised URL also implies that quota has been checked)		
 		Authorisation authorisation = urlRepository.getAuthorisation(constructUrl(request));
 		if (authorisation == null) {
@@ -225,7 +262,7 @@ public class RestServlet extends DefaultServlet {
 			return;			
 		}
 		
-		File targetFile = locateFile(request);
+		File targetFile = locateStoredFile(request);
 		
 		// create temp file for the upload 
 		File tmpFile = getUploadTempFile(targetFile);
@@ -240,23 +277,30 @@ public class RestServlet extends DefaultServlet {
 
 		// get file contents
 		FileOutputStream out = new FileOutputStream(tmpFile);				
-		ChecksumInputStream in = new ChecksumInputStream(request.getInputStream(), useChecksums);				
+		ChecksumInputStream in = null;
+		ChecksumInputStream requestedIn = null;
 		
 		try {
+			InputStream requestStream = request.getInputStream();
+			if (isBlockCompressed(request)) {
+				// store uncompressed, so that the file can be found with its id 
+				requestStream = new BlockCompressedInputStream(requestStream);
+			}
+			// md5 is needed for the .md5 file in any case
+			in = new ChecksumInputStream(requestStream, useChecksums);
+			
+			// the client may want to verify the upload with some other algorithm, hashed in parallel with md5
+			ChecksumAlgorithm algorithm = getRequestedChecksumAlgorithm(request);
+			InputStream copyStream = in;
+			if (algorithm != ChecksumAlgorithm.MD5) {
+				requestedIn = new ChecksumInputStream(in, useChecksums, null, algorithm);
+				copyStream = requestedIn;
+			}
+			
 			DateTime before = new DateTime();
-			IO.copy(in, out, maxBytes);
+			IO.copy(copyStream, out, maxBytes);
 			DateTime after = new DateTime();
-			Duration duration = new Duration(before, after);
-
-			double rate = getTransferRate(authorisation.getFileSize(), duration);
-			if (logRest) {
-				logger.info("PUT " + targetFile.getName()  + " " + 
-						"from " + request.getRemoteHost() + " | " +
-						FileUtils.byteCountToDisplaySize(authorisation.getFileSize()) + " | " + 
-						DurationFormatUtils.formatDurationHMS(duration.getMillis()) + " | " +
-						new DecimalFormat("###.##").format(rate*8) + " Mbit/s" + " | " +
-						new DecimalFormat("###.##").format(rate) + " MB/s");
-			}
+			logTransfer("PUT " + targetFile.getName(), request, authorisation.getFileSize(), new Duration(before, after));
 			
 		} catch (IOException e) {
 			logger.warn(Log.EXCEPTION, e);
@@ -268,14 +312,27 @@ public class RestServlet extends DefaultServlet {
 			IOUtils.closeIfPossible(out);
 		}
 		
+		if (useChecksums && requestedIn != null) { 
+			response.setHeader(ChecksumInputStream.HTTP_ALGORITHM_CHECKSUM_KEY, requestedIn.getChecksum());
+		}
+		completeUpload(request, response, authorisation.getFileSize(), tmpFile, targetFile, in.getChecksum());
+	}
+	
+	/**
+	 * Check the uploaded temp file and make it visible.
+	 * 
+	 * @param checksum of the uploaded file, may be null
+	 */
+	private void completeUpload(HttpServletRequest request, HttpServletResponse response, long authorisedSize, File tmpFile, File targetFile, String checksum) throws ServletException, IOException {
+		
 		// check that file size matches
-		if (tmpFile.length() < authorisation.getFileSize()) {
+		if (tmpFile.length() < authorisedSize) {
 			logger.info("PUT denied for " + constructUrl(request) + ": stream was shorter than authorised file size");
 			response.sendError(HttpURLConnection.HTTP_INTERNAL_ERROR);
 			return;
 		}
 		
-		if (tmpFile.length() > authorisation.getFileSize()) {
+		if (tmpFile.length() > authorisedSize) {
 			logger.info("PUT denied for " + constructUrl(request) + ": stream was longer than authorised file size");
 			response.sendError(HttpURLConnection.HTTP_INTERNAL_ERROR);
 			return;
@@ -283,10 +340,10 @@ public class RestServlet extends DefaultServlet {
 		
 		String uuid = AuthorisedUrlRepository.stripCompressionSuffix(IOUtils.getFilenameWithoutPath(request));
 		long size = tmpFile.length();
-		String checksum = in.getChecksum();
 		
 		if (useChecksums) {
 			Md5FileUtils.writeMd5(checksum, targetFile);
+			checksumCache.remove(targetFile);
 		}
 
 		// make file visible		
@@ -311,6 +368,10 @@ public class RestServlet extends DefaultServlet {
 		}
 		
 		
+		if (cacheCleanUp != null && isCacheRequest(request)) {
+			cacheCleanUp.fileAccessed(targetFile);
+		}
+
 		// add file to metadata database, if needed
 		if (isStorageRequest(request)) {
 			try {
@@ -334,6 +395,171 @@ public class RestServlet extends DefaultServlet {
 	}
 
 	
+	/**
+	 * Write a chunk of a chunked upload to its place in the upload file.
+	 * 
+	 * @see ChunkedUploads
+	 */
+	private void doPutChunk(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		
+		ChunkedUploads.Upload upload = getChunkedUpload(request);
+		if (upload == null) {
+			response.sendError(HttpURLConnection.HTTP_UNAUTHORIZED);
+			return;
+		}
+		
+		long offset;
+		try {
+			offset = Long.parseLong(getQueryParameter(request, ChunkedUploads.PARAMETER_OFFSET));
+		} catch (NumberFormatException e) {
+			offset = -1;
+		}
+		if (offset < 0 || offset > upload.getSize()) {
+			response.sendError(HttpURLConnection.HTTP_BAD_REQUEST);
+			return;
+		}
+		
+		long bytes = 0;
+		ChecksumInputStream in = null;
+		DateTime before = new DateTime();
+		try (FileChannel channel = FileChannel.open(upload.getUploadFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			InputStream requestStream = request.getInputStream();
+			if (isBlockCompressed(request)) {
+				requestStream = new BlockCompressedInputStream(requestStream);
+			}
+			// the chunk checksum is only for verifying the transfer, so md5 isn't needed unless requested
+			in = new ChecksumInputStream(requestStream, useChecksums, null, getRequestedChecksumAlgorithm(request));
+			
+			//enable one extra byte to recognize misbehaving clients
+			long maxBytes = upload.getSize() - offset + 1;
+			byte[] buffer = new byte[64 * 1024];
+			int count;
+			while (bytes < maxBytes && (count = in.read(buffer, 0, (int) Math.min(buffer.length, maxBytes - bytes))) != -1) {
+				ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+				while (byteBuffer.hasRemaining()) {
+					channel.write(byteBuffer, offset + bytes + byteBuffer.position());
+				}
+				bytes += count;
+			}
+			
+		} catch (IOException e) {
+			// the range isn't marked as received, the client will send it again
+			logger.warn(Log.EXCEPTION, e);
+			throw(e);
+			
+		} finally {
+			IOUtils.closeIfPossible(in);
+		}
+		DateTime after = new DateTime();
+		
+		if (offset + bytes > upload.getSize()) {
+			logger.info("PUT denied for " + constructUrl(request) + ": chunk goes beyond the authorised file size");
+			response.sendError(HttpURLConnection.HTTP_INTERNAL_ERROR);
+			return;
+		}
+		
+		upload.addRange(offset, offset + bytes);
+		logTransfer("PUT chunk " + offset + " of " + upload.getTargetFile().getName(), request, bytes, new Duration(before, after));
+		
+		if (useChecksums) {
+			if (in.getAlgorithm() == ChecksumAlgorithm.MD5) {
+				response.setHeader(ChecksumInputStream.HTTP_CHECKSUM_KEY, in.getChecksum());
+			} else {
+				response.setHeader(ChecksumInputStream.HTTP_ALGORITHM_CHECKSUM_KEY, in.getChecksum());
+			}
+		}
+		response.setStatus(HttpURLConnection.HTTP_NO_CONTENT);
+	}
+	
+	/**
+	 * @return the algorithm requested by the client or md5, if it's not requested or not known
+	 */
+	private ChecksumAlgorithm getRequestedChecksumAlgorithm(HttpServletRequest request) {
+		ChecksumAlgorithm algorithm = ChecksumAlgorithm.fromName(request.getHeader(ChecksumInputStream.HTTP_CHECKSUM_ALGORITHM_KEY));
+		return algorithm != null ? algorithm : ChecksumAlgorithm.MD5;
+	}
+	
+	/**
+	 * Make the file of a chunked upload visible, when all chunks have been received. 
+	 */
+	private void doPutComplete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		
+		ChunkedUploads.Upload upload = getChunkedUpload(request);
+		if (upload == null) {
+			response.sendError(HttpURLConnection.HTTP_UNAUTHORIZED);
+			return;
+		}
+		
+		if (!upload.isComplete()) {
+			logger.info("PUT denied for " + constructUrl(request) + ": chunked upload is not complete, received " + upload.getRangesString());
+			response.sendError(HttpURLConnection.HTTP_CONFLICT);
+			return;
+		}
+		chunkedUploads.remove(upload);
+		
+		File tmpFile = upload.getUploadFile();
+		try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// empty upload or a longer file left over from an earlier upload 
+			channel.truncate(upload.getSize());
+		}
+		
+		// chunks were verified separately, this is for the .md5 file 
+		String checksum = null;
+		if (useChecksums) {
+			checksum = Md5FileUtils.calculateMd5(tmpFile);
+		}
+		
+		completeUpload(request, response, upload.getSize(), tmpFile, upload.getTargetFile(), checksum);
+	}
+	
+	/**
+	 * The upload can continue after the URL has expired, but only if it was
+	 * started when it was valid.
+	 * 
+	 * @return null if not authorised 
+	 */
+	private ChunkedUploads.Upload getChunkedUpload(HttpServletRequest request) throws MalformedURLException {
+		File targetFile = locateStoredFile(request);
+		Authorisation authorisation = urlRepository.getAuthorisation(constructUrl(request));
+		if (authorisation != null) {
+			return chunkedUploads.getOrCreate(targetFile, authorisation.getFileSize());
+		}
+		return chunkedUploads.get(targetFile);
+	}
+	
+	/**
+	 * Parse the query string ourselves, because Jetty would read form encoded 
+	 * PUT bodies to find parameters.
+	 * 
+	 * @return value of the parameter, empty string if it has no value or null if 
+	 * the parameter is missing
+	 */
+	private String getQueryParameter(HttpServletRequest request, String name) {
+		String query = request.getQueryString();
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			String[] keyAndValue = parameter.split("=", 2);
+			if (keyAndValue[0].equals(name)) {
+				return keyAndValue.length > 1 ? keyAndValue[1] : "";
+			}
+		}
+		return null;
+	}
+
+	private void logTransfer(String description, HttpServletRequest request, long bytes, Duration duration) {
+		if (logRest) {
+			double rate = getTransferRate(bytes, duration);
+			logger.info(description + " " + 
+					"from " + request.getRemoteHost() + " | " +
+					FileUtils.byteCountToDisplaySize(bytes) + " | " + 
+					DurationFormatUtils.formatDurationHMS(duration.getMillis()) + " | " +
+					new DecimalFormat("###.##").format(rate*8) + " Mbit/s" + " | " +
+					new DecimalFormat("###.##").format(rate) + " MB/s");
+		}
+	}
+	
 	private double getTransferRate(long fileSize, Duration duration) {
 		double rate;
 		if (duration.getMillis() != 0 ) {
@@ -362,9 +588,47 @@ public class RestServlet extends DefaultServlet {
 		response.setStatus(HttpURLConnection.HTTP_BAD_METHOD);
 	}
 	
+	/**
+	 * Tells if the file is available, without touching it. Used by clients to check
+	 * that an uploaded file has become visible.
+	 */
 	@Override
 	protected void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		response.setStatus(HttpURLConnection.HTTP_BAD_METHOD);
+		if (isWelcomePage(request)) {
+			response.setStatus(HttpURLConnection.HTTP_BAD_METHOD);
+			return;
+		}
+		
+		if (getQueryParameter(request, ChunkedUploads.PARAMETER_STATUS) != null) {
+			ChunkedUploads.Upload upload = getChunkedUpload(request);
+			if (upload == null) {
+				response.setStatus(HttpURLConnection.HTTP_UNAUTHORIZED);
+				return;
+			}
+			response.setHeader(ChunkedUploads.HTTP_UPLOAD_SIZE_KEY, Long.toString(upload.getSize()));
+			response.setHeader(ChunkedUploads.HTTP_UPLOADED_RANGES_KEY, upload.getRangesString());
+			response.setStatus(HttpURLConnection.HTTP_OK);
+			return;
+		}
+		
+		File file = locateStoredFile(request);
+		if (file.isFile()) {
+			if (!isBlockCompressed(request)) {
+				response.setHeader("Content-Length", Long.toString(file.length()));
+			}
+			try {
+				String checksum = checksumCache.getChecksum(file);
+				if (checksum != null) {
+					response.setHeader(ChecksumInputStream.HTTP_CHECKSUM_KEY, checksum);
+				}
+			} catch (ChecksumParseException e) {
+				logger.info("reading checksum file failed", e);
+				// continue without checksum
+			}
+			response.setStatus(HttpURLConnection.HTTP_OK);
+		} else {
+			response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+		}
 	};
 	
 	@Override
@@ -386,6 +650,32 @@ public class RestServlet extends DefaultServlet {
 		return new File(getServletContext().getRealPath(URIUtil.addPaths(request.getServletPath(), request.getPathInfo())));		
 	}
 	
+	/**
+	 * Block compression is only a transfer encoding, the file is stored without the suffix.
+	 */
+	private File locateStoredFile(HttpServletRequest request) {
+		File file = locateFile(request);
+		if (isBlockCompressed(request)) {
+			file = new File(file.getParentFile(), AuthorisedUrlRepository.stripCompressionSuffix(file.getName()));
+		}
+		return file;
+	}
+	
+	private boolean isBlockCompressed(HttpServletRequest request) {
+		return request.getPathInfo() != null && Compression.fromFilename(request.getPathInfo()) == Compression.BLOCK;
+	}
+	
+	/**
+	 * Compress the blocks in parallel while sending them to the client.
+	 */
+	private void sendBlockCompressed(File file, HttpServletResponse response) throws IOException {
+		response.setContentType("application/octet-stream");
+		try (InputStream in = new FileInputStream(file);
+				OutputStream out = new BlockCompressedOutputStream(response.getOutputStream())) {
+			IOUtils.copy(in, out);
+		}
+	}
+	
 	private URL constructUrl(HttpServletRequest request) throws MalformedURLException {
 		return new URL(rootUrl + request.getPathInfo());
 	}
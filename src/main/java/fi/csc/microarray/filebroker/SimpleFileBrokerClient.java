@@ -8,6 +8,7 @@ import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -70,7 +71,12 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 	}
 
 	@Override
-	public void addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws FileBrokerException, JMSException, IOException {
+	public void getFile(String dataId, File file, CopyProgressListener progressListener) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String addFile(String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener) throws FileBrokerException, JMSException, IOException {
 		throw new UnsupportedOperationException();
 	}
 
@@ -122,4 +128,15 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 		// TODO Auto-generated method stub
 		return null;
 	}
+
+	@Override
+	public void prefetchURLs(Collection<String> dataIds) {
+		// nothing to resolve
+	}
+
+	@Override
+	public String getChecksum(String dataId) throws IOException,
+			JMSException, FileBrokerException {
+		return null;
+	}
 }
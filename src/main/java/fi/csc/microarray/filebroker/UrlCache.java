@@ -0,0 +1,106 @@
+package fi.csc.microarray.filebroker;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+
+/**
+ * Remembers the URLs and lengths that the file broker has given for the dataIds,
+ * so that reading the same file again doesn't need a JMS round-trip. The URL
+ * changes when the file is moved from cache to storage, so the entries expire
+ * after a while, and a client that gets a 404 should remove the entry and ask
+ * the file broker again.
+ */
+public class UrlCache {
+
+	private static class Entry {
+		URL url;
+		Long length;
+		long expires;
+	}
+
+	private Map<String, Entry> entries;
+	private long ttl;
+
+	/**
+	 * @param ttl milliseconds, how long the URL can be used without asking the file broker again
+	 * @param maxSize the least recently used URLs are forgotten after this many files
+	 */
+	public UrlCache(long ttl, final int maxSize) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param compressed URL for the block compressed format
+	 * @return the URL or null if it isn't known or it has expired
+	 */
+	public synchronized URL getUrl(String dataId, boolean compressed) {
+		Entry entry = get(getKey(dataId, compressed));
+		return entry != null ? entry.url : null;
+	}
+
+	/**
+	 * @return the length of the uncompressed file or null if it isn't known
+	 */
+	public synchronized Long getLength(String dataId) {
+		for (boolean compressed : new boolean[] { false, true }) {
+			Entry entry = get(getKey(dataId, compressed));
+			if (entry != null && entry.length != null) {
+				return entry.length;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param length length of the uncompressed file, null if not known
+	 */
+	public synchronized void put(String dataId, boolean compressed, URL url, Long length) {
+		if (url == null) {
+			return;
+		}
+		Entry entry = new Entry();
+		entry.url = url;
+		entry.length = length;
+		entry.expires = System.currentTimeMillis() + ttl;
+		entries.put(getKey(dataId, compressed), entry);
+	}
+
+	/**
+	 * Forget the URLs of the file, e.g. when it has been moved.
+	 * 
+	 * @return true if there was something to forget
+	 */
+	public synchronized boolean remove(String dataId) {
+		boolean plainRemoved = entries.remove(getKey(dataId, false)) != null;
+		boolean compressedRemoved = entries.remove(getKey(dataId, true)) != null;
+		return plainRemoved || compressedRemoved;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && System.currentTimeMillis() >= entry.expires) {
+			entries.remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	private static String getKey(String dataId, boolean compressed) {
+		return compressed ? dataId + Compression.BLOCK.getSuffix() : dataId;
+	}
+}
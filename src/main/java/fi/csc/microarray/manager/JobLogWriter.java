@@ -0,0 +1,423 @@
+package fi.csc.microarray.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.messaging.message.JobLogMessage;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * Writes job log messages to the database in a background thread. Messages are
+ * queued and written in batches, so that a burst of finished jobs doesn't block
+ * the message listener, and the database sees one transaction per batch instead
+ * of one per job.
+ *
+ * <p>The queue is bounded. When it's full, the caller waits for a while, which
+ * slows down the delivery from the broker. If there still isn't room, the message
+ * is dropped and counted.</p>
+ *
+ * <p>Long output texts are stored compressed in a separate table, and the jobs
+ * table gets only the beginning of the output. This keeps the rows of the jobs
+ * table small for the admin web job listings.</p>
+ */
+public class JobLogWriter {
+
+	private static final Logger logger = Logger.getLogger(JobLogWriter.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final String CREATE_JOB_OUTPUTS_TABLE =
+			"CREATE TABLE IF NOT EXISTS job_outputs (" +
+			"id VARCHAR(100) PRIMARY KEY, " +
+			"outputText BLOB" +
+			");";
+
+	private static final String INSERT_JOB =
+			"INSERT INTO jobs (id, operation, status, starttime, endtime, wallclockTime, errorMessage, outputText, username, compHost) " +
+			"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_JOB_OUTPUT =
+			"INSERT INTO job_outputs (id, outputText) VALUES (?, ?)";
+
+	/**
+	 * How long the caller waits for room in a full queue before the message is dropped.
+	 */
+	private static final long OFFER_TIMEOUT = 1000; // milliseconds
+
+	private static final long DROP_LOG_INTERVAL = 1000; // messages
+
+	/**
+	 * Row of the jobs table and the optional compressed output.
+	 */
+	private static class JobRow {
+		private JobLogMessage message;
+		private String outputText;
+		private byte[] compressedOutput;
+		private long outputSize;
+	}
+
+	private DataSource dataSource;
+	private BlockingQueue<JobLogMessage> queue;
+	private int queueCapacity;
+	private int batchSize;
+	private int outputInlineLimit;
+
+	private Thread writerThread;
+	private volatile boolean running = true;
+	private Connection connection;
+
+	private AtomicLong received = new AtomicLong();
+	private AtomicLong dropped = new AtomicLong();
+	private AtomicLong delayed = new AtomicLong();
+	private AtomicLong written = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private AtomicLong batches = new AtomicLong();
+	private AtomicLong writeTime = new AtomicLong();
+	private AtomicLong storedOutputs = new AtomicLong();
+	private AtomicLong outputBytes = new AtomicLong();
+	private AtomicLong compressedOutputBytes = new AtomicLong();
+	private volatile int maxQueueLength = 0;
+
+	/**
+	 * @param dataSource database where the jobs and job_outputs tables exist already
+	 * @param queueCapacity max number of messages waiting to be written
+	 * @param batchSize max number of messages written in one transaction
+	 * @param outputInlineLimit output texts longer than this (in characters) are stored in the job_outputs table
+	 */
+	public JobLogWriter(DataSource dataSource, int queueCapacity, int batchSize, int outputInlineLimit) {
+		this.dataSource = dataSource;
+		this.queueCapacity = queueCapacity;
+		this.queue = new ArrayBlockingQueue<JobLogMessage>(queueCapacity);
+		this.batchSize = batchSize;
+		this.outputInlineLimit = outputInlineLimit;
+
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "job-log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queue the message for writing. Waits if the queue is full.
+	 *
+	 * @return false if the message was dropped
+	 */
+	public boolean add(JobLogMessage message) {
+		received.incrementAndGet();
+
+		if (!running) {
+			drop(message, "job log writer is closed");
+			return false;
+		}
+
+		boolean added = queue.offer(message);
+		if (!added) {
+			delayed.incrementAndGet();
+			try {
+				added = queue.offer(message, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!added) {
+			drop(message, "job log queue is full");
+			return false;
+		}
+
+		int queueLength = queue.size();
+		if (queueLength > maxQueueLength) {
+			maxQueueLength = queueLength;
+		}
+		return true;
+	}
+
+	private void drop(JobLogMessage message, String reason) {
+		long count = dropped.incrementAndGet();
+		if (count % DROP_LOG_INTERVAL == 1) {
+			logger.warn(reason + ", dropped job " + message.getJobId() + " (" + count + " dropped in total)");
+		}
+	}
+
+	private void writeLoop() {
+		List<JobLogMessage> batch = new ArrayList<JobLogMessage>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				JobLogMessage first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+
+				write(batch);
+
+			} catch (InterruptedException e) {
+				// check if we are still running
+			} catch (Throwable e) {
+				logger.error("unexpected error in job log writer", e);
+			} finally {
+				batch.clear();
+			}
+		}
+		closeConnection();
+	}
+
+	private void write(List<JobLogMessage> messages) {
+		long startTime = System.currentTimeMillis();
+
+		List<JobRow> rows = new ArrayList<JobRow>(messages.size());
+		for (JobLogMessage message : messages) {
+			rows.add(createRow(message));
+		}
+
+		try {
+			Connection connection = getConnection();
+			try {
+				insert(connection, rows);
+				connection.commit();
+				for (JobRow row : rows) {
+					countWritten(row);
+				}
+
+			} catch (SQLException e) {
+				rollback(connection);
+				// find out which rows fail
+				logger.warn("could not insert a batch of " + rows.size() + " job log entries, inserting one by one: " + e.getMessage());
+				for (JobRow row : rows) {
+					try {
+						insert(connection, row);
+						connection.commit();
+						countWritten(row);
+					} catch (SQLException rowException) {
+						rollback(connection);
+						failed.incrementAndGet();
+						logger.error("could not insert log entry of job " + row.message.getJobId(), rowException);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			// connection is broken
+			failed.addAndGet(rows.size());
+			logger.error("could not insert " + rows.size() + " job log entries", e);
+			closeConnection();
+		}
+
+		batches.incrementAndGet();
+		writeTime.addAndGet(System.currentTimeMillis() - startTime);
+	}
+
+	private JobRow createRow(JobLogMessage message) {
+		JobRow row = new JobRow();
+		row.message = message;
+		row.outputText = message.getOutputText();
+
+		if (row.outputText != null && row.outputText.length() > outputInlineLimit) {
+			try {
+				byte[] bytes = row.outputText.getBytes(UTF8);
+				row.outputSize = bytes.length;
+				row.compressedOutput = compress(bytes);
+				row.outputText = row.outputText.substring(0, outputInlineLimit) +
+						"\n\n[output truncated, " + row.outputText.length() + " characters in total]";
+
+			} catch (IOException e) {
+				// keep the whole output in the jobs table
+				logger.warn("could not compress the output of job " + message.getJobId(), e);
+			}
+		}
+		return row;
+	}
+
+	private void insert(Connection connection, List<JobRow> rows) throws SQLException {
+		try (PreparedStatement jobStatement = connection.prepareStatement(INSERT_JOB);
+				PreparedStatement outputStatement = connection.prepareStatement(INSERT_JOB_OUTPUT)) {
+
+			boolean outputs = false;
+			for (JobRow row : rows) {
+				setJobParameters(jobStatement, row);
+				jobStatement.addBatch();
+				if (row.compressedOutput != null) {
+					setOutputParameters(outputStatement, row);
+					outputStatement.addBatch();
+					outputs = true;
+				}
+			}
+			jobStatement.executeBatch();
+			if (outputs) {
+				outputStatement.executeBatch();
+			}
+		}
+	}
+
+	private void insert(Connection connection, JobRow row) throws SQLException {
+		try (PreparedStatement jobStatement = connection.prepareStatement(INSERT_JOB)) {
+			setJobParameters(jobStatement, row);
+			jobStatement.executeUpdate();
+		}
+		if (row.compressedOutput != null) {
+			try (PreparedStatement outputStatement = connection.prepareStatement(INSERT_JOB_OUTPUT)) {
+				setOutputParameters(outputStatement, row);
+				outputStatement.executeUpdate();
+			}
+		}
+	}
+
+	private void setJobParameters(PreparedStatement statement, JobRow row) throws SQLException {
+		JobLogMessage message = row.message;
+		Date startTime = message.getStartTime();
+		Date endTime = message.getEndTime();
+
+		statement.setString(1, message.getJobId());
+		statement.setString(2, message.getOperation());
+		statement.setString(3, message.getState() != null ? message.getState().toString() : null);
+		statement.setTimestamp(4, startTime != null ? new Timestamp(startTime.getTime()) : null);
+		statement.setTimestamp(5, endTime != null ? new Timestamp(endTime.getTime()) : null);
+		if (startTime != null && endTime != null) {
+			statement.setLong(6, (endTime.getTime() - startTime.getTime()) / 1000);
+		} else {
+			statement.setNull(6, java.sql.Types.INTEGER);
+		}
+		statement.setString(7, message.getErrorMessage());
+		statement.setString(8, row.outputText);
+		statement.setString(9, message.getUsername());
+		statement.setString(10, message.getCompHost());
+	}
+
+	private void setOutputParameters(PreparedStatement statement, JobRow row) throws SQLException {
+		statement.setString(1, row.message.getJobId());
+		statement.setBytes(2, row.compressedOutput);
+	}
+
+	private void countWritten(JobRow row) {
+		written.incrementAndGet();
+		if (row.compressedOutput != null) {
+			storedOutputs.incrementAndGet();
+			outputBytes.addAndGet(row.outputSize);
+			compressedOutputBytes.addAndGet(row.compressedOutput.length);
+		}
+	}
+
+	private Connection getConnection() throws SQLException {
+		if (connection == null) {
+			connection = dataSource.getConnection();
+			connection.setAutoCommit(false);
+		}
+		return connection;
+	}
+
+	private void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			logger.warn("rollback failed", e);
+		}
+	}
+
+	private void closeConnection() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// closing anyway
+			}
+			connection = null;
+		}
+	}
+
+	private static byte[] compress(byte[] output) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(output);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read the output text stored in the job_outputs table.
+	 */
+	public static String decompressOutput(byte[] compressed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			IOUtils.copy(in, bytes);
+		}
+		return new String(bytes.toByteArray(), UTF8);
+	}
+
+	/**
+	 * Write the queued messages and stop the writer thread.
+	 *
+	 * @param timeout milliseconds to wait for the queue to be written
+	 */
+	public void close(long timeout) {
+		running = false;
+		try {
+			writerThread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!queue.isEmpty()) {
+			logger.warn(queue.size() + " job log entries were not written before shutdown");
+		}
+		logger.info(getStatusReport());
+	}
+
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	public String getStatusReport() {
+		long batchCount = batches.get();
+
+		String report = "";
+		report += "JOB LOG\n\n";
+		report += "received:              " + received.get() + "\n";
+		report += "written:               " + written.get() + "\n";
+		report += "failed:                " + failed.get() + "\n";
+		report += "dropped (queue full):  " + dropped.get() + "\n";
+		report += "delayed (queue full):  " + delayed.get() + "\n";
+		report += "queue length:          " + queue.size() + " / " + queueCapacity + " (max " + maxQueueLength + ")\n";
+		report += "batches:               " + batchCount + "\n";
+		if (batchCount > 0) {
+			report += "avg batch size:        " + (written.get() + failed.get()) / batchCount + "\n";
+			report += "avg batch write time:  " + writeTime.get() / batchCount + " ms\n";
+		}
+		report += "outputs out of row:    " + storedOutputs.get() + " (" + outputBytes.get() / 1024 + " kB compressed to " + compressedOutputBytes.get() / 1024 + " kB)\n";
+		return report;
+	}
+}
@@ -46,8 +46,10 @@ import fi.csc.microarray.messaging.MessagingTopic.AccessMode;
 import fi.csc.microarray.messaging.MonitoredNodeBase;
 import fi.csc.microarray.messaging.Topics;
 import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
 import fi.csc.microarray.messaging.message.FeedbackMessage;
 import fi.csc.microarray.messaging.message.JobLogMessage;
+import fi.csc.microarray.messaging.message.ParameterMessage;
 import fi.csc.microarray.service.KeepAliveShutdownHandler;
 import fi.csc.microarray.service.ShutdownCallback;
 import fi.csc.microarray.util.Emails;
@@ -57,7 +59,7 @@ import fi.csc.microarray.util.UrlTransferUtil;
 /**
  * Monitoring database and tool for Chipster server system.
  * 
- * Using JdbcTemplate this way for inserts is really slow.
+ * Job log messages are written to the database in batches by {@link JobLogWriter}.
  * 
  * @author Taavi Hupponen
  */
@@ -94,7 +96,7 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 	private final Logger logger;
 
     private JdbcTemplate jdbcTemplate;
-    private SimpleJdbcInsert insertJobTemplate;
+    private JobLogWriter jobLogWriter;
     private SimpleJdbcInsert insertAccountTemplate;
     private String feedbackEmail;
 
@@ -134,6 +136,8 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 	
 	private static final String ADMIN_ROLE = "admin_role";
 	
+	private static final long JOB_LOG_SHUTDOWN_TIMEOUT = 10000; // milliseconds
+	
 	
 	/**
 	 * Our route to messaging fabric.
@@ -177,13 +181,18 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		dataSource.setPassword(dbPassword);
 		
         this.jdbcTemplate = new JdbcTemplate(dataSource);
-	    this.insertJobTemplate = new SimpleJdbcInsert(dataSource).withTableName("jobs");
 	    this.insertAccountTemplate = new SimpleJdbcInsert(dataSource).withTableName("accounts");
 
 	    // create tables if they do not exist
 	    jdbcTemplate.execute(CREATE_JOBS_TABLE);
 	    jdbcTemplate.execute(CREATE_JOBS_INDEXES);
 	    jdbcTemplate.execute(CREATE_ACCOUNTS_TABLE);
+	    jdbcTemplate.execute(JobLogWriter.CREATE_JOB_OUTPUTS_TABLE);
+	    
+	    this.jobLogWriter = new JobLogWriter(dataSource, 
+	    		configuration.getInt("manager", "job-log-queue-size"), 
+	    		configuration.getInt("manager", "job-log-batch-size"), 
+	    		configuration.getInt("manager", "job-log-output-inline-size"));
 		
 	    // schedule backups
 	    int backupInterval = configuration.getInt("manager", "backup-interval");
@@ -235,6 +244,10 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 	    // listen for feedback messages
         MessagingTopic feedbackTopic = endpoint.createTopic(Topics.Name.AUTHORISED_FEEDBACK_TOPIC, AccessMode.READ);
         feedbackTopic.setListener(this);
+        
+        // listen for status report requests from admin web
+        MessagingTopic managerAdminTopic = endpoint.createTopic(Topics.Name.MANAGER_ADMIN_TOPIC, AccessMode.READ);
+        managerAdminTopic.setListener(new ManagerAdminMessageListener());
 
 		// start h2 web console
 		Server h2WebConsoleServer;
@@ -329,6 +342,30 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		return "manager";
 	}
 
+	private class ManagerAdminMessageListener implements MessagingListener {
+
+		@Override
+		public void onChipsterMessage(ChipsterMessage msg) {
+			try {
+				if (msg instanceof CommandMessage && CommandMessage.COMMAND_GET_STATUS_REPORT.equals(((CommandMessage)msg).getCommand())) {
+
+					CommandMessage reply = new CommandMessage();
+
+					String report = "";
+					report += "SYSTEM\n\n";
+					report += SystemMonitorUtil.getSystemStats(new File(".")).systemStatsToString() + "\n";
+					report += jobLogWriter.getStatusReport();
+
+					reply.addNamedParameter(ParameterMessage.PARAMETER_STATUS_REPORT, report);
+
+					endpoint.replyToMessage(msg, reply);
+				}
+			} catch (Exception e) {
+				logger.error(e, e);
+			}
+		}
+	}
+
 
 	/**
 	 * Process incoming message.  
@@ -338,23 +375,7 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		if (chipsterMessage instanceof JobLogMessage) {
 		    // log information about some job ran by a user
 	        JobLogMessage jobLogMessage = (JobLogMessage)chipsterMessage;
-	        try {
-	            Map<String, Object> parameters = new HashMap<String, Object>();
-	            parameters.put("id", jobLogMessage.getJobId());
-	            parameters.put("operation", jobLogMessage.getOperation());
-	            parameters.put("status", jobLogMessage.getState().toString()); 
-	            parameters.put("starttime", jobLogMessage.getStartTime()); 
-	            parameters.put("endtime", jobLogMessage.getEndTime());
-	            parameters.put("wallclockTime", (jobLogMessage.getEndTime().getTime() - jobLogMessage.getStartTime().getTime()) / 1000);
-	            parameters.put("errorMessage", jobLogMessage.getErrorMessage());
-	            parameters.put("outputText", jobLogMessage.getOutputText()); 
-	            parameters.put("username", jobLogMessage.getUsername());
-	            parameters.put("compHost", jobLogMessage.getCompHost());
-	            
-	            this.insertJobTemplate.execute(parameters);
-	        } catch (Exception e) {
-	            logger.error("Could not insert log entry", e);
-	        }
+	        jobLogWriter.add(jobLogMessage);
 		} else if (chipsterMessage instanceof FeedbackMessage) {
 		    // user gives feedback after seeing an error message
 		    FeedbackMessage feedback = (FeedbackMessage) chipsterMessage;
@@ -404,6 +425,9 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		} catch (JMSException e) {
 			logger.error("closing messaging endpoint failed", e);
 		}
+		
+		// write the queued job log entries
+		jobLogWriter.close(JOB_LOG_SHUTDOWN_TIMEOUT);
 
 		logger.info("shutting down");
 	}
@@ -43,6 +43,11 @@ public class DirectMessagingTopic extends MessagingTopic {
 	protected void sendReplyableMessage(fi.csc.microarray.messaging.message.ChipsterMessage message, TempTopicMessagingListener replyListener, MessagingListener authenticationListener) throws JMSException {
 		sendReplyableMessage(message, replyListener); // ignore authentication
 	}
+
+	@Override
+	protected void sendReplyableMessage(fi.csc.microarray.messaging.message.ChipsterMessage message, TempTopicMessagingListener replyListener, MessagingListener authenticationListener, long timeout) throws JMSException {
+		sendReplyableMessage(message, replyListener); // ignore authentication and timeout
+	}
 		
 	@Override	
 	public void setListener(MessagingListener listener) throws JMSException {
@@ -12,7 +12,6 @@ import java.security.cert.CertificateException;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
 import javax.jms.Session;
 import javax.net.ssl.SSLHandshakeException;
 
@@ -67,6 +66,8 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 	private final String DEFAULT_REPLY_CHANNEL = Topics.MultiplexName.REPLY_TO.toString();
 	
 	private ActiveMQConnection connection;
+	private SessionPool sessionPool;
+	private ReplyTopic replyTopic;
 	private MessagingTopic adminTopic = null;
 	private Node master;
 	private AuthenticationRequestListener authenticationListener;
@@ -164,6 +165,11 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 			connection.start();
 			logger.debug("connected to " + completeBrokerUrl);
 			
+			// shared by all topics and replies for sending
+			MessageCodec codec = new MessageCodec(configuration.getBoolean("messaging", "use-binary-messages"));
+			sessionPool = new SessionPool(connection, Runtime.getRuntime().availableProcessors(), codec);
+			replyTopic = new ReplyTopic(connection);
+			
 			// create admin topic
 			adminTopic = createTopic(Topics.Name.ADMIN_TOPIC, AccessMode.READ_WRITE); // endpoint reacts to requests from admin-topic
 			adminTopic.setListener(this);
@@ -222,7 +228,7 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 	@Override
 	public MessagingTopic createTopic(Topics.Name topicName, AccessMode accessMode) throws JMSException {
 		Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-		return new AuthenticatedTopic(session, topicName.toString(), Type.NORMAL, accessMode, authenticationListener, this);		
+		return new AuthenticatedTopic(session, topicName.toString(), Type.NORMAL, accessMode, authenticationListener, this, sessionPool, replyTopic);		
 	}
 	
 
@@ -240,22 +246,9 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
     @Override
 	public void replyToMessage(ChipsterMessage original, ChipsterMessage reply, String replyChannel) throws JMSException {
     	reply.setMultiplexChannel(replyChannel);
+    	reply.setCorrelationID(original.getCorrelationID() != null ? original.getCorrelationID() : original.getMessageID());
     	Destination replyToDest = original.getReplyTo();
-    	replyToMessage(replyToDest, reply);
-    }
-
-	/**
-	 * Not multithread safe.
-	 */
-    private void replyToMessage(Destination replyToDest, ChipsterMessage reply) throws JMSException {
-		Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-    	try {
-			MapMessage msg = session.createMapMessage();
-	    	reply.marshal(msg);
-	    	session.createProducer(replyToDest).send(msg);
-    	} finally {
-    		session.close();
-    	}
+    	sessionPool.sendReply(replyToDest, reply, original);
     }
     
 	/**
@@ -295,6 +288,8 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 	 */
     @Override
 	public void close() throws JMSException {
+    	replyTopic.close();
+    	sessionPool.close();
     	connection.stop();
     	connection.close();	
     }
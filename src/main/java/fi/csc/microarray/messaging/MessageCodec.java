@@ -0,0 +1,410 @@
+package fi.csc.microarray.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQMapMessage;
+
+import fi.csc.microarray.messaging.message.AuthenticationMessage;
+import fi.csc.microarray.messaging.message.BooleanMessage;
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+import fi.csc.microarray.messaging.message.FeedbackMessage;
+import fi.csc.microarray.messaging.message.JobLogMessage;
+import fi.csc.microarray.messaging.message.JobMessage;
+import fi.csc.microarray.messaging.message.ModuleDescriptionMessage;
+import fi.csc.microarray.messaging.message.PayloadMessage;
+import fi.csc.microarray.messaging.message.ResultMessage;
+import fi.csc.microarray.messaging.message.ServerStatusMessage;
+import fi.csc.microarray.messaging.message.SourceMessage;
+import fi.csc.microarray.messaging.message.SuccessMessage;
+import fi.csc.microarray.messaging.message.UrlListMessage;
+import fi.csc.microarray.messaging.message.UrlMessage;
+
+/**
+ * Converts ChipsterMessages to JMS messages and back.
+ *
+ * <p>Messages are marshalled to a MapMessage as before, but when the binary
+ * format is used, the properties and values are written to the body of a
+ * BytesMessage. The class of the message is written as an index of a fixed
+ * registry and long strings, like job output or tool descriptions, are
+ * compressed. The binary format takes much less memory in the broker.</p>
+ *
+ * <p>Messages created in this process tell with the {@link #KEY_ACCEPT_CODEC}
+ * property that their sender can decode binary messages. Received messages that
+ * are forwarded, like client requests routed by the authenticator, have the
+ * property only if the original sender set it. Only replies are sent in binary
+ * format and only if the request had this property, so older clients get
+ * MapMessages. Messages sent to the shared topics are always MapMessages, because
+ * every subscriber of the topic has to be able to read them.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+public class MessageCodec {
+
+	/**
+	 * Property that lists the codecs that the sender of the message can decode.
+	 */
+	public static final String KEY_ACCEPT_CODEC = "accept-codec";
+	public static final String CODEC_BINARY = "binary-1";
+
+	private static final byte VERSION = 1;
+
+	/**
+	 * Strings longer than this (in bytes) are compressed.
+	 */
+	private static final int COMPRESSION_THRESHOLD = 1024;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_COMPRESSED_STRING = 2;
+	private static final byte TYPE_INT = 3;
+	private static final byte TYPE_LONG = 4;
+	private static final byte TYPE_DOUBLE = 5;
+	private static final byte TYPE_BOOLEAN = 6;
+	private static final byte TYPE_BYTES = 7;
+
+	private static final short UNREGISTERED_CLASS = -1;
+
+	/**
+	 * Message classes in the order of their ids. Add new classes only to the end,
+	 * otherwise the ids change.
+	 */
+	private static final List<Class<? extends ChipsterMessage>> REGISTRY = Arrays.<Class<? extends ChipsterMessage>>asList(
+			CommandMessage.class,
+			JobMessage.class,
+			ResultMessage.class,
+			JobLogMessage.class,
+			ModuleDescriptionMessage.class,
+			AuthenticationMessage.class,
+			BooleanMessage.class,
+			FeedbackMessage.class,
+			PayloadMessage.class,
+			ServerStatusMessage.class,
+			SourceMessage.class,
+			SuccessMessage.class,
+			UrlListMessage.class,
+			UrlMessage.class);
+
+	private static final Map<Class<?>, Short> classIds = new HashMap<Class<?>, Short>();
+	static {
+		for (short i = 0; i < REGISTRY.size(); i++) {
+			classIds.put(REGISTRY.get(i), i);
+		}
+	}
+
+	private static final Map<String, Constructor<? extends ChipsterMessage>> constructors = new ConcurrentHashMap<String, Constructor<? extends ChipsterMessage>>();
+
+	private boolean useBinary;
+
+	/**
+	 * @param useBinary send replies in binary format when the receiver accepts it
+	 */
+	public MessageCodec(boolean useBinary) {
+		this.useBinary = useBinary;
+	}
+
+	/**
+	 * Encode a message that is sent to a topic. Topics may have subscribers that
+	 * haven't been upgraded yet and read only MapMessages, so MapMessage is always used.
+	 */
+	public Message encode(Session session, ChipsterMessage message) throws JMSException {
+		return encode(session, message, false);
+	}
+
+	/**
+	 * Encode a reply. Binary format is used if it's enabled and the sender of the
+	 * original message accepts it.
+	 */
+	public Message encodeReply(Session session, ChipsterMessage reply, ChipsterMessage original) throws JMSException {
+		return encode(session, reply, useBinary && original.isBinaryAccepted());
+	}
+
+	private Message encode(Session session, ChipsterMessage message, boolean binary) throws JMSException {
+		Message jmsMessage;
+		if (binary) {
+			ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+			message.marshal(mapMessage);
+			BytesMessage bytesMessage = session.createBytesMessage();
+			bytesMessage.writeBytes(toBytes(message, mapMessage));
+			bytesMessage.setJMSReplyTo(mapMessage.getJMSReplyTo());
+			bytesMessage.setJMSCorrelationID(mapMessage.getJMSCorrelationID());
+			jmsMessage = bytesMessage;
+
+		} else {
+			MapMessage mapMessage = session.createMapMessage();
+			message.marshal(mapMessage);
+			jmsMessage = mapMessage;
+		}
+		// a forwarded message keeps the capabilities of its original sender
+		if (message.isBinaryAccepted()) {
+			jmsMessage.setStringProperty(KEY_ACCEPT_CODEC, CODEC_BINARY);
+		}
+		return jmsMessage;
+	}
+
+	/**
+	 * Decode a received MapMessage or BytesMessage.
+	 */
+	public static ChipsterMessage decode(Message jmsMessage) throws JMSException {
+		ChipsterMessage message;
+		if (jmsMessage instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) jmsMessage;
+			byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(bytes);
+			ActiveMQMapMessage mapMessage = new ActiveMQMapMessage();
+			message = fromBytes(bytes, mapMessage);
+			mapMessage.setJMSReplyTo(bytesMessage.getJMSReplyTo());
+			mapMessage.setJMSCorrelationID(bytesMessage.getJMSCorrelationID());
+			mapMessage.setJMSMessageID(bytesMessage.getJMSMessageID());
+			message.unmarshal(mapMessage);
+
+		} else if (jmsMessage instanceof MapMessage) {
+			message = newInstance(jmsMessage.getStringProperty(ChipsterMessage.KEY_CLASS));
+			message.unmarshal((MapMessage) jmsMessage);
+
+		} else {
+			throw new JMSException("unsupported message type " + jmsMessage.getClass().getSimpleName());
+		}
+
+		message.setBinaryAccepted(CODEC_BINARY.equals(jmsMessage.getStringProperty(KEY_ACCEPT_CODEC)));
+		return message;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ChipsterMessage newInstance(String className) throws JMSException {
+		try {
+			Constructor<? extends ChipsterMessage> constructor = constructors.get(className);
+			if (constructor == null) {
+				constructor = ((Class<? extends ChipsterMessage>) Class.forName(className)).getConstructor();
+				constructors.put(className, constructor);
+			}
+			return constructor.newInstance();
+		} catch (Exception e) {
+			JMSException jmsException = new JMSException("could not create message of class " + className);
+			jmsException.setLinkedException(e);
+			throw jmsException;
+		}
+	}
+
+	private static byte[] toBytes(ChipsterMessage message, ActiveMQMapMessage mapMessage) throws JMSException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(VERSION);
+
+			Short classId = classIds.get(message.getClass());
+			if (classId != null) {
+				out.writeShort(classId);
+			} else {
+				out.writeShort(UNREGISTERED_CLASS);
+				out.writeUTF(message.getClass().getCanonicalName());
+			}
+
+			// class is known from the id
+			List<String> propertyNames = getNames(mapMessage.getPropertyNames());
+			propertyNames.remove(ChipsterMessage.KEY_CLASS);
+			out.writeInt(propertyNames.size());
+			for (String name : propertyNames) {
+				out.writeUTF(name);
+				writeValue(out, mapMessage.getObjectProperty(name));
+			}
+
+			List<String> valueNames = getNames(mapMessage.getMapNames());
+			out.writeInt(valueNames.size());
+			for (String name : valueNames) {
+				out.writeUTF(name);
+				writeValue(out, mapMessage.getObject(name));
+			}
+
+			out.flush();
+			return bytes.toByteArray();
+
+		} catch (IOException e) {
+			JMSException jmsException = new JMSException("could not encode message: " + e.getMessage());
+			jmsException.setLinkedException(e);
+			throw jmsException;
+		}
+	}
+
+	private static List<String> getNames(Enumeration<?> enumeration) {
+		List<String> names = new LinkedList<String>();
+		while (enumeration.hasMoreElements()) {
+			names.add((String) enumeration.nextElement());
+		}
+		return names;
+	}
+
+	private static ChipsterMessage fromBytes(byte[] bytes, ActiveMQMapMessage mapMessage) throws JMSException {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new JMSException("unsupported message codec version " + version);
+			}
+
+			short classId = in.readShort();
+			String className;
+			if (classId == UNREGISTERED_CLASS) {
+				className = in.readUTF();
+			} else if (classId >= 0 && classId < REGISTRY.size()) {
+				className = REGISTRY.get(classId).getName();
+			} else {
+				throw new JMSException("unknown message class id " + classId);
+			}
+			ChipsterMessage message = newInstance(className);
+
+			int propertyCount = in.readInt();
+			for (int i = 0; i < propertyCount; i++) {
+				String name = in.readUTF();
+				mapMessage.setObjectProperty(name, readValue(in));
+			}
+
+			int valueCount = in.readInt();
+			for (int i = 0; i < valueCount; i++) {
+				String name = in.readUTF();
+				mapMessage.setObject(name, readValue(in));
+			}
+
+			return message;
+
+		} catch (IOException | DataFormatException e) {
+			JMSException jmsException = new JMSException("could not decode message: " + e.getMessage());
+			jmsException.setLinkedException(e);
+			throw jmsException;
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TYPE_NULL);
+
+		} else if (value instanceof String) {
+			byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+			if (utf8.length > COMPRESSION_THRESHOLD) {
+				byte[] compressed = compress(utf8);
+				out.writeByte(TYPE_COMPRESSED_STRING);
+				out.writeInt(utf8.length);
+				out.writeInt(compressed.length);
+				out.write(compressed);
+			} else {
+				out.writeByte(TYPE_STRING);
+				out.writeInt(utf8.length);
+				out.write(utf8);
+			}
+
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer) value);
+
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+
+		} else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+
+		} else if (value instanceof byte[]) {
+			byte[] array = (byte[]) value;
+			out.writeByte(TYPE_BYTES);
+			out.writeInt(array.length);
+			out.write(array);
+
+		} else {
+			throw new IOException("unsupported value type " + value.getClass().getSimpleName());
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException, DataFormatException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING:
+			byte[] utf8 = new byte[in.readInt()];
+			in.readFully(utf8);
+			return new String(utf8, StandardCharsets.UTF_8);
+		case TYPE_COMPRESSED_STRING:
+			int length = in.readInt();
+			byte[] compressed = new byte[in.readInt()];
+			in.readFully(compressed);
+			return new String(decompress(compressed, length), StandardCharsets.UTF_8);
+		case TYPE_INT:
+			return in.readInt();
+		case TYPE_LONG:
+			return in.readLong();
+		case TYPE_DOUBLE:
+			return in.readDouble();
+		case TYPE_BOOLEAN:
+			return in.readBoolean();
+		case TYPE_BYTES:
+			byte[] array = new byte[in.readInt()];
+			in.readFully(array);
+			return array;
+		default:
+			throw new IOException("unknown value type " + type);
+		}
+	}
+
+	private static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] decompress(byte[] compressed, int length) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] data = new byte[length];
+			int offset = 0;
+			while (offset < length && !inflater.finished()) {
+				int count = inflater.inflate(data, offset, length - offset);
+				if (count == 0 && inflater.needsInput()) {
+					throw new DataFormatException("compressed string is truncated");
+				}
+				offset += count;
+			}
+			return data;
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package fi.csc.microarray.messaging;
 
-import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 
@@ -29,11 +28,8 @@ public class MessageListenerWrapper implements MessageListener {
 	public void onMessage(Message msg) {
 		
 		try {
-			String msgClass = msg.getStringProperty(ChipsterMessage.KEY_CLASS);
-			logger.debug("message received, class is " + msgClass);
-			MapMessage mapMessage = (MapMessage)msg;
-			ChipsterMessage chipsterMessage = (ChipsterMessage)Class.forName(msgClass).newInstance();
-			chipsterMessage.unmarshal(mapMessage);
+			ChipsterMessage chipsterMessage = MessageCodec.decode(msg);
+			logger.debug("message received, class is " + chipsterMessage.getClass().getSimpleName());
 			actualListener.onChipsterMessage(chipsterMessage);
 			
 		} catch (Exception e) {
@@ -4,8 +4,10 @@
  */
 package fi.csc.microarray.messaging;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
@@ -27,6 +29,12 @@ public class MessagingTopic {
 	 * Logger for this class
 	 */
 	private static final Logger logger = Logger.getLogger(MessagingTopic.class);
+	
+	/**
+	 * Codec of the topics that don't have a session pool. Binary format isn't used,
+	 * because these are not created by the endpoint and the configuration isn't known.
+	 */
+	private static final MessageCodec LOCAL_CODEC = new MessageCodec(false);
 
 	public static enum Type {
 		NORMAL,
@@ -46,9 +54,24 @@ public class MessagingTopic {
 	private Session session;
 	private Topic topic;
 	private MessagingEndpoint endpoint;
+	private SessionPool sessionPool;
+	private ReplyTopic replyTopic;
+	private MessageProducer producer;
 	
 	public MessagingTopic(Session session, String topicName, Type type, AccessMode accessMode, MessagingEndpoint endpoint) throws JMSException {
+		this(session, topicName, type, accessMode, endpoint, null, null);
+	}
+
+	/**
+	 * @param sessionPool used for sending, if not null. Otherwise messages are sent
+	 * with the session of this topic. 
+	 * @param replyTopic receives the replies to replyable messages, if not null.
+	 * Otherwise a temporary topic is created for every replyable message.
+	 */
+	public MessagingTopic(Session session, String topicName, Type type, AccessMode accessMode, MessagingEndpoint endpoint, SessionPool sessionPool, ReplyTopic replyTopic) throws JMSException {
 		this.session = session;
+		this.sessionPool = sessionPool;
+		this.replyTopic = replyTopic;
 		
 		switch (type) {
 		case NORMAL:
@@ -74,29 +97,49 @@ public class MessagingTopic {
 	
 
 	/**
-	 * Not multithread safe.
+	 * Multithread safe, if this topic has a shared reply topic. 
+	 * 
+	 * @param timeout milliseconds to wait for replies, or 0 to wait until the reply listener is cleaned up. 
+	 * Only requests sent through the shared reply topic time out.
 	 */
-	protected void sendReplyableMessage(ChipsterMessage message, TempTopicMessagingListener replyListener, MessagingListener authenticationListener) throws JMSException {
-		MessagingTopic tempTopic = new MessagingTopic(session, null, Type.TEMPORARY, AccessMode.READ_WRITE, endpoint);
+	protected void sendReplyableMessage(ChipsterMessage message, TempTopicMessagingListener replyListener, MessagingListener authenticationListener, long timeout) throws JMSException {
 		
 		MultiplexingMessagingListener plexer = new MultiplexingMessagingListener();
 		plexer.addChannel(Topics.MultiplexName.REPLY_TO.toString(), replyListener);
 		if (authenticationListener != null) {
 			plexer.addChannel(Topics.MultiplexName.AUTHORISE_TO.toString(), authenticationListener);
 		}
-		tempTopic.setListener(plexer);
 		
-		replyListener.setTempTopic(tempTopic);
-		message.setReplyTo(tempTopic.topic);
+		if (replyTopic != null) {
+			replyListener.setTempTopic(replyTopic.register(message, plexer, replyListener, timeout));
+		} else {
+			MessagingTopic tempTopic = new MessagingTopic(session, null, Type.TEMPORARY, AccessMode.READ_WRITE, endpoint, sessionPool, null);
+			tempTopic.setListener(plexer);
+			replyListener.setTempTopic(tempTopic);
+			message.setReplyTo(tempTopic.topic);
+		}
 		sendMessage(message);
-		
+	}
+
+	protected void sendReplyableMessage(ChipsterMessage message, TempTopicMessagingListener replyListener, MessagingListener authenticationListener) throws JMSException {
+		sendReplyableMessage(message, replyListener, authenticationListener, 0);
 	}
 	
 	/**
-	 * Sends the message and creates a temporary topic for replying.
-	 * Not multithread safe.
+	 * Sends the message and returns the first reply as a future. The future fails 
+	 * with a TimeoutException if there is no reply in time.
+	 */
+	public ReplyFuture sendRequest(ChipsterMessage message, long timeout, TimeUnit unit) throws JMSException {
+		ReplyFuture future = new ReplyFuture();
+		sendReplyableMessage(message, future, null, unit.toMillis(timeout));
+		return future;
+	}
+	
+	/**
+	 * Sends the message and registers the listener for the replies.
+	 * Multithread safe, if this topic has a shared reply topic.
 	 * 
-	 * @param replyListener receives replies (if any) through hidden temporary topic
+	 * @param replyListener receives replies (if any) through a hidden reply topic
 	 */
 	public void sendReplyableMessage(ChipsterMessage message, TempTopicMessagingListener replyListener) throws JMSException {
 		sendReplyableMessage(message, replyListener, null);
@@ -104,25 +147,23 @@ public class MessagingTopic {
 	
 	/**
 	 * The basic message sending method. Sends a message without reply possibility.
-	 * Not multithread safe.
+	 * Multithread safe.
 	 */
 	public void sendMessage(ChipsterMessage message) throws JMSException {
 
 		// log
 		logger.debug("sending " + message);
 		
-		// marshal message to MapMessage
-		MapMessage mapMessage = session.createMapMessage();
-		message.marshal(mapMessage);
-		
-		MessageProducer producer = null;
-		try {
-			producer = session.createProducer(topic);
-			producer.send(mapMessage);
-		} finally {
-			try {
-				producer.close();
-			} catch (Exception e) {
+		if (sessionPool != null) {
+			sessionPool.send(topic, message);
+			
+		} else {
+			synchronized (this) {
+				Message jmsMessage = LOCAL_CODEC.encode(session, message);
+				if (producer == null) {
+					producer = session.createProducer(topic);
+				}
+				producer.send(jmsMessage);
 			}
 		}
 	}
@@ -0,0 +1,97 @@
+package fi.csc.microarray.messaging;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+
+/**
+ * Result of a request sent with {@link MessagingTopic#sendRequest(ChipsterMessage, long, TimeUnit)}.
+ * Completes with the first reply, or fails when the request times out. Reply
+ * delivery is stopped when the future is done.
+ */
+public class ReplyFuture extends TempTopicMessagingListenerBase implements Future<ChipsterMessage> {
+
+	private CountDownLatch latch = new CountDownLatch(1);
+	private ChipsterMessage reply;
+	private Exception exception;
+	private boolean cancelled = false;
+	private boolean done = false;
+
+	@Override
+	public void onChipsterMessage(ChipsterMessage msg) {
+		complete(msg, null);
+	}
+
+	/**
+	 * Called when there was no reply before the request timeout.
+	 */
+	void timeout() {
+		complete(null, new TimeoutException("no reply before the request timeout"));
+	}
+
+	private void complete(ChipsterMessage reply, Exception exception) {
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			this.reply = reply;
+			this.exception = exception;
+			this.done = true;
+		}
+		// stop the reply delivery before waking up the waiters
+		cleanUp();
+		latch.countDown();
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			cancelled = true;
+			done = true;
+		}
+		cleanUp();
+		latch.countDown();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public ChipsterMessage get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public ChipsterMessage get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("no reply in " + timeout + " " + unit.toString().toLowerCase());
+		}
+		return getResult();
+	}
+
+	private synchronized ChipsterMessage getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new java.util.concurrent.CancellationException();
+		}
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return reply;
+	}
+}
@@ -0,0 +1,230 @@
+package fi.csc.microarray.messaging;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TemporaryTopic;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+
+/**
+ * One long-lived temporary topic for the replies of all requests of an endpoint.
+ * Requests are registered with their message ID as the correlation ID, and the
+ * replies are dispatched to the listener of the request by the correlation ID
+ * of the reply. This way requests don't create and delete a destination in the
+ * broker every time.
+ *
+ * <p>Replies are delivered in a thread pool, so that a listener can wait for
+ * other replies, but the replies of one request are delivered one at a time
+ * and in order.</p>
+ *
+ * <p>Requests registered with a timeout are removed from the table of pending
+ * requests when the timeout expires. Others stay until they are deleted, which
+ * happens when the reply listener is cleaned up.</p>
+ */
+public class ReplyTopic implements MessagingListener {
+
+	private static final Logger logger = Logger.getLogger(ReplyTopic.class);
+
+	private static final long TIMEOUT_CHECK_INTERVAL = 1000; // milliseconds
+
+	private static class PendingRequest {
+		private MessagingListener listener;
+		private TempTopicMessagingListener replyListener;
+		private long deadline;
+		private LinkedList<ChipsterMessage> replies = new LinkedList<ChipsterMessage>();
+		private boolean dispatching = false;
+
+		private PendingRequest(MessagingListener listener, TempTopicMessagingListener replyListener, long deadline) {
+			this.listener = listener;
+			this.replyListener = replyListener;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Replies of one request. Deleting this only stops the delivery of the
+	 * replies, the shared topic stays.
+	 */
+	private class Registration extends MessagingTopic {
+
+		private String correlationID;
+
+		public Registration(String correlationID) throws JMSException {
+			super(null, null, Type.MOCK, AccessMode.WRITE, null);
+			this.correlationID = correlationID;
+		}
+
+		@Override
+		public void sendMessage(ChipsterMessage message) throws JMSException {
+			throw new UnsupportedOperationException("reply topic is for receiving only");
+		}
+
+		@Override
+		public String getName() throws JMSException {
+			return ReplyTopic.this.topic.getTopicName();
+		}
+
+		@Override
+		public void setListener(MessagingListener listener) throws JMSException {
+			PendingRequest request = pendingRequests.get(correlationID);
+			if (request != null) {
+				request.listener = listener;
+			}
+		}
+
+		@Override
+		public void removeListener() throws JMSException {
+			delete();
+		}
+
+		@Override
+		public void delete() throws JMSException {
+			pendingRequests.remove(correlationID);
+		}
+	}
+
+	private Session session;
+	private TemporaryTopic topic;
+	private MessageConsumer consumer;
+	private Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<String, PendingRequest>();
+	private ScheduledExecutorService timeoutChecker;
+	private ExecutorService dispatchExecutor;
+
+	public ReplyTopic(Connection connection) throws JMSException {
+		this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.topic = session.createTemporaryTopic();
+		this.consumer = session.createConsumer(topic);
+		consumer.setMessageListener(new MessageListenerWrapper(this));
+
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "reply-topic");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.dispatchExecutor = Executors.newCachedThreadPool(threadFactory);
+		this.timeoutChecker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		timeoutChecker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				removeExpiredRequests();
+			}
+		}, TIMEOUT_CHECK_INTERVAL, TIMEOUT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Prepare the request for sending, so that the replies are delivered to the listener.
+	 *
+	 * @param listener receives the replies of the request
+	 * @param replyListener the listener of the requester, notified about timeouts if it is a {@link ReplyFuture}
+	 * @param timeout milliseconds, or 0 to wait until the registration is deleted
+	 * @return handle for stopping the reply delivery with {@link MessagingTopic#delete()}
+	 */
+	public MessagingTopic register(ChipsterMessage request, MessagingListener listener, TempTopicMessagingListener replyListener, long timeout) throws JMSException {
+		String correlationID = request.getMessageID();
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+		pendingRequests.put(correlationID, new PendingRequest(listener, replyListener, deadline));
+
+		request.setCorrelationID(correlationID);
+		request.setReplyTo(topic);
+		return new Registration(correlationID);
+	}
+
+	@Override
+	public void onChipsterMessage(ChipsterMessage msg) {
+		String correlationID = msg.getCorrelationID();
+		PendingRequest request = correlationID != null ? pendingRequests.get(correlationID) : null;
+		if (request == null) {
+			// the requester has given up already
+			logger.debug("reply to an unknown or expired request " + correlationID + ": " + msg);
+			return;
+		}
+		
+		synchronized (request) {
+			request.replies.add(msg);
+			if (request.dispatching) {
+				return;
+			}
+			request.dispatching = true;
+		}
+		dispatch(request);
+	}
+
+	private void dispatch(final PendingRequest request) {
+		dispatchExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					ChipsterMessage reply;
+					synchronized (request) {
+						reply = request.replies.poll();
+						if (reply == null) {
+							request.dispatching = false;
+							return;
+						}
+					}
+					try {
+						request.listener.onChipsterMessage(reply);
+					} catch (Exception e) {
+						logger.error("exception when handling a reply", e);
+					}
+				}
+			}
+		});
+	}
+
+	private void removeExpiredRequests() {
+		long now = System.currentTimeMillis();
+		Iterator<PendingRequest> iterator = pendingRequests.values().iterator();
+		while (iterator.hasNext()) {
+			PendingRequest request = iterator.next();
+			if (request.deadline < now) {
+				iterator.remove();
+				if (request.replyListener instanceof ReplyFuture) {
+					((ReplyFuture) request.replyListener).timeout();
+				}
+			}
+		}
+	}
+
+	public Destination getDestination() {
+		return topic;
+	}
+
+	/**
+	 * @return the number of requests waiting for replies
+	 */
+	public int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+
+	public void close() {
+		timeoutChecker.shutdownNow();
+		dispatchExecutor.shutdown();
+		pendingRequests.clear();
+		try {
+			consumer.close();
+			topic.delete();
+			session.close();
+		} catch (JMSException e) {
+			logger.warn("could not close the reply topic", e);
+		}
+	}
+}
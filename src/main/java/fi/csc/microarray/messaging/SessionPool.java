@@ -0,0 +1,165 @@
+package fi.csc.microarray.messaging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+
+/**
+ * Thread safe sending of messages. JMS sessions can be used only by one thread
+ * at a time, so senders borrow a session from a fixed size pool. Each session
+ * keeps producers of the recently used destinations, so that a producer isn't
+ * created and closed for every message.
+ */
+public class SessionPool {
+
+	/**
+	 * Max number of cached producers per session. Replies go to temporary
+	 * topics, so the producers of old destinations must be closed at some point.
+	 */
+	private static final int MAX_PRODUCERS = 64;
+
+	private static class PooledSession {
+
+		private Session session;
+		private Map<Destination, MessageProducer> producers = new LinkedHashMap<Destination, MessageProducer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Destination, MessageProducer> eldest) {
+				if (size() > MAX_PRODUCERS) {
+					close(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+
+		private PooledSession(Session session) {
+			this.session = session;
+		}
+
+		private MessageProducer getProducer(Destination destination) throws JMSException {
+			MessageProducer producer = producers.get(destination);
+			if (producer == null) {
+				producer = session.createProducer(destination);
+				producers.put(destination, producer);
+			}
+			return producer;
+		}
+
+		private void closeAll() {
+			for (MessageProducer producer : producers.values()) {
+				close(producer);
+			}
+			producers.clear();
+			try {
+				session.close();
+			} catch (JMSException e) {
+				// closing anyway, ignore
+			}
+		}
+
+		private static void close(MessageProducer producer) {
+			try {
+				producer.close();
+			} catch (JMSException e) {
+				// the destination may have been deleted already
+			}
+		}
+	}
+
+	private BlockingQueue<PooledSession> availableSessions;
+	private MessageCodec codec;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param connection connection to create the sessions from
+	 * @param size number of sessions, i.e. how many threads can send in parallel
+	 * @throws JMSException if the sessions can't be created
+	 */
+	public SessionPool(Connection connection, int size) throws JMSException {
+		this(connection, size, new MessageCodec(false));
+	}
+
+	/**
+	 * @param codec encodes the sent messages
+	 */
+	public SessionPool(Connection connection, int size, MessageCodec codec) throws JMSException {
+		this.codec = codec;
+		this.availableSessions = new ArrayBlockingQueue<PooledSession>(size);
+		for (int i = 0; i < size; i++) {
+			availableSessions.add(new PooledSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE)));
+		}
+	}
+
+	/**
+	 * Send the message to the destination. Waits if all sessions are in use.
+	 */
+	public void send(Destination destination, ChipsterMessage message) throws JMSException {
+		send(destination, message, null);
+	}
+
+	/**
+	 * Send a reply, in the format that the sender of the original message accepts.
+	 */
+	public void sendReply(Destination destination, ChipsterMessage reply, ChipsterMessage original) throws JMSException {
+		send(destination, reply, original);
+	}
+
+	private void send(Destination destination, ChipsterMessage message, ChipsterMessage original) throws JMSException {
+		if (closed) {
+			throw new JMSException("session pool is closed");
+		}
+
+		PooledSession pooledSession;
+		try {
+			pooledSession = availableSessions.take();
+		} catch (InterruptedException e) {
+			throw new JMSException("interrupted while waiting for a session");
+		}
+
+		try {
+			Message jmsMessage;
+			if (original != null) {
+				jmsMessage = codec.encodeReply(pooledSession.session, message, original);
+			} else {
+				jmsMessage = codec.encode(pooledSession.session, message);
+			}
+			try {
+				pooledSession.getProducer(destination).send(jmsMessage);
+			} catch (JMSException e) {
+				// most likely a deleted temporary topic, don't keep its producer
+				MessageProducer producer = pooledSession.producers.remove(destination);
+				if (producer != null) {
+					PooledSession.close(producer);
+				}
+				throw e;
+			}
+
+		} finally {
+			availableSessions.add(pooledSession);
+		}
+	}
+
+	/**
+	 * Close the sessions that aren't in use. Sessions of ongoing sends are closed
+	 * with the connection.
+	 */
+	public void close() {
+		closed = true;
+		PooledSession pooledSession;
+		while ((pooledSession = availableSessions.poll()) != null) {
+			pooledSession.closeAll();
+		}
+	}
+}
@@ -16,6 +16,7 @@ public interface Topics {
 		AUTHORISED_FILEBROKER_TOPIC("authorised-filebroker-topic"),
 		FILEBROKER_ADMIN_TOPIC("filebroker-admin-topic"),
 		COMP_ADMIN_TOPIC("comp-admin-topic"),
+		MANAGER_ADMIN_TOPIC("manager-admin-topic"),
 		ADMIN_TOPIC("admin-topic"),
 		JOB_LOG_TOPIC("job-log-topic"),
 		FEEDBACK_TOPIC("feedback-topic"),
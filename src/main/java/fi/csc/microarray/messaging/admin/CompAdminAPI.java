@@ -126,6 +126,9 @@ public class CompAdminAPI extends ServerAdminAPI {
 					job.setCompHost(jobMsg.getCompHost());
 					job.setOperation(jobMsg.getOperation());
 					job.setUsername(jobMsg.getUsername());				
+					if (jobMsg.getQueueTime() != null) {
+						job.setQueueTime(jobMsg.getQueueTime() / 1000);
+					}
 					
 					jobs.put(jobMsg.getJobId(), job); // remove duplicates, because all comps respond same waiting jobs
 					
@@ -14,6 +14,7 @@ public class JobsEntry implements Serializable {
 	private String username;
 	private String compHost;
 	private String jobId;
+	private Long queueTime;
 		
 	public String getOperation() {
 		return operation;
@@ -53,6 +54,16 @@ public class JobsEntry implements Serializable {
 		return jobId;
 	}
 	
+	/**
+	 * @return seconds the job waited for a free slot in comp, null if not available
+	 */
+	public Long getQueueTime() {
+		return queueTime;
+	}
+	public void setQueueTime(Long queueTime) {
+		this.queueTime = queueTime;
+	}
+	
 	public String toString() {		
 		return ""
 				+ StringUtils.rightPad(jobId, 40)
@@ -60,6 +71,7 @@ public class JobsEntry implements Serializable {
 				+ StringUtils.rightPad(operation, 20)
 				+ StringUtils.rightPad(username, 20)
 				+ StringUtils.rightPad(startTime.toString(), 30)
+				+ StringUtils.rightPad(queueTime != null ? queueTime.toString() : "", 10)
 				+ StringUtils.rightPad(status, 20);
 	}
 	public static String getToStringHeaders() {
@@ -69,6 +81,7 @@ public class JobsEntry implements Serializable {
 				+ StringUtils.rightPad("OPERATION", 20)
 				+ StringUtils.rightPad("USERNAME", 20)
 				+ StringUtils.rightPad("START TIME", 30)
+				+ StringUtils.rightPad("QUEUED (S)", 10)
 				+ StringUtils.rightPad("STATUS", 20);
 	}
 }
@@ -0,0 +1,19 @@
+package fi.csc.microarray.messaging.admin;
+
+import java.io.IOException;
+
+import javax.jms.JMSException;
+
+import fi.csc.microarray.config.ConfigurationLoader.IllegalConfigurationException;
+import fi.csc.microarray.exception.MicroarrayException;
+import fi.csc.microarray.messaging.Topics;
+
+/**
+ * Queries to the manager, e.g. the status report of the job log writer.
+ */
+public class ManagerAdminAPI extends ServerAdminAPI {
+
+	public ManagerAdminAPI() throws IOException, IllegalConfigurationException, MicroarrayException, JMSException {
+		super(Topics.Name.MANAGER_ADMIN_TOPIC, "manager-admin");
+	}
+}
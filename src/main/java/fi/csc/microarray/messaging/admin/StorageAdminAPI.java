@@ -20,6 +20,7 @@ import fi.csc.microarray.messaging.message.ChipsterMessage;
 import fi.csc.microarray.messaging.message.CommandMessage;
 import fi.csc.microarray.messaging.message.ParameterMessage;
 import fi.csc.microarray.messaging.message.SuccessMessage;
+import fi.csc.microarray.util.Strings;
 
 /**
  * This class uses JMS messages to send data queries and converts result messages to
@@ -76,6 +77,18 @@ public class StorageAdminAPI extends ServerAdminAPI {
 		}
 	}
 	
+	/**
+	 * Change the file broker nodes of a cluster. The nodes move the files to 
+	 * their new owners in the background.
+	 * 
+	 * @param nodes root urls of the file brokers, the coordinator first
+	 */
+	public void setFilebrokerNodes(List<String> nodes) throws JMSException {
+		CommandMessage message = new CommandMessage(CommandMessage.COMMAND_SET_FILEBROKER_NODES);
+		message.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(nodes, "\t"));
+		getTopic().sendMessage(message);
+	}
+	
 	private class StorageTotalsMessageListener extends TempTopicMessagingListenerBase {
 
 		private CountDownLatch latch;
@@ -1,5 +1,7 @@
 package fi.csc.microarray.messaging.auth;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.JMSException;
 import javax.jms.Session;
 
@@ -8,6 +10,9 @@ import org.apache.log4j.Logger;
 import fi.csc.microarray.messaging.MessagingEndpoint;
 import fi.csc.microarray.messaging.MessagingListener;
 import fi.csc.microarray.messaging.MessagingTopic;
+import fi.csc.microarray.messaging.ReplyFuture;
+import fi.csc.microarray.messaging.ReplyTopic;
+import fi.csc.microarray.messaging.SessionPool;
 import fi.csc.microarray.messaging.TempTopicMessagingListener;
 import fi.csc.microarray.messaging.auth.AuthenticationRequestListener.Credentials;
 import fi.csc.microarray.messaging.message.AuthenticationMessage;
@@ -52,6 +57,7 @@ public class AuthenticatedTopic extends MessagingTopic {
 							replyMsg.setPassword(credentials.password);
 							replyMsg.setSessionID(msg.getSessionID());
 							replyMsg.setReplyTo(authMsg.getReplyTo());
+							replyMsg.setCorrelationID(authMsg.getCorrelationID()); // ack belongs to the original request
 							
 							// FIXME sometimes reply to this send (ack) is not received as reply temp topic
 							// gets deleted before that
@@ -79,7 +85,11 @@ public class AuthenticatedTopic extends MessagingTopic {
 	};
 
 	public AuthenticatedTopic(Session session, String topicName, Type type, AccessMode accessMode, AuthenticationRequestListener listener, MessagingEndpoint endpoint) throws JMSException {
-		super(session, topicName, type, accessMode, endpoint);
+		this(session, topicName, type, accessMode, listener, endpoint, null, null);
+	}
+
+	public AuthenticatedTopic(Session session, String topicName, Type type, AccessMode accessMode, AuthenticationRequestListener listener, MessagingEndpoint endpoint, SessionPool sessionPool, ReplyTopic replyTopic) throws JMSException {
+		super(session, topicName, type, accessMode, endpoint, sessionPool, replyTopic);
 		this.listener = listener;
 	}
 	
@@ -98,6 +108,14 @@ public class AuthenticatedTopic extends MessagingTopic {
 		super.sendReplyableMessage(message, replyListener, authTopicListener);
 	}
 	
+	@Override
+	public ReplyFuture sendRequest(ChipsterMessage message, long timeout, TimeUnit unit) throws JMSException {
+		attachSessionID(message);
+		ReplyFuture future = new ReplyFuture();
+		super.sendReplyableMessage(message, future, authTopicListener, unit.toMillis(timeout));
+		return future;
+	}
+	
 	private void attachSessionID(ChipsterMessage msg) {
 		String sessionID = getEndpoint().getSessionID();
 		if (sessionID != null) {
@@ -34,6 +34,8 @@ public abstract class ChipsterMessage {
 	private String sessionID;
 	private String multiplexChannel;
 	private String jmsMessageID;
+	private String correlationID;
+	private boolean binaryAccepted = true;
 	
 	/**
 	 * Converts JMS MapMessage into ChipsterMessage. Class extenders, see marshal-method.
@@ -46,6 +48,7 @@ public abstract class ChipsterMessage {
 		this.multiplexChannel = from.getStringProperty(KEY_MULTIPLEX_CHANNEL);
 		this.sessionID = from.getStringProperty(KEY_SESSION_ID);
 		this.jmsMessageID = from.getJMSMessageID();
+		this.correlationID = from.getJMSCorrelationID();
 	}
 	
 	
@@ -70,6 +73,7 @@ public abstract class ChipsterMessage {
 		to.setJMSReplyTo(replyTo);
 		to.setStringProperty(KEY_MULTIPLEX_CHANNEL, multiplexChannel);
 		to.setStringProperty(KEY_SESSION_ID, sessionID);
+		to.setJMSCorrelationID(correlationID);
 	}
 	
 	/**
@@ -143,6 +147,37 @@ public abstract class ChipsterMessage {
 		return jmsMessageID;
 	}
 
+	/**
+	 * Identifies the request that this message is a reply to. Replies of all
+	 * requests of an endpoint arrive to the same reply topic and are dispatched
+	 * by the correlation ID.
+	 */
+	public String getCorrelationID() {
+		return correlationID;
+	}
+
+	/**
+	 * @see #getCorrelationID()
+	 */
+	public void setCorrelationID(String correlationID) {
+		this.correlationID = correlationID;
+	}
+
+	/**
+	 * Returns true if the sender of this received message can decode binary messages,
+	 * so the replies can be sent in binary format. Messages created in this process
+	 * accept binary, received messages get the value from the sender.
+	 * 
+	 * @see fi.csc.microarray.messaging.MessageCodec
+	 */
+	public boolean isBinaryAccepted() {
+		return binaryAccepted;
+	}
+
+	public void setBinaryAccepted(boolean binaryAccepted) {
+		this.binaryAccepted = binaryAccepted;
+	}
+
 	public void handleException(Exception e) throws JMSException {
 		logger.error(e);
 		throw new JMSException(e.getMessage()); // converting URL related errors to JMS errors is kind of strange...
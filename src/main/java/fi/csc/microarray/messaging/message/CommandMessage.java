@@ -24,6 +24,7 @@ public class CommandMessage extends ParameterMessage {
 
 	public final static String COMMAND_NEW_URL_REQUEST ="new-url-request";
 	public final static String COMMAND_GET_URL ="get-url";
+	public final static String COMMAND_GET_URLS ="get-urls";
 
 	@Deprecated
 	public final static String COMMAND_PUBLIC_URL_REQUEST ="public-url-request";
@@ -36,6 +37,9 @@ public class CommandMessage extends ParameterMessage {
 	public static final String COMMAND_REMOVE_SESSION = "remove-session";
 	public static final String COMMAND_LIST_SESSIONS = "list-sessions";
 	public static final String COMMAND_GET_STATUS_REPORT = "get-status-report";
+	public static final String COMMAND_SET_FILEBROKER_NODES = "set-filebroker-nodes";
+	public static final String COMMAND_REPLICATE_FILES = "replicate-files";
+	public static final String COMMAND_REMOVE_FILES = "remove-files";
 
 	public static final String COMMAND_FILE_OPERATION_SUCCESSFUL = "file-operation-successful";
 	public static final String COMMAND_FILE_OPERATION_FAILED = "file-operation-failed";
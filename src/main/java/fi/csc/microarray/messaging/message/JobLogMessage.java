@@ -39,6 +39,7 @@ public class JobLogMessage extends ChipsterMessage {
 	
 	private static final String KEY_USERNAME = "username";
 	private static final String KEY_COMP_HOST = "compHost";
+	private static final String KEY_QUEUE_TIME = "queueTime";
 	
 	private String operation;
 	private JobState state;
@@ -50,6 +51,7 @@ public class JobLogMessage extends ChipsterMessage {
 	private String outputText;
 	private String username;
 	private String compHost;
+	private Long queueTime; // not logged
 	
 	
 
@@ -97,6 +99,9 @@ public class JobLogMessage extends ChipsterMessage {
 		this.outputText = from.getString(KEY_OUTPUT_TEXT);
 		this.username = from.getString(KEY_USERNAME);
 		this.compHost = from.getString(KEY_COMP_HOST);
+		if (from.getString(KEY_QUEUE_TIME) != null) {
+			this.queueTime = Long.parseLong(from.getString(KEY_QUEUE_TIME));
+		}
 	}
 
 	public void marshal(MapMessage mapMessage) throws JMSException {
@@ -119,6 +124,9 @@ public class JobLogMessage extends ChipsterMessage {
 		mapMessage.setString(KEY_OUTPUT_TEXT, this.outputText);
 		mapMessage.setString(KEY_USERNAME, this.username);
 		mapMessage.setString(KEY_COMP_HOST, this.compHost);
+		if (this.queueTime != null) {
+			mapMessage.setString(KEY_QUEUE_TIME, this.queueTime.toString());
+		}
 	}
 	
 	/**
@@ -226,6 +234,21 @@ public class JobLogMessage extends ChipsterMessage {
 	public String getStateDetail() {
 		return this.stateDetail;
 	}
+
+	/**
+	 * Returns the time the job waited in the comp before it was scheduled, milliseconds.
+	 * May be null.
+	 */
+	public Long getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * @see #getQueueTime()
+	 */
+	public void setQueueTime(Long queueTime) {
+		this.queueTime = queueTime;
+	}
 }
 	
 
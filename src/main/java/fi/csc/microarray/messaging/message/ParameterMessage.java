@@ -40,6 +40,7 @@ public abstract class ParameterMessage extends ChipsterMessage {
 	public static final String PARAMETER_JOB_ID = "job-id";
 	public static final String PARAMETER_HOST_ID = "comp-id";
 	public static final String PARAMETER_USE_COMPRESSION = "use-compression";
+	public static final String PARAMETER_COMPRESSION = "compression";
 	public static final String PARAMETER_FILE_ID = "file-id";
 	public static final String PARAMETER_SIZE = "file-size";
 	public static final String PARAMETER_CHECKSUM = "file-checksum";
@@ -54,9 +55,11 @@ public abstract class ParameterMessage extends ChipsterMessage {
 	public static final String PARAMETER_FILE_ID_LIST = "file-id-list";	
 	public static final String PARAMETER_USERNAME_LIST = "username-list";
 	public static final String PARAMETER_SIZE_LIST = "size-list";
+	public static final String PARAMETER_URL_LIST = "url-list";
 	public static final String PARAMETER_DATE_LIST = "date-list";
 	public static final String PARAMETER_STATUS_REPORT = "status-report";
 	public static final String PARAMETER_HOST = "host";
+	public static final String PARAMETER_QUEUE_REASON = "queue-reason";
 	
 	private List<String> parameters = new LinkedList<String>();
 	private HashMap<String, String> namedParameters = new HashMap<String, String>();
@@ -35,6 +35,8 @@ public class ServerStatusMessage extends ChipsterMessage {
 	public static final String KEY_HOST = "host";
 	public static final String KEY_HOST_ID = "hostId";
 	public static final String KEY_STATUS = "status";
+	public static final String KEY_INPUT_CACHE = "inputCache";
+	public static final String KEY_PROCESS_POOL = "processPool";
 	
 	private double load;
 	private int cores;
@@ -51,6 +53,8 @@ public class ServerStatusMessage extends ChipsterMessage {
 	private String host;
 	private String hostId;
 	private String status;
+	private String inputCacheStatistics;
+	private String processPoolStatistics;
 	
 	public ServerStatusMessage() {
 		// used by ActiveMq
@@ -90,6 +94,8 @@ public class ServerStatusMessage extends ChipsterMessage {
 		this.host = from.getString(KEY_HOST);
 		this.hostId = from.getString(KEY_HOST_ID);
 		this.status = from.getString(KEY_STATUS);
+		this.inputCacheStatistics = from.getString(KEY_INPUT_CACHE);
+		this.processPoolStatistics = from.getString(KEY_PROCESS_POOL);
 	}
 
 	public void marshal(MapMessage mapMessage) throws JMSException {
@@ -110,6 +116,8 @@ public class ServerStatusMessage extends ChipsterMessage {
 		mapMessage.setString(KEY_HOST, this.host);
 		mapMessage.setString(KEY_HOST_ID, this.hostId);
 		mapMessage.setString(KEY_STATUS, this.status);
+		mapMessage.setString(KEY_INPUT_CACHE, this.inputCacheStatistics);
+		mapMessage.setString(KEY_PROCESS_POOL, this.processPoolStatistics);
 	}
 	
 	public String toString() {
@@ -120,6 +128,12 @@ public class ServerStatusMessage extends ChipsterMessage {
 		string += "Jobs received    \t" + receivedJobs + "\n";
 		string += "Jobs scheduled   \t" + scheduledJobs + "\n";
 		string += "Jobs running     \t" + runningJobs + " \n";
+		if (inputCacheStatistics != null) {
+			string += "Input cache      \t" + inputCacheStatistics + "\n";
+		}
+		if (processPoolStatistics != null) {
+			string += "Process pools    \t" + processPoolStatistics + "\n";
+		}
 
 		string += systemStatsToString();
 		
@@ -293,6 +307,26 @@ public class ServerStatusMessage extends ChipsterMessage {
 	public void setStatus(String status) {
 		this.status = status;
 	}
-}
-	
 
+	/**
+	 * @return human readable statistics of the input cache or null if the cache isn't used
+	 */
+	public String getInputCacheStatistics() {
+		return inputCacheStatistics;
+	}
+
+	public void setInputCacheStatistics(String inputCacheStatistics) {
+		this.inputCacheStatistics = inputCacheStatistics;
+	}
+
+	/**
+	 * @return human readable statistics of the process pools or null if there are no pools
+	 */
+	public String getProcessPoolStatistics() {
+		return processPoolStatistics;
+	}
+
+	public void setProcessPoolStatistics(String processPoolStatistics) {
+		this.processPoolStatistics = processPoolStatistics;
+	}
+}
@@ -657,7 +657,7 @@ public class MicroarrayModule implements Module {
 		if (data.isContentTypeCompatitible("text/tab")) {
 			BufferedReader in = null;
 			try {
-				in = new BufferedReader(new InputStreamReader(Session.getSession().getDataManager().getContentStream(data, DataNotAvailableHandling.EXCEPTION_ON_NA)));
+				in = new BufferedReader(new InputStreamReader(Session.getSession().getDataManager().getContentStreamFromHead(data, DataNotAvailableHandling.EXCEPTION_ON_NA)));
 				String headerLine = in.readLine();
 				String contentLine = in.readLine();
 				
@@ -845,7 +845,7 @@ public class MicroarrayModule implements Module {
 
 		BufferedReader reader = null;
 		try {
-			InputStream stream = Session.getSession().getDataManager().getContentStream(data, DataNotAvailableHandling.NULL_ON_NA);
+			InputStream stream = Session.getSession().getDataManager().getContentStreamFromHead(data, DataNotAvailableHandling.NULL_ON_NA);
 			if (stream != null) {
 				reader = new BufferedReader(new InputStreamReader(stream));
 				return reader.readLine();
@@ -0,0 +1,58 @@
+package fi.csc.microarray.util;
+
+/**
+ * Shared bandwidth budget for data transfers. Transfers report the bytes they
+ * have moved and are put to sleep when the combined rate of all transfers
+ * using the same limiter exceeds the budget.
+ *
+ * Thread safe.
+ */
+public class BandwidthLimiter {
+
+	private final long bytesPerSecond;
+	private long windowStart = System.currentTimeMillis();
+	private long bytesInWindow = 0;
+
+	/**
+	 * @param bytesPerSecond maximum combined rate, 0 or negative for unlimited
+	 */
+	public BandwidthLimiter(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public boolean isUnlimited() {
+		return bytesPerSecond <= 0;
+	}
+
+	/**
+	 * Account transferred bytes and sleep if the budget has been used up.
+	 *
+	 * @param bytes number of bytes transferred since the last call
+	 * @throws InterruptedException
+	 */
+	public void acquire(long bytes) throws InterruptedException {
+		if (isUnlimited() || bytes <= 0) {
+			return;
+		}
+
+		long sleepTime;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+
+			// start a new window every second, so that an idle period doesn't allow a long burst later
+			if (now - windowStart >= 1000) {
+				windowStart = now;
+				bytesInWindow = 0;
+			}
+			bytesInWindow += bytes;
+
+			// time when the bytes of this window would have been transferred at the allowed rate
+			long allowedTime = windowStart + (bytesInWindow * 1000) / bytesPerSecond;
+			sleepTime = allowedTime - now;
+		}
+
+		if (sleepTime > 0) {
+			Thread.sleep(sleepTime);
+		}
+	}
+}
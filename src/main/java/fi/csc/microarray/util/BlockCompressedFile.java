@@ -0,0 +1,141 @@
+package fi.csc.microarray.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Random access to a file in the {@link BlockCompression} format. The index
+ * at the end of the file tells where each block starts, so reading from the
+ * middle of the file decompresses only the blocks that are needed.
+ *
+ * <p>Not thread safe.</p>
+ */
+public class BlockCompressedFile implements Closeable {
+
+	private RandomAccessFile file;
+	private long[] blockOffsets;
+	private long[] blockStarts;
+	private long length;
+
+	private int cachedBlockIndex = -1;
+	private byte[] cachedBlock;
+
+	public BlockCompressedFile(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		try {
+			readIndex();
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	private void readIndex() throws IOException {
+		byte[] magic = new byte[BlockCompression.MAGIC.length];
+		file.readFully(magic);
+		BlockCompression.checkMagic(BlockCompression.MAGIC, magic);
+
+		if (file.length() < BlockCompression.HEADER_LENGTH + 8 + BlockCompression.TRAILER_LENGTH) {
+			throw new IOException("index is missing");
+		}
+		file.seek(file.length() - BlockCompression.TRAILER_LENGTH);
+		long indexOffset = file.readLong();
+		file.readFully(magic);
+		BlockCompression.checkMagic(BlockCompression.INDEX_MAGIC, magic);
+
+		if (indexOffset < BlockCompression.HEADER_LENGTH || indexOffset > file.length() - BlockCompression.TRAILER_LENGTH) {
+			throw new IOException("illegal index offset " + indexOffset);
+		}
+		file.seek(indexOffset);
+		int blockCount = file.readInt();
+		if (blockCount < 0 || indexOffset + 4 + blockCount * 12l + BlockCompression.TRAILER_LENGTH != file.length()) {
+			throw new IOException("illegal block count " + blockCount);
+		}
+
+		blockOffsets = new long[blockCount];
+		blockStarts = new long[blockCount];
+		length = 0;
+		for (int i = 0; i < blockCount; i++) {
+			blockOffsets[i] = file.readLong();
+			blockStarts[i] = length;
+			length += file.readInt();
+		}
+	}
+
+	/**
+	 * @return the length of the uncompressed data
+	 */
+	public long length() {
+		return length;
+	}
+
+	public int getBlockCount() {
+		return blockOffsets.length;
+	}
+
+	/**
+	 * Read uncompressed data starting from the given position.
+	 *
+	 * @return number of bytes read, or -1 if the position is at the end of the data
+	 */
+	public int read(long position, byte[] b, int off, int len) throws IOException {
+		if (position < 0) {
+			throw new IllegalArgumentException("negative position " + position);
+		}
+		if (position >= length) {
+			return -1;
+		}
+
+		int count = 0;
+		while (count < len && position < length) {
+			int blockIndex = getBlockIndex(position);
+			byte[] block = readBlock(blockIndex);
+			int blockPosition = (int) (position - blockStarts[blockIndex]);
+			int blockCount = Math.min(len - count, block.length - blockPosition);
+			System.arraycopy(block, blockPosition, b, off + count, blockCount);
+			count += blockCount;
+			position += blockCount;
+		}
+		return count;
+	}
+
+	private int getBlockIndex(long position) {
+		int low = 0;
+		int high = blockStarts.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (blockStarts[middle] <= position) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	private byte[] readBlock(int index) throws IOException {
+		if (index == cachedBlockIndex) {
+			return cachedBlock;
+		}
+
+		file.seek(blockOffsets[index]);
+		int uncompressedLength = file.readInt();
+		BlockCompression.checkBlockLength(uncompressedLength);
+		int storedLength = file.readInt();
+		BlockCompression.checkBlockLength(storedLength);
+		byte method = file.readByte();
+		byte[] data = new byte[storedLength];
+		file.readFully(data);
+
+		cachedBlock = BlockCompression.decompress(method, data, uncompressedLength);
+		cachedBlockIndex = index;
+		return cachedBlock;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
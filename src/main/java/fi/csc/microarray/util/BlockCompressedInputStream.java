@@ -0,0 +1,167 @@
+package fi.csc.microarray.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads data in the {@link BlockCompression} format from a stream. The blocks
+ * are read ahead and decompressed in a thread pool, while the caller consumes
+ * the earlier ones.
+ *
+ * <p>The index at the end of the stream is skipped, it's only needed for
+ * random access with {@link BlockCompressedFile}.</p>
+ */
+public class BlockCompressedInputStream extends InputStream {
+
+	private DataInputStream in;
+	private ExecutorService executor;
+	private int maxPendingBlocks;
+
+	private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+	private boolean endOfBlocks = false;
+
+	private byte[] block;
+	private int blockPosition = 0;
+
+	/**
+	 * Decompress with the shared thread pool.
+	 */
+	public BlockCompressedInputStream(InputStream in) throws IOException {
+		this(in, BlockCompression.getExecutor(), BlockCompression.getThreadCount());
+	}
+
+	/**
+	 * @param executor runs the decompression of blocks
+	 * @param threads number of blocks to decompress in parallel
+	 */
+	public BlockCompressedInputStream(InputStream in, ExecutorService executor, int threads) throws IOException {
+		this.in = new DataInputStream(in);
+		this.executor = executor;
+		this.maxPendingBlocks = Math.max(threads, 1) * 2;
+
+		byte[] magic = new byte[BlockCompression.MAGIC.length];
+		this.in.readFully(magic);
+		BlockCompression.checkMagic(BlockCompression.MAGIC, magic);
+		BlockCompression.checkBlockLength(this.in.readInt());
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlockIfNeeded()) {
+			return -1;
+		}
+		return block[blockPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextBlockIfNeeded()) {
+			return -1;
+		}
+		int count = Math.min(len, block.length - blockPosition);
+		System.arraycopy(block, blockPosition, b, off, count);
+		blockPosition += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return block != null ? block.length - blockPosition : 0;
+	}
+
+	/**
+	 * @return false if there is no more data
+	 */
+	private boolean nextBlockIfNeeded() throws IOException {
+		if (block != null && blockPosition < block.length) {
+			return true;
+		}
+
+		readAhead();
+		if (pendingBlocks.isEmpty()) {
+			return false;
+		}
+
+		try {
+			block = pendingBlocks.removeFirst().get();
+			blockPosition = 0;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while decompressing");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("decompression failed", e.getCause());
+		}
+
+		// keep the pool busy while the caller reads this block
+		readAhead();
+		return true;
+	}
+
+	private void readAhead() throws IOException {
+		while (!endOfBlocks && pendingBlocks.size() < maxPendingBlocks) {
+			final int uncompressedLength = in.readInt();
+			if (uncompressedLength == 0) {
+				endOfBlocks = true;
+				skipIndex();
+				break;
+			}
+			BlockCompression.checkBlockLength(uncompressedLength);
+
+			int length = in.readInt();
+			BlockCompression.checkBlockLength(length);
+			final byte method = in.readByte();
+			final byte[] data = new byte[length];
+			in.readFully(data);
+
+			pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return BlockCompression.decompress(method, data, uncompressedLength);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Consume the rest of the stream, so that HTTP connections can be reused.
+	 */
+	private void skipIndex() throws IOException {
+		int blockCount = in.readInt();
+		if (blockCount < 0) {
+			throw new IOException("illegal block count " + blockCount);
+		}
+		long indexLength = blockCount * 12l + BlockCompression.TRAILER_LENGTH;
+		while (indexLength > 0) {
+			long skipped = in.skip(indexLength);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("index is truncated");
+				}
+				skipped = 1;
+			}
+			indexLength -= skipped;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<byte[]> pending : pendingBlocks) {
+			pending.cancel(false);
+		}
+		pendingBlocks.clear();
+		in.close();
+	}
+}
@@ -0,0 +1,185 @@
+package fi.csc.microarray.util;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import fi.csc.microarray.util.BlockCompression.Block;
+
+/**
+ * Writes data in the {@link BlockCompression} format. Full blocks are compressed
+ * in a thread pool while the caller fills the next ones, and written out in order.
+ * The number of blocks in progress is limited, so the memory usage stays at a
+ * few blocks per thread.
+ *
+ * <p>Not thread safe, like other output streams.</p>
+ */
+public class BlockCompressedOutputStream extends FilterOutputStream {
+
+	private DataOutputStream out;
+	private ExecutorService executor;
+	private int blockSize;
+	private int level;
+	private int maxPendingBlocks;
+
+	private byte[] buffer;
+	private int bufferLength = 0;
+	private LinkedList<Future<Block>> pendingBlocks = new LinkedList<Future<Block>>();
+
+	private long position;
+	private List<Long> blockOffsets = new ArrayList<Long>();
+	private List<Integer> blockLengths = new ArrayList<Integer>();
+	private boolean closed = false;
+
+	/**
+	 * Compress with the shared thread pool, default block size and the fastest
+	 * compression level.
+	 */
+	public BlockCompressedOutputStream(OutputStream out) throws IOException {
+		this(out, BlockCompression.getExecutor(), BlockCompression.getThreadCount(), BlockCompression.DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param executor runs the compression of blocks
+	 * @param threads number of blocks to compress in parallel
+	 * @param blockSize uncompressed bytes per block
+	 * @param level deflate compression level
+	 */
+	public BlockCompressedOutputStream(OutputStream out, ExecutorService executor, int threads, int blockSize, int level) throws IOException {
+		super(out);
+		if (blockSize <= 0 || blockSize > BlockCompression.MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("illegal block size " + blockSize);
+		}
+		this.out = new DataOutputStream(out);
+		this.executor = executor;
+		this.maxPendingBlocks = Math.max(threads, 1) * 2;
+		this.blockSize = blockSize;
+		this.level = level;
+		this.buffer = new byte[blockSize];
+
+		this.out.write(BlockCompression.MAGIC);
+		this.out.writeInt(blockSize);
+		this.position = BlockCompression.HEADER_LENGTH;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buffer[bufferLength++] = (byte) b;
+		if (bufferLength == blockSize) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int count = Math.min(len, blockSize - bufferLength);
+			System.arraycopy(b, off, buffer, bufferLength, count);
+			bufferLength += count;
+			off += count;
+			len -= count;
+			if (bufferLength == blockSize) {
+				submitBlock();
+			}
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] data = buffer;
+		final int length = bufferLength;
+		buffer = new byte[blockSize];
+		bufferLength = 0;
+
+		pendingBlocks.add(executor.submit(new Callable<Block>() {
+			@Override
+			public Block call() {
+				return BlockCompression.compress(data, length, level);
+			}
+		}));
+
+		while (pendingBlocks.size() >= maxPendingBlocks) {
+			writeNextBlock();
+		}
+	}
+
+	private void writeNextBlock() throws IOException {
+		Block block;
+		try {
+			block = pendingBlocks.removeFirst().get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("compression failed", e.getCause());
+		}
+
+		blockOffsets.add(position);
+		blockLengths.add(block.uncompressedLength);
+
+		out.writeInt(block.uncompressedLength);
+		out.writeInt(block.length);
+		out.writeByte(block.method);
+		out.write(block.data, 0, block.length);
+		position += 9 + block.length;
+	}
+
+	/**
+	 * Writes the blocks that are complete already. The buffered data of the
+	 * current block is kept to keep the blocks full size.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while (!pendingBlocks.isEmpty()) {
+			writeNextBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compress the last block, write the index and close the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if (bufferLength > 0) {
+				submitBlock();
+			}
+			while (!pendingBlocks.isEmpty()) {
+				writeNextBlock();
+			}
+
+			// end of blocks
+			out.writeInt(0);
+			long indexOffset = position + 4;
+
+			out.writeInt(blockOffsets.size());
+			for (int i = 0; i < blockOffsets.size(); i++) {
+				out.writeLong(blockOffsets.get(i));
+				out.writeInt(blockLengths.get(i));
+			}
+			out.writeLong(indexOffset);
+			out.write(BlockCompression.INDEX_MAGIC);
+			out.flush();
+
+		} finally {
+			for (Future<Block> pending : pendingBlocks) {
+				pending.cancel(false);
+			}
+			out.close();
+		}
+	}
+}
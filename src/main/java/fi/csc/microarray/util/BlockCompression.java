@@ -0,0 +1,203 @@
+package fi.csc.microarray.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block compressed format for file transfers. The data is split to blocks that
+ * are compressed independently, so that a pool of threads can compress and
+ * decompress them in parallel, and a single block can be read without reading
+ * the blocks before it.
+ *
+ * <pre>
+ * header:  magic "CBZ1", int block size
+ * block:   int uncompressed length (&gt; 0), int stored length, byte method, stored bytes
+ * end:     int 0
+ * index:   int block count, for each block: long offset of the block in the file, int uncompressed length
+ * trailer: long offset of the index, magic "CBZI"
+ * </pre>
+ *
+ * <p>Blocks that don't get smaller, like parts of BAM files that are compressed
+ * already, are stored as they are.</p>
+ *
+ * @see BlockCompressedOutputStream
+ * @see BlockCompressedInputStream
+ * @see BlockCompressedFile
+ */
+public class BlockCompression {
+
+	public static final byte[] MAGIC = new byte[] { 'C', 'B', 'Z', '1' };
+	public static final byte[] INDEX_MAGIC = new byte[] { 'C', 'B', 'Z', 'I' };
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Bytes before the first block.
+	 */
+	public static final int HEADER_LENGTH = MAGIC.length + 4;
+
+	/**
+	 * Bytes after the index.
+	 */
+	public static final int TRAILER_LENGTH = 8 + INDEX_MAGIC.length;
+
+	static final byte METHOD_STORED = 0;
+	static final byte METHOD_DEFLATE = 1;
+
+	/**
+	 * Max size of a block that we agree to read, protects from allocating
+	 * huge arrays when the stream is corrupted.
+	 */
+	static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Blocks are stored without compression if this many bytes from the
+	 * beginning don't compress to {@link #MIN_SAMPLE_RATIO}.
+	 */
+	private static final int SAMPLE_SIZE = 32 * 1024;
+	private static final double MIN_SAMPLE_RATIO = 0.95;
+
+	private static ExecutorService executor;
+
+	/**
+	 * Compressed block and its lengths.
+	 */
+	static class Block {
+		byte method;
+		byte[] data;
+		int length;
+		int uncompressedLength;
+	}
+
+	/**
+	 * @return shared pool of daemon threads, one per processor
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "block-compression");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	public static int getThreadCount() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	static Block compress(byte[] data, int length, int level) {
+		Deflater deflater = new Deflater(level);
+		try {
+			if (length > SAMPLE_SIZE * 4 && !isCompressible(deflater, data)) {
+				return store(data, length);
+			}
+			deflater.reset();
+
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			// don't bother if it doesn't get smaller
+			byte[] output = new byte[length];
+			int outputLength = 0;
+			while (!deflater.finished() && outputLength < output.length) {
+				outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+			}
+
+			if (!deflater.finished() || outputLength >= length) {
+				return store(data, length);
+			}
+			Block block = new Block();
+			block.uncompressedLength = length;
+			block.method = METHOD_DEFLATE;
+			block.data = output;
+			block.length = outputLength;
+			return block;
+
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compress the beginning of the block to find out quickly if the data is
+	 * compressed already.
+	 */
+	private static boolean isCompressible(Deflater deflater, byte[] data) {
+		deflater.setInput(data, 0, SAMPLE_SIZE);
+		deflater.finish();
+		byte[] output = new byte[SAMPLE_SIZE];
+		int outputLength = 0;
+		while (!deflater.finished() && outputLength < output.length) {
+			outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+		}
+		return deflater.finished() && outputLength < SAMPLE_SIZE * MIN_SAMPLE_RATIO;
+	}
+
+	private static Block store(byte[] data, int length) {
+		Block block = new Block();
+		block.uncompressedLength = length;
+		block.method = METHOD_STORED;
+		block.data = data;
+		block.length = length;
+		return block;
+	}
+
+	static byte[] decompress(byte method, byte[] data, int uncompressedLength) throws IOException {
+		switch (method) {
+		case METHOD_STORED:
+			if (data.length != uncompressedLength) {
+				throw new IOException("stored block has wrong length: " + data.length + ", expected " + uncompressedLength);
+			}
+			return data;
+
+		case METHOD_DEFLATE:
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data);
+				byte[] output = new byte[uncompressedLength];
+				int outputLength = 0;
+				while (!inflater.finished() && outputLength < output.length) {
+					int count = inflater.inflate(output, outputLength, output.length - outputLength);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					outputLength += count;
+				}
+				if (!inflater.finished() || outputLength != uncompressedLength) {
+					throw new IOException("corrupted block, got " + outputLength + " bytes, expected " + uncompressedLength);
+				}
+				return output;
+
+			} catch (DataFormatException e) {
+				throw new IOException("corrupted block", e);
+			} finally {
+				inflater.end();
+			}
+
+		default:
+			throw new IOException("unknown compression method " + method);
+		}
+	}
+
+	static void checkMagic(byte[] expected, byte[] actual) throws IOException {
+		if (!Arrays.equals(expected, actual)) {
+			throw new IOException("not in block compressed format");
+		}
+	}
+
+	static void checkBlockLength(int length) throws IOException {
+		if (length < 0 || length > MAX_BLOCK_SIZE) {
+			throw new IOException("illegal block length " + length);
+		}
+	}
+}
@@ -293,6 +293,27 @@ public class Files {
 		}
 	}
 	
+	/**
+	 * Tries to create a hard link. Returns true if link was created and false otherwise (links not supported
+	 * on the platform, files on different file systems, IO error, ...).
+	 *
+	 * Unlike a symbolic link, a hard link keeps the content available even if the original
+	 * file is deleted.
+	 *
+	 * @param from
+	 * @param to
+	 * @return true iff link created successfully
+	 */
+	public static boolean createHardLink(File from, File to) {
+		try {
+			java.nio.file.Files.createLink(to.toPath(), from.toPath());
+			return true;
+
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Lists all files (for which isDirectory() returns false) 
 	 * under this file or directory and its subdirectories.
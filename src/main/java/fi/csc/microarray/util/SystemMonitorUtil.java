@@ -1,6 +1,9 @@
 package fi.csc.microarray.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
@@ -66,6 +69,45 @@ public class SystemMonitorUtil {
 		return usedS + "M / " + maxS + "M";
 	}
 	
+	/**
+	 * @return system load average of the last minute or negative if not available
+	 */
+	public static double getLoadAverage() {
+		return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+	}
+	
+	/**
+	 * @return total physical memory of the host in bytes
+	 */
+	public static long getTotalPhysicalMemory() {
+		return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize();
+	}
+	
+	/**
+	 * Memory that can be allocated without swapping. On Linux this includes 
+	 * the page cache, which the free physical memory reported by the JVM doesn't. 
+	 * 
+	 * @return available physical memory of the host in bytes
+	 */
+	public static long getAvailablePhysicalMemory() {
+		File meminfo = new File("/proc/meminfo");
+		if (meminfo.exists()) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(meminfo))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// MemAvailable:   12345678 kB
+					if (line.startsWith("MemAvailable:")) {
+						String[] fields = line.split("\\s+");
+						return Long.parseLong(fields[1]) * 1024;
+					}
+				}
+			} catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				// use the value from the JVM
+			}
+		}
+		return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getFreePhysicalMemorySize();
+	}
+	
 	/**
 	 * Collects some system performance metrics and returns them  as ServerStatusMessage which is
 	 * easy to send over JMS.
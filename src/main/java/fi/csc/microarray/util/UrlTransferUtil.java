@@ -1,5 +1,6 @@
 package fi.csc.microarray.util;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -17,6 +18,8 @@ import java.util.zip.DeflaterOutputStream;
 
 import javax.jms.JMSException;
 
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.filebroker.ChecksumAlgorithm;
 import fi.csc.microarray.filebroker.ChecksumException;
 import fi.csc.microarray.filebroker.ChecksumInputStream;
 
@@ -24,6 +27,8 @@ public class UrlTransferUtil {
 
 	public static int HTTP_TIMEOUT_MILLISECONDS = 2000;
 	private static final long POST_UPLOAD_TIMEOUT_MILLISECONDS = 500;
+	private static final long AVAILABILITY_TIMEOUT_MILLISECONDS = 5000;
+	private static final long AVAILABILITY_POLL_INTERVAL_MILLISECONDS = 20;
 
 	private static final int CHUNK_SIZE = 2048;
 	
@@ -42,7 +47,8 @@ public class UrlTransferUtil {
 	
 	/**
 	 * Uploads a file (or similar) over HTTP.
-	 * NOTE! Compression does not work with files larger than 4 gigabytes
+	 * If compress is true, the compression format is chosen by the suffix of the url.
+	 * NOTE! Deflate compression does not work with files larger than 4 gigabytes
 	 * in JDK 1.6 and earlier.
 	 *  
 	 * @param url address to copy to
@@ -55,12 +61,21 @@ public class UrlTransferUtil {
 	 * @throws ChecksumException 
 	 */
     public static String uploadStream(URL url, InputStream fis, boolean useChunked, boolean compress, boolean useChecksums, IOUtils.CopyProgressListener progressListener) throws IOException, ChecksumException {
+    	return uploadStream(url, fis, useChunked, compress, useChecksums, ChecksumAlgorithm.MD5, progressListener);
+    }
+    
+    /**
+     * @param checksumAlgorithm algorithm for verifying the upload, md5 of the file is returned anyway if the server sends it
+     * @see #uploadStream(URL, InputStream, boolean, boolean, boolean, IOUtils.CopyProgressListener)
+     */
+    public static String uploadStream(URL url, InputStream fis, boolean useChunked, boolean compress, boolean useChecksums, ChecksumAlgorithm checksumAlgorithm, IOUtils.CopyProgressListener progressListener) throws IOException, ChecksumException {
 
     	HttpURLConnection connection = null;
     	String checksum = null;
 
     	try {
     		connection = prepareForUpload(url);
+    		requestChecksumAlgorithm(connection, useChecksums, checksumAlgorithm);
 
     		if (useChunked) {
     			// use chunked mode or otherwise URLConnection loads everything into memory
@@ -72,9 +87,11 @@ public class UrlTransferUtil {
     		OutputStream os = null;
     		
     		try {
-    			is = new ChecksumInputStream(fis, useChecksums, connection);    					    			
+    			is = new ChecksumInputStream(fis, useChecksums, connection, checksumAlgorithm);    					    			
     			
-    			if (compress) {
+    			if (compress && Compression.fromFilename(url.getPath()) == Compression.BLOCK) {
+    				os = new BlockCompressedOutputStream(connection.getOutputStream());
+    			} else if (compress) {
         			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
         			os = new DeflaterOutputStream(connection.getOutputStream(), deflater);
     			} else {
@@ -105,17 +122,74 @@ public class UrlTransferUtil {
 
     	// Wait for upload server to make the file available, so that
     	// after this method returns we can trust the file to be accessible.
-    	// Could be improved by explicitly trying to read from the URL.
-    	try {
-			Thread.sleep(POST_UPLOAD_TIMEOUT_MILLISECONDS);
-		} catch (InterruptedException e) {
-			// ignore
-		}
+    	waitForAvailability(url);
     	
     	// May be null
     	return checksum;
     }
     
+    /**
+     * Ask the file broker to send a checksum calculated with the algorithm, if it's something else than the default md5.
+     */
+    public static void requestChecksumAlgorithm(URLConnection connection, boolean useChecksums, ChecksumAlgorithm checksumAlgorithm) {
+    	if (useChecksums && checksumAlgorithm != ChecksumAlgorithm.MD5) {
+    		connection.setRequestProperty(ChecksumInputStream.HTTP_CHECKSUM_ALGORITHM_KEY, checksumAlgorithm.getName());
+    	}
+    }
+    
+    /**
+     * Polls the URL with HEAD requests until the file is available. Returns
+     * immediately in the usual case where the server has made the file visible 
+     * before responding to the upload. 
+     * 
+     * If the server doesn't support HEAD requests (old file brokers), falls back to 
+     * waiting for a fixed time.
+     * 
+     * @param url
+     * @return true if the file was found, false if the waiting timed out or availability couldn't be checked
+     */
+    public static boolean waitForAvailability(URL url) {
+    	long startTime = System.currentTimeMillis();
+    	try {
+    		while (true) {
+    			int responseCode = getHeadResponseCode(url);
+
+    			if (isSuccessfulCode(responseCode)) {
+    				return true;
+    			}
+
+    			if (responseCode == HttpURLConnection.HTTP_BAD_METHOD) {
+    				// no support for HEAD, wait like before
+    				Thread.sleep(POST_UPLOAD_TIMEOUT_MILLISECONDS);
+    				return false;
+    			}
+
+    			if (System.currentTimeMillis() - startTime > AVAILABILITY_TIMEOUT_MILLISECONDS) {
+    				return false;
+    			}
+    			Thread.sleep(AVAILABILITY_POLL_INTERVAL_MILLISECONDS);
+    		}
+    	} catch (InterruptedException e) {
+    		return false;
+    	} catch (IOException e) {
+    		return false;
+    	}
+    }
+    
+    private static int getHeadResponseCode(URL url) throws IOException {
+    	HttpURLConnection connection = null;
+    	try {
+    		connection = (HttpURLConnection)url.openConnection();
+    		KeyAndTrustManager.configureSSL(connection);
+    		connection.setRequestMethod("HEAD");
+    		connection.setUseCaches(false);
+    		connection.setConnectTimeout(HTTP_TIMEOUT_MILLISECONDS);
+    		return connection.getResponseCode();
+    	} finally {
+    		IOUtils.disconnectIfPossible(connection);
+    	}
+    }
+    
     public static boolean isSuccessfulCode(int responseCode) {
 		return responseCode >= 200 && responseCode < 300; // 2xx => successful
 	}
@@ -167,11 +241,44 @@ public class UrlTransferUtil {
 	}
 
 
+	/**
+	 * Get the md5 checksum of the file with a HEAD request.
+	 * 
+	 * @return checksum sent by the server or null if the server didn't send it
+	 * @throws FileNotFoundException if the server doesn't have the file
+	 */
+	public static String getChecksum(URL url) throws IOException {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection)url.openConnection();
+			KeyAndTrustManager.configureSSL(connection);
+			connection.setRequestMethod("HEAD");
+			connection.setUseCaches(false);
+			connection.setConnectTimeout(HTTP_TIMEOUT_MILLISECONDS);
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				throw new FileNotFoundException(url.toString());
+			}
+			if (!isSuccessfulCode(connection.getResponseCode())) {
+				return null;
+			}
+			return connection.getHeaderField(ChecksumInputStream.HTTP_CHECKSUM_KEY);
+		} finally {
+			IOUtils.disconnectIfPossible(connection);
+		}
+	}
+
+	/**
+	 * @return content length sent by the server or null if the server didn't send it
+	 * @throws FileNotFoundException if the server doesn't have the file
+	 */
 	public static Long getContentLength(URL url) throws IOException {
 		HttpURLConnection connection = null;
 		try {
 			connection = (HttpURLConnection)url.openConnection();
 			KeyAndTrustManager.configureSSL(connection);
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+				throw new FileNotFoundException(url.toString());
+			}
 			String lengthString = connection.getHeaderField("content-length");
 			if (lengthString != null) {
 				return Long.parseLong(lengthString);
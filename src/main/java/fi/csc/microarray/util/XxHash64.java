@@ -0,0 +1,164 @@
+package fi.csc.microarray.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * Streaming implementation of the XXH64 hash (https://github.com/Cyan4973/xxHash).
+ * It's not a cryptographic hash, but it detects corrupted transfers as well as
+ * md5 does and it's several times faster to calculate.
+ */
+public class XxHash64 implements Checksum {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private static final int STRIPE_LENGTH = 32;
+
+	private long seed;
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+	private long totalLength;
+
+	/**
+	 * Bytes that didn't fill a whole stripe yet
+	 */
+	private ByteBuffer memory = ByteBuffer.allocate(STRIPE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+	public XxHash64() {
+		this(0);
+	}
+
+	public XxHash64(long seed) {
+		this.seed = seed;
+		reset();
+	}
+
+	@Override
+	public void reset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		totalLength = 0;
+		memory.clear();
+	}
+
+	@Override
+	public void update(int b) {
+		update(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		update(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Hash the remaining bytes of the buffer. The position of the buffer will be
+	 * equal to its limit.
+	 */
+	public void update(ByteBuffer data) {
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		data.position(data.limit());
+		totalLength += buffer.remaining();
+
+		if (memory.position() > 0) {
+			while (memory.hasRemaining() && buffer.hasRemaining()) {
+				memory.put(buffer.get());
+			}
+			if (memory.hasRemaining()) {
+				return;
+			}
+			processStripes(memory, 0, STRIPE_LENGTH);
+			memory.clear();
+		}
+
+		int position = buffer.position();
+		int stripesEnd = position + (buffer.remaining() / STRIPE_LENGTH) * STRIPE_LENGTH;
+		processStripes(buffer, position, stripesEnd);
+
+		buffer.position(stripesEnd);
+		memory.put(buffer);
+	}
+
+	private void processStripes(ByteBuffer buffer, int position, int end) {
+		// locals are faster than fields in the loop
+		long a = v1;
+		long b = v2;
+		long c = v3;
+		long d = v4;
+		for (; position < end; position += STRIPE_LENGTH) {
+			a = round(a, buffer.getLong(position));
+			b = round(b, buffer.getLong(position + 8));
+			c = round(c, buffer.getLong(position + 16));
+			d = round(d, buffer.getLong(position + 24));
+		}
+		v1 = a;
+		v2 = b;
+		v3 = c;
+		v4 = d;
+	}
+
+	@Override
+	public long getValue() {
+		long hash;
+		if (totalLength >= STRIPE_LENGTH) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = seed + PRIME5;
+		}
+		hash += totalLength;
+
+		int position = 0;
+		int end = memory.position();
+		for (; position + 8 <= end; position += 8) {
+			hash ^= round(0, memory.getLong(position));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (position + 4 <= end) {
+			hash ^= (memory.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			position += 4;
+		}
+		for (; position < end; position++) {
+			hash ^= (memory.get(position) & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	/**
+	 * @return the hash as 16 hex characters, like the xxhsum command line tool prints it
+	 */
+	public String getHexValue() {
+		return String.format("%016x", getValue());
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME1 + PRIME4;
+	}
+}
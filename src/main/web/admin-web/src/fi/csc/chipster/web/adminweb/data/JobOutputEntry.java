@@ -0,0 +1,40 @@
+package fi.csc.chipster.web.adminweb.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * Compressed output of a job, when it was too long to be stored in the jobs table.
+ */
+@Entity
+@Table(name="job_outputs")
+public class JobOutputEntry implements Serializable {
+
+	//Id generation method isn't defined, because only database reading is needed
+	@Id
+	private String id;
+	
+	@Lob
+	@Column(name=JobLogContainer.OUTPUT_TEXT)
+	private byte[] outputText;
+	
+	public JobOutputEntry() {};
+	
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public byte[] getOutputText() {
+		return outputText;
+	}
+	public void setOutputText(byte[] outputText) {
+		this.outputText = outputText;
+	}
+}
@@ -28,13 +28,14 @@ public class JobsContainer extends BeanItemContainer<JobsEntry> implements Seria
 	public static final String STATUS = "status";
 	public static final String COMPHOST = "compHost";
 	public static final String START_TIME = "startTime";
+	public static final String QUEUE_TIME = "queueTime";
 	public static final String CANCEL_LINK = "cancelLink";
 
 	public static final Object[] NATURAL_COL_ORDER  = new String[] {
-		USERNAME, 		OPERATION, 		STATUS, 	COMPHOST, 		START_TIME, 	CANCEL_LINK };
+		USERNAME, 		OPERATION, 		STATUS, 	COMPHOST, 		START_TIME, 	QUEUE_TIME, 		CANCEL_LINK };
 
 	public static final String[] COL_HEADERS_ENGLISH = new String[] {
-		"Username", 	"Operation", 	"Status", 	"Comp host", 	"Start time", 	"" };
+		"Username", 	"Operation", 	"Status", 	"Comp host", 	"Start time", 	"Queued (s)", 	"" };
 	
 	private CompAdminAPI compAdminAPI;
 
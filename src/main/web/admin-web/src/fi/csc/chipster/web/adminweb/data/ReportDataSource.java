@@ -21,6 +21,7 @@ import fi.csc.chipster.web.adminweb.ui.ReportView;
 import fi.csc.microarray.config.ConfigurationLoader.IllegalConfigurationException;
 import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.messaging.admin.CompAdminAPI;
+import fi.csc.microarray.messaging.admin.ManagerAdminAPI;
 import fi.csc.microarray.messaging.admin.ServerAdminAPI;
 import fi.csc.microarray.messaging.admin.ServerAdminAPI.StatusReportListener;
 import fi.csc.microarray.messaging.admin.StorageAdminAPI;
@@ -32,16 +33,34 @@ public class ReportDataSource {
 	
 	private StorageAdminAPI storageAdminAPI;
 	private CompAdminAPI compAdminAPI;
+	private ManagerAdminAPI managerAdminAPI;
 	
 	public void updateFilebrokerReport(final ReportView view) {
+		
+		try {
+			updateReport(view.getFilebrokerLabel(), getStorageAdminAPI(), "filebroker");
+		} catch (IOException | IllegalConfigurationException | MicroarrayException | JMSException e) {
+			logger.error("failed to update storage status report", e);
+		}
+	}
+	
+	public void updateManagerReport(final ReportView view) {
+		
+		try {
+			updateReport(view.getManagerLabel(), getManagerAdminAPI(), "manager");
+		} catch (IOException | IllegalConfigurationException | MicroarrayException | JMSException e) {
+			logger.error("failed to update manager status report", e);
+		}
+	}
+	
+	private void updateReport(Label label, ServerAdminAPI adminAPI, String serverName) {
 				
 		String report;
 		try {						
 			
-			report = getStorageAdminAPI().getStatusReport();		
+			report = adminAPI.getStatusReport();		
 
 			if (report != null) {
-				Label label = view.getFilebrokerLabel();
 				//Following is null if data loading in this thread
 				//was faster than UI initialisation in another thread
 				if (label.getUI() != null) {
@@ -55,12 +74,12 @@ public class ReportDataSource {
 					}
 				}		
 			} else {
-				Notification.show("Timeout", "Chipster filebroker server doesn't respond", Type.ERROR_MESSAGE);
-				logger.error("timeout while waiting status report");
+				Notification.show("Timeout", "Chipster " + serverName + " server doesn't respond", Type.ERROR_MESSAGE);
+				logger.error("timeout while waiting " + serverName + " status report");
 			}
 			
-		} catch (JMSException | InterruptedException | IOException | IllegalConfigurationException | MicroarrayException e) {
-			logger.error("failed to update storage status report", e);
+		} catch (JMSException | InterruptedException e) {
+			logger.error("failed to update " + serverName + " status report", e);
 		}			
 	}
 	
@@ -81,6 +100,13 @@ public class ReportDataSource {
 		}			
 	}
 	
+	private ServerAdminAPI getManagerAdminAPI() throws IOException, IllegalConfigurationException, MicroarrayException, JMSException {
+		if (managerAdminAPI == null) {
+			managerAdminAPI = new ManagerAdminAPI();
+		}
+		return managerAdminAPI;
+	}
+
 	private CompAdminAPI getCompAdminAPI() throws IOException, IllegalConfigurationException, MicroarrayException, JMSException {
 		if (compAdminAPI == null) {
 			compAdminAPI = new CompAdminAPI();			
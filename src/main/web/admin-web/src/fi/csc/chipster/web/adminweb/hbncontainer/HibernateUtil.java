@@ -11,6 +11,7 @@ import org.hibernate.service.ServiceRegistryBuilder;
 
 import fi.csc.chipster.web.adminweb.data.AccountEntry;
 import fi.csc.chipster.web.adminweb.data.JobLogEntry;
+import fi.csc.chipster.web.adminweb.data.JobOutputEntry;
 import fi.csc.microarray.messaging.admin.ManagerConfiguration;
 import fi.csc.microarray.util.Exceptions;
 
@@ -76,6 +77,7 @@ public class HibernateUtil {
     		hibernateConf.setProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, "thread");
 
     		hibernateConf.addAnnotatedClass(JobLogEntry.class);
+    		hibernateConf.addAnnotatedClass(JobOutputEntry.class);
     		hibernateConf.addAnnotatedClass(AccountEntry.class);
 			
 			final ServiceRegistryBuilder serviceRegistryBuilder = new ServiceRegistryBuilder();
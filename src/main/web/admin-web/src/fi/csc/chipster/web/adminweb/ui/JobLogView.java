@@ -1,7 +1,12 @@
 package fi.csc.chipster.web.adminweb.ui;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.LinkedList;
 
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.exception.GenericJDBCException;
 
 import com.vaadin.data.Property;
@@ -21,9 +26,14 @@ import com.vaadin.ui.Window;
 
 import fi.csc.chipster.web.adminweb.ChipsterAdminUI;
 import fi.csc.chipster.web.adminweb.data.JobLogContainer;
+import fi.csc.chipster.web.adminweb.data.JobOutputEntry;
+import fi.csc.chipster.web.adminweb.hbncontainer.HibernateUtil;
+import fi.csc.microarray.manager.JobLogWriter;
 
 public class JobLogView extends VerticalLayout implements ClickListener, ValueChangeListener  {
 	
+	private static final Logger logger = Logger.getLogger(JobLogView.class);
+	
 	private HorizontalLayout toolbarLayout;
 
 	private Button addFilterButton = new Button();
@@ -214,8 +224,32 @@ public class JobLogView extends VerticalLayout implements ClickListener, ValueCh
 			output = (String) outputProperty.getValue();
 		}
 		
+		// long outputs are stored compressed in a separate table
+		String storedOutput = getStoredOutput(itemId);
+		if (storedOutput != null) {
+			output = storedOutput;
+		}
+		
 		showTextWindow("Job output", output);
 	}
+	
+	private String getStoredOutput(Object itemId) {
+		Session session = null;
+		try {
+			session = HibernateUtil.getSessionFactory().openSession();
+			JobOutputEntry entry = (JobOutputEntry) session.get(JobOutputEntry.class, (Serializable) itemId);
+			if (entry != null && entry.getOutputText() != null) {
+				return JobLogWriter.decompressOutput(entry.getOutputText());
+			}
+		} catch (HibernateException | IOException e) {
+			logger.error("failed to get the stored output of job " + itemId, e);
+		} finally {
+			if (session != null) {
+				session.close();
+			}
+		}
+		return null;
+	}
 
 	public void showErrorOutput(Object itemId) {
 		String error = "";
@@ -25,7 +25,9 @@ public class ReportView extends AsynchronousView implements ClickListener {
 	protected static final int UPDATE_WAIT = 5; // seconds
 	private VerticalLayout filebrokerLayout = new VerticalLayout();
 	private VerticalLayout compLayout = new VerticalLayout();
+	private VerticalLayout managerLayout = new VerticalLayout();
 	private Label filebrokerLabel;
+	private Label managerLabel;
 	private Label compLabel;
 	
 	private TabSheet tabSheet;
@@ -69,6 +71,9 @@ public class ReportView extends AsynchronousView implements ClickListener {
 		tabSheet.addTab(filebrokerLayout, "Filebroker");
 		compLayout.addComponent(compLabel);
 		tabSheet.addTab(compLayout, "Comp");        
+		managerLabel = createReportLabel("waiting for status report...");
+		managerLayout.addComponent(managerLabel);
+		tabSheet.addTab(managerLayout, "Manager");
 	}
 	
 	public void updateData() {
@@ -84,6 +89,10 @@ public class ReportView extends AsynchronousView implements ClickListener {
 		if (tabSheet.getSelectedTab() == compLayout) {
 			updateCompData();
 		}
+		
+		if (tabSheet.getSelectedTab() == managerLayout) {
+			updateManagerData();
+		}
 	}
 	
 	private void updateCompData() {
@@ -111,6 +120,18 @@ public class ReportView extends AsynchronousView implements ClickListener {
 		
 	}
 
+	private void updateManagerData() {
+
+		// manager
+		super.submitUpdate(new Runnable() {
+			
+			@Override
+			public void run() {				
+				dataSource.updateManagerReport(ReportView.this);
+			}			
+		});
+	}
+
 	public Label createReportLabel(String text) {
 		Label label = new Label(text, ContentMode.PREFORMATTED);
 		label.addStyleName("report-text");
@@ -156,6 +177,10 @@ public class ReportView extends AsynchronousView implements ClickListener {
 		return filebrokerLabel;
 	}
 	
+	public Label getManagerLabel() {
+		return managerLabel;
+	}
+	
 	public VerticalLayout getCompLayout() {
 		return compLayout;
 	}
@@ -66,7 +66,7 @@ public class ClientContextUtil {
 
 		@Override
 		public DataManager getDataManager() {
-			return null;
+			return Session.getSession().getDataManager();
 		}
 
 		@Override
@@ -0,0 +1,93 @@
+package fi.csc.microarray.analyser;
+
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.analyser.ToolDescription.Priority;
+import fi.csc.microarray.messaging.message.JobMessage;
+
+public class FairShareJobSchedulerTest {
+
+	static AnalysisJob createJob(String jobId, String username, int slots, Priority priority) {
+		ToolDescription description = new ToolDescription(null);
+		description.setID("test-tool");
+		description.setSlots(slots);
+		description.setPriority(priority);
+
+		JobMessage message = new JobMessage(jobId, "test-tool", new LinkedList<String>());
+		message.setUsername(username);
+
+		AnalysisJob job = new AnalysisJob() {
+			@Override
+			protected void execute() {
+			}
+
+			@Override
+			protected void cancelRequested() {
+			}
+		};
+		job.construct(message, description, null);
+		return job;
+	}
+
+	private static ResourceBudget createBudget(int maxSlots) {
+		return new ResourceBudget(maxSlots, 100, 100000, false);
+	}
+
+	@Test
+	public void testFairShare() {
+		FairShareJobScheduler scheduler = new FairShareJobScheduler();
+		LinkedList<AnalysisJob> activeJobs = new LinkedList<AnalysisJob>();
+
+		// user a floods the queue before user b
+		for (int i = 0; i < 5; i++) {
+			scheduler.addJob(createJob("a" + i, "a", 1, Priority.NORMAL));
+		}
+		scheduler.addJob(createJob("b0", "b", 1, Priority.NORMAL));
+
+		activeJobs.add(scheduler.pollNextJob(activeJobs, createBudget(4)));
+		activeJobs.add(scheduler.pollNextJob(activeJobs, createBudget(4)));
+
+		Assert.assertEquals("a0", activeJobs.get(0).getId());
+		Assert.assertEquals("b0", activeJobs.get(1).getId());
+		Assert.assertEquals(4, scheduler.size());
+	}
+
+	@Test
+	public void testPriorityAndSlots() {
+		FairShareJobScheduler scheduler = new FairShareJobScheduler();
+		LinkedList<AnalysisJob> activeJobs = new LinkedList<AnalysisJob>();
+
+		scheduler.addJob(createJob("big", "a", 3, Priority.NORMAL));
+		scheduler.addJob(createJob("quick", "b", 1, Priority.HIGH));
+
+		// high priority first
+		AnalysisJob job = scheduler.pollNextJob(activeJobs, createBudget(3));
+		Assert.assertEquals("quick", job.getId());
+		activeJobs.add(job);
+
+		// big job doesn't fit before the quick one has finished
+		Assert.assertNull(scheduler.pollNextJob(activeJobs, createBudget(3)));
+		activeJobs.clear();
+		Assert.assertEquals("big", scheduler.pollNextJob(activeJobs, createBudget(3)).getId());
+
+		// job bigger than the comp can run alone
+		scheduler.addJob(createJob("huge", "c", 10, Priority.NORMAL));
+		Assert.assertEquals("huge", scheduler.pollNextJob(activeJobs, createBudget(3)).getId());
+	}
+
+	@Test
+	public void testPriorityOfSameUser() {
+		FairShareJobScheduler scheduler = new FairShareJobScheduler();
+		LinkedList<AnalysisJob> activeJobs = new LinkedList<AnalysisJob>();
+
+		scheduler.addJob(createJob("low", "a", 1, Priority.LOW));
+		scheduler.addJob(createJob("high", "a", 1, Priority.HIGH));
+
+		// later job of a higher priority class doesn't wait behind the older one
+		Assert.assertEquals("high", scheduler.pollNextJob(activeJobs, createBudget(4)).getId());
+		Assert.assertEquals("low", scheduler.pollNextJob(activeJobs, createBudget(4)).getId());
+	}
+}
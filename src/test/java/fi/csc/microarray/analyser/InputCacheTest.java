@@ -0,0 +1,85 @@
+package fi.csc.microarray.analyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.filebroker.SimpleFileBrokerClient;
+import fi.csc.microarray.util.Files;
+import fi.csc.microarray.util.IOUtils.CopyProgressListener;
+
+public class InputCacheTest {
+
+	/**
+	 * File broker with files and checksums in memory. 
+	 */
+	private static class FileBrokerStub extends SimpleFileBrokerClient {
+
+		private HashMap<String, String> contents = new HashMap<String, String>();
+		private int downloads = 0;
+
+		@Override
+		public void getFile(String dataId, File destFile, CopyProgressListener progressListener) throws IOException {
+			downloads++;
+			FileUtils.writeStringToFile(destFile, contents.get(dataId));
+		}
+
+		@Override
+		public String getChecksum(String dataId) {
+			// hash code is good enough as a checksum here
+			return String.format("%032x", contents.get(dataId).hashCode());
+		}
+	}
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("input-cache-test", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delTree(dir);
+	}
+
+	@Test
+	public void testHitsAndEviction() throws Exception {
+		FileBrokerStub fileBroker = new FileBrokerStub();
+		fileBroker.contents.put("id1", "0123456789");
+		fileBroker.contents.put("id2", "0123456789"); // same content, uploaded again
+		fileBroker.contents.put("id3", "abcdefghij");
+
+		InputCache cache = new InputCache(new File(dir, "cache"), 15);
+
+		cache.getFile(fileBroker, "id1", new File(dir, "a"), null);
+		cache.getFile(fileBroker, "id1", new File(dir, "b"), null);
+		cache.getFile(fileBroker, "id2", new File(dir, "c"), null);
+		Assert.assertEquals(1, fileBroker.downloads);
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals("0123456789", FileUtils.readFileToString(new File(dir, "c")));
+
+		// doesn't fit in with the first one
+		cache.getFile(fileBroker, "id3", new File(dir, "d"), null);
+		Assert.assertEquals(2, fileBroker.downloads);
+		Assert.assertEquals(10, cache.getSize());
+
+		// evicted, but the job's file is still there
+		Assert.assertEquals("0123456789", FileUtils.readFileToString(new File(dir, "a")));
+		cache.getFile(fileBroker, "id1", new File(dir, "e"), null);
+		Assert.assertEquals(3, fileBroker.downloads);
+
+		// survives restart
+		InputCache restartedCache = new InputCache(new File(dir, "cache"), 15);
+		restartedCache.getFile(fileBroker, "id2", new File(dir, "f"), null);
+		Assert.assertEquals(3, fileBroker.downloads);
+	}
+}
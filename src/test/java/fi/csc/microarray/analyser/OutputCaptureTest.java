@@ -0,0 +1,64 @@
+package fi.csc.microarray.analyser;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.util.Files;
+
+public class OutputCaptureTest {
+
+	@Test
+	public void testHeadAndTail() throws IOException {
+		File logFile = File.createTempFile("output-capture-test", ".log");
+		try {
+			OutputCapture capture = new OutputCapture(null, logFile, 800);
+			for (int i = 0; i < 1000; i++) {
+				capture.addLine("line " + i);
+			}
+			capture.addLine("Error: something failed");
+			capture.addLine("in line 3");
+			capture.close();
+
+			String output = capture.getOutput();
+			Assert.assertTrue(output.startsWith("line 0\n"));
+			Assert.assertTrue(output.contains("lines omitted]"));
+			Assert.assertTrue(output.endsWith("in line 3\n"));
+			Assert.assertTrue(output.length() < 1000);
+
+			Assert.assertEquals("something failed\nin line 3", capture.getLastLinesStartingWith("Error:", 0));
+			Assert.assertEquals("something failed", capture.getLastLinesStartingWith("Error:", 1));
+			Assert.assertNull(capture.getLastLinesStartingWith("Warning:", 0));
+
+			// full output is in the log file
+			Assert.assertEquals(1002, Files.fileToString(logFile).split("\n").length);
+		} finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void testNewOutput() {
+		AnalysisJob job = FairShareJobSchedulerTest.createJob("job", "a", 1, ToolDescription.Priority.NORMAL);
+		OutputCapture capture = new OutputCapture(job, null, 800);
+
+		capture.addLine("line 0");
+		capture.addLine("line 1");
+		Assert.assertEquals("line 0\nline 1\n", capture.getNewOutput());
+		Assert.assertEquals("", capture.getNewOutput());
+
+		capture.addLine("line 2");
+		Assert.assertEquals("line 2\n", capture.getNewOutput());
+
+		// only the last lines of a long burst
+		for (int i = 0; i < 1000; i++) {
+			capture.addLine("line " + i);
+		}
+		String output = capture.getNewOutput();
+		Assert.assertTrue(output.startsWith("["));
+		Assert.assertTrue(output.endsWith("line 999\n"));
+		Assert.assertTrue(output.length() < 1000);
+	}
+}
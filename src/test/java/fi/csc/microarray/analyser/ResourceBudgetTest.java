@@ -0,0 +1,65 @@
+package fi.csc.microarray.analyser;
+
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.analyser.ToolDescription.Priority;
+
+public class ResourceBudgetTest {
+
+	private static AnalysisJob createJob(String jobId, int cores, int memory) {
+		AnalysisJob job = FairShareJobSchedulerTest.createJob(jobId, "user", 1, Priority.NORMAL);
+		job.analysis.setCores(cores);
+		job.analysis.setMemory(memory);
+		return job;
+	}
+
+	/**
+	 * Budget with fixed samples of the host load and available memory.
+	 */
+	private static ResourceBudget createBudget(final double load, final long availableMemory) {
+		return new ResourceBudget(10, 8, 16000, true) {
+			@Override
+			protected double getSystemLoad() {
+				return load;
+			}
+
+			@Override
+			protected long getAvailableMemory() {
+				return availableMemory;
+			}
+		};
+	}
+
+	@Test
+	public void testReservations() {
+		ResourceBudget budget = createBudget(0, 16000);
+		LinkedList<AnalysisJob> activeJobs = new LinkedList<AnalysisJob>();
+
+		activeJobs.add(createJob("a", 6, 1000));
+		Assert.assertTrue(budget.fits(createJob("b", 2, 1000), activeJobs));
+		Assert.assertFalse(budget.fits(createJob("c", 4, 1000), activeJobs));
+
+		activeJobs.add(createJob("d", 1, 14000));
+		Assert.assertNotNull(budget.getQueueReason(createJob("e", 1, 2000), activeJobs));
+
+		// always fits when running alone
+		activeJobs.clear();
+		Assert.assertTrue(budget.fits(createJob("f", 20, 50000), activeJobs));
+	}
+
+	@Test
+	public void testSampledLoad() {
+		LinkedList<AnalysisJob> activeJobs = new LinkedList<AnalysisJob>();
+		activeJobs.add(createJob("a", 2, 1000));
+
+		// other processes keep the host busy
+		Assert.assertFalse(createBudget(7.5, 16000).fits(createJob("b", 2, 1000), activeJobs));
+		Assert.assertTrue(createBudget(1.0, 16000).fits(createJob("b", 2, 1000), activeJobs));
+
+		// memory is used by other processes
+		Assert.assertFalse(createBudget(1.0, 500).fits(createJob("c", 1, 1000), activeJobs));
+	}
+}
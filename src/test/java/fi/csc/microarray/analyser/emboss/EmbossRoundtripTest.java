@@ -12,6 +12,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import fi.csc.microarray.analyser.AnalysisJob;
+import fi.csc.microarray.analyser.InputStager;
+import fi.csc.microarray.analyser.OutputPublisher;
 import fi.csc.microarray.analyser.ResultCallback;
 import fi.csc.microarray.analyser.ToolDescription;
 import fi.csc.microarray.filebroker.FileBrokerClient;
@@ -102,6 +104,9 @@ public class EmbossRoundtripTest {
         analysisJob.run();
     }
     
+    private InputStager inputStager = new InputStager(2, 0, null);
+    private OutputPublisher outputPublisher = new OutputPublisher(2);
+
     private ResultCallback resultCallback = new ResultCallback() {
 
         private FileBrokerClient fileBroker = null;
@@ -141,6 +146,14 @@ public class EmbossRoundtripTest {
         public boolean shouldSweepWorkDir() {
             return true;
         }
+
+        public InputStager getInputStager() {
+            return inputStager;
+        }
+
+        public OutputPublisher getOutputPublisher() {
+            return outputPublisher;
+        }
         
     };
 
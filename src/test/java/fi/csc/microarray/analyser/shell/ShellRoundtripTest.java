@@ -10,6 +10,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import fi.csc.microarray.analyser.AnalysisJob;
+import fi.csc.microarray.analyser.InputStager;
+import fi.csc.microarray.analyser.OutputPublisher;
 import fi.csc.microarray.analyser.ResultCallback;
 import fi.csc.microarray.analyser.ToolDescription;
 import fi.csc.microarray.filebroker.FileBrokerClient;
@@ -71,6 +73,9 @@ public class ShellRoundtripTest {
         analysisJob.run();
     }
     
+    private InputStager inputStager = new InputStager(2, 0, null);
+    private OutputPublisher outputPublisher = new OutputPublisher(2);
+
     /**
      * Callback message that needs to be checked.
      */
@@ -112,6 +117,14 @@ public class ShellRoundtripTest {
         public boolean shouldSweepWorkDir() {
             return true;
         }
+
+        public InputStager getInputStager() {
+            return inputStager;
+        }
+
+        public OutputPublisher getOutputPublisher() {
+            return outputPublisher;
+        }
         
     };
     
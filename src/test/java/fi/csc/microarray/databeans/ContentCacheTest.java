@@ -0,0 +1,161 @@
+package fi.csc.microarray.databeans;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.filebroker.ChecksumInputStream;
+
+public class ContentCacheTest {
+
+	private DataManager manager;
+	private File directory;
+
+	@Before
+	public void init() throws Exception {
+		this.manager = new DataManager();
+		this.directory = Files.createTempDirectory("content-cache-test").toFile();
+	}
+
+	private static byte[] random(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			return fi.csc.microarray.util.Files.inputStreamToBytes(in, -1);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ChecksumInputStream remote(byte[] content) {
+		return new ChecksumInputStream(new ByteArrayInputStream(content), false);
+	}
+
+	private static class CountingSource implements ContentCache.RangeSource {
+
+		private byte[] content;
+		private int requests = 0;
+
+		public CountingSource(byte[] content) {
+			this.content = content;
+		}
+
+		@Override
+		public InputStream open(long position, long length) throws IOException {
+			requests++;
+			return new ByteArrayInputStream(content, (int) position, content.length - (int) position);
+		}
+	}
+
+	@Test
+	public void testReadThrough() throws IOException {
+		ContentCache cache = new ContentCache(directory, Long.MAX_VALUE);
+		DataBean bean = new DataBean("test", null, manager);
+		byte[] content = random(3 * ContentCache.BLOCK_SIZE + 100);
+
+		Assert.assertNull(cache.getInputStream(bean));
+
+		// reading only the beginning doesn't make a complete copy
+		InputStream in = cache.readThrough(bean, remote(content));
+		in.read(new byte[100]);
+		in.close();
+		Assert.assertFalse(cache.isCached(bean));
+
+		Assert.assertArrayEquals(content, readAll(cache.readThrough(bean, remote(content))));
+		Assert.assertTrue(cache.isCached(bean));
+		Assert.assertEquals(content.length, cache.getSize());
+		Assert.assertArrayEquals(content, readAll(cache.getInputStream(bean)));
+
+		// skipped bytes are cached too
+		DataBean skipped = new DataBean("skipped", null, manager);
+		in = cache.readThrough(skipped, remote(content));
+		Assert.assertEquals(1000, in.skip(1000));
+		readAll(in);
+		Assert.assertArrayEquals(content, readAll(cache.getInputStream(skipped)));
+	}
+
+	@Test
+	public void testRanges() throws IOException {
+		ContentCache cache = new ContentCache(directory, Long.MAX_VALUE);
+		DataBean bean = new DataBean("test", null, manager);
+		byte[] content = random(5 * ContentCache.BLOCK_SIZE + 100);
+		CountingSource source = new CountingSource(content);
+
+		long position = ContentCache.BLOCK_SIZE + 10;
+		byte[] range = cache.read(bean, position, 1000, content.length, source);
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + 1000), range);
+		Assert.assertEquals(1, source.requests);
+
+		// same block again
+		cache.read(bean, position + 2000, 1000, content.length, source);
+		Assert.assertEquals(1, source.requests);
+		Assert.assertFalse(cache.isCached(bean));
+
+		// past the end
+		range = cache.read(bean, content.length - 50, 1000, content.length, source);
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, content.length - 50, content.length), range);
+		Assert.assertEquals(0, cache.read(bean, content.length, 1000, content.length, source).length);
+
+		// the rest with one request
+		Assert.assertArrayEquals(content, cache.read(bean, 0, content.length, content.length, source));
+		Assert.assertEquals(3, source.requests);
+		Assert.assertTrue(cache.isCached(bean));
+		Assert.assertArrayEquals(content, readAll(cache.getInputStream(bean)));
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		byte[] content = random(ContentCache.BLOCK_SIZE);
+		ContentCache cache = new ContentCache(directory, 2 * content.length);
+		DataBean bean1 = new DataBean("test1", null, manager);
+		DataBean bean2 = new DataBean("test2", null, manager);
+		DataBean bean3 = new DataBean("test3", null, manager);
+
+		readAll(cache.readThrough(bean1, remote(content)));
+		readAll(cache.readThrough(bean2, remote(content)));
+		readAll(cache.getInputStream(bean1));
+		readAll(cache.readThrough(bean3, remote(content)));
+
+		// least recently used is dropped
+		Assert.assertTrue(cache.isCached(bean1));
+		Assert.assertFalse(cache.isCached(bean2));
+		Assert.assertTrue(cache.isCached(bean3));
+		Assert.assertEquals(2 * content.length, cache.getSize());
+		Assert.assertEquals(2, directory.listFiles().length);
+
+		// not while being read
+		bean1.getLock().readLock().lock();
+		try {
+			readAll(cache.readThrough(bean2, remote(content)));
+			Assert.assertTrue(cache.isCached(bean1));
+			Assert.assertFalse(cache.isCached(bean3));
+		} finally {
+			bean1.getLock().readLock().unlock();
+		}
+	}
+
+	@Test
+	public void testChecksum() throws IOException {
+		ContentCache cache = new ContentCache(directory, Long.MAX_VALUE);
+		DataBean bean = new DataBean("test", null, manager);
+		bean.setChecksum("a");
+		readAll(cache.readThrough(bean, remote(random(100))));
+		Assert.assertTrue(cache.isCached(bean));
+
+		DataBean other = new DataBean("test", null, manager, bean.getId());
+		other.setChecksum("b");
+		Assert.assertNull(cache.getInputStream(other));
+	}
+}
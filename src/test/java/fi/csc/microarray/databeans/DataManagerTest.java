@@ -1,7 +1,9 @@
 package fi.csc.microarray.databeans;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -10,6 +12,8 @@ import org.junit.Test;
 import fi.csc.microarray.ClientContextUtil;
 import fi.csc.microarray.client.Session;
 import fi.csc.microarray.client.session.SessionManager;
+import fi.csc.microarray.databeans.DataBean.DataNotAvailableHandling;
+import fi.csc.microarray.util.Files;
 
 public class DataManagerTest {
 
@@ -30,6 +34,20 @@ public class DataManagerTest {
 	}
 
 	
+	@Test
+	public void testContentHead() throws Exception {
+		for (int size : new int[] { 0, 100, DataManager.CONTENT_HEAD_BYTES, DataManager.CONTENT_HEAD_BYTES + 1, 3 * DataManager.CONTENT_HEAD_BYTES }) {
+			byte[] content = new byte[size];
+			new Random().nextBytes(content);
+			DataBean data = manager.createDataBean("test-content", new ByteArrayInputStream(content));
+			
+			// before and after the head is read
+			Assert.assertArrayEquals(content, Files.inputStreamToBytes(manager.getContentStreamFromHead(data, DataNotAvailableHandling.EXCEPTION_ON_NA)));
+			manager.readContentHead(data);
+			Assert.assertArrayEquals(content, Files.inputStreamToBytes(manager.getContentStreamFromHead(data, DataNotAvailableHandling.EXCEPTION_ON_NA)));
+		}
+	}
+
 	@Test
 	public void testRemoteSessions() throws Exception {
 		
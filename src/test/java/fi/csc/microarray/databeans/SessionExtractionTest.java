@@ -0,0 +1,108 @@
+package fi.csc.microarray.databeans;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.ClientContextUtil;
+import fi.csc.microarray.client.Session;
+import fi.csc.microarray.client.session.SessionManager;
+import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.databeans.DataManager.ContentLocation;
+import fi.csc.microarray.databeans.DataManager.StorageMethod;
+import fi.csc.microarray.databeans.handlers.LocalFileContentHandler;
+import fi.csc.microarray.module.ModuleManager;
+import fi.csc.microarray.util.Files;
+import fi.csc.microarray.util.IOUtils;
+
+public class SessionExtractionTest {
+
+	private File workDir;
+	private DataManager manager;
+	private SessionManager sessionManager;
+
+	@Before
+	public void init() throws Exception {
+		workDir = java.nio.file.Files.createTempDirectory("session-extraction-test").toFile();
+		new File(workDir, "conf").mkdir();
+		new File(workDir, "logs").mkdir();
+		new File(workDir, "security").mkdir();
+		DirectoryLayout.setBaseDirOverride(workDir);
+		File configFile = new File(workDir, "conf" + File.separator + "chipster-config.xml");
+		IOUtils.copy(new ByteArrayInputStream(getConfig().getBytes()), configFile);
+
+		ClientContextUtil.setupClientContext();
+		this.manager = Session.getSession().getDataManager();
+		
+		// only the basic module, which doesn't parse the datasets for type tags
+		ModuleManager moduleManager = new ModuleManager();
+		moduleManager.plugAll(manager, null);
+		Session.getSession().setModuleManager(moduleManager);
+		this.sessionManager = new SessionManager(manager, null, null);
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		manager.deleteAllDataItems();
+		DirectoryLayout.setBaseDirOverride(null);
+		DirectoryLayout.uninitialise();
+		Files.delTree(workDir);
+	}
+
+	@Test
+	public void testExtractSession() throws Exception {
+
+		byte[] content = new byte[300000];
+		new Random().nextBytes(content);
+		DataBean data = manager.createDataBean("reads.bam", new ByteArrayInputStream(content));
+		ClientContextUtil.setupDatabean(data);
+		manager.connectChild(data, manager.getRootFolder());
+
+		// save, bam is stored without compression
+		File session = new File(workDir, "session.zip");
+		sessionManager.saveSession(session);
+		String entryName = data.getContentLocation(StorageMethod.LOCAL_SESSION_ZIP).getUrl().getRef();
+		try (ZipFile zipFile = new ZipFile(session)) {
+			Assert.assertEquals(ZipEntry.STORED, zipFile.getEntry(entryName).getMethod());
+		}
+
+		// clear and load, datasets are extracted in the background
+		manager.deleteAllDataItems();
+		sessionManager.loadLocalSession(session, false);
+		DataBean loaded = (DataBean) manager.getRootFolder().getChildren().iterator().next();
+		for (int i = 0; i < 100 && loaded.getContentLocation(StorageMethod.LOCAL_TEMP) == null; i++) {
+			Thread.sleep(100);
+		}
+
+		// check
+		ContentLocation location = loaded.getContentLocation(StorageMethod.LOCAL_TEMP);
+		Assert.assertNotNull(location);
+		File file = ((LocalFileContentHandler) location.getHandler()).getFile(location);
+		Assert.assertArrayEquals(content, java.nio.file.Files.readAllBytes(file.toPath()));
+	}
+
+	private String getConfig() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" + 
+				"<configuration content-version=\"3\">\n" + 
+				"	<configuration-module moduleId=\"messaging\">\n" + 
+				"		<entry entryKey=\"broker-host\"><value>not defined</value></entry>\n" + 
+				"		<entry entryKey=\"broker-protocol\"><value>not defined</value></entry>\n" + 
+				"		<entry entryKey=\"broker-port\"><value>0</value></entry>\n" + 
+				"	</configuration-module>\n" + 
+				"	<configuration-module moduleId=\"security\">\n" + 
+				"		<entry entryKey=\"username\"><value>username</value></entry>\n" + 
+				"	</configuration-module>\n" + 
+				"	<configuration-module moduleId=\"client\">\n" + 
+				"		<entry entryKey=\"extract-sessions\"><value>true</value></entry>\n" + 
+				"	</configuration-module>\n" + 
+				"</configuration>\n";
+	}
+}
@@ -0,0 +1,98 @@
+package fi.csc.microarray.databeans.features;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.databeans.features.CalculatingIterable.CalcOperation;
+import fi.csc.microarray.databeans.features.CalculatingIterable.CalculatingStream;
+
+public class FloatStreamTest {
+
+	private static float[] random(int size) {
+		Random random = new Random(size);
+		float[] values = new float[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = random.nextFloat() * 1000 - 100;
+		}
+		return values;
+	}
+
+	private static List<Float> box(float[] values) {
+		List<Float> list = new ArrayList<>();
+		for (float value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	/**
+	 * Stream that returns short blocks of varying size.
+	 */
+	private static FloatStream uneven(final float[] values) {
+		return new FloatStream() {
+			private int position = 0;
+			private int read = 0;
+
+			@Override
+			public int read(float[] buffer, int offset, int length) {
+				if (position == values.length) {
+					return -1;
+				}
+				int count = Math.min(Math.min(length, 1 + read++ % 7), values.length - position);
+				System.arraycopy(values, position, buffer, offset, count);
+				position += count;
+				return count;
+			}
+		};
+	}
+
+	@Test
+	public void testToArray() {
+		float[] values = random(3 * FloatStream.BLOCK_SIZE + 5);
+		Assert.assertArrayEquals(values, FloatStream.of(values, values.length).toArray(), 0f);
+		Assert.assertArrayEquals(values, FloatStream.of(box(values)).toArray(), 0f);
+		Assert.assertArrayEquals(values, uneven(values).toArray(), 0f);
+		Assert.assertEquals(0, FloatStream.of(new float[0], 0).toArray().length);
+		Assert.assertEquals(-1, FloatStream.of(values, 0).read(new float[10]));
+	}
+
+	@Test
+	public void testSameAsIterable() {
+		float[] a = random(10000);
+		float[] b = random(9000);
+
+		for (CalcOperation operation : CalcOperation.values()) {
+			boolean binary = operation != CalcOperation.LOG_2 && operation != CalcOperation.NEGATE;
+			CalculatingIterable iterable = new CalculatingIterable(box(a), binary ? box(b) : null, operation);
+			float[] streamed = new CalculatingStream(uneven(a), binary ? uneven(b) : null, operation).toArray();
+
+			Iterator<Float> expected = iterable.iterator();
+			int i = 0;
+			while (expected.hasNext()) {
+				Assert.assertEquals(operation.toString(), expected.next(), streamed[i++], 0f);
+			}
+			Assert.assertEquals(operation.toString(), i, streamed.length);
+		}
+	}
+
+	@Test
+	public void testComposed() {
+		float[] a = random(5000);
+		float[] b = random(5000);
+
+		// log(a - b)
+		FloatStream difference = new CalculatingStream(FloatStream.of(a, a.length), FloatStream.of(b, b.length), CalcOperation.SUBTRACT);
+		float[] streamed = new CalculatingStream(difference, null, CalcOperation.LOG_2).toArray();
+
+		Iterator<Float> expected = new CalculatingIterable(new CalculatingIterable(box(a), box(b), CalcOperation.SUBTRACT), null, CalcOperation.LOG_2).iterator();
+		for (float value : streamed) {
+			Assert.assertEquals(expected.next(), value, 0f);
+		}
+		Assert.assertFalse(expected.hasNext());
+	}
+}
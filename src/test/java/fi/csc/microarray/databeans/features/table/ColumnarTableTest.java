@@ -0,0 +1,219 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.ClientContextUtil;
+import fi.csc.microarray.client.Session;
+import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.DataManager;
+import fi.csc.microarray.databeans.features.Table;
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+import fi.csc.microarray.exception.MicroarrayException;
+import fi.csc.microarray.module.basic.BasicModule;
+import fi.csc.microarray.util.Files;
+import fi.csc.microarray.util.IOUtils;
+
+public class ColumnarTableTest {
+
+	private static final String[] COLUMNS = new String[] { "id", "small", "cutoff", "large", "name", "sparse" };
+
+	private File workDir;
+	private DataManager manager;
+
+	@Before
+	public void init() throws Exception {
+		workDir = java.nio.file.Files.createTempDirectory("columnar-table-test").toFile();
+		new File(workDir, "conf").mkdir();
+		new File(workDir, "logs").mkdir();
+		new File(workDir, "security").mkdir();
+		DirectoryLayout.setBaseDirOverride(workDir);
+		File configFile = new File(workDir, "conf" + File.separator + "chipster-config.xml");
+		IOUtils.copy(new ByteArrayInputStream(getConfig().getBytes()), configFile);
+
+		ClientContextUtil.setupClientContext();
+		this.manager = Session.getSession().getDataManager();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		manager.deleteAllDataItems();
+		DirectoryLayout.setBaseDirOverride(null);
+		DirectoryLayout.uninitialise();
+		Files.delTree(workDir);
+	}
+
+	/**
+	 * Text, a numeric column with few values, one with exactly 256 values
+	 * and one with more, short rows and trailing empty cells.
+	 */
+	private static String createContent(int rows) {
+		StringBuffer content = new StringBuffer();
+		content.append("id\tsmall\tcutoff\tlarge\tname\tsparse\n");
+		for (int i = 0; i < rows; i++) {
+			content.append("row" + i + "\t" + (i == 7 ? "EMPTY" : i % 10) + "\t" + i % 256 + "\t" + i * 0.5f);
+			if (i % 3 == 0) {
+				// short row
+			} else if (i % 3 == 1) {
+				content.append("\tgene" + i % 5 + "\t");
+			} else {
+				content.append("\tgene" + i % 5 + "\t1");
+			}
+			content.append("\n");
+		}
+		return content.toString();
+	}
+
+	private DataBean createBean(String content) throws MicroarrayException {
+		DataBean bean = manager.createDataBean("test.tsv", new ByteArrayInputStream(content.getBytes()));
+		bean.addTypeTag(BasicModule.TypeTags.TABLE_WITH_COLUMN_NAMES);
+		return bean;
+	}
+
+	private static ColumnarTable parse(DataBean bean, long maxMemorySize) throws IOException, MicroarrayException {
+		MatrixParseSettings settings = TableColumnProvider.getSettings(bean);
+		return ColumnarTable.parse(new DynamicallyParsedTable(bean, settings, new LinkedList<Integer>()), COLUMNS, maxMemorySize);
+	}
+
+	@Test
+	public void testSameAsDynamicallyParsed() throws IOException, MicroarrayException {
+		DataBean bean = createBean(createContent(600));
+		MatrixParseSettings settings = TableColumnProvider.getSettings(bean);
+		Assert.assertArrayEquals(COLUMNS, settings.columns.keySet().toArray(new String[0]));
+
+		ColumnarTable table = parse(bean, Long.MAX_VALUE);
+		Assert.assertEquals(600, table.getRowCount());
+
+		Assert.assertTrue(table.hasText(0));
+		Assert.assertTrue(table.hasStrings(0));
+		Assert.assertFalse(table.hasText(1));
+		Assert.assertTrue(table.hasStrings(1));
+		Assert.assertFalse(table.hasText(2));
+		Assert.assertTrue(table.hasStrings(2));
+		Assert.assertFalse(table.hasText(3));
+		Assert.assertFalse(table.hasStrings(3));
+		Assert.assertTrue(table.hasText(4));
+		Assert.assertTrue(table.hasText(5));
+
+		LinkedList<Integer> columnNumbers = new LinkedList<Integer>();
+		for (int i = 0; i < COLUMNS.length; i++) {
+			columnNumbers.add(i);
+		}
+		DynamicallyParsedTable dynamic = new DynamicallyParsedTable(bean, settings, new LinkedList<Integer>());
+		Table cursor = table.createTable(bean, settings, columnNumbers);
+		try {
+			int row = 0;
+			while (dynamic.nextRow()) {
+				Assert.assertTrue(cursor.nextRow());
+				for (int column = 0; column < COLUMNS.length; column++) {
+					String name = COLUMNS[column];
+					Assert.assertEquals(dynamic.getFloatValue(name), table.getFloat(column, row), 0f);
+					if (table.hasStrings(column)) {
+						Assert.assertEquals(dynamic.getStringValue(name), table.getString(column, row));
+					}
+					Assert.assertEquals(dynamic.getFloatValue(name), cursor.getFloatValue(name), 0f);
+					Assert.assertEquals(dynamic.getStringValue(name), cursor.getStringValue(name));
+					Assert.assertEquals(dynamic.getValue(name), cursor.getValue(name));
+				}
+				row++;
+			}
+			Assert.assertFalse(cursor.nextRow());
+			Assert.assertEquals(600, row);
+		} finally {
+			dynamic.close();
+			cursor.close();
+		}
+
+		// short rows are padded, trailing empty cells are kept
+		Assert.assertEquals("", table.getString(4, 0));
+		Assert.assertEquals("", table.getString(5, 0));
+		Assert.assertEquals("", table.getString(5, 1));
+		Assert.assertEquals("1", table.getString(5, 2));
+		Assert.assertTrue(Float.isNaN(table.getFloat(5, 1)));
+		Assert.assertTrue(Float.isNaN(table.getFloat(1, 7)));
+	}
+
+	@Test
+	public void testEviction() throws IOException, MicroarrayException {
+		String content = createContent(100);
+		DataBean bean1 = createBean(content);
+		DataBean bean2 = createBean(content);
+		DataBean bean3 = createBean(content);
+		long tableSize = parse(bean1, Long.MAX_VALUE).getMemorySize();
+
+		ColumnarTableCache cache = new ColumnarTableCache(2 * tableSize);
+		ColumnarTable table1 = cache.get(bean1, TableColumnProvider.getSettings(bean1));
+		ColumnarTable table2 = cache.get(bean2, TableColumnProvider.getSettings(bean2));
+		Assert.assertSame(table1, cache.get(bean1, TableColumnProvider.getSettings(bean1)));
+		ColumnarTable table3 = cache.get(bean3, TableColumnProvider.getSettings(bean3));
+		Assert.assertEquals(2 * tableSize, cache.getMemorySize());
+
+		// least recently used is parsed again
+		Assert.assertSame(table1, cache.get(bean1, TableColumnProvider.getSettings(bean1)));
+		Assert.assertSame(table3, cache.get(bean3, TableColumnProvider.getSettings(bean3)));
+		Assert.assertNotSame(table2, cache.get(bean2, TableColumnProvider.getSettings(bean2)));
+		Assert.assertEquals(2 * tableSize, cache.getMemorySize());
+	}
+
+	@Test
+	public void testTooLarge() throws IOException, MicroarrayException {
+		DataBean bean = createBean(createContent(100));
+		Assert.assertNull(parse(bean, 100));
+
+		ColumnarTableCache cache = new ColumnarTableCache(100);
+		Assert.assertNull(cache.get(bean, TableColumnProvider.getSettings(bean)));
+		Assert.assertEquals(0, cache.getMemorySize());
+
+		// the decision is kept with the content, it isn't parsed again
+		ColumnarTableCache largerCache = new ColumnarTableCache(Long.MAX_VALUE);
+		Assert.assertNull(largerCache.get(bean, TableColumnProvider.getSettings(bean)));
+
+		// until the content changes
+		OutputStream out = manager.getContentOutputStreamAndLockDataBean(bean);
+		out.write(createContent(100).getBytes());
+		manager.closeContentOutputStreamAndUnlockDataBean(bean, out);
+		Assert.assertNotNull(largerCache.get(bean, TableColumnProvider.getSettings(bean)));
+	}
+
+	@Test
+	public void testContentChange() throws IOException, MicroarrayException {
+		DataBean bean = createBean(createContent(100));
+		ColumnarTableCache cache = new ColumnarTableCache(Long.MAX_VALUE);
+		ColumnarTable table = cache.get(bean, TableColumnProvider.getSettings(bean));
+		Assert.assertSame(table, cache.get(bean, TableColumnProvider.getSettings(bean)));
+
+		OutputStream out = manager.getContentOutputStreamAndLockDataBean(bean);
+		out.write(createContent(50).getBytes());
+		manager.closeContentOutputStreamAndUnlockDataBean(bean, out);
+
+		ColumnarTable changed = cache.get(bean, TableColumnProvider.getSettings(bean));
+		Assert.assertNotSame(table, changed);
+		Assert.assertEquals(50, changed.getRowCount());
+
+		// the old table isn't counted anymore
+		Assert.assertEquals(changed.getMemorySize(), cache.getMemorySize());
+	}
+
+	private String getConfig() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" + 
+				"<configuration content-version=\"3\">\n" + 
+				"	<configuration-module moduleId=\"messaging\">\n" + 
+				"		<entry entryKey=\"broker-host\"><value>not defined</value></entry>\n" + 
+				"		<entry entryKey=\"broker-protocol\"><value>not defined</value></entry>\n" + 
+				"		<entry entryKey=\"broker-port\"><value>0</value></entry>\n" + 
+				"	</configuration-module>\n" + 
+				"	<configuration-module moduleId=\"security\">\n" + 
+				"		<entry entryKey=\"username\"><value>username</value></entry>\n" + 
+				"	</configuration-module>\n" + 
+				"</configuration>\n";
+	}
+}
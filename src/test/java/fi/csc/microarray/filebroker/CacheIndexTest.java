@@ -0,0 +1,105 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheIndexTest {
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("cache-index-test").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	private File createFile(String name, int size, long lastModified) throws IOException {
+		File file = new File(root, name);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[size]);
+		}
+		file.setLastModified(lastModified);
+		return file;
+	}
+
+	@Test
+	public void testLru() throws IOException {
+		long now = System.currentTimeMillis();
+		File old = createFile("old", 10, now - 30000);
+		File middle = createFile("middle", 10, now - 20000);
+		createFile("new", 10, now - 10000);
+		Md5FileUtils.writeMd5(String.format("%032x", 1), old);
+
+		CacheIndex index = new CacheIndex(root, CacheIndex.Policy.LRU);
+		index.rebuild();
+		Assert.assertEquals(3, index.getFileCount());
+		Assert.assertEquals(30, index.getSize());
+
+		// access makes the oldest file the newest
+		index.touch(old);
+		List<CacheIndex.Entry> candidates = index.getEvictionCandidates(Long.MAX_VALUE, now);
+		Assert.assertEquals(2, candidates.size());
+		Assert.assertEquals(middle.getAbsoluteFile(), candidates.get(0).getFile());
+
+		// stop when enough bytes found
+		Assert.assertEquals(1, index.getEvictionCandidates(5, now).size());
+
+		Assert.assertTrue(index.remove(candidates.get(0), now));
+		Assert.assertFalse(index.remove(candidates.get(0), now));
+		Assert.assertEquals(2, index.getFileCount());
+	}
+
+	@Test
+	public void testGdsf() throws IOException {
+		long now = System.currentTimeMillis();
+		File small = createFile("small", 10, now - 30000);
+		File big = createFile("big", 1000, now - 10000);
+
+		CacheIndex index = new CacheIndex(root, CacheIndex.Policy.GDSF);
+		index.rebuild();
+
+		// big file goes first, although it's newer
+		List<CacheIndex.Entry> candidates = index.getEvictionCandidates(Long.MAX_VALUE, now);
+		Assert.assertEquals(big.getAbsoluteFile(), candidates.get(0).getFile());
+		Assert.assertEquals(small.getAbsoluteFile(), candidates.get(1).getFile());
+	}
+
+	@Test
+	public void testTouchedCandidateIsKept() throws IOException {
+		long now = System.currentTimeMillis();
+		File file = createFile("file", 10, now - 10000);
+
+		CacheIndex index = new CacheIndex(root, CacheIndex.Policy.LRU);
+		index.rebuild();
+		List<CacheIndex.Entry> candidates = index.getEvictionCandidates(Long.MAX_VALUE, now - 1);
+		index.touch(file);
+		Assert.assertFalse(index.remove(candidates.get(0), now - 1));
+		Assert.assertEquals(1, index.getFileCount());
+	}
+
+	@Test
+	public void testRebuildDropsRemovedFiles() throws IOException {
+		long now = System.currentTimeMillis();
+		File file = createFile("file", 10, now - 10000);
+
+		CacheIndex index = new CacheIndex(root, CacheIndex.Policy.LRU);
+		index.rebuild();
+		file.delete();
+		index.rebuild();
+		Assert.assertEquals(0, index.getFileCount());
+		Assert.assertEquals(0, index.getSize());
+	}
+}
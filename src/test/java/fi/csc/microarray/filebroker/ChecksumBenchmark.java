@@ -0,0 +1,116 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import fi.csc.microarray.util.XxHash64;
+
+/**
+ * Measures the throughput of reading a stream while calculating its checksum
+ * with md5 and xxh64, hashing in the reading thread and in the
+ * {@link ChecksumPipeline}. The pipeline hashes in the reading thread when
+ * there is only one processor, the offloaded rows use another thread anyway.
+ *
+ * Not a unit test, run the main method. The first argument is the data size in
+ * megabytes.
+ */
+public class ChecksumBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final int READ_SIZE = 64 * 1024;
+
+	private static interface Reader {
+		public void read(byte[] data) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		final byte[] data = new byte[megabytes * 1024 * 1024];
+		new Random().nextBytes(data);
+
+		System.out.println(megabytes + " MB, best of " + ROUNDS + " rounds, " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		run("no checksum", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				readThrough(new ByteArrayInputStream(data));
+			}
+		});
+		run("md5, same thread", data, new Reader() {
+			public void read(byte[] data) throws Exception {
+				DigestInputStream in = new DigestInputStream(new ByteArrayInputStream(data), MessageDigest.getInstance("MD5"));
+				readThrough(in);
+				in.getMessageDigest().digest();
+			}
+		});
+		run("md5, pipeline", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(data), true, null, ChecksumAlgorithm.MD5);
+				readThrough(in);
+				in.getChecksum();
+			}
+		});
+		run("md5, offloaded", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				readThrough(data, new ChecksumPipeline(ChecksumAlgorithm.MD5, true));
+			}
+		});
+		run("xxh64, same thread", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				XxHash64 hash = new XxHash64();
+				InputStream in = new ByteArrayInputStream(data);
+				byte[] buffer = new byte[READ_SIZE];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					hash.update(buffer, 0, count);
+				}
+				hash.getValue();
+			}
+		});
+		run("xxh64, pipeline", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(data), true, null, ChecksumAlgorithm.XXH64);
+				readThrough(in);
+				in.getChecksum();
+			}
+		});
+		run("xxh64, offloaded", data, new Reader() {
+			public void read(byte[] data) throws IOException {
+				readThrough(data, new ChecksumPipeline(ChecksumAlgorithm.XXH64, true));
+			}
+		});
+	}
+
+	/**
+	 * Use the pipeline even if there is only one processor.
+	 */
+	private static void readThrough(byte[] data, ChecksumPipeline pipeline) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		byte[] buffer = new byte[READ_SIZE];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			pipeline.update(buffer, 0, count);
+		}
+		pipeline.finish();
+	}
+
+	private static void readThrough(InputStream in) throws IOException {
+		byte[] buffer = new byte[READ_SIZE];
+		while (in.read(buffer) != -1) {
+		}
+	}
+
+	private static void run(String name, byte[] data, Reader reader) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			reader.read(data);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("  %-20s %6.0f MB/s", name, data.length / 1024.0 / 1024 / (best / 1e9)));
+	}
+}
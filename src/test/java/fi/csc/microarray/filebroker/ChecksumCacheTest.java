@@ -0,0 +1,55 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumCacheTest {
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("checksum-cache-test").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testChecksum() throws Exception {
+		File file = new File(root, "data");
+		String checksum = String.format("%032x", 1);
+		ChecksumCache cache = new ChecksumCache(1);
+
+		Assert.assertNull(cache.getChecksum(file));
+
+		Md5FileUtils.writeMd5(checksum, file);
+		Assert.assertEquals(checksum, cache.getChecksum(file));
+		Assert.assertEquals(1, cache.size());
+
+		// changed md5 file is read again
+		String newChecksum = String.format("%032x", 2);
+		Md5FileUtils.writeMd5(newChecksum, file);
+		Md5FileUtils.getMd5File(file).setLastModified(System.currentTimeMillis() + 10000);
+		Assert.assertEquals(newChecksum, cache.getChecksum(file));
+
+		// least recently used is dropped
+		File other = new File(root, "other");
+		Md5FileUtils.writeMd5(checksum, other);
+		Assert.assertEquals(checksum, cache.getChecksum(other));
+		Assert.assertEquals(1, cache.size());
+
+		Md5FileUtils.removeMd5(other);
+		Assert.assertNull(cache.getChecksum(other));
+		Assert.assertEquals(0, cache.size());
+	}
+}
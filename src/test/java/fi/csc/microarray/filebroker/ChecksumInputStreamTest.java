@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
+import java.security.MessageDigest;
 import java.util.Random;
 
 import javax.xml.bind.DatatypeConverter;
@@ -49,6 +50,38 @@ public class ChecksumInputStreamTest {
 		}
 	}
 	
+	@Test
+	public void testLargeStream() throws Exception {
+		// several buffers of the checksum pipeline
+		byte[] data = new byte[5 * 1024 * 1024 + 123];
+		new Random(1).nextBytes(data);
+		String md5 = DatatypeConverter.printHexBinary(MessageDigest.getInstance("MD5").digest(data)).toLowerCase();
+		
+		ChecksumInputStream stream = new ChecksumInputStream(new ByteArrayInputStream(data), true);
+		IOUtils.copy(stream, new ByteArrayOutputStream());
+		Assert.assertEquals(md5, stream.getChecksum());
+	}
+	
+	@Test
+	public void testOtherAlgorithm() throws Exception {
+		byte[] data = "The quick brown fox jumps over the lazy dog".getBytes();
+		String xxh64 = "0b242d361fda71bc";
+		String md5 = "9e107d9d372bb6826bd81d3542a419d6";
+		
+		// md5 comes from the server
+		ChecksumInputStream stream = new ChecksumInputStream(new ByteArrayInputStream(data), true, new HeaderURLConnection(md5, xxh64), ChecksumAlgorithm.XXH64);
+		IOUtils.copy(stream, new ByteArrayOutputStream());
+		Assert.assertEquals(md5, stream.verifyChecksums());
+		
+		stream = new ChecksumInputStream(new ByteArrayInputStream(data), true, new HeaderURLConnection(md5, "wrong"), ChecksumAlgorithm.XXH64);
+		IOUtils.copy(stream, new ByteArrayOutputStream());
+		try {
+			stream.verifyChecksums();
+			Assert.fail();
+		} catch (ChecksumException e) {
+		}
+	}
+	
 	private String testCalculation(byte[] data) throws IOException {
 		
 		ChecksumInputStream stream = preprocess(data, null);		
@@ -126,6 +159,31 @@ public class ChecksumInputStreamTest {
 	    }
 	}
 	
+	public static class HeaderURLConnection extends URLConnection {
+
+		private String md5;
+		private String otherChecksum;
+
+		public HeaderURLConnection(String md5, String otherChecksum) {
+			super(null);
+			this.md5 = md5;
+			this.otherChecksum = otherChecksum;
+		}
+
+		@Override
+		public void connect() throws IOException {
+		}
+		
+		@Override
+		public String getHeaderField(String name) {
+			if (ChecksumInputStream.HTTP_CHECKSUM_KEY.equals(name)) {
+				return md5;
+			}
+			Assert.assertEquals(ChecksumInputStream.HTTP_ALGORITHM_CHECKSUM_KEY, name);
+			return otherChecksum;
+		}
+	}
+	
 	/**
 	 * Make a quick performance test
 	 * 
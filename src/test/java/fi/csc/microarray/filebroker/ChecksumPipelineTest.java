@@ -0,0 +1,46 @@
+package fi.csc.microarray.filebroker;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChecksumPipelineTest {
+
+	private String md5(byte[] data) throws Exception {
+		return DatatypeConverter.printHexBinary(MessageDigest.getInstance("MD5").digest(data)).toLowerCase();
+	}
+
+	private String hash(byte[] data, boolean offload) throws Exception {
+		ChecksumPipeline pipeline = new ChecksumPipeline(ChecksumAlgorithm.MD5, offload);
+		// uneven updates over the buffer boundaries
+		int position = 0;
+		int updateSize = 1;
+		while (position < data.length) {
+			int count = Math.min(updateSize, data.length - position);
+			if (count == 1) {
+				pipeline.update(data[position]);
+			} else {
+				pipeline.update(data, position, count);
+			}
+			position += count;
+			updateSize = updateSize * 7 % 300007 + 1;
+		}
+		return pipeline.finish();
+	}
+
+	@Test
+	public void testPipeline() throws Exception {
+		for (int size : new int[] { 0, 1, 1000, 256 * 1024, 3 * 1024 * 1024 + 17 }) {
+			byte[] data = new byte[size];
+			new Random(size).nextBytes(data);
+			String expected = md5(data);
+
+			Assert.assertEquals(expected, hash(data, true));
+			Assert.assertEquals(expected, hash(data, false));
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
+import fi.csc.microarray.security.CryptoKey;
+import fi.csc.microarray.util.IOUtils;
+import fi.csc.microarray.util.UrlTransferUtil;
+
+public class ChunkedUploadTest {
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	private File workDir;
+	private File cacheDir;
+	private AuthorisedUrlRepository urlRepository;
+	private JettyFileServer fileServer;
+	private ChunkedUploader uploader;
+
+	@Before
+	public void setUp() throws Exception {
+		workDir = Files.createTempDirectory("chunked-upload-test").toFile();
+		new File(workDir, "conf").mkdir();
+		new File(workDir, "logs").mkdir();
+		new File(workDir, "security").mkdir();
+		DirectoryLayout.uninitialise();
+		DirectoryLayout.setBaseDirOverride(workDir);
+		IOUtils.copy(new ByteArrayInputStream(getConfig().getBytes()), new File(workDir, "conf" + File.separator + "chipster-config.xml"));
+		DirectoryLayout.initialiseServerLayout(Arrays.asList(new String[] { "filebroker" }));
+
+		File fileRoot = new File(workDir, "file-root");
+		cacheDir = new File(fileRoot, FileServer.CACHE_PATH);
+		cacheDir.mkdirs();
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		urlRepository = new AuthorisedUrlRepository("http://localhost", port, FileServer.CACHE_PATH, FileServer.STORAGE_PATH);
+		fileServer = new JettyFileServer(urlRepository, null, null);
+		fileServer.start(fileRoot.getAbsolutePath(), port, "http");
+
+		uploader = new ChunkedUploader(CHUNK_SIZE, 3, 0, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fileServer.stop();
+		DirectoryLayout.uninitialise();
+		DirectoryLayout.setBaseDirOverride(null);
+		FileUtils.deleteDirectory(workDir);
+	}
+
+	private File createFile(int size) throws IOException {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		File file = new File(workDir, "upload-" + size);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+		return file;
+	}
+
+	private void assertUploaded(File file, String dataId, String checksum) throws IOException {
+		File stored = new File(cacheDir, dataId);
+		Assert.assertTrue(FileUtils.contentEquals(file, stored));
+		Assert.assertEquals(Md5FileUtils.calculateMd5(file), checksum);
+		Assert.assertEquals(checksum, Md5FileUtils.readMd5WithoutParseException(stored));
+		Assert.assertFalse(new File(stored.getAbsolutePath() + ChunkedUploads.UPLOAD_FILE_EXTENSION).exists());
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		File file = createFile(5 * CHUNK_SIZE + 123);
+		String dataId = CryptoKey.generateRandom();
+		URL url = urlRepository.createAuthorisedUrl(dataId, Compression.NONE, FileBrokerArea.CACHE, file.length());
+
+		String checksum = uploader.upload(url, file, false, null);
+		assertUploaded(file, dataId, checksum);
+	}
+
+	@Test
+	public void testBlockCompressed() throws Exception {
+		File file = createFile(3 * CHUNK_SIZE);
+		String dataId = CryptoKey.generateRandom();
+		URL url = urlRepository.createAuthorisedUrl(dataId, Compression.BLOCK, FileBrokerArea.CACHE, file.length());
+
+		String checksum = uploader.upload(url, file, true, null);
+		assertUploaded(file, dataId, checksum);
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		File file = createFile(3 * CHUNK_SIZE);
+		String dataId = CryptoKey.generateRandom();
+		URL url = urlRepository.createAuthorisedUrl(dataId, Compression.NONE, FileBrokerArea.CACHE, file.length());
+
+		// send the second chunk only, like an upload that failed
+		byte[] chunk = Arrays.copyOfRange(Files.readAllBytes(file.toPath()), CHUNK_SIZE, 2 * CHUNK_SIZE);
+		HttpURLConnection connection = UrlTransferUtil.prepareForUpload(new URL(url + "?" + ChunkedUploads.PARAMETER_OFFSET + "=" + CHUNK_SIZE));
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(chunk);
+		}
+		Assert.assertEquals(HttpURLConnection.HTTP_NO_CONTENT, connection.getResponseCode());
+
+		// the upload isn't complete yet
+		connection = UrlTransferUtil.prepareForUpload(new URL(url + "?" + ChunkedUploads.PARAMETER_COMPLETE));
+		connection.getOutputStream().close();
+		Assert.assertEquals(HttpURLConnection.HTTP_CONFLICT, connection.getResponseCode());
+
+		final long[] progress = new long[1];
+		String checksum = uploader.upload(url, file, false, new IOUtils.CopyProgressListener() {
+			@Override
+			public void progress(long bytes) {
+				progress[0] = bytes;
+			}
+		});
+		assertUploaded(file, dataId, checksum);
+		Assert.assertEquals(file.length(), progress[0]);
+	}
+
+	@Test
+	public void testFastChecksum() throws Exception {
+		File file = createFile(3 * CHUNK_SIZE + 1);
+		ChunkedUploader fastUploader = new ChunkedUploader(CHUNK_SIZE, 3, 0, true, ChecksumAlgorithm.XXH64);
+
+		String dataId = CryptoKey.generateRandom();
+		URL url = urlRepository.createAuthorisedUrl(dataId, Compression.NONE, FileBrokerArea.CACHE, file.length());
+		assertUploaded(file, dataId, fastUploader.upload(url, file, false, null));
+
+		// normal upload, the server calculates both
+		dataId = CryptoKey.generateRandom();
+		url = urlRepository.createAuthorisedUrl(dataId, Compression.NONE, FileBrokerArea.CACHE, file.length());
+		try (InputStream in = new FileInputStream(file)) {
+			assertUploaded(file, dataId, UrlTransferUtil.uploadStream(url, in, true, false, true, ChecksumAlgorithm.XXH64, null));
+		}
+	}
+
+	@Test(expected = ChunkedUploadNotSupportedException.class)
+	public void testNotAuthorised() throws Exception {
+		File file = createFile(2 * CHUNK_SIZE);
+		uploader.upload(urlRepository.constructCacheURL(CryptoKey.generateRandom(), ""), file, false, null);
+	}
+
+	@Test
+	public void testRanges() {
+		ChunkedUploads uploads = new ChunkedUploads(60 * 1000);
+		ChunkedUploads.Upload upload = uploads.getOrCreate(new File(workDir, "ranges"), 100);
+
+		upload.addRange(50, 60);
+		upload.addRange(10, 20);
+		Assert.assertEquals("10-19,50-59", upload.getRangesString());
+
+		upload.addRange(20, 30);
+		upload.addRange(55, 70);
+		Assert.assertEquals("10-29,50-69", upload.getRangesString());
+
+		upload.addRange(0, 100);
+		Assert.assertEquals("0-99", upload.getRangesString());
+		Assert.assertTrue(upload.isComplete());
+
+		// same file, same upload
+		Assert.assertSame(upload, uploads.getOrCreate(new File(workDir, "ranges"), 100));
+	}
+
+	private static String getConfig() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+				"<configuration content-version=\"3\">\n" +
+				"	<configuration-module moduleId=\"messaging\">\n" +
+				"		<entry entryKey=\"broker-host\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-protocol\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-port\"><value>-1</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"security\">\n" +
+				"		<entry entryKey=\"username\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"password\"><value>not defined</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"filebroker\">\n" +
+				"		<entry entryKey=\"url\"><value>http://localhost</value></entry>\n" +
+				"		<entry entryKey=\"port\"><value>8080</value></entry>\n" +
+				"		<entry entryKey=\"enable-metadata-backups\"><value>false</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"</configuration>\n";
+	}
+}
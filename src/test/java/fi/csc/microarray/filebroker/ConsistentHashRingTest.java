@@ -0,0 +1,82 @@
+package fi.csc.microarray.filebroker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+	private static final int KEYS = 20000;
+
+	private static List<String> nodes(String... nodes) {
+		return Arrays.asList(nodes);
+	}
+
+	private static String key(int i) {
+		return "key-" + i;
+	}
+
+	@Test
+	public void testOwners() {
+		ConsistentHashRing ring = new ConsistentHashRing(nodes("a", "b", "c"));
+		for (int i = 0; i < 1000; i++) {
+			List<String> owners = ring.getOwners(key(i), 2);
+			Assert.assertEquals(2, owners.size());
+			Assert.assertEquals(2, new HashSet<>(owners).size());
+			Assert.assertEquals(ring.getPrimary(key(i)), owners.get(0));
+			// more owners only adds to the end
+			Assert.assertEquals(owners, ring.getOwners(key(i), 3).subList(0, 2));
+		}
+		// not more than there are nodes
+		Assert.assertEquals(3, ring.getOwners("key", 5).size());
+
+		// same placement on every node
+		Assert.assertEquals(ring.getOwners("key", 3), new ConsistentHashRing(nodes("a", "b", "c")).getOwners("key", 3));
+	}
+
+	@Test
+	public void testBalance() {
+		ConsistentHashRing ring = new ConsistentHashRing(nodes("http://host1:8080", "http://host2:8080", "http://host3:8080", "http://host4:8080"));
+		HashMap<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			String primary = ring.getPrimary(key(i));
+			counts.put(primary, counts.containsKey(primary) ? counts.get(primary) + 1 : 1);
+		}
+		Assert.assertEquals(4, counts.size());
+		for (int count : counts.values()) {
+			Assert.assertTrue("uneven placement " + counts, Math.abs(count - KEYS / 4) < KEYS / 4 / 4);
+		}
+	}
+
+	@Test
+	public void testAddAndRemove() {
+		ConsistentHashRing ring = new ConsistentHashRing(nodes("a", "b", "c", "d"));
+		ConsistentHashRing added = new ConsistentHashRing(nodes("a", "b", "c", "d", "e"));
+
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String before = ring.getPrimary(key(i));
+			String after = added.getPrimary(key(i));
+			if (!before.equals(after)) {
+				// keys move only to the new node
+				Assert.assertEquals("e", after);
+				moved++;
+			}
+		}
+		// about a fifth of the keys
+		Assert.assertTrue("moved " + moved, Math.abs(moved - KEYS / 5) < KEYS / 5 / 4);
+
+		ConsistentHashRing removed = new ConsistentHashRing(nodes("a", "b", "d"));
+		for (int i = 0; i < KEYS; i++) {
+			String before = ring.getPrimary(key(i));
+			if (!"c".equals(before)) {
+				// only the keys of the removed node move
+				Assert.assertEquals(before, removed.getPrimary(key(i)));
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DerbyMetadataServerTest {
+
+	private File dir;
+	private DerbyMetadataServer metadataServer;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("metadata-server-test").toFile();
+		String url = "jdbc:derby:" + new File(dir, "db").getAbsolutePath() + ";create=true";
+		metadataServer = new DerbyMetadataServer(dir.getAbsolutePath(), url, 2, 0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		metadataServer.shutdown();
+		FileUtils.deleteQuietly(dir);
+	}
+
+	@Test
+	public void testStorageUsage() throws Exception {
+		metadataServer.addFile("file1", 100);
+		metadataServer.addFile("file2", 50);
+		metadataServer.addFile("file3", 10);
+
+		Assert.assertEquals(0, metadataServer.getStorageusageOfUser("user").longValue());
+
+		metadataServer.addSession("user", "session1", "session1", Arrays.asList(new String[] { "file1", "file2" }));
+		Assert.assertEquals(150, metadataServer.getStorageusageOfUser("user").longValue());
+
+		// shared files are counted for each session, like before
+		metadataServer.addSession("user", "session2", "session2", Arrays.asList(new String[] { "file1" }));
+		metadataServer.linkFileToSession("file3", "session2");
+		Assert.assertEquals(260, metadataServer.getStorageusageOfUser("user").longValue());
+		Assert.assertEquals(0, metadataServer.getStorageusageOfUser("other").longValue());
+
+		metadataServer.removeSession("session1");
+		Assert.assertEquals(110, metadataServer.getStorageusageOfUser("user").longValue());
+
+		// maintained usage is equal to the calculated one
+		Assert.assertEquals(0, metadataServer.reconcileStorageUsage());
+
+		metadataServer.removeSession("session2");
+		Assert.assertEquals(0, metadataServer.getStorageusageOfUser("user").longValue());
+		Assert.assertEquals(0, metadataServer.getStorageusageOfUsers()[0].size());
+	}
+}
@@ -0,0 +1,266 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.filebroker.AuthorisedUrlRepository.Compression;
+import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
+import fi.csc.microarray.filebroker.FileBrokerCluster.Location;
+import fi.csc.microarray.messaging.DirectMessagingEndpoint;
+import fi.csc.microarray.messaging.message.CommandMessage;
+import fi.csc.microarray.messaging.message.ParameterMessage;
+import fi.csc.microarray.security.CryptoKey;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * Runs several file brokers in one JVM. Each node has its own Jetty and file
+ * repository, and the cluster messages are delivered with a shared
+ * {@link DirectMessagingEndpoint}.
+ */
+public class FileBrokerClusterTest {
+
+	private static final int NODES = 3;
+	private static final long TIMEOUT = 30 * 1000;
+
+	private File workDir;
+	private DirectMessagingEndpoint endpoint;
+	private List<String> rootUrls = new ArrayList<>();
+	private List<JettyFileServer> fileServers = new ArrayList<>();
+	private List<FileBrokerAreas> areas = new ArrayList<>();
+	private List<FileBrokerCluster> clusters = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		workDir = Files.createTempDirectory("filebroker-cluster-test").toFile();
+		new File(workDir, "conf").mkdir();
+		new File(workDir, "logs").mkdir();
+		new File(workDir, "security").mkdir();
+		DirectoryLayout.uninitialise();
+		DirectoryLayout.setBaseDirOverride(workDir);
+		IOUtils.copy(new ByteArrayInputStream(getConfig().getBytes()), new File(workDir, "conf" + File.separator + "chipster-config.xml"));
+		DirectoryLayout.initialiseServerLayout(Arrays.asList(new String[] { "filebroker" }));
+
+		endpoint = new DirectMessagingEndpoint();
+
+		for (int i = 0; i < NODES; i++) {
+			File fileRoot = new File(workDir, "node-" + i);
+			new File(fileRoot, FileServer.CACHE_PATH).mkdirs();
+			new File(fileRoot, FileServer.STORAGE_PATH).mkdirs();
+
+			int port;
+			try (ServerSocket socket = new ServerSocket(0)) {
+				port = socket.getLocalPort();
+			}
+			AuthorisedUrlRepository urlRepository = new AuthorisedUrlRepository("http://localhost", port, FileServer.CACHE_PATH, FileServer.STORAGE_PATH);
+			JettyFileServer fileServer = new JettyFileServer(urlRepository, null, null);
+			fileServer.start(fileRoot.getAbsolutePath(), port, "http");
+
+			rootUrls.add(urlRepository.getRootUrl());
+			fileServers.add(fileServer);
+			areas.add(new FileBrokerAreas(fileRoot, FileServer.CACHE_PATH, FileServer.STORAGE_PATH));
+		}
+	}
+
+	/**
+	 * All nodes know the same nodes, but not all of them need to be members.
+	 */
+	private void startClusters(List<String> members, int replicationFactor) throws Exception {
+		for (int i = 0; i < NODES; i++) {
+			FileBrokerCluster cluster = new FileBrokerCluster(rootUrls.get(i), members, replicationFactor, areas.get(i), null);
+			cluster.setRebalanceTiming(100, TIMEOUT);
+			cluster.connect(endpoint);
+			clusters.add(cluster);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (FileBrokerCluster cluster : clusters) {
+			cluster.shutdown();
+		}
+		for (JettyFileServer fileServer : fileServers) {
+			fileServer.stop();
+		}
+		DirectoryLayout.uninitialise();
+		DirectoryLayout.setBaseDirOverride(null);
+		FileUtils.deleteDirectory(workDir);
+	}
+
+	private String addFile(int node, FileBrokerArea area) throws IOException {
+		String fileId = CryptoKey.generateRandom();
+		byte[] content = new byte[10000];
+		new Random().nextBytes(content);
+		File file = areas.get(node).getFile(fileId, area);
+		FileUtils.writeByteArrayToFile(file, content);
+		Md5FileUtils.writeMd5(Md5FileUtils.calculateMd5(file), file);
+		return fileId;
+	}
+
+	private int nodeOf(String rootUrl) {
+		return rootUrls.indexOf(rootUrl);
+	}
+
+	private boolean isStoredOnlyByOwners(String fileId) {
+		List<String> owners = clusters.get(0).getOwners(fileId);
+		for (int i = 0; i < NODES; i++) {
+			if (areas.get(i).fileExists(fileId, FileBrokerArea.STORAGE) != owners.contains(rootUrls.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void waitUntilStoredOnlyByOwners(List<String> fileIds) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		for (String fileId : fileIds) {
+			while (!isStoredOnlyByOwners(fileId)) {
+				Assert.assertTrue("not replicated in time: " + fileId, System.currentTimeMillis() < deadline);
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	@Test
+	public void testOneNodeAnswers() throws Exception {
+		startClusters(rootUrls, 2);
+
+		for (int i = 0; i < 100; i++) {
+			CommandMessage message = new CommandMessage(CommandMessage.COMMAND_GET_URL);
+			message.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID, CryptoKey.generateRandom());
+			int answering = 0;
+			for (FileBrokerCluster cluster : clusters) {
+				if (cluster.isResponsible(message)) {
+					answering++;
+				}
+			}
+			Assert.assertEquals(1, answering);
+		}
+
+		CommandMessage sessions = new CommandMessage(CommandMessage.COMMAND_LIST_SESSIONS);
+		Assert.assertTrue(clusters.get(0).isResponsible(sessions));
+		Assert.assertFalse(clusters.get(1).isResponsible(sessions));
+		Assert.assertFalse(clusters.get(2).isResponsible(sessions));
+	}
+
+	@Test
+	public void testSingleNode() throws Exception {
+		FileBrokerCluster cluster = new FileBrokerCluster(rootUrls.get(0), Collections.<String>emptyList(), 2, areas.get(0), null);
+		clusters.add(cluster);
+		Assert.assertFalse(cluster.isClustered());
+		Assert.assertTrue(cluster.isResponsible(new CommandMessage(CommandMessage.COMMAND_LIST_SESSIONS)));
+		Assert.assertEquals(Arrays.asList(rootUrls.get(0)), cluster.getOwners(CryptoKey.generateRandom()));
+	}
+
+	@Test
+	public void testReplicate() throws Exception {
+		startClusters(rootUrls, 2);
+
+		List<String> fileIds = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			String fileId = CryptoKey.generateRandom();
+			int primary = nodeOf(clusters.get(0).getOwners(fileId).get(0));
+			File file = areas.get(primary).getFile(fileId, FileBrokerArea.STORAGE);
+			FileUtils.writeByteArrayToFile(file, fileId.getBytes());
+			Md5FileUtils.writeMd5(Md5FileUtils.calculateMd5(file), file);
+			fileIds.add(fileId);
+		}
+		clusters.get(0).replicate(fileIds);
+		waitUntilStoredOnlyByOwners(fileIds);
+
+		for (String fileId : fileIds) {
+			for (String owner : clusters.get(0).getOwners(fileId)) {
+				File copy = areas.get(nodeOf(owner)).getFile(fileId, FileBrokerArea.STORAGE);
+				Assert.assertEquals(fileId, FileUtils.readFileToString(copy));
+				Assert.assertEquals(Md5FileUtils.calculateMd5(copy), Md5FileUtils.readMd5(copy));
+			}
+		}
+
+		// and removed from all of them
+		clusters.get(0).removeFiles(fileIds);
+		for (String fileId : fileIds) {
+			for (int i = 0; i < NODES; i++) {
+				Assert.assertFalse(areas.get(i).fileExists(fileId, FileBrokerArea.STORAGE));
+			}
+		}
+	}
+
+	@Test
+	public void testLocate() throws Exception {
+		startClusters(rootUrls, 2);
+
+		String cached = addFile(2, FileBrokerArea.CACHE);
+		String stored = addFile(1, FileBrokerArea.STORAGE);
+
+		Location location = clusters.get(0).locate(cached, Compression.BLOCK);
+		Assert.assertEquals(rootUrls.get(2) + "/" + FileServer.CACHE_PATH + "/" + cached + Compression.BLOCK.getSuffix(), location.getUrl().toString());
+		Assert.assertEquals(10000, location.getSize());
+		Assert.assertEquals(FileBrokerArea.CACHE, location.getArea());
+
+		Assert.assertNull(clusters.get(0).locate(CryptoKey.generateRandom(), Compression.NONE));
+
+		List<Location> locations = new ArrayList<>(clusters.get(0).locate(Arrays.asList(cached, CryptoKey.generateRandom(), stored), Compression.NONE).values());
+		Assert.assertEquals(2, locations.size());
+		Assert.assertEquals(rootUrls.get(1) + "/" + FileServer.STORAGE_PATH + "/" + stored, locations.get(1).getUrl().toString());
+	}
+
+	@Test
+	public void testRebalance() throws Exception {
+		// the third node joins later
+		List<String> members = rootUrls.subList(0, 2);
+		startClusters(members, 1);
+
+		List<String> fileIds = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			String fileId = CryptoKey.generateRandom();
+			File file = areas.get(nodeOf(clusters.get(0).getOwners(fileId).get(0))).getFile(fileId, FileBrokerArea.STORAGE);
+			FileUtils.writeByteArrayToFile(file, fileId.getBytes());
+			Md5FileUtils.writeMd5(Md5FileUtils.calculateMd5(file), file);
+			fileIds.add(fileId);
+		}
+
+		clusters.get(0).sendNodes(rootUrls);
+		waitUntilStoredOnlyByOwners(fileIds);
+		Assert.assertFalse(areas.get(2).listFiles(FileBrokerArea.STORAGE).isEmpty());
+
+		// and leaves
+		clusters.get(0).sendNodes(members);
+		waitUntilStoredOnlyByOwners(fileIds);
+		Assert.assertTrue(areas.get(2).listFiles(FileBrokerArea.STORAGE).isEmpty());
+		Assert.assertEquals(fileIds.size(), areas.get(0).listFiles(FileBrokerArea.STORAGE).size() + areas.get(1).listFiles(FileBrokerArea.STORAGE).size());
+	}
+
+	private static String getConfig() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+				"<configuration content-version=\"3\">\n" +
+				"	<configuration-module moduleId=\"messaging\">\n" +
+				"		<entry entryKey=\"broker-host\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-protocol\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-port\"><value>-1</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"security\">\n" +
+				"		<entry entryKey=\"username\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"password\"><value>not defined</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"filebroker\">\n" +
+				"		<entry entryKey=\"url\"><value>http://localhost</value></entry>\n" +
+				"		<entry entryKey=\"port\"><value>8080</value></entry>\n" +
+				"		<entry entryKey=\"enable-metadata-backups\"><value>false</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"</configuration>\n";
+	}
+}
@@ -0,0 +1,101 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Measures the throughput of downloading a large file from Jetty with the
+ * DefaultServlet and with the {@link FileSender}, mapped and streamed.
+ *
+ * Not a unit test, run the main method. The first argument is the file size in
+ * megabytes.
+ */
+public class FileSenderBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+
+		File root = Files.createTempDirectory("file-sender-benchmark").toFile();
+		final File file = new File(root, "data");
+		byte[] block = new byte[1024 * 1024];
+		new Random().nextBytes(block);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			for (int i = 0; i < megabytes; i++) {
+				out.write(block);
+			}
+		}
+
+		System.out.println(megabytes + " MB file, best of " + ROUNDS + " downloads");
+
+		run("default servlet", root, file, new DefaultServlet());
+		run("file sender, mapped", root, file, createServlet(new FileSender(), file));
+		run("file sender, streamed", root, file, createServlet(new FileSender(0), file));
+
+		file.delete();
+		root.delete();
+		System.exit(0);
+	}
+
+	private static HttpServlet createServlet(final FileSender sender, final File file) {
+		return new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+				sender.send(file, request, response);
+			}
+		};
+	}
+
+	private static void run(String name, File root, File file, HttpServlet servlet) throws Exception {
+		Server server = new Server();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler(server, "/", false, false);
+		context.setResourceBase(root.getAbsolutePath());
+		context.addServlet(new ServletHolder(servlet), "/*");
+		server.start();
+
+		URL url = new URL("http://localhost:" + connector.getLocalPort() + "/" + file.getName());
+		byte[] buffer = new byte[256 * 1024];
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			long bytes = 0;
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try (InputStream in = connection.getInputStream()) {
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					bytes += count;
+				}
+			}
+			if (bytes != file.length()) {
+				throw new IOException("got " + bytes + " bytes, expected " + file.length());
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		server.stop();
+
+		System.out.println(String.format("  %-25s %6.0f MB/s", name, file.length() / 1024.0 / 1024 / (best / 1e9)));
+	}
+}
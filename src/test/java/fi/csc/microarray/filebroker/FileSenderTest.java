@@ -0,0 +1,146 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSenderTest {
+
+	private static final int FILE_SIZE = 3 * 1024 * 1024 + 17;
+
+	private File root;
+	private File file;
+	private byte[] content;
+	private Server server;
+	private String url;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("file-sender-test").toFile();
+		file = new File(root, "data");
+		content = new byte[FILE_SIZE];
+		new Random(1).nextBytes(content);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		FileUtils.deleteDirectory(root);
+	}
+
+	private void startServer(final FileSender sender) throws Exception {
+		server = new Server();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler(server, "/", false, false);
+		context.addServlet(new ServletHolder(new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+				sender.send(file, request, response);
+			}
+		}), "/*");
+		server.start();
+		url = "http://localhost:" + connector.getLocalPort() + "/data";
+	}
+
+	private HttpURLConnection get(String range) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if (range != null) {
+			connection.setRequestProperty("Range", range);
+		}
+		return connection;
+	}
+
+	private byte[] read(HttpURLConnection connection) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, count);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private void testRanges(FileSender sender) throws Exception {
+		startServer(sender);
+
+		HttpURLConnection connection = get(null);
+		Assert.assertArrayEquals(content, read(connection));
+		Assert.assertEquals(200, connection.getResponseCode());
+		Assert.assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+
+		connection = get("bytes=1000-2999999");
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 3000000), read(connection));
+		Assert.assertEquals(206, connection.getResponseCode());
+		Assert.assertEquals("bytes 1000-2999999/" + FILE_SIZE, connection.getHeaderField("Content-Range"));
+
+		connection = get("bytes=3000000-");
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 3000000, FILE_SIZE), read(connection));
+
+		connection = get("bytes=-100");
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 100, FILE_SIZE), read(connection));
+
+		connection = get("bytes=" + FILE_SIZE + "-");
+		Assert.assertEquals(416, connection.getResponseCode());
+	}
+
+	@Test
+	public void testMapped() throws Exception {
+		testRanges(new FileSender());
+	}
+
+	@Test
+	public void testStreamed() throws Exception {
+		testRanges(new FileSender(1024));
+	}
+
+	@Test
+	public void testParseRange() {
+		Assert.assertNull(FileSender.parseRange(null, 100));
+		Assert.assertArrayEquals(new long[] { 0, 9 }, FileSender.parseRange("bytes=0-9", 100));
+		Assert.assertArrayEquals(new long[] { 10, 99 }, FileSender.parseRange("bytes=10-", 100));
+		Assert.assertArrayEquals(new long[] { 10, 99 }, FileSender.parseRange("bytes=10-1000", 100));
+		Assert.assertArrayEquals(new long[] { 90, 99 }, FileSender.parseRange("bytes=-10", 100));
+		Assert.assertArrayEquals(new long[] { 0, 99 }, FileSender.parseRange("bytes=-1000", 100));
+		Assert.assertSame(FileSender.UNSATISFIABLE, FileSender.parseRange("bytes=100-", 100));
+		Assert.assertSame(FileSender.UNSATISFIABLE, FileSender.parseRange("bytes=-0", 100));
+
+		// ignored, whole file is sent
+		Assert.assertNull(FileSender.parseRange("bytes=0-9,20-29", 100));
+		Assert.assertNull(FileSender.parseRange("bytes=9-0", 100));
+		Assert.assertNull(FileSender.parseRange("bytes=a-b", 100));
+		Assert.assertNull(FileSender.parseRange("lines=0-9", 100));
+		Assert.assertNull(FileSender.parseRange("bytes=0-9", 0));
+	}
+}
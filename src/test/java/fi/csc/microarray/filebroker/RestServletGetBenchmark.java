@@ -0,0 +1,149 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.security.CryptoKey;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * Measures the throughput of storage GET requests of the file broker with many
+ * parallel clients. Every storage GET touches the file in the metadata database,
+ * so this compares a single synchronously updated database connection to the
+ * connection pool with write-behind access times.
+ *
+ * Not a unit test, run the main method.
+ */
+public class RestServletGetBenchmark {
+
+	private static final int CLIENTS = 100;
+	private static final int FILES = 1000;
+	private static final int FILE_SIZE = 16 * 1024;
+	private static final long DURATION = 20 * 1000; // milliseconds
+
+	public static void main(String[] args) throws Exception {
+
+		File workDir = Files.createTempDirectory("rest-servlet-benchmark").toFile();
+		new File(workDir, "conf").mkdir();
+		new File(workDir, "logs").mkdir();
+		new File(workDir, "security").mkdir();
+		DirectoryLayout.setBaseDirOverride(workDir);
+		File configFile = new File(workDir, "conf" + File.separator + "chipster-config.xml");
+		IOUtils.copy(new ByteArrayInputStream(getConfig().getBytes()), configFile);
+		DirectoryLayout.initialiseServerLayout(Arrays.asList(new String[] { "filebroker" }));
+
+		// create files
+		File fileRoot = new File(workDir, "file-root");
+		File storageDir = new File(fileRoot, FileServer.STORAGE_PATH);
+		storageDir.mkdirs();
+		List<String> dataIds = new ArrayList<String>();
+		byte[] content = new byte[FILE_SIZE];
+		new Random().nextBytes(content);
+		for (int i = 0; i < FILES; i++) {
+			String dataId = CryptoKey.generateRandom();
+			try (FileOutputStream out = new FileOutputStream(new File(storageDir, dataId))) {
+				out.write(content);
+			}
+			dataIds.add(dataId);
+		}
+
+		double single = run("single connection, immediate access time updates", workDir, fileRoot, dataIds, 1, 0);
+		double pooled = run("connection pool, write-behind access time updates", workDir, fileRoot, dataIds, 8, 5);
+
+		System.out.println(String.format("speedup %.1fx", pooled / single));
+		System.exit(0);
+	}
+
+	private static double run(String name, File workDir, File fileRoot, final List<String> dataIds, int connections, int flushInterval) throws Exception {
+
+		File dbDir = new File(workDir, "db-" + connections + "-" + flushInterval);
+		DerbyMetadataServer metadataServer = new DerbyMetadataServer(workDir.getAbsolutePath(), "jdbc:derby:" + dbDir.getAbsolutePath() + ";create=true", connections, flushInterval);
+		for (String dataId : dataIds) {
+			metadataServer.addFile(dataId, FILE_SIZE);
+		}
+
+		int port = getFreePort();
+		AuthorisedUrlRepository urlRepository = new AuthorisedUrlRepository("http://localhost", port, FileServer.CACHE_PATH, FileServer.STORAGE_PATH);
+		new JettyFileServer(urlRepository, metadataServer, null).start(fileRoot.getAbsolutePath(), port, "http");
+		final String storageUrl = "http://localhost:" + port + "/" + FileServer.STORAGE_PATH + "/";
+
+		final AtomicLong requests = new AtomicLong(0);
+		final AtomicLong errors = new AtomicLong(0);
+		final long endTime = System.currentTimeMillis() + DURATION;
+
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int i = 0; i < CLIENTS; i++) {
+			Thread client = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random();
+					byte[] buffer = new byte[8192];
+					while (System.currentTimeMillis() < endTime) {
+						String dataId = dataIds.get(random.nextInt(dataIds.size()));
+						try {
+							HttpURLConnection connection = (HttpURLConnection) new URL(storageUrl + dataId).openConnection();
+							try (InputStream in = connection.getInputStream()) {
+								while (in.read(buffer) != -1) {
+									// just read
+								}
+							}
+							requests.incrementAndGet();
+						} catch (IOException e) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			});
+			client.start();
+			clients.add(client);
+		}
+
+		for (Thread client : clients) {
+			client.join();
+		}
+		metadataServer.shutdown();
+
+		double throughput = requests.get() * 1000.0 / DURATION;
+		System.out.println(String.format("%s: %d clients, %.0f GET requests/s, %d errors", name, CLIENTS, throughput, errors.get()));
+		return throughput;
+	}
+
+	private static int getFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static String getConfig() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+				"<configuration content-version=\"3\">\n" +
+				"	<configuration-module moduleId=\"messaging\">\n" +
+				"		<entry entryKey=\"broker-host\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-protocol\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"broker-port\"><value>-1</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"security\">\n" +
+				"		<entry entryKey=\"username\"><value>not defined</value></entry>\n" +
+				"		<entry entryKey=\"password\"><value>not defined</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"	<configuration-module moduleId=\"filebroker\">\n" +
+				"		<entry entryKey=\"url\"><value>http://localhost</value></entry>\n" +
+				"		<entry entryKey=\"port\"><value>8080</value></entry>\n" +
+				"		<entry entryKey=\"enable-metadata-backups\"><value>false</value></entry>\n" +
+				"	</configuration-module>\n" +
+				"</configuration>\n";
+	}
+}
@@ -0,0 +1,53 @@
+package fi.csc.microarray.filebroker;
+
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UrlCacheTest {
+
+	@Test
+	public void testUrlsAndLengths() throws Exception {
+		UrlCache cache = new UrlCache(60 * 1000, 10);
+		URL url = new URL("http://localhost:8080/cache/data");
+		URL compressedUrl = new URL("http://localhost:8080/cache/data.block-compressed");
+
+		Assert.assertNull(cache.getUrl("data", false));
+
+		cache.put("data", false, url, null);
+		cache.put("data", true, compressedUrl, 100l);
+		Assert.assertEquals(url, cache.getUrl("data", false));
+		Assert.assertEquals(compressedUrl, cache.getUrl("data", true));
+		Assert.assertEquals(Long.valueOf(100), cache.getLength("data"));
+
+		// null urls aren't cached
+		cache.put("missing", false, null, null);
+		Assert.assertNull(cache.getUrl("missing", false));
+
+		Assert.assertTrue(cache.remove("data"));
+		Assert.assertFalse(cache.remove("data"));
+		Assert.assertNull(cache.getUrl("data", true));
+		Assert.assertNull(cache.getLength("data"));
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		UrlCache cache = new UrlCache(0, 10);
+		cache.put("data", false, new URL("http://localhost:8080/cache/data"), 100l);
+		Assert.assertNull(cache.getUrl("data", false));
+		Assert.assertNull(cache.getLength("data"));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		UrlCache cache = new UrlCache(60 * 1000, 2);
+		for (int i = 0; i < 5; i++) {
+			cache.put("data" + i, false, new URL("http://localhost:8080/cache/data" + i), null);
+		}
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.getUrl("data0", false));
+		Assert.assertNotNull(cache.getUrl("data4", false));
+	}
+}
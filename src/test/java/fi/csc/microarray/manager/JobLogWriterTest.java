@@ -0,0 +1,109 @@
+package fi.csc.microarray.manager;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import fi.csc.microarray.messaging.JobState;
+import fi.csc.microarray.messaging.message.JobLogMessage;
+
+public class JobLogWriterTest {
+
+	private DriverManagerDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() {
+		dataSource = new DriverManagerDataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE jobs (id VARCHAR(100) PRIMARY KEY, operation VARCHAR(200), status VARCHAR(200), " +
+				"starttime DATETIME DEFAULT NULL, endtime DATETIME DEFAULT NULL, wallclockTime INT DEFAULT NULL, " +
+				"errorMessage TEXT DEFAULT NULL, outputText TEXT DEFAULT NULL, username VARCHAR(200), compHost VARCHAR(500));");
+		jdbcTemplate.execute(JobLogWriter.CREATE_JOB_OUTPUTS_TABLE);
+	}
+
+	@After
+	public void tearDown() {
+		jdbcTemplate.execute("DROP ALL OBJECTS");
+	}
+
+	private JobLogMessage createMessage(String jobId, String output) {
+		Date start = new Date(System.currentTimeMillis() - 5000);
+		return new JobLogMessage("test.R", JobState.COMPLETED, "", jobId, start, new Date(), null, output, "test", "localhost");
+	}
+
+	@Test
+	public void testBatches() {
+		JobLogWriter writer = new JobLogWriter(dataSource, 1000, 50, 1000);
+		for (int i = 0; i < 500; i++) {
+			Assert.assertTrue(writer.add(createMessage("job-" + i, "output " + i)));
+		}
+		writer.close(10000);
+
+		Assert.assertEquals(500, writer.getWrittenCount());
+		Assert.assertEquals(500, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+		Assert.assertEquals(5, jdbcTemplate.queryForInt("SELECT wallclockTime FROM jobs WHERE id = 'job-1'"));
+	}
+
+	@Test
+	public void testDuplicateInBatch() {
+		JobLogWriter writer = new JobLogWriter(dataSource, 1000, 50, 1000);
+		writer.add(createMessage("job-1", "first"));
+		writer.add(createMessage("job-1", "second"));
+		writer.add(createMessage("job-2", "third"));
+		writer.close(10000);
+
+		Assert.assertEquals(2, writer.getWrittenCount());
+		Assert.assertEquals(1, writer.getFailedCount());
+		Assert.assertEquals(2, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+	}
+
+	@Test
+	public void testLongOutput() throws IOException {
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			output.append("line ").append(i).append("\n");
+		}
+
+		JobLogWriter writer = new JobLogWriter(dataSource, 1000, 50, 1000);
+		writer.add(createMessage("job-1", output.toString()));
+		writer.close(10000);
+
+		String inline = (String) jdbcTemplate.queryForObject("SELECT outputText FROM jobs WHERE id = 'job-1'", String.class);
+		Assert.assertTrue(inline.length() < 1100);
+		Assert.assertTrue(output.toString().startsWith(inline.substring(0, 1000)));
+
+		byte[] stored = (byte[]) jdbcTemplate.queryForObject("SELECT outputText FROM job_outputs WHERE id = 'job-1'", byte[].class);
+		Assert.assertTrue(stored.length < output.length() / 2);
+		Assert.assertEquals(output.toString(), JobLogWriter.decompressOutput(stored));
+	}
+
+	@Test
+	public void testDrop() {
+		// no database, so the queue fills up
+		DriverManagerDataSource brokenDataSource = new DriverManagerDataSource();
+		brokenDataSource.setDriverClassName("org.h2.Driver");
+		brokenDataSource.setUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";IFEXISTS=TRUE");
+
+		JobLogWriter writer = new JobLogWriter(brokenDataSource, 2, 1, 1000);
+		int added = 0;
+		for (int i = 0; i < 10; i++) {
+			if (writer.add(createMessage("job-" + i, ""))) {
+				added++;
+			}
+		}
+		writer.close(10000);
+
+		Assert.assertEquals(10 - added, writer.getDroppedCount());
+		Assert.assertEquals(added, writer.getFailedCount());
+	}
+}
@@ -0,0 +1,167 @@
+package fi.csc.microarray.messaging;
+
+import java.util.Date;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+import fi.csc.microarray.messaging.message.JobLogMessage;
+
+public class MessageCodecTest {
+
+	private BrokerService broker;
+	private Connection connection;
+	private Session session;
+
+	@Before
+	public void setUp() throws Exception {
+		broker = new BrokerService();
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+
+		connection = new ActiveMQConnectionFactory("vm://localhost").createConnection();
+		connection.start();
+		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+		broker.stop();
+	}
+
+	private JobLogMessage createJobLogMessage() {
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			output.append("line " + i + " of the job output\n");
+		}
+		return new JobLogMessage("operation.R", JobState.COMPLETED, "done", "job-id", new Date(1000), new Date(2000), null, output.toString(), "user", "comp-host");
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws Exception {
+		JobLogMessage original = createJobLogMessage();
+		original.setCorrelationID("correlation");
+		original.setReplyTo(session.createTemporaryTopic());
+
+		// the original was created here, so it accepts binary replies
+		Message encoded = new MessageCodec(true).encodeReply(session, original, original);
+		Assert.assertTrue(encoded instanceof BytesMessage);
+		// output is compressed
+		((BytesMessage) encoded).reset();
+		Assert.assertTrue(((BytesMessage) encoded).getBodyLength() < original.getOutputText().length() / 10);
+		((BytesMessage) encoded).reset();
+
+		JobLogMessage decoded = (JobLogMessage) MessageCodec.decode(encoded);
+		Assert.assertEquals(original.getMessageID(), decoded.getMessageID());
+		Assert.assertEquals(original.getOutputText(), decoded.getOutputText());
+		Assert.assertEquals(original.getState(), decoded.getState());
+		Assert.assertEquals(original.getStartTime(), decoded.getStartTime());
+		Assert.assertEquals(original.getEndTime(), decoded.getEndTime());
+		Assert.assertNull(decoded.getErrorMessage());
+		Assert.assertEquals("user", decoded.getUsername());
+		Assert.assertEquals("correlation", decoded.getCorrelationID());
+		Assert.assertEquals(original.getReplyTo(), decoded.getReplyTo());
+		Assert.assertTrue(decoded.isBinaryAccepted());
+	}
+
+	@Test
+	public void testMapMessage() throws Exception {
+		CommandMessage original = new CommandMessage("command");
+		original.addNamedParameter("name", "value");
+
+		Message encoded = new MessageCodec(false).encode(session, original);
+		Assert.assertTrue(encoded instanceof MapMessage);
+
+		CommandMessage decoded = (CommandMessage) MessageCodec.decode(encoded);
+		Assert.assertEquals("command", decoded.getCommand());
+		Assert.assertEquals("value", decoded.getNamedParameter("name"));
+		Assert.assertTrue(decoded.isBinaryAccepted());
+	}
+
+	@Test
+	public void testTopicMessageToOldListener() throws Exception {
+		Topic topic = session.createTopic("admin-topic");
+		MessageConsumer oldListener = session.createConsumer(topic);
+		SessionPool pool = new SessionPool(connection, 2, new MessageCodec(true));
+
+		try {
+			pool.send(topic, new CommandMessage("ping"));
+
+			// old endpoints read only MapMessages
+			Message received = oldListener.receive(5000);
+			Assert.assertTrue(received instanceof MapMessage);
+			CommandMessage decoded = new CommandMessage();
+			decoded.unmarshal((MapMessage) received);
+			Assert.assertEquals("ping", decoded.getCommand());
+
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testReplyToOldClient() throws Exception {
+		CommandMessage request = new CommandMessage("command");
+		// old clients don't have the accept property
+		MapMessage oldMessage = session.createMapMessage();
+		request.marshal(oldMessage);
+		ChipsterMessage decodedRequest = MessageCodec.decode(oldMessage);
+		Assert.assertFalse(decodedRequest.isBinaryAccepted());
+
+		MessageCodec codec = new MessageCodec(true);
+		Assert.assertTrue(codec.encodeReply(session, new CommandMessage("reply"), decodedRequest) instanceof MapMessage);
+		decodedRequest.setBinaryAccepted(true);
+		Assert.assertTrue(codec.encodeReply(session, new CommandMessage("reply"), decodedRequest) instanceof BytesMessage);
+	}
+
+	@Test
+	public void testForwardedRequestOfOldClient() throws Exception {
+		Topic requestTopic = session.createTopic("request-topic");
+		Topic authorisedTopic = session.createTopic("authorised-request-topic");
+		Topic replyTopic = session.createTemporaryTopic();
+		MessageConsumer authenticator = session.createConsumer(requestTopic);
+		MessageConsumer server = session.createConsumer(authorisedTopic);
+		MessageConsumer client = session.createConsumer(replyTopic);
+		SessionPool pool = new SessionPool(connection, 2, new MessageCodec(true));
+
+		try {
+			// old client sends a MapMessage without the accept property
+			CommandMessage request = new CommandMessage("command");
+			request.setReplyTo(replyTopic);
+			MapMessage oldMessage = session.createMapMessage();
+			request.marshal(oldMessage);
+			session.createProducer(requestTopic).send(oldMessage);
+
+			// authenticator routes it like any received message
+			ChipsterMessage routed = MessageCodec.decode(authenticator.receive(5000));
+			pool.send(authorisedTopic, routed);
+
+			ChipsterMessage received = MessageCodec.decode(server.receive(5000));
+			Assert.assertFalse(received.isBinaryAccepted());
+			pool.sendReply(received.getReplyTo(), new CommandMessage("reply"), received);
+
+			Message reply = client.receive(5000);
+			Assert.assertTrue(reply instanceof MapMessage);
+			Assert.assertEquals("reply", ((CommandMessage) MessageCodec.decode(reply)).getCommand());
+
+		} finally {
+			pool.close();
+		}
+	}
+}
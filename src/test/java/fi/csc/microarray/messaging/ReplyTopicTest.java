@@ -0,0 +1,132 @@
+package fi.csc.microarray.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+
+public class ReplyTopicTest {
+
+	private BrokerService broker;
+	private Connection connection;
+	private SessionPool sessionPool;
+	private ReplyTopic replyTopic;
+	private Session session;
+
+	@Before
+	public void setUp() throws Exception {
+		broker = new BrokerService();
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+
+		connection = new ActiveMQConnectionFactory("vm://localhost").createConnection();
+		connection.start();
+		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		sessionPool = new SessionPool(connection, 2);
+		replyTopic = new ReplyTopic(connection);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		replyTopic.close();
+		sessionPool.close();
+		connection.close();
+		broker.stop();
+	}
+
+	/**
+	 * Reply to every request with its own command.
+	 */
+	private void startEchoServer(String topicName) throws JMSException {
+		MessagingTopic serverTopic = new MessagingTopic(connection.createSession(false, Session.AUTO_ACKNOWLEDGE), topicName, MessagingTopic.Type.NORMAL, MessagingTopic.AccessMode.READ, null);
+		serverTopic.setListener(new MessagingListener() {
+			@Override
+			public void onChipsterMessage(ChipsterMessage msg) {
+				try {
+					CommandMessage reply = new CommandMessage(((CommandMessage) msg).getCommand());
+					reply.setMultiplexChannel(Topics.MultiplexName.REPLY_TO.toString());
+					reply.setCorrelationID(msg.getCorrelationID());
+					sessionPool.send(msg.getReplyTo(), reply);
+				} catch (JMSException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		startEchoServer("test-requests");
+		MessagingTopic topic = new MessagingTopic(session, "test-requests", MessagingTopic.Type.NORMAL, MessagingTopic.AccessMode.WRITE, null, sessionPool, replyTopic);
+
+		List<ReplyFuture> futures = new ArrayList<ReplyFuture>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(topic.sendRequest(new CommandMessage("request-" + i), 10, TimeUnit.SECONDS));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			CommandMessage reply = (CommandMessage) futures.get(i).get(10, TimeUnit.SECONDS);
+			Assert.assertEquals("request-" + i, reply.getCommand());
+		}
+		Assert.assertEquals(0, replyTopic.getPendingRequestCount());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		MessagingTopic topic = new MessagingTopic(session, "nobody-listens", MessagingTopic.Type.NORMAL, MessagingTopic.AccessMode.WRITE, null, sessionPool, replyTopic);
+
+		ReplyFuture future = topic.sendRequest(new CommandMessage("request"), 100, TimeUnit.MILLISECONDS);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("request should have timed out");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Assert.assertEquals(0, replyTopic.getPendingRequestCount());
+	}
+
+	@Test
+	public void testListenerReceivesAllReplies() throws Exception {
+		startEchoServer("test-requests");
+		startEchoServer("test-requests"); // two servers reply
+		MessagingTopic topic = new MessagingTopic(session, "test-requests", MessagingTopic.Type.NORMAL, MessagingTopic.AccessMode.WRITE, null, sessionPool, replyTopic);
+
+		final List<ChipsterMessage> replies = new ArrayList<ChipsterMessage>();
+		TempTopicMessagingListenerBase listener = new TempTopicMessagingListenerBase() {
+			@Override
+			public void onChipsterMessage(ChipsterMessage msg) {
+				synchronized (replies) {
+					replies.add(msg);
+					replies.notifyAll();
+				}
+			}
+		};
+		topic.sendReplyableMessage(new CommandMessage("request"), listener);
+
+		synchronized (replies) {
+			long end = System.currentTimeMillis() + 5000;
+			while (replies.size() < 2 && System.currentTimeMillis() < end) {
+				replies.wait(100);
+			}
+		}
+		Assert.assertEquals(2, replies.size());
+		Assert.assertEquals(1, replyTopic.getPendingRequestCount());
+		listener.cleanUp();
+		Assert.assertEquals(0, replyTopic.getPendingRequestCount());
+	}
+}
@@ -0,0 +1,149 @@
+package fi.csc.microarray.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+import fi.csc.microarray.messaging.message.CommandMessage;
+
+/**
+ * Measures the message sending throughput from many threads with an embedded
+ * broker. Compares the old ways of sending (a producer or a whole session for
+ * every message, one sender at a time) to the {@link SessionPool}.
+ *
+ * Not a unit test, run the main method.
+ */
+public class SessionPoolBenchmark {
+
+	private static final int THREADS = 16;
+	private static final long DURATION = 10 * 1000; // milliseconds
+
+	private interface Sender {
+		void send(ChipsterMessage message) throws JMSException;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		BrokerService broker = new BrokerService();
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+
+		final Connection connection = new ActiveMQConnectionFactory("vm://localhost").createConnection();
+		connection.start();
+
+		final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		final Topic topic = session.createTopic("benchmark");
+
+		// receive everything, like the other components would
+		final AtomicLong received = new AtomicLong(0);
+		Session consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		MessageConsumer consumer = consumerSession.createConsumer(topic);
+		consumer.setMessageListener(new MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				received.incrementAndGet();
+			}
+		});
+
+		double producerPerMessage = run("producer per message", received, new Sender() {
+			@Override
+			public void send(ChipsterMessage message) throws JMSException {
+				synchronized (session) {
+					MapMessage mapMessage = session.createMapMessage();
+					message.marshal(mapMessage);
+					MessageProducer producer = session.createProducer(topic);
+					try {
+						producer.send(mapMessage);
+					} finally {
+						producer.close();
+					}
+				}
+			}
+		});
+
+		double sessionPerMessage = run("session per message", received, new Sender() {
+			@Override
+			public void send(ChipsterMessage message) throws JMSException {
+				Session replySession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				try {
+					MapMessage mapMessage = replySession.createMapMessage();
+					message.marshal(mapMessage);
+					replySession.createProducer(topic).send(mapMessage);
+				} finally {
+					replySession.close();
+				}
+			}
+		});
+
+		final SessionPool sessionPool = new SessionPool(connection, Runtime.getRuntime().availableProcessors());
+		final MessagingTopic pooledTopic = new MessagingTopic(session, "benchmark", MessagingTopic.Type.NORMAL, MessagingTopic.AccessMode.WRITE, null, sessionPool, null);
+		double pooled = run("session pool", received, new Sender() {
+			@Override
+			public void send(ChipsterMessage message) throws JMSException {
+				pooledTopic.sendMessage(message);
+			}
+		});
+
+		System.out.println(String.format("speedup %.1fx compared to producer per message, %.1fx compared to session per message", 
+				pooled / producerPerMessage, pooled / sessionPerMessage));
+
+		sessionPool.close();
+		connection.close();
+		broker.stop();
+		System.exit(0);
+	}
+
+	private static double run(String name, AtomicLong received, final Sender sender) throws Exception {
+
+		final AtomicLong sent = new AtomicLong(0);
+		final AtomicLong errors = new AtomicLong(0);
+		final long endTime = System.currentTimeMillis() + DURATION;
+		received.set(0);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < endTime) {
+						try {
+							CommandMessage message = new CommandMessage("benchmark");
+							message.addNamedParameter("payload", "some text in the message");
+							sender.send(message);
+							sent.incrementAndGet();
+						} catch (JMSException e) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// let the consumer catch up
+		Thread.sleep(1000);
+
+		double throughput = sent.get() * 1000.0 / DURATION;
+		System.out.println(String.format("%s: %d threads, %.0f messages/s, %d received, %d errors", name, THREADS, throughput, received.get(), errors.get()));
+		return throughput;
+	}
+}
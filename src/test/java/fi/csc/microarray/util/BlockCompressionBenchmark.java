@@ -0,0 +1,196 @@
+package fi.csc.microarray.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compares the throughput of the single stream deflate used before and the
+ * block compression with different numbers of threads. The data is generated
+ * to resemble FASTQ, TSV and BAM files (BAM is compressed already).
+ *
+ * Not a unit test, run the main method. Optional argument is the size of each
+ * data set in megabytes.
+ */
+public class BlockCompressionBenchmark {
+
+	private static final int ROUNDS = 3;
+
+	private static abstract class Codec {
+		private String name;
+
+		public Codec(String name) {
+			this.name = name;
+		}
+
+		public abstract OutputStream compress(OutputStream out) throws IOException;
+		public abstract InputStream decompress(InputStream in) throws IOException;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int size = megabytes * 1024 * 1024;
+
+		byte[] fastq = createFastq(size);
+		byte[] tsv = createTsv(size);
+		byte[] bam = createBam(fastq);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println(processors + " processors, " + megabytes + " MB per data set\n");
+
+		List<Codec> codecs = new ArrayList<Codec>();
+		codecs.addAll(Arrays.asList(new Codec[] {
+				new Codec("no compression") {
+					public OutputStream compress(OutputStream out) {
+						return out;
+					}
+					public InputStream decompress(InputStream in) {
+						return in;
+					}
+				},
+				new Codec("deflate stream") {
+					public OutputStream compress(OutputStream out) {
+						return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED));
+					}
+					public InputStream decompress(InputStream in) {
+						return new InflaterInputStream(in);
+					}
+				}
+		}));
+		for (int threads : new TreeSet<Integer>(Arrays.asList(1, Math.max(processors / 2, 1), processors))) {
+			codecs.add(createBlockCodec(threads));
+		}
+
+		for (String dataName : new String[] { "FASTQ", "TSV", "BAM" }) {
+			byte[] data = dataName.equals("FASTQ") ? fastq : dataName.equals("TSV") ? tsv : bam;
+			System.out.println(dataName);
+			for (Codec codec : codecs) {
+				run(codec, data);
+			}
+			System.out.println();
+		}
+		System.exit(0);
+	}
+
+	private static Codec createBlockCodec(final int threads) {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		return new Codec("block, " + threads + " threads") {
+			public OutputStream compress(OutputStream out) throws IOException {
+				return new BlockCompressedOutputStream(out, executor, threads, BlockCompression.DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED);
+			}
+			public InputStream decompress(InputStream in) throws IOException {
+				return new BlockCompressedInputStream(in, executor, threads);
+			}
+		};
+	}
+
+	private static void run(Codec codec, byte[] data) throws IOException {
+		long compressTime = Long.MAX_VALUE;
+		long decompressTime = Long.MAX_VALUE;
+		byte[] compressed = null;
+		byte[] buffer = new byte[64 * 1024];
+
+		for (int round = 0; round < ROUNDS; round++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 1024);
+			long start = System.nanoTime();
+			try (OutputStream out = codec.compress(bytes)) {
+				// write in pieces like IOUtils.copy does
+				for (int i = 0; i < data.length; i += buffer.length) {
+					out.write(data, i, Math.min(buffer.length, data.length - i));
+				}
+			}
+			compressTime = Math.min(compressTime, System.nanoTime() - start);
+			compressed = bytes.toByteArray();
+
+			start = System.nanoTime();
+			long length = 0;
+			try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					length += count;
+				}
+			}
+			decompressTime = Math.min(decompressTime, System.nanoTime() - start);
+			if (length != data.length) {
+				throw new IOException(codec.name + " returned " + length + " bytes, expected " + data.length);
+			}
+		}
+
+		System.out.println(String.format("  %-22s ratio %5.2f   compress %7.0f MB/s   decompress %7.0f MB/s", 
+				codec.name, (double) data.length / compressed.length, 
+				getRate(data.length, compressTime), getRate(data.length, decompressTime)));
+	}
+
+	private static double getRate(long bytes, long nanos) {
+		return bytes / 1024.0 / 1024.0 / (nanos / 1000000000.0);
+	}
+
+	private static byte[] createFastq(int size) {
+		Random random = new Random(1);
+		StringBuilder text = new StringBuilder(size + 1024);
+		String bases = "ACGT";
+		String qualities = "#'+/37;?@ABCDEFGHIJ";
+		for (int read = 0; text.length() < size; read++) {
+			text.append("@SRR062634.").append(read).append(" HWI-EAS110_103327062:6:1:1092:8469/1\n");
+			for (int i = 0; i < 100; i++) {
+				text.append(random.nextInt(100) == 0 ? 'N' : bases.charAt(random.nextInt(4)));
+			}
+			text.append("\n+\n");
+			char quality = 'I';
+			for (int i = 0; i < 100; i++) {
+				// qualities change slowly along the read
+				quality = qualities.charAt(Math.max(0, Math.min(qualities.length() - 1, qualities.indexOf(quality) + random.nextInt(3) - 1)));
+				text.append(quality);
+			}
+			text.append("\n");
+		}
+		return text.substring(0, size).getBytes();
+	}
+
+	private static byte[] createTsv(int size) {
+		Random random = new Random(2);
+		StringBuilder text = new StringBuilder(size + 1024);
+		text.append("identifier\tchip.sample1\tchip.sample2\tchip.sample3\tchip.sample4\tsymbol\n");
+		for (int row = 0; text.length() < size; row++) {
+			text.append(row).append("_at");
+			for (int i = 0; i < 4; i++) {
+				text.append('\t').append(String.format("%.4f", 4 + random.nextGaussian() * 2));
+			}
+			text.append("\tGENE").append(random.nextInt(20000)).append('\n');
+		}
+		return text.substring(0, size).getBytes();
+	}
+
+	/**
+	 * BAM files consist of deflate compressed blocks of 64 kB.
+	 */
+	private static byte[] createBam(byte[] fastq) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int blockSize = 64 * 1024;
+		for (int i = 0; i < fastq.length && bytes.size() < fastq.length; i += blockSize) {
+			DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION));
+			out.write(fastq, i, Math.min(blockSize, fastq.length - i));
+			out.finish();
+		}
+		// repeat to get the same size as the other data sets
+		byte[] compressed = bytes.toByteArray();
+		byte[] bam = new byte[fastq.length];
+		for (int i = 0; i < bam.length; i += compressed.length) {
+			System.arraycopy(compressed, 0, bam, i, Math.min(compressed.length, bam.length - i));
+		}
+		return bam;
+	}
+}
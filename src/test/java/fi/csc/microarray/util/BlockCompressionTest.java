@@ -0,0 +1,116 @@
+package fi.csc.microarray.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockCompressionTest {
+
+	private static final int BLOCK_SIZE = 1000;
+
+	private byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(bytes, BlockCompression.getExecutor(), 4, BLOCK_SIZE, Deflater.BEST_SPEED)) {
+			// uneven writes over the block boundaries
+			int position = 0;
+			int writeSize = 1;
+			while (position < data.length) {
+				int count = Math.min(writeSize, data.length - position);
+				out.write(data, position, count);
+				position += count;
+				writeSize = writeSize * 3 % 2011 + 1;
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] decompress(byte[] compressed) throws IOException {
+		try (InputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(compressed), BlockCompression.getExecutor(), 4)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			IOUtils.copy(in, bytes);
+			return bytes.toByteArray();
+		}
+	}
+
+	private byte[] createText(int length) {
+		byte[] data = new byte[length];
+		Random random = new Random(length);
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) "ACGT\n".charAt(random.nextInt(5));
+		}
+		return data;
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		for (int length : new int[] { 0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 100 * BLOCK_SIZE + 7 }) {
+			byte[] data = createText(length);
+			byte[] compressed = compress(data);
+			Assert.assertArrayEquals("length " + length, data, decompress(compressed));
+			if (length >= BLOCK_SIZE) {
+				Assert.assertTrue(compressed.length < data.length);
+			}
+		}
+	}
+
+	@Test
+	public void testIncompressible() throws IOException {
+		byte[] data = new byte[10 * BLOCK_SIZE];
+		new Random().nextBytes(data);
+		byte[] compressed = compress(data);
+		Assert.assertArrayEquals(data, decompress(compressed));
+		// stored blocks, only headers and the index are added
+		Assert.assertTrue(compressed.length < data.length + 500);
+	}
+
+	@Test
+	public void testRandomAccess() throws IOException {
+		byte[] data = createText(50 * BLOCK_SIZE + 123);
+		File file = File.createTempFile("block-compression-test", null);
+		try {
+			Files.write(file.toPath(), compress(data));
+			try (BlockCompressedFile compressedFile = new BlockCompressedFile(file)) {
+				Assert.assertEquals(data.length, compressedFile.length());
+				Assert.assertEquals(51, compressedFile.getBlockCount());
+
+				Random random = new Random();
+				for (int i = 0; i < 100; i++) {
+					int position = random.nextInt(data.length);
+					byte[] buffer = new byte[random.nextInt(3 * BLOCK_SIZE) + 1];
+					int count = compressedFile.read(position, buffer, 0, buffer.length);
+					Assert.assertEquals(Math.min(buffer.length, data.length - position), count);
+					Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + count), Arrays.copyOf(buffer, count));
+				}
+				Assert.assertEquals(-1, compressedFile.read(data.length, new byte[10], 0, 10));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] compressed = compress(createText(10 * BLOCK_SIZE));
+		try {
+			decompress(Arrays.copyOf(compressed, compressed.length / 2));
+			Assert.fail("truncated stream was accepted");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongFormat() throws IOException {
+		decompress("not compressed".getBytes());
+	}
+}
@@ -0,0 +1,55 @@
+package fi.csc.microarray.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XxHash64Test {
+
+	private static String hash(byte[] data) {
+		XxHash64 hash = new XxHash64();
+		hash.update(data, 0, data.length);
+		return hash.getHexValue();
+	}
+
+	@Test
+	public void testKnownValues() {
+		Assert.assertEquals("ef46db3751d8e999", hash(new byte[0]));
+		Assert.assertEquals("d24ec4f1a98c6e5b", hash("a".getBytes(StandardCharsets.US_ASCII)));
+		Assert.assertEquals("44bc2cf5ad770999", hash("abc".getBytes(StandardCharsets.US_ASCII)));
+		Assert.assertEquals("0b242d361fda71bc", hash("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	public void testStreaming() {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+		Assert.assertEquals("99594f4828043d35", hash(data));
+
+		// uneven updates over the stripe boundaries, from heap and direct buffers
+		XxHash64 hash = new XxHash64();
+		int position = 0;
+		int updateSize = 1;
+		while (position < data.length) {
+			int count = Math.min(updateSize, data.length - position);
+			if (updateSize % 2 == 0) {
+				hash.update(data, position, count);
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(count);
+				buffer.put(data, position, count).flip();
+				hash.update(buffer);
+				Assert.assertFalse(buffer.hasRemaining());
+			}
+			position += count;
+			updateSize = updateSize * 3 % 67 + 1;
+		}
+		Assert.assertEquals("99594f4828043d35", hash.getHexValue());
+
+		hash.reset();
+		Assert.assertEquals("ef46db3751d8e999", hash.getHexValue());
+	}
+}